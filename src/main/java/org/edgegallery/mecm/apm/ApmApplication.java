@@ -60,6 +60,24 @@ public class ApmApplication {
     @Value("${apm.async.queue-capacity}")
     private int queueCapacity;
 
+    @Value("${apm.distribution.pool-size:20}")
+    private int distributionPoolSize;
+
+    @Value("${apm.download.pool-size:8}")
+    private int downloadPoolSize;
+
+    @Value("${apm.image.pool-size:8}")
+    private int imagePoolSize;
+
+    @Value("${apm.manifest-check.pool-size:16}")
+    private int manifestCheckPoolSize;
+
+    @Value("${apm.appstore.pool-size:16}")
+    private int appstorePoolSize;
+
+    @Value("${apm.sync.pool-size:8}")
+    private int syncPoolSize;
+
     /**
      * Application package management entry function.
      *
@@ -113,6 +131,102 @@ public class ApmApplication {
         return executor;
     }
 
+    /**
+     * Executor used to distribute application package to edge hosts in parallel.
+     *
+     * @return thread pool task executor
+     */
+    @Bean
+    public Executor distributionExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(distributionPoolSize);
+        executor.setMaxPoolSize(distributionPoolSize);
+        executor.setQueueCapacity(Integer.MAX_VALUE);
+        executor.setThreadNamePrefix("apm-distribution-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Executor used to download range segments of application packages in parallel.
+     *
+     * @return thread pool task executor
+     */
+    @Bean
+    public Executor downloadExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(downloadPoolSize);
+        executor.setMaxPoolSize(downloadPoolSize);
+        executor.setQueueCapacity(Integer.MAX_VALUE);
+        executor.setThreadNamePrefix("apm-download-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Executor used to pull and push docker images of application packages in parallel.
+     *
+     * @return thread pool task executor
+     */
+    @Bean
+    public Executor imageExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(imagePoolSize);
+        executor.setMaxPoolSize(imagePoolSize);
+        executor.setQueueCapacity(Integer.MAX_VALUE);
+        executor.setThreadNamePrefix("apm-image-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Executor used to check presence of image manifests in MECM repo in parallel.
+     *
+     * @return thread pool task executor
+     */
+    @Bean
+    public Executor manifestCheckExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(manifestCheckPoolSize);
+        executor.setMaxPoolSize(manifestCheckPoolSize);
+        executor.setQueueCapacity(Integer.MAX_VALUE);
+        executor.setThreadNamePrefix("apm-manifest-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Executor used to fetch application packages info of appstore apps in parallel.
+     *
+     * @return thread pool task executor
+     */
+    @Bean
+    public Executor appstoreExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(appstorePoolSize);
+        executor.setMaxPoolSize(appstorePoolSize);
+        executor.setQueueCapacity(Integer.MAX_VALUE);
+        executor.setThreadNamePrefix("apm-appstore-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Executor used to sync application packages from appstores in parallel.
+     *
+     * @return thread pool task executor
+     */
+    @Bean
+    public Executor syncExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(syncPoolSize);
+        executor.setMaxPoolSize(syncPoolSize);
+        executor.setQueueCapacity(Integer.MAX_VALUE);
+        executor.setThreadNamePrefix("apm-sync-");
+        executor.initialize();
+        return executor;
+    }
+
     /**
      * Multipart file limit configuration.
      */
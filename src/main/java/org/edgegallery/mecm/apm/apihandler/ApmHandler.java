@@ -26,7 +26,11 @@ import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
 import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.net.URI;
 import java.net.URL;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -34,7 +38,10 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeSet;
+import javax.validation.ConstraintViolationException;
 import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Pattern;
 import javax.validation.constraints.Size;
@@ -44,6 +51,7 @@ import org.edgegallery.mecm.apm.model.AppPackageInfo;
 import org.edgegallery.mecm.apm.model.AppPackageSyncInfo;
 import org.edgegallery.mecm.apm.model.AppRepo;
 import org.edgegallery.mecm.apm.model.AppStore;
+import org.edgegallery.mecm.apm.model.AppStorePackages;
 import org.edgegallery.mecm.apm.model.AppTemplate;
 import org.edgegallery.mecm.apm.model.PkgSyncInfo;
 import org.edgegallery.mecm.apm.model.dto.AppPackageDto;
@@ -78,6 +86,7 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 /**
  * Application package management API handler.
@@ -103,6 +112,7 @@ public class ApmHandler {
      * @param appPackageName application package name
      * @param appPkgVersion  application package version
      * @param hostList       list of host
+     * @param distributionPolicy distribution failure policy, FAIL_FAST or BEST_EFFORT
      * @param file           CSAR package
      * @return application package identifier on success, error code on failure
      */
@@ -118,6 +128,8 @@ public class ApmHandler {
             @RequestParam("appPackageName") @Pattern(regexp = Constants.APP_NAME_REGEX) String appPackageName,
             @RequestParam("appPackageVersion") @Length(max = Constants.MAX_COMMON_STRING_LENGTH) String appPkgVersion,
             @RequestParam("hostList") @NotNull @Length(max = Constants.MAX_COMMON_STRING_LENGTH) String hostList,
+            @RequestParam(value = "distributionPolicy", required = false)
+            @Pattern(regexp = Constants.DISTRIBUTION_POLICY_REGEX) String distributionPolicy,
             @ApiParam(value = "app package") @RequestPart MultipartFile file) {
 
         AppPackageDto dto = new AppPackageDto();
@@ -132,6 +144,7 @@ public class ApmHandler {
         dto.setAppProvider("Huawei");
         dto.setAppPkgVersion("1.0");
         dto.setAppPkgDesc(appPackageName);
+        dto.setDistributionPolicy(distributionPolicy);
 
         PkgSyncInfo syncAppPkg = new PkgSyncInfo();
         syncAppPkg.setAppstoreIp("-");
@@ -284,7 +297,8 @@ public class ApmHandler {
     }
 
     /**
-     * Downloads application package CSAR for a given package identifier.
+     * Downloads application package CSAR for a given package identifier. Request is redirected to the instance
+     * holding the package when it is not held by this instance.
      *
      * @param tenantId     tenant identifier
      * @param appPackageId application package identifier
@@ -299,6 +313,13 @@ public class ApmHandler {
             @Size(max = Constants.MAX_COMMON_ID_LENGTH) @Pattern(regexp = TENENT_ID_REGEX) String tenantId,
             @ApiParam(value = "app package id") @PathVariable("app_package_id")
             @Size(max = Constants.MAX_COMMON_ID_LENGTH) @Pattern(regexp = APPD_ID_PKG_ID_REGEX) String appPackageId) {
+        String location = service.getAppPackageLocation(tenantId, appPackageId);
+        if (location != null) {
+            HttpHeaders headers = new HttpHeaders();
+            headers.setLocation(URI.create(location
+                    + ServletUriComponentsBuilder.fromCurrentRequestUri().build().getPath()));
+            return new ResponseEntity<>(headers, HttpStatus.TEMPORARY_REDIRECT);
+        }
         InputStream resource = service.getAppPackageFile(tenantId, appPackageId);
         HttpHeaders headers = new HttpHeaders();
         headers.add("Content-Type", MediaType.APPLICATION_OCTET_STREAM_VALUE);
@@ -308,7 +329,10 @@ public class ApmHandler {
     /**
      * Retrieves all application packages.
      *
-     * @param tenantId tenant ID
+     * @param tenantId      tenant ID
+     * @param modifiedSince returns only packages modified on or after this ISO-8601 local date time
+     * @param limit         max number of packages to return
+     * @param offset        number of packages to skip
      * @return application packages
      */
     @ApiOperation(value = "Retrieves all application packages", response = List.class)
@@ -317,8 +341,28 @@ public class ApmHandler {
     @PreAuthorize("hasRole('MECM_TENANT') || hasRole('MECM_ADMIN') || hasRole('MECM_GUEST')")
     public ResponseEntity<List<AppPackageDto>> getAllAppPackageInfo(
             @Size(max = Constants.MAX_COMMON_ID_LENGTH) @ApiParam(value = "tenant id") @PathVariable("tenant_id")
-            @Pattern(regexp = TENENT_ID_REGEX) String tenantId) {
-        List<AppPackageDto> response = service.getAllAppPackageInfo(tenantId);
+            @Pattern(regexp = TENENT_ID_REGEX) String tenantId,
+            @ApiParam(value = "modified since") @RequestParam(value = "modifiedSince", required = false)
+            @Length(max = Constants.MAX_COMMON_STRING_LENGTH) String modifiedSince,
+            @ApiParam(value = "limit") @RequestParam(value = "limit", required = false)
+            @Min(1) @Max(Constants.MAX_PAGE_LIMIT) Integer limit,
+            @ApiParam(value = "offset") @RequestParam(value = "offset", required = false)
+            @Min(0) Integer offset) {
+        if (modifiedSince == null && limit == null && offset == null) {
+            return new ResponseEntity<>(service.getAllAppPackageInfo(tenantId), HttpStatus.OK);
+        }
+
+        LocalDateTime since = null;
+        if (modifiedSince != null) {
+            try {
+                since = LocalDateTime.parse(modifiedSince);
+            } catch (DateTimeParseException e) {
+                throw new ConstraintViolationException("invalid modifiedSince " + modifiedSince,
+                        Collections.emptySet());
+            }
+        }
+        List<AppPackageDto> response = service.getAllAppPackageInfo(tenantId, since,
+                limit != null ? limit : Constants.MAX_PAGE_LIMIT, offset != null ? offset : 0);
         return new ResponseEntity<>(response, HttpStatus.OK);
     }
 
@@ -361,6 +405,31 @@ public class ApmHandler {
         return new ResponseEntity<>("ok", HttpStatus.OK);
     }
 
+    /**
+     * Retrieves runtime metrics.
+     *
+     * @return runtime metrics
+     */
+    @ApiOperation(value = "Retrieves runtime metrics", response = Map.class)
+    @GetMapping(path = "/metrics", produces = MediaType.APPLICATION_JSON_VALUE)
+    @PreAuthorize("hasRole('MECM_ADMIN')")
+    public ResponseEntity<Map<String, Object>> getMetrics() {
+        return new ResponseEntity<>(service.getMetrics(), HttpStatus.OK);
+    }
+
+    /**
+     * Invalidates cached inventory records.
+     *
+     * @return status code 200 on success
+     */
+    @ApiOperation(value = "Invalidates cached inventory records", response = String.class)
+    @DeleteMapping(path = "/inventory/cache", produces = MediaType.TEXT_PLAIN_VALUE)
+    @PreAuthorize("hasRole('MECM_ADMIN')")
+    public ResponseEntity<String> invalidateInventoryCache() {
+        service.invalidateInventoryCache();
+        return new ResponseEntity<>(Constants.SUCCESS, HttpStatus.OK);
+    }
+
     /**
      * Retrieves all application packages info from app store.
      *
@@ -378,14 +447,15 @@ public class ApmHandler {
 
         AppStore appstore = service.getAppstoreConfig(appstoreIp, accessToken);
         String appstoreEndPoint = appstore.getAppstoreIp() + ":" + appstore.getAppstorePort();
-        List<AppPackageInfoDto> apps = null;
+        AppStorePackages appstorePackages;
         try {
-            apps = service.getAppPackagesInfo(appstoreEndPoint, accessToken);
+            appstorePackages = service.getAppPackagesInfo(appstoreEndPoint, accessToken);
         } catch (NoSuchElementException ex) {
-            return new ResponseEntity<>(apps, HttpStatus.NOT_FOUND);
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
 
-        service.deleteNonExistingPackages(appstoreIp, apps);
+        List<AppPackageInfoDto> apps = appstorePackages.getAppPackageInfos();
+        service.deleteNonExistingPackages(appstoreIp, apps, appstorePackages.getChangedAppIds());
 
         return new ResponseEntity<>(apps, HttpStatus.OK);
     }
@@ -422,11 +492,96 @@ public class ApmHandler {
             repoInfo.put(appRepo.getRepoEndPoint(), appRepo);
         }
         appPkgSyncInfo.setRepoInfo(repoInfo);
-        service.syncApplicationPackages(accessToken, appPkgSyncInfo);
+        String jobId = service.syncApplicationPackages(accessToken, appPkgSyncInfo);
+        for (Map<String, String> response : responseList) {
+            if ("accepted".equals(response.get(Constants.STATUS))) {
+                response.put("jobId", jobId);
+            }
+        }
 
         return new ResponseEntity<>(responseList, HttpStatus.ACCEPTED);
     }
 
+    /**
+     * Retrieves progress of application packages sync job.
+     *
+     * @param jobId sync job ID
+     * @return sync job progress, 307 to instance running job
+     */
+    @ApiOperation(value = "Retrieves progress of application packages sync job", response = Map.class)
+    @GetMapping(path = "/apps/sync/jobs/{job_id}",
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    @PreAuthorize("hasRole('MECM_TENANT') || hasRole('MECM_ADMIN') || hasRole('MECM_GUEST')")
+    public ResponseEntity<Map<String, Object>> getSyncJobProgress(
+            @RequestHeader("access_token") String accessToken,
+            @ApiParam(value = "sync job id") @PathVariable("job_id")
+            @Size(max = Constants.MAX_COMMON_ID_LENGTH) @Pattern(regexp = APP_PKG_ID_REGX) String jobId) {
+        String location = service.getSyncJobLocation(jobId);
+        if (location != null) {
+            return new ResponseEntity<>(getRedirectHeaders(location), HttpStatus.TEMPORARY_REDIRECT);
+        }
+        return new ResponseEntity<>(service.getSyncJobProgress(jobId), HttpStatus.OK);
+    }
+
+    /**
+     * Cancels application packages sync job.
+     *
+     * @param jobId sync job ID
+     * @return status code 200 on success, 307 to instance running job
+     */
+    @ApiOperation(value = "Cancels application packages sync job", response = String.class)
+    @DeleteMapping(path = "/apps/sync/jobs/{job_id}",
+            produces = MediaType.TEXT_PLAIN_VALUE)
+    @PreAuthorize("hasRole('MECM_TENANT') || hasRole('MECM_ADMIN')")
+    public ResponseEntity<String> cancelSyncJob(
+            @RequestHeader("access_token") String accessToken,
+            @ApiParam(value = "sync job id") @PathVariable("job_id")
+            @Size(max = Constants.MAX_COMMON_ID_LENGTH) @Pattern(regexp = APP_PKG_ID_REGX) String jobId) {
+        String location = service.getSyncJobLocation(jobId);
+        if (location != null) {
+            return new ResponseEntity<>(getRedirectHeaders(location), HttpStatus.TEMPORARY_REDIRECT);
+        }
+        service.cancelSyncJob(jobId);
+        return new ResponseEntity<>(Constants.SUCCESS, HttpStatus.OK);
+    }
+
+    /**
+     * Cancels sync of an application package of sync job.
+     *
+     * @param jobId     sync job ID
+     * @param appId     app ID
+     * @param packageId package ID
+     * @return status code 200 on success, 409 if sync of package was already finished, 307 to instance running job
+     */
+    @ApiOperation(value = "Cancels sync of an application package of sync job", response = String.class)
+    @DeleteMapping(path = "/apps/sync/jobs/{job_id}/apps/{app_id}/packages/{package_id}",
+            produces = MediaType.TEXT_PLAIN_VALUE)
+    @PreAuthorize("hasRole('MECM_TENANT') || hasRole('MECM_ADMIN')")
+    public ResponseEntity<String> cancelSyncJobPackage(
+            @RequestHeader("access_token") String accessToken,
+            @ApiParam(value = "sync job id") @PathVariable("job_id")
+            @Size(max = Constants.MAX_COMMON_ID_LENGTH) @Pattern(regexp = APP_PKG_ID_REGX) String jobId,
+            @ApiParam(value = "app id") @PathVariable("app_id")
+            @Size(max = Constants.MAX_COMMON_ID_LENGTH) @Pattern(regexp = APP_PKG_ID_REGX) String appId,
+            @ApiParam(value = "app package id") @PathVariable("package_id")
+            @Size(max = Constants.MAX_COMMON_ID_LENGTH) @Pattern(regexp = APP_PKG_ID_REGX) String packageId) {
+        String location = service.getSyncJobLocation(jobId);
+        if (location != null) {
+            return new ResponseEntity<>(getRedirectHeaders(location), HttpStatus.TEMPORARY_REDIRECT);
+        }
+        if (!service.cancelSyncJobPackage(jobId, appId, packageId)) {
+            return new ResponseEntity<>("sync of package already finished", HttpStatus.CONFLICT);
+        }
+        return new ResponseEntity<>(Constants.SUCCESS, HttpStatus.OK);
+    }
+
+    private static HttpHeaders getRedirectHeaders(String location) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setLocation(URI.create(location
+                + ServletUriComponentsBuilder.fromCurrentRequestUri().build().getPath()));
+        return headers;
+    }
+
     private List<PkgSyncInfo> syncAppPackageProcessInput(Set<SyncAppPackageDto> syncAppPackageDtos,
                                                          Map<String, AppRepo> repoInfo,
                                                          List<Map<String, String>> responseList,
@@ -457,23 +612,18 @@ public class ApmHandler {
             }
 
             try {
-                String key = syncApp.getAppId() + syncApp.getPackageId();
                 AppPackageInfoDto appPkgInfoDto =
                         service.getAppPackageInfoFromAppStore(
                                 appstore.getAppstoreIp() + ":" + appstore.getAppstorePort(),
                                 syncApp.getAppId(), syncApp.getPackageId(), accessToken);
                 appPkgInfoDto.setAppstoreName(appstore.getAppstoreName());
-                if (service.isAppPackageInfoExistInDB(key)) {
-                    AppPackageInfo appPkgInfo = service.getAppPackageInfoDB(key);
-                    if (Constants.APP_SYNC_INPROGRESS.equals(appPkgInfo.getSyncStatus())) {
-                        response.put(Constants.STATUS, "failed");
-                        response.put("reason", Constants.APP_SYNC_INPROGRESS);
-                        responseList.add(response);
-                        isValidInput = false;
-                    }
-                } else {
-                    service.addAppSyncPackageInfoDB(appstore.getAppstoreIp(),
-                                                    appstore.getAppstorePort(), appPkgInfoDto);
+                // added and claimed atomically so that concurrent requests to any instance sync the package once
+                if (!service.claimAppPackageSync(appstore.getAppstoreIp(), appstore.getAppstorePort(),
+                        appPkgInfoDto)) {
+                    response.put(Constants.STATUS, "failed");
+                    response.put("reason", Constants.APP_SYNC_INPROGRESS);
+                    responseList.add(response);
+                    isValidInput = false;
                 }
             } catch (NoSuchElementException | ApmException ex) {
                 response.put(Constants.STATUS, "failed");
@@ -0,0 +1,89 @@
+/*
+ *  Copyright 2021 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.model;
+
+import java.time.LocalDateTime;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import org.hibernate.annotations.CreationTimestamp;
+
+/**
+ * Persistent job of onboarding or sync work. A running job is owned by an APM instance for as long as its lease
+ * is renewed, a job whose lease has expired can be claimed by any instance. A job with affinity is claimed only
+ * by that instance while it is alive.
+ */
+@Getter
+@Setter
+@ToString(exclude = "payload")
+@NoArgsConstructor
+@Entity
+@Table(name = "apmjob")
+public final class ApmJob {
+
+    @Id
+    @Column(name = "id")
+    private String jobId;
+
+    @Column(name = "job_type")
+    private String jobType;
+
+    @Column(name = "state")
+    private String state;
+
+    @Column(name = "resource_id")
+    private String resourceId;
+
+    @Column(name = "batch_id")
+    private String batchId;
+
+    @Column(name = "affinity_id")
+    private String affinity;
+
+    @Column(name = "payload", columnDefinition = "text")
+    private String payload;
+
+    @Column(name = "owner_id")
+    private String owner;
+
+    @Column(name = "attempts")
+    private int attempts;
+
+    @Column(name = "max_attempts")
+    private int maxAttempts;
+
+    @Column(name = "lease_expiry")
+    private long leaseExpiry;
+
+    @Column(name = "next_run_time")
+    private long nextRunTime;
+
+    @Column(name = "finished_time")
+    private long finishedTime;
+
+    @Column(name = "last_error", length = 1024)
+    private String lastError;
+
+    @CreationTimestamp
+    @Column(name = "created_time")
+    private LocalDateTime createTime;
+}
@@ -77,4 +77,7 @@ public final class AppPackage {
 
     @Column(name = "tenant_id")
     private String tenantId;
+
+    @Column(name = "owner_id")
+    private String owner;
 }
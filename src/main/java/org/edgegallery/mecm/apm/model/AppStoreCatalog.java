@@ -0,0 +1,67 @@
+/*
+ *  Copyright 2021 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.edgegallery.mecm.apm.model;
+
+import java.time.LocalDateTime;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import org.hibernate.annotations.UpdateTimestamp;
+
+/**
+ * Last response of an appstore catalogue request along with its validators. Entry without app ID holds the
+ * apps list of the appstore, other entries hold packages of an app.
+ */
+@Getter
+@Setter
+@ToString(exclude = "body")
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "appstorecatalog")
+public final class AppStoreCatalog {
+
+    @Id
+    @Column(name = "id")
+    private String catalogId;
+
+    @Column(name = "appstore_endpoint")
+    private String appstoreEndpoint;
+
+    @Column(name = "app_id")
+    private String appId;
+
+    @Column(name = "etag")
+    private String etag;
+
+    @Column(name = "last_modified")
+    private String lastModified;
+
+    @Column(name = "body", columnDefinition = "text")
+    private String body;
+
+    @UpdateTimestamp
+    @Column(name = "modified_time")
+    private LocalDateTime modifiedTime;
+}
@@ -0,0 +1,34 @@
+/*
+ *  Copyright 2020 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.model;
+
+import java.util.List;
+import java.util.Set;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.edgegallery.mecm.apm.model.dto.AppPackageInfoDto;
+
+/**
+ * Application packages of an appstore along with apps whose packages changed since previous refresh.
+ */
+@Getter
+@AllArgsConstructor
+public final class AppStorePackages {
+
+    private List<AppPackageInfoDto> appPackageInfos;
+    private Set<String> changedAppIds;
+}
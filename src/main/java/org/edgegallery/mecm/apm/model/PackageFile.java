@@ -0,0 +1,51 @@
+/*
+ *  Copyright 2020 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Locally stored application package file.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public final class PackageFile {
+
+    private String filePath;
+    private long size;
+    private String sha256;
+    private String etag;
+    private String lastModified;
+
+    /**
+     * Creates package file.
+     *
+     * @param filePath file path
+     * @param size     size of file
+     * @param sha256   SHA-256 digest of file
+     */
+    public PackageFile(String filePath, long size, String sha256) {
+        this.filePath = filePath;
+        this.size = size;
+        this.sha256 = sha256;
+    }
+}
@@ -89,4 +89,8 @@ public class AppPackageDto {
 
     @NotEmpty(message = "mecHost info must not be empty")
     private List<@Valid MecHostDto> mecHostInfo = new LinkedList<>();
+
+    @Pattern(regexp = Constants.DISTRIBUTION_POLICY_REGEX, message = "distributionPolicy is invalid. It must be "
+            + "FAIL_FAST or BEST_EFFORT.")
+    private String distributionPolicy;
 }
@@ -0,0 +1,82 @@
+/*
+ *  Copyright 2021 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.repository;
+
+import java.util.Collection;
+import java.util.List;
+import org.edgegallery.mecm.apm.model.ApmJob;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface ApmJobRepository extends CrudRepository<ApmJob, String> {
+
+    @Query(value = "SELECT m.id FROM apmjob m WHERE ((m.state='PENDING' AND m.next_run_time <= :now) "
+            + "OR (m.state='RUNNING' AND m.lease_expiry < :now)) AND (m.affinity_id IS NULL "
+            + "OR m.affinity_id=:owner OR NOT EXISTS (SELECT 1 FROM apminstance i WHERE i.id=m.affinity_id "
+            + "AND i.heartbeat_time >= :aliveAfter)) ORDER BY m.created_time LIMIT :limit", nativeQuery = true)
+    List<String> findClaimableIds(@Param("now") long now, @Param("owner") String owner,
+                                  @Param("aliveAfter") long aliveAfter, @Param("limit") int limit);
+
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE apmjob SET state='RUNNING', owner_id=:owner, lease_expiry=:leaseExpiry, "
+            + "attempts=attempts+1 WHERE id=:id AND ((state='PENDING' AND next_run_time <= :now) "
+            + "OR (state='RUNNING' AND lease_expiry < :now))", nativeQuery = true)
+    int claim(@Param("id") String id, @Param("owner") String owner, @Param("now") long now,
+              @Param("leaseExpiry") long leaseExpiry);
+
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE apmjob SET lease_expiry=:leaseExpiry WHERE owner_id=:owner AND state='RUNNING' "
+            + "AND id IN (:ids)", nativeQuery = true)
+    int renewLeases(@Param("owner") String owner, @Param("ids") Collection<String> ids,
+                    @Param("leaseExpiry") long leaseExpiry);
+
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE apmjob SET state=:state, owner_id=NULL, next_run_time=:nextRunTime, "
+            + "finished_time=:finishedTime, last_error=:lastError WHERE id=:id AND owner_id=:owner "
+            + "AND state='RUNNING'", nativeQuery = true)
+    int finish(@Param("id") String id, @Param("owner") String owner, @Param("state") String state,
+               @Param("nextRunTime") long nextRunTime, @Param("finishedTime") long finishedTime,
+               @Param("lastError") String lastError);
+
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE apmjob SET state='PENDING', owner_id=NULL, next_run_time=:now "
+            + "WHERE owner_id=:owner AND state='RUNNING'", nativeQuery = true)
+    int releaseAll(@Param("owner") String owner, @Param("now") long now);
+
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM apmjob WHERE state IN ('DONE', 'FAILED', 'CANCELLED') AND finished_time < :before",
+            nativeQuery = true)
+    int deleteFinishedBefore(@Param("before") long before);
+
+    @Query(value = "SELECT * FROM apmjob m WHERE m.batch_id=:batchId ORDER BY m.created_time, m.id",
+            nativeQuery = true)
+    List<ApmJob> findByBatchId(@Param("batchId") String batchId);
+
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE apmjob SET state='CANCELLED', finished_time=:now, last_error=:reason WHERE id=:id "
+            + "AND state='PENDING'", nativeQuery = true)
+    int cancelPending(@Param("id") String id, @Param("now") long now, @Param("reason") String reason);
+}
@@ -16,14 +16,37 @@
 
 package org.edgegallery.mecm.apm.repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import org.edgegallery.mecm.apm.model.AppPackageInfo;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 public interface AppPackageInfoRepository extends CrudRepository<AppPackageInfo, String> {
 
     @Query(value = "SELECT * FROM apppackageinfo m WHERE m.appstore_ip=:appstoreIp", nativeQuery = true)
     List<AppPackageInfo> findByAppstoreId(@Param("appstoreIp") String appstoreIp);
+
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE apppackageinfo SET sync_status=:inProgress, operational_info='', updated_time=:now "
+            + "WHERE id=:id AND (sync_status IS NULL OR sync_status<>:inProgress OR updated_time < :staleBefore) "
+            + "AND NOT EXISTS (SELECT 1 FROM apmjob j WHERE j.resource_id=:id "
+            + "AND j.state IN ('PENDING', 'RUNNING'))", nativeQuery = true)
+    int claimSync(@Param("id") String id, @Param("inProgress") String inProgress, @Param("now") LocalDateTime now,
+                  @Param("staleBefore") LocalDateTime staleBefore);
+
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO apppackageinfo (id, app_id, package_id, name, appstore_ip, appstore_endpoint, "
+            + "sync_status, operational_info, created_time, updated_time) SELECT :id, :appId, :packageId, :name, "
+            + ":appstoreIp, :appstoreEndpoint, :syncStatus, '', :now, :now "
+            + "WHERE NOT EXISTS (SELECT 1 FROM apppackageinfo m WHERE m.id=:id)", nativeQuery = true)
+    int insertIfAbsent(@Param("id") String id, @Param("appId") String appId, @Param("packageId") String packageId,
+                       @Param("name") String name, @Param("appstoreIp") String appstoreIp,
+                       @Param("appstoreEndpoint") String appstoreEndpoint, @Param("syncStatus") String syncStatus,
+                       @Param("now") LocalDateTime now);
 }
@@ -16,14 +16,31 @@
 
 package org.edgegallery.mecm.apm.repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import org.edgegallery.mecm.apm.model.AppPackage;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 public interface AppPackageRepository extends CrudRepository<AppPackage, String> {
 
     @Query(value = "SELECT * FROM apppackage m WHERE m.tenant_id=:tenantId", nativeQuery = true)
     List<AppPackage> findByTenantId(@Param("tenantId") String tenantId);
+
+    @Query(value = "SELECT m.id FROM apppackage m", nativeQuery = true)
+    List<String> findAllIds();
+
+    @Query(value = "SELECT * FROM apppackage m WHERE m.tenant_id=:tenantId AND m.modified_time >= :modifiedSince "
+            + "ORDER BY m.modified_time, m.id LIMIT :limit OFFSET :offset", nativeQuery = true)
+    List<AppPackage> findByTenantIdModifiedSince(@Param("tenantId") String tenantId,
+                                                 @Param("modifiedSince") LocalDateTime modifiedSince,
+                                                 @Param("limit") int limit, @Param("offset") int offset);
+
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE apppackage SET modified_time=:modifiedTime WHERE id=:id", nativeQuery = true)
+    int touchModifiedTime(@Param("id") String id, @Param("modifiedTime") LocalDateTime modifiedTime);
 }
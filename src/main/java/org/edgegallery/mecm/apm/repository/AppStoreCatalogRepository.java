@@ -0,0 +1,30 @@
+/*
+ *  Copyright 2021 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.edgegallery.mecm.apm.repository;
+
+import java.util.List;
+import org.edgegallery.mecm.apm.model.AppStoreCatalog;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+
+public interface AppStoreCatalogRepository extends CrudRepository<AppStoreCatalog, String> {
+
+    @Query(value = "SELECT * FROM appstorecatalog m WHERE m.appstore_endpoint=:appstoreEndpoint", nativeQuery = true)
+    List<AppStoreCatalog> findByAppstoreEndpoint(@Param("appstoreEndpoint") String appstoreEndpoint);
+}
@@ -16,6 +16,7 @@
 
 package org.edgegallery.mecm.apm.repository;
 
+import java.util.Collection;
 import java.util.List;
 import org.edgegallery.mecm.apm.model.MecHost;
 import org.springframework.data.jpa.repository.Query;
@@ -24,6 +25,16 @@ import org.springframework.data.repository.query.Param;
 
 public interface MecHostRepository extends CrudRepository<MecHost, String> {
 
-    @Query(value = "SELECT * FROM apppackagehost m WHERE m.pkg_host_key=:pkgHostKey", nativeQuery = true)
+    @Query(value = "SELECT * FROM apppackagehost m WHERE m.pkg_host_key=:pkgHostKey ORDER BY m.id",
+            nativeQuery = true)
     List<MecHost> findByPkgHostKey(@Param("pkgHostKey") String pkgHostKey);
+
+    @Query(value = "SELECT * FROM apppackagehost m WHERE m.pkg_host_key=:pkgHostKey AND m.host_ip=:hostIp "
+            + "ORDER BY m.id", nativeQuery = true)
+    List<MecHost> findByPkgHostKeyAndHostIp(@Param("pkgHostKey") String pkgHostKey,
+                                            @Param("hostIp") String hostIp);
+
+    @Query(value = "SELECT * FROM apppackagehost m WHERE m.pkg_host_key IN (:pkgHostKeys) ORDER BY m.id",
+            nativeQuery = true)
+    List<MecHost> findByPkgHostKeyIn(@Param("pkgHostKeys") Collection<String> pkgHostKeys);
 }
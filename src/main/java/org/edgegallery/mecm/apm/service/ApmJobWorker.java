@@ -0,0 +1,390 @@
+/*
+ *  Copyright 2021 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.service;
+
+import com.google.gson.Gson;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.edgegallery.mecm.apm.model.ApmInstance;
+import org.edgegallery.mecm.apm.model.ApmJob;
+import org.edgegallery.mecm.apm.model.ApmJobPayload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.provider.token.TokenStore;
+import org.springframework.stereotype.Service;
+
+/**
+ * Runs onboarding and sync work as persistent jobs. Jobs are claimed from the job table with a lease which is
+ * renewed while the job runs, including while the job waits for hosts to report final distribution status, so that
+ * jobs of a stopped instance are resumed by any instance once their lease expires. Failed jobs are retried until
+ * they run out of attempts. Each instance renews its heartbeat on every poll, so that other instances know which
+ * instances are alive and how to reach them. Access token of the submitter is kept only in memory of the instance the
+ * job is pinned to, jobs resumed without a valid submitter token run with the service token of APM.
+ */
+@Service("ApmJobWorker")
+public class ApmJobWorker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ApmJobWorker.class);
+
+    static final String ONBOARD = "ONBOARD";
+    static final String SYNC = "SYNC";
+
+    static final String PENDING = "PENDING";
+    static final String RUNNING = "RUNNING";
+    static final String DONE = "DONE";
+    static final String FAILED = "FAILED";
+    static final String CANCELLED = "CANCELLED";
+
+    private static final long CLEANUP_INTERVAL = 3600000L;
+
+    private final Set<String> localJobs = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, String> accessTokens = new ConcurrentHashMap<>();
+
+    private final AtomicInteger busyWorkers = new AtomicInteger();
+
+    private ScheduledExecutorService scheduler;
+
+    private ExecutorService workers;
+
+    private String instanceId;
+
+    @Autowired
+    @Lazy
+    private ApmServiceFacade facade;
+
+    @Autowired
+    private DbService dbService;
+
+    @Autowired
+    private TokenStore jwtTokenStore;
+
+    @Autowired
+    private ServiceTokenProvider serviceTokenProvider;
+
+    @Value("${apm.job.instance-id:}")
+    private String configuredInstanceId;
+
+    @Value("${apm.job.advertised-endpoint:}")
+    private String advertisedEndpoint;
+
+    @Value("${apm.job.worker-threads:4}")
+    private int workerThreads;
+
+    @Value("${apm.job.poll-interval:2000}")
+    private long pollInterval;
+
+    @Value("${apm.job.lease:60000}")
+    private long lease;
+
+    @Value("${apm.job.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${apm.job.retry-interval:30000}")
+    private long retryInterval;
+
+    @Value("${apm.job.retention:86400000}")
+    private long retention;
+
+    /**
+     * Resumes jobs left running by previous run of this instance and starts job poller.
+     */
+    @PostConstruct
+    public void start() {
+        instanceId = configuredInstanceId.isEmpty() ? UUID.randomUUID().toString() : configuredInstanceId;
+        try {
+            dbService.heartbeatApmInstance(instanceId, advertisedEndpoint, System.currentTimeMillis());
+            int released = dbService.releaseApmJobs(instanceId);
+            if (released > 0) {
+                LOGGER.info("resuming {} jobs interrupted on instance {}", released, instanceId);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("failed to resume interrupted jobs {}", e.getMessage());
+        }
+
+        workers = Executors.newFixedThreadPool(workerThreads, new CustomizableThreadFactory("apm-job-"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("apm-job-poller-"));
+        scheduler.scheduleWithFixedDelay(this::tick, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::removeFinishedJobs, CLEANUP_INTERVAL, CLEANUP_INTERVAL,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops job poller and workers, jobs still running are resumed once their lease expires.
+     */
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    /**
+     * Submits job to be run by this instance while it is alive, as access token of the submitter is available only
+     * on this instance, and by any instance after that.
+     *
+     * @param jobType     job type
+     * @param resourceId  ID of package the job works on
+     * @param accessToken access token of submitter
+     * @param payload     job input
+     * @return job ID
+     */
+    public String submit(String jobType, String resourceId, String accessToken, ApmJobPayload payload) {
+        ApmJob job = newJob(jobType, resourceId, payload);
+        job.setState(PENDING);
+        job.setAffinity(instanceId);
+        job.setNextRunTime(System.currentTimeMillis());
+        accessTokens.put(job.getJobId(), accessToken);
+        dbService.addApmJob(job);
+        // polls right away instead of waiting for next tick
+        scheduler.execute(this::tick);
+        return job.getJobId();
+    }
+
+    /**
+     * Submits job which is already being run by this instance. Job must be completed by the caller.
+     *
+     * @param jobType     job type
+     * @param resourceId  ID of package the job works on
+     * @param batchId     ID of jobs submitted together
+     * @param accessToken access token of submitter
+     * @param payload     job input
+     * @return job ID
+     */
+    public String submitRunning(String jobType, String resourceId, String batchId, String accessToken,
+                                ApmJobPayload payload) {
+        ApmJob job = newJob(jobType, resourceId, payload);
+        job.setBatchId(batchId);
+        job.setAffinity(instanceId);
+        job.setState(RUNNING);
+        job.setOwner(instanceId);
+        job.setAttempts(1);
+        job.setLeaseExpiry(System.currentTimeMillis() + lease);
+        accessTokens.put(job.getJobId(), accessToken);
+        dbService.addApmJob(job);
+        localJobs.add(job.getJobId());
+        return job.getJobId();
+    }
+
+    /**
+     * Completes job run by this instance. Failed job is retried unless it ran out of attempts.
+     *
+     * @param jobId job ID
+     * @param error reason for failure, null when job succeeded
+     */
+    public void complete(String jobId, String error) {
+        localJobs.remove(jobId);
+        if (error == null) {
+            accessTokens.remove(jobId);
+            dbService.finishApmJob(jobId, instanceId, DONE, 0, null);
+            return;
+        }
+        ApmJob job = dbService.getApmJob(jobId);
+        retryOrFail(job, new Gson().fromJson(job.getPayload(), ApmJobPayload.class), error);
+    }
+
+    /**
+     * Cancels job which has not been claimed yet, its work is marked as failed.
+     *
+     * @param job    job
+     * @param reason reason for cancellation
+     * @return true if cancelled, false if job is not pending any more
+     */
+    public boolean cancel(ApmJob job, String reason) {
+        if (!dbService.cancelPendingApmJob(job.getJobId(), reason)) {
+            return false;
+        }
+        accessTokens.remove(job.getJobId());
+        facade.failJob(job.getJobType(), new Gson().fromJson(job.getPayload(), ApmJobPayload.class), reason);
+        return true;
+    }
+
+    /**
+     * Returns ID of this instance.
+     *
+     * @return instance ID
+     */
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * Returns instance if it is alive.
+     *
+     * @param id instance ID
+     * @return instance, null when instance is unknown or its heartbeat has expired
+     */
+    public ApmInstance getLiveInstance(String id) {
+        ApmInstance instance = dbService.getApmInstance(id);
+        if (instance == null || instance.getHeartbeatTime() < System.currentTimeMillis() - lease) {
+            return null;
+        }
+        return instance;
+    }
+
+    /**
+     * Returns job statistics of this instance.
+     *
+     * @return instance ID and number of running jobs
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("instanceId", instanceId);
+        stats.put("runningJobs", localJobs.size());
+        return stats;
+    }
+
+    private ApmJob newJob(String jobType, String resourceId, ApmJobPayload payload) {
+        ApmJob job = new ApmJob();
+        job.setJobId(UUID.randomUUID().toString().replace("-", ""));
+        job.setJobType(jobType);
+        job.setResourceId(resourceId);
+        job.setPayload(new Gson().toJson(payload));
+        job.setMaxAttempts(maxAttempts);
+        return job;
+    }
+
+    private void tick() {
+        try {
+            long now = System.currentTimeMillis();
+            dbService.heartbeatApmInstance(instanceId, advertisedEndpoint, now);
+            dbService.renewApmJobLeases(instanceId, localJobs, now + lease);
+
+            int free = workerThreads - busyWorkers.get();
+            if (free <= 0) {
+                return;
+            }
+            for (String jobId : dbService.getClaimableApmJobIds(now, instanceId, now - lease, free)) {
+                // job may have been claimed by another instance since it was listed
+                if (!dbService.claimApmJob(jobId, instanceId, now, now + lease)) {
+                    continue;
+                }
+                ApmJob job = dbService.getApmJob(jobId);
+                localJobs.add(jobId);
+                busyWorkers.incrementAndGet();
+                workers.execute(() -> {
+                    try {
+                        execute(job);
+                    } finally {
+                        busyWorkers.decrementAndGet();
+                    }
+                });
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("job poll failed {}", e.getMessage());
+        }
+    }
+
+    private void execute(ApmJob job) {
+        ApmJobPayload payload = new Gson().fromJson(job.getPayload(), ApmJobPayload.class);
+        if (job.getAttempts() > job.getMaxAttempts()) {
+            localJobs.remove(job.getJobId());
+            fail(job, payload, "no attempts left, last error " + job.getLastError());
+            return;
+        }
+
+        String accessToken = getAccessToken(job.getJobId());
+        if (accessToken == null) {
+            // retrying does not help until a token is available
+            localJobs.remove(job.getJobId());
+            fail(job, payload, "no valid access token to run job");
+            return;
+        }
+
+        LOGGER.info("running {} job {}, attempt {}", job.getJobType(), job.getJobId(), job.getAttempts());
+        CompletableFuture<Void> result;
+        try {
+            result = facade.runJob(job.getJobType(), payload, accessToken);
+        } catch (RuntimeException e) {
+            localJobs.remove(job.getJobId());
+            retryOrFail(job, payload, e.getMessage());
+            return;
+        }
+        // worker thread is freed while the job keeps its lease until work it started, such as distribution to
+        // hosts, reports its outcome, so that the job is resumed if this instance stops before
+        result.whenComplete((done, ex) -> complete(job.getJobId(), ex == null ? null : getReason(ex)));
+    }
+
+    private String getAccessToken(String jobId) {
+        String accessToken = accessTokens.get(jobId);
+        if (accessToken != null && !isExpired(accessToken)) {
+            return accessToken;
+        }
+        return serviceTokenProvider.getAccessToken();
+    }
+
+    private boolean isExpired(String accessToken) {
+        try {
+            OAuth2AccessToken token = jwtTokenStore.readAccessToken(accessToken);
+            return token == null || token.isExpired();
+        } catch (RuntimeException e) {
+            LOGGER.error("invalid access token of job {}", e.getMessage());
+            return true;
+        }
+    }
+
+    private static String getReason(Throwable ex) {
+        if (ex instanceof CompletionException && ex.getCause() != null) {
+            return ex.getCause().getMessage();
+        }
+        return ex.getMessage();
+    }
+
+    private void retryOrFail(ApmJob job, ApmJobPayload payload, String error) {
+        LOGGER.error("{} job {} failed, attempt {}, {}", job.getJobType(), job.getJobId(), job.getAttempts(), error);
+        if (job.getAttempts() < job.getMaxAttempts()) {
+            dbService.finishApmJob(job.getJobId(), instanceId, PENDING,
+                    System.currentTimeMillis() + retryInterval * job.getAttempts(), error);
+        } else {
+            fail(job, payload, error);
+        }
+    }
+
+    private void fail(ApmJob job, ApmJobPayload payload, String error) {
+        accessTokens.remove(job.getJobId());
+        if (dbService.finishApmJob(job.getJobId(), instanceId, FAILED, 0, error)) {
+            facade.failJob(job.getJobType(), payload, error);
+        }
+    }
+
+    private void removeFinishedJobs() {
+        try {
+            long before = System.currentTimeMillis() - retention;
+            int removed = dbService.deleteFinishedApmJobs(before);
+            int stale = dbService.deleteStaleApmInstances(before);
+            LOGGER.debug("removed {} finished jobs and {} stale instances", removed, stale);
+        } catch (RuntimeException e) {
+            LOGGER.error("failed to remove finished jobs and stale instances {}", e.getMessage());
+        }
+    }
+}
@@ -21,20 +21,19 @@ import static org.edgegallery.mecm.apm.utils.ApmServiceHelper.getProtocol;
 import static org.edgegallery.mecm.apm.utils.ApmServiceHelper.isRegexMatched;
 
 import com.github.dockerjava.api.DockerClient;
-import com.github.dockerjava.api.command.PullImageResultCallback;
 import com.github.dockerjava.api.exception.ConflictException;
 import com.github.dockerjava.api.exception.InternalServerErrorException;
 import com.github.dockerjava.api.exception.NotFoundException;
 import com.github.dockerjava.core.DefaultDockerClientConfig;
 import com.github.dockerjava.core.DockerClientBuilder;
 import com.github.dockerjava.core.DockerClientConfig;
-import com.github.dockerjava.core.command.PushImageResultCallback;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
@@ -43,12 +42,31 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.annotation.PostConstruct;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
@@ -57,8 +75,12 @@ import org.edgegallery.mecm.apm.exception.ApmException;
 import org.edgegallery.mecm.apm.model.AppPackageMf;
 import org.edgegallery.mecm.apm.model.AppRepo;
 import org.edgegallery.mecm.apm.model.AppStore;
+import org.edgegallery.mecm.apm.model.AppStoreCatalog;
+import org.edgegallery.mecm.apm.model.AppStorePackages;
 import org.edgegallery.mecm.apm.model.AppTemplate;
 import org.edgegallery.mecm.apm.model.ImageLocation;
+import org.edgegallery.mecm.apm.model.PackageBlob;
+import org.edgegallery.mecm.apm.model.PackageFile;
 import org.edgegallery.mecm.apm.model.PkgSyncInfo;
 import org.edgegallery.mecm.apm.model.SwImageDescr;
 import org.edgegallery.mecm.apm.model.dto.AppPackageDto;
@@ -66,19 +88,27 @@ import org.edgegallery.mecm.apm.model.dto.AppPackageInfoDto;
 import org.edgegallery.mecm.apm.model.dto.AppTemplateDto;
 import org.edgegallery.mecm.apm.model.dto.templatedto.ResourceInfo;
 import org.edgegallery.mecm.apm.utils.ApmServiceHelper;
+import org.edgegallery.mecm.apm.utils.CancelToken;
 import org.edgegallery.mecm.apm.utils.CompressUtility;
 import org.edgegallery.mecm.apm.utils.Constants;
+import org.edgegallery.mecm.apm.utils.FileChecker;
+import org.edgegallery.mecm.apm.utils.PackageIndex;
+import org.edgegallery.mecm.apm.utils.PackageStore;
+import org.edgegallery.mecm.apm.utils.TtlCache;
+import org.edgegallery.mecm.apm.utils.UnzipLimits;
 import org.modelmapper.ModelMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.Resource;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.TokenStore;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.HttpServerErrorException;
@@ -92,6 +122,7 @@ import org.yaml.snakeyaml.error.YAMLException;
 public class ApmService {
 
     static final int TOO_BIG = 104857600;
+    private static final String VALUES_YAML = "values.yaml";
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ApmService.class);
 
@@ -99,6 +130,10 @@ public class ApmService {
 
     private static final String INVENTORY_URL = "/inventory/v1";
 
+    private static final String ALL_APP_REPOS = "all";
+
+    private static final String SCOPE_DELIMITER = "|";
+
     private static final String EMPTY_RESPONSE = "response: {}";
 
     private static final String CONNECTION_FALED = "connection failed {}";
@@ -121,7 +156,7 @@ public class ApmService {
 
     private static final String HTTPS = "https://";
 
-    private static final String SSL = "/usr/app/ssl";
+    private static final String STREAM_MODE = "stream";
 
     private static final int BOUNDED_INPUTSTREAM_SIZE = 8 * 1024;
 
@@ -163,61 +198,129 @@ public class ApmService {
     @Autowired
     private RestTemplate restTemplate;
 
+    @Autowired
+    private PackageDownloader packageDownloader;
+
+    @Autowired
+    private ImageMover imageMover;
+
+    @Autowired
+    private DbService dbService;
+
+    @Autowired
+    @Qualifier("appstoreExecutor")
+    private Executor appstoreExecutor;
+
+    @Value("${apm.appstore.per-appstore-limit:8}")
+    private int perAppstoreLimit;
+
+    private final Map<String, Semaphore> appstorePermits = new ConcurrentHashMap<>();
+
     @Value("${apm.package-dir:/usr/app/packages}")
     private String localDirPath;
 
     @Value("${server.ssl.enabled:false}")
     private String isSslEnabled;
 
-    /**
-     * Downloads app package csar from app store and stores it locally.
-     *
-     * @param appPkgPath app package path
-     * @param packageId package ID
-     * @param accessToken access token
-     * @return downloaded input stream
-     */
-    public InputStream downloadAppPackage(String appPkgPath, String packageId, String accessToken) {
-        ResponseEntity<Resource> response;
+    @Value("${apm.inventory-cache.ttl:60000}")
+    private long inventoryCacheTtl;
 
-        LOGGER.info("Download application package from: {}", appPkgPath);
+    @Value("${apm.inventory-cache.max-size:1000}")
+    private int inventoryCacheMaxSize;
 
-        try {
-            HttpHeaders headers = new HttpHeaders();
-            headers.set("ACCESS_TOKEN", accessToken);
-            HttpEntity<String> entity = new HttpEntity<>(headers);
-            response = restTemplate.exchange(appPkgPath, HttpMethod.GET, entity, Resource.class);
-        } catch (ResourceAccessException ex) {
-            LOGGER.error(Constants.FAILED_TO_CONNECT_APPSTORE);
-            throw new ApmException(Constants.FAILED_TO_CONNECT_APPSTORE);
-        } catch (HttpClientErrorException ex) {
-            LOGGER.error("client error while downloading app package {}", ex.getMessage());
-            throw new ApmException(Constants.ERROR_IN_DOWNLOADING_CSAR);
-        } catch (HttpServerErrorException ex) {
-            LOGGER.error("server error while downloading app package {}", ex.getMessage());
-            throw new ApmException(Constants.ERROR_IN_DOWNLOADING_CSAR);
-        }
+    private TtlCache<String, String> repoInfoCache;
 
-        Resource responseBody = response.getBody();
-        if (!HttpStatus.OK.equals(response.getStatusCode()) || responseBody == null) {
-            LOGGER.error(Constants.CSAR_DOWNLOAD_FAILED, packageId);
-            throw new ApmException("failed to download app package for package " + packageId);
-        }
+    private TtlCache<String, String> mepmCfgCache;
 
-        try {
-            return responseBody.getInputStream();
-        } catch (IOException e) {
-            LOGGER.error(Constants.GET_INPUTSTREAM_FAILED, packageId);
-            throw new ApmException("failed to get input stream from app store response for package " + packageId);
-        }
+    private TtlCache<String, String> mepmPortCache;
+
+    private TtlCache<String, AppStore> appStoreCfgCache;
+
+    private TtlCache<String, List<AppRepo>> appRepoCfgCache;
+
+    @Autowired
+    private TokenStore jwtTokenStore;
+
+    @Value("${apm.image-load-mode:extract}")
+    private String imageLoadMode;
+
+    @Value("${apm.package-index.ttl:3600000}")
+    private long packageIndexTtl;
+
+    @Value("${apm.package-index.max-size:200}")
+    private int packageIndexMaxSize;
+
+    private TtlCache<String, PackageIndex> packageIndexes;
+
+    @Value("${apm.unzip.max-entry-size:4294967296}")
+    private long unzipMaxEntrySize;
+
+    @Value("${apm.unzip.max-total-size:8589934592}")
+    private long unzipMaxTotalSize;
+
+    @Value("${apm.unzip.max-ratio:100}")
+    private int unzipMaxRatio;
+
+    /**
+     * Initializes inventory and package index caches.
+     */
+    @PostConstruct
+    public void initCaches() {
+        repoInfoCache = new TtlCache<>(inventoryCacheTtl, inventoryCacheMaxSize);
+        mepmCfgCache = new TtlCache<>(inventoryCacheTtl, inventoryCacheMaxSize);
+        mepmPortCache = new TtlCache<>(inventoryCacheTtl, inventoryCacheMaxSize);
+        appStoreCfgCache = new TtlCache<>(inventoryCacheTtl, inventoryCacheMaxSize);
+        appRepoCfgCache = new TtlCache<>(inventoryCacheTtl, inventoryCacheMaxSize);
+        packageIndexes = new TtlCache<>(packageIndexTtl, packageIndexMaxSize);
     }
 
-    private DockerClient getDockerClient(String repo, String userName, String password) {
-        DockerClientConfig config = DefaultDockerClientConfig.createDefaultConfigBuilder().withDockerTlsVerify(true)
-            .withDockerCertPath(SSL).withRegistryUrl(getProtocol(isSslEnabled) + repo).withRegistryUsername(userName)
-            .withRegistryPassword(password).build();
+    /**
+     * Downloads app package csar from app store straight to local file. Content is hashed and size limited while
+     * it is streamed, interrupted downloads are resumed from partial file. Packages are kept once per digest in the
+     * package store and local file is linked to the stored package, a package already stored is not downloaded.
+     *
+     * @param appPkgPath       app package path
+     * @param packageId        package ID
+     * @param tenantId         tenant ID
+     * @param localDirBasePath base directory
+     * @param accessToken      access token
+     * @return downloaded package file
+     */
+    public PackageFile downloadAppPackageToFile(String appPkgPath, String packageId, String tenantId,
+                                                String localDirBasePath, String accessToken) {
+        LOGGER.info("Download application package from: {}", appPkgPath);
 
-        return DockerClientBuilder.getInstance(config).build();
+        File file = new File(ApmServiceHelper.getLocalPackageFilePath(packageId, tenantId, localDirBasePath));
+        FileChecker.checkFileName(file.getName());
+        String storeBaseDir = file.getAbsoluteFile().getParentFile().getParent();
+
+        PackageBlob stored = dbService.getPackageBlob(appPkgPath);
+        if (stored != null) {
+            File blob = PackageStore.getBlob(storeBaseDir, stored.getDigest(), stored.getSize());
+            // stored package is handed out only once appstore confirms to the caller that it is unchanged,
+            // otherwise it is downloaded again and deduplicated by its digest
+            if (blob != null && packageDownloader.isNotModified(appPkgPath, accessToken, stored.getEtag(),
+                    stored.getLastModified())) {
+                try {
+                    PackageStore.link(blob, file);
+                    LOGGER.info("app package {} found in package store, size {}, sha256 {}", packageId,
+                            stored.getSize(), stored.getDigest());
+                    return new PackageFile(file.getAbsolutePath(), stored.getSize(), stored.getDigest(),
+                            stored.getEtag(), stored.getLastModified());
+                } catch (ApmException e) {
+                    // stored package was collected meanwhile
+                    LOGGER.warn("app package {} not linked from package store, downloading it", packageId);
+                }
+            }
+            dbService.deletePackageBlob(appPkgPath);
+        }
+
+        PackageFile packageFile = packageDownloader.download(appPkgPath, file, accessToken);
+        LOGGER.info("app package {} downloaded from appstore successfully, size {}, sha256 {}", packageId,
+                packageFile.getSize(), packageFile.getSha256());
+        PackageStore.store(storeBaseDir, file, packageFile.getSha256());
+        dbService.addPackageBlob(appPkgPath, packageFile);
+        return packageFile;
     }
 
     /**
@@ -228,44 +331,27 @@ public class ApmService {
      * @param downloadedImgs downloaded images
      */
     public void downloadAppImage(PkgSyncInfo syncInfo, List<SwImageDescr> imageInfoList, Set<String> downloadedImgs) {
-
-        String[] sourceRepoHost;
-        Map<String, AppRepo> repoInfo = syncInfo.getRepoInfo();
-        for (SwImageDescr imageInfo : imageInfoList) {
-            LOGGER.info("Download docker image {} ", imageInfo.getSwImage());
-
-            sourceRepoHost = imageInfo.getSwImage().split("/");
-            AppRepo repo = repoInfo.get(sourceRepoHost[0]);
-            if (repo == null) {
-                LOGGER.error("Download failed, source repo not configured: {}", sourceRepoHost[0]);
-                throw new ApmException("docker image download failed source repo not configured " + sourceRepoHost[0]);
-            }
-
-            LOGGER.info("download docker image {}", imageInfo.getSwImage());
-
-            DockerClient dockerClient = getDockerClient(sourceRepoHost[0], repo.getRepoUserName(),
-                repo.getRepoPassword());
-
-            try {
-                dockerClient.pullImageCmd(imageInfo.getSwImage()).exec(new PullImageResultCallback()).awaitCompletion();
-                downloadedImgs.add(imageInfo.getSwImage());
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new ApmException("failed to download image");
-            } catch (NotFoundException e) {
-                LOGGER.error("failed to download image {}, image not found in repository, {}", imageInfo.getSwImage(),
-                    e.getMessage());
-                throw new ApmException("failed to pull image from source repo");
-            } catch (InternalServerErrorException e) {
-                LOGGER.error("internal server error while downloading image {},{}", imageInfo.getSwImage(),
-                    e.getMessage());
-                throw new ApmException("failed to download docker image from source repo");
-            }
-        }
-
+        imageMover.moveImages(syncInfo.getRepoInfo(), imageInfoList, downloadedImgs, null, null, new CancelToken());
         LOGGER.info("images downloaded successfully");
     }
 
+    /**
+     * Downloads app images from source repos and uploads them to MECM repo, each image is uploaded as soon as it
+     * is downloaded.
+     *
+     * @param syncInfo sync app package details
+     * @param imageInfoList list of images
+     * @param downloadedImgs downloaded images, null when images are already loaded in docker
+     * @param uploadedImgs uploaded images
+     * @param progress consumer of progress messages
+     * @param cancel cancellation of the sync
+     */
+    public void syncAppImages(PkgSyncInfo syncInfo, List<SwImageDescr> imageInfoList, Set<String> downloadedImgs,
+                              Set<String> uploadedImgs, Consumer<String> progress, CancelToken cancel) {
+        imageMover.moveImages(downloadedImgs != null ? syncInfo.getRepoInfo() : null, imageInfoList, downloadedImgs,
+            uploadedImgs, progress, cancel);
+    }
+
     /**
      * Returns list of image info.
      *
@@ -279,20 +365,45 @@ public class ApmService {
         return ApmServiceHelper.getImageInfo(yaml);
     }
 
-    private String getEntryDefinitionFromMetadata(String appPkgDir, String metaFile) {
-        List<File> files = (List<File>) FileUtils.listFiles(new File(appPkgDir), null, true);
-        for (File file : files) {
-            if (ApmServiceHelper.isSuffixExist(file.getName(), metaFile)) {
-                try (InputStream inputStream = new FileInputStream(file)) {
-                    Yaml yaml = new Yaml(new SafeConstructor());
-                    Map<String, Object> meatData = yaml.load(inputStream);
-                    return meatData.get("Entry-Definitions").toString();
-                } catch (IOException e) {
-                    throw new ApmException("failed to read metadata from app package");
-                }
+    private String getEntryDefinitionFromMetadata(PackageIndex index, String dir, String metaFile) {
+        File file;
+        try {
+            file = index.findInDir(new File(dir).getCanonicalPath(), metaFile);
+        } catch (IOException e) {
+            throw new ApmException("failed to read metadata from app package");
+        }
+        if (file == null) {
+            throw new ApmException("failed, main service yaml not available in app package");
+        }
+        try (InputStream inputStream = new FileInputStream(file)) {
+            Yaml yaml = new Yaml(new SafeConstructor());
+            Map<String, Object> meatData = yaml.load(inputStream);
+            return meatData.get("Entry-Definitions").toString();
+        } catch (IOException e) {
+            throw new ApmException("failed to read metadata from app package");
+        }
+    }
+
+    private File getMainServiceTemplate(String tenantId, String packageId) {
+        String appPkgDir = getLocalIntendedDir(packageId, tenantId);
+        PackageIndex index = getPackageIndex(appPkgDir);
+        synchronized (index) {
+            File template = index.getMainServiceTemplate();
+            if (template != null && template.exists()) {
+                return template;
             }
+
+            String mainServiceYaml = appPkgDir + File.separator + getEntryDefinitionFromMetadata(index, appPkgDir,
+                "TOSCA.meta");
+
+            String appDefnDir = FilenameUtils.removeExtension(mainServiceYaml);
+            CompressUtility.unzipApplicationPacakge(mainServiceYaml, appDefnDir, index, getUnzipLimits());
+
+            template = new File(
+                appDefnDir + File.separator + getEntryDefinitionFromMetadata(index, appDefnDir, "TOSCA_VNFD.meta"));
+            index.setMainServiceTemplate(template);
+            return template;
         }
-        throw new ApmException("failed, main service yaml not available in app package");
     }
 
     /**
@@ -307,16 +418,7 @@ public class ApmService {
         File yamlFile;
 
         try {
-            String appPkgDir = getLocalIntendedDir(appPackageDto.getAppPkgId(), tenantId);
-
-            String mainServiceYaml = appPkgDir + File.separator + getEntryDefinitionFromMetadata(appPkgDir,
-                "TOSCA.meta");
-
-            String appDefnDir = FilenameUtils.removeExtension(mainServiceYaml);
-            CompressUtility.unzipApplicationPacakge(mainServiceYaml, appDefnDir);
-
-            yamlFile = new File(
-                appDefnDir + File.separator + getEntryDefinitionFromMetadata(appDefnDir, "TOSCA_VNFD.meta"));
+            yamlFile = getMainServiceTemplate(tenantId, appPackageDto.getAppPkgId());
         } catch (ApmException e) {
             LOGGER.error("failed to get main service template yaml {}", e.getMessage());
             throw new ApmException("failed to get main service template yaml");
@@ -354,10 +456,17 @@ public class ApmService {
      * @return list of image info
      */
     public List<SwImageDescr> getAppImageInfo(String tenantId, String localFilePath, String packageId) {
-        String intendedDir = getLocalIntendedDir(packageId, tenantId);
-        CompressUtility.unzipApplicationPacakge(localFilePath, intendedDir);
+        extractAppPackage(localFilePath, packageId, tenantId);
 
-        FileUtils.deleteQuietly(new File(localFilePath));
+        // original package is kept so that unchanged entries can be copied raw when package is rewritten
+        try {
+            Files.move(Paths.get(localFilePath),
+                Paths.get(ApmServiceHelper.getOriginalPackagePath(getLocalIntendedDir(packageId, tenantId))),
+                StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOGGER.warn("failed to keep original package {}", e.getMessage());
+            FileUtils.deleteQuietly(new File(localFilePath));
+        }
 
         File swImageDesc = getFileFromPackage(tenantId, packageId, "Image/SwImageDesc", "json");
         try {
@@ -488,39 +597,26 @@ public class ApmService {
         ApmServiceHelper.updateRepoInfoInSwImageDescr(swImageDesc, mecmRepoEndpoint);
 
         File chartsTar = getFileFromPackage(tenantId, packageId, "/Artifacts/Deployment/Charts/", "tar");
+        PackageIndex index = packageIndexes.getIfPresent(getLocalIntendedDir(packageId, tenantId));
         try {
-            CompressUtility.deCompress(chartsTar.getCanonicalFile().toString(),
-                new File(chartsTar.getCanonicalFile().getParent()));
+            File chartsDir = chartsTar.getCanonicalFile().getParentFile();
+            File patchedTar = new File(chartsDir, chartsTar.getName() + ".tmp");
+            String chartName = CompressUtility.transformTarEntry(chartsTar, patchedTar, VALUES_YAML,
+                this::updateImageLocationInValues);
+            if (chartName == null) {
+                FileUtils.deleteQuietly(patchedTar);
+                throw new ApmException("failed to find values yaml in app package");
+            }
 
+            // chart archive is named after its chart directory as helm does
+            File chartsTgz = chartName.isEmpty() ? new File(chartsDir, FilenameUtils.getBaseName(chartsTar.getName())
+                + ".tgz") : new File(chartsDir, chartName + ".tgz");
             FileUtils.deleteQuietly(chartsTar);
-
-            File valuesYaml = getFileFromPackage(tenantId, packageId, "/values.yaml", "yaml");
-
-            //update values.yaml
-            Map<String, Object> values = loadvaluesYaml(valuesYaml);
-            ImageLocation imageLocn = null;
-            for (String key : values.keySet()) {
-                if (key.equals(Constants.IMAGE_LOCATION)) {
-                    ModelMapper mapper = new ModelMapper();
-                    imageLocn = mapper.map(values.get(Constants.IMAGE_LOCATION), ImageLocation.class);
-                    imageLocn.setDomainname(mecmRepoEndpoint);
-                    imageLocn.setProject("mecm");
-                    break;
-                }
-            }
-            if (imageLocn != null) {
-                values.put(Constants.IMAGE_LOCATION, imageLocn);
-            } else {
-                LOGGER.error("missing image location parameters ");
-                throw new ApmException("failed to update values yaml, missing image location parameters");
+            Files.move(patchedTar.toPath(), chartsTgz.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            if (index != null) {
+                index.remove(chartsTar.getCanonicalPath());
+                index.add(chartsTgz.getCanonicalPath());
             }
-            String json = new Gson().toJson(values);
-            FileUtils.writeStringToFile(valuesYaml, json, StandardCharsets.UTF_8.name());
-            LOGGER.info("imageLocation updated in values yaml {}", json);
-
-            CompressUtility.compress(valuesYaml.getParent(), valuesYaml.getParent() + ".tgz");
-
-            FileUtils.deleteQuietly(new File(valuesYaml.getParent()));
 
             LOGGER.info("updated application package charts with repo details");
         } catch (IOException e) {
@@ -528,20 +624,113 @@ public class ApmService {
         }
     }
 
-    private Map<String, Object> loadvaluesYaml(File valuesYaml) {
+    private byte[] updateImageLocationInValues(byte[] valuesYaml) {
+        Map<String, Object> values = loadvaluesYaml(valuesYaml);
+        ImageLocation imageLocn = null;
+        for (String key : values.keySet()) {
+            if (key.equals(Constants.IMAGE_LOCATION)) {
+                ModelMapper mapper = new ModelMapper();
+                imageLocn = mapper.map(values.get(Constants.IMAGE_LOCATION), ImageLocation.class);
+                imageLocn.setDomainname(mecmRepoEndpoint);
+                imageLocn.setProject("mecm");
+                break;
+            }
+        }
+        if (imageLocn != null) {
+            values.put(Constants.IMAGE_LOCATION, imageLocn);
+        } else {
+            LOGGER.error("missing image location parameters ");
+            throw new ApmException("failed to update values yaml, missing image location parameters");
+        }
+        String json = new Gson().toJson(values);
+        LOGGER.info("imageLocation updated in values yaml {}", json);
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private Map<String, Object> loadvaluesYaml(byte[] valuesYaml) {
 
         Map<String, Object> valuesYamlMap;
         Yaml yaml = new Yaml(new SafeConstructor());
-        try (InputStream inputStream = new FileInputStream(valuesYaml)) {
+        try (InputStream inputStream = new ByteArrayInputStream(valuesYaml)) {
             valuesYamlMap = yaml.load(inputStream);
-        } catch (FileNotFoundException e) {
-            throw new ApmException("failed to find values yaml in app package");
         } catch (IOException e) {
             throw new ApmException("failed to load value yaml form charts");
         }
+        if (valuesYamlMap == null) {
+            throw new ApmException("failed to update values yaml, missing image location parameters");
+        }
         return valuesYamlMap;
     }
 
+    /**
+     * Loads docker images embedded in application package to docker system and removes them from the package. In
+     * stream mode each image tar is fed to docker straight from the image zip, otherwise the zip is extracted first.
+     *
+     * @param packageId    package Id
+     * @param tenantId     tenant ID
+     * @param imageDescrs  image descriptors
+     * @param loadedImgs   docker images loaded
+     */
+    public void loadDockerImagesFromPackage(String packageId, String tenantId, List<SwImageDescr> imageDescrs,
+                                            Set<String> loadedImgs) {
+        if (STREAM_MODE.equalsIgnoreCase(imageLoadMode)) {
+            File dockerZip = getFileFromPackage(tenantId, packageId + Constants.IMAGE_INPATH,
+                    Constants.IMAGE_INPATH, "zip");
+            streamDockerImages(dockerZip, getLocalIntendedDir(packageId, tenantId), imageDescrs, loadedImgs);
+            FileUtils.deleteQuietly(dockerZip);
+            return;
+        }
+
+        String dockerImgsPath = unzipDockerImages(packageId, tenantId);
+        loadDockerImages(packageId, imageDescrs, loadedImgs);
+        FileUtils.deleteQuietly(new File(dockerImgsPath + ".zip"));
+        FileUtils.deleteQuietly(new File(dockerImgsPath));
+    }
+
+    private void streamDockerImages(File dockerZip, String intendedDir, List<SwImageDescr> imageDescrs,
+                                    Set<String> loadedImgs) {
+        DockerClient dockerClient = imageMover.borrowLocalClient();
+        try (ZipFile zipFile = new ZipFile(dockerZip)) {
+            // entries are keyed by the path they would be extracted to, as image descriptors refer to that path
+            Map<String, ZipEntry> entries = new HashMap<>();
+            Enumeration<? extends ZipEntry> it = zipFile.entries();
+            while (it.hasMoreElements()) {
+                ZipEntry entry = it.nextElement();
+                if (!entry.isDirectory()) {
+                    entries.put(FileChecker.sanitizeFileName(entry.getName(),
+                            intendedDir + Constants.IMAGE_INPATH), entry);
+                }
+            }
+
+            for (SwImageDescr imgDescr : imageDescrs) {
+                ZipEntry entry = entries.get(new File(intendedDir, imgDescr.getSwImage()).getCanonicalPath());
+                if (entry == null) {
+                    LOGGER.error("failed to load docker image tar, {} not in package", imgDescr.getSwImage());
+                    throw new ApmException("failed to docker image, not found");
+                }
+                LOGGER.info("image to stream {} ", imgDescr.getSwImage());
+
+                try (InputStream imageTar = zipFile.getInputStream(entry)) {
+                    dockerClient.loadImageCmd(imageTar).exec();
+                } catch (NotFoundException e) {
+                    LOGGER.error("failed to load docker image tar, image not found {}", e.getMessage());
+                    throw new ApmException("failed to docker image, not found");
+                } catch (InternalServerErrorException e) {
+                    LOGGER.error("internal server error while loading image,{}", e.getMessage());
+                    throw new ApmException("failed to load docker image from tar");
+                }
+                imgDescr.setSwImage(imgDescr.getName());
+                loadedImgs.add(imgDescr.getName());
+            }
+        } catch (IOException e) {
+            LOGGER.error(FAILED_TO_GET_SW_IMAGE_FILE, e.getMessage());
+            throw new ApmException("failed to load docker image from tar");
+        } finally {
+            imageMover.releaseLocalClient(dockerClient);
+        }
+        LOGGER.info("image load complete successfully");
+    }
+
     /**
      * Unzip docker images from application package.
      *
@@ -555,7 +744,8 @@ public class ApmService {
             "zip");
 
         try {
-            CompressUtility.unzipApplicationPacakge(dockerZip.getCanonicalPath(), intendedDir + Constants.IMAGE_INPATH);
+            CompressUtility.unzipApplicationPacakge(dockerZip.getCanonicalPath(), intendedDir + Constants.IMAGE_INPATH,
+                packageIndexes.getIfPresent(intendedDir), getUnzipLimits());
             return FilenameUtils.removeExtension(dockerZip.getCanonicalPath());
         } catch (IOException e) {
             LOGGER.error(FAILED_TO_GET_SW_IMAGE_FILE, e.getMessage());
@@ -573,24 +763,25 @@ public class ApmService {
     public void loadDockerImages(String packageId, List<SwImageDescr> loadDockerImages, Set<String> downloadedImgs) {
         String intendedDir = getLocalIntendedDir(packageId, null);
 
-        for (SwImageDescr imgDescr : loadDockerImages) {
-
-            DockerClientConfig config = DefaultDockerClientConfig.createDefaultConfigBuilder().build();
-            DockerClient dockerClient = DockerClientBuilder.getInstance(config).build();
-
-            LOGGER.info("image to load {} ", imgDescr.getSwImage());
-
-            try {
-                dockerClient.loadImageCmd(new FileInputStream(intendedDir + "/" + imgDescr.getSwImage())).exec();
-                imgDescr.setSwImage(imgDescr.getName());
-                downloadedImgs.add(imgDescr.getName());
-            } catch (NotFoundException e) {
-                LOGGER.error("failed to load docker image tar, image not found {}", e.getMessage());
-                throw new ApmException("failed to docker image, not found");
-            } catch (InternalServerErrorException | FileNotFoundException e) {
-                LOGGER.error("internal server error while downloading image,{}", e.getMessage());
-                throw new ApmException("failed to load docker image from tar");
+        DockerClient dockerClient = imageMover.borrowLocalClient();
+        try {
+            for (SwImageDescr imgDescr : loadDockerImages) {
+                LOGGER.info("image to load {} ", imgDescr.getSwImage());
+
+                try (InputStream imageTar = new FileInputStream(intendedDir + "/" + imgDescr.getSwImage())) {
+                    dockerClient.loadImageCmd(imageTar).exec();
+                    imgDescr.setSwImage(imgDescr.getName());
+                    downloadedImgs.add(imgDescr.getName());
+                } catch (NotFoundException e) {
+                    LOGGER.error("failed to load docker image tar, image not found {}", e.getMessage());
+                    throw new ApmException("failed to docker image, not found");
+                } catch (InternalServerErrorException | IOException e) {
+                    LOGGER.error("internal server error while downloading image,{}", e.getMessage());
+                    throw new ApmException("failed to load docker image from tar");
+                }
             }
+        } finally {
+            imageMover.releaseLocalClient(dockerClient);
         }
         LOGGER.info("image load complete successfully");
     }
@@ -606,27 +797,46 @@ public class ApmService {
      */
     public File getFileFromPackage(String tenantId, String packageId, String file, String extension) {
         String dir = getLocalIntendedDir(packageId, tenantId);
-        String ext;
 
-        List<File> files = (List<File>) FileUtils.listFiles(new File(dir), null, true);
         try {
-            for (File f : files) {
-                if (f.getCanonicalPath().contains(file)) {
-                    ext = getFileExtension(f.getCanonicalPath());
-                    if (ext.equals(extension)) {
-                        return f;
-                    }
-                    if (extension.equals("tar") && (ext.equals("tgz") || ext.equals("tar.gz") || ext.equals("tar"))) {
-                        return f;
-                    }
-                }
+            File found = getPackageIndex(dir).find(file, extension, this::getFileExtension);
+            if (found == null || !found.exists()) {
+                // package directory changed after it was indexed
+                PackageIndex index = PackageIndex.scan(dir);
+                packageIndexes.put(dir, index);
+                found = index.find(file, extension, this::getFileExtension);
+            }
+            if (found != null) {
+                return found;
             }
-        } catch (IOException | ApmException e) {
+        } catch (ApmException e) {
             throw new ApmException(file + e.getMessage());
         }
         throw new ApmException(file + " file not found");
     }
 
+    /**
+     * Extracts application package and indexes its files for later lookups.
+     *
+     * @param localFilePath csar file path
+     * @param packageId package Id
+     * @param tenantId tenant ID
+     */
+    public void extractAppPackage(String localFilePath, String packageId, String tenantId) {
+        String intendedDir = getLocalIntendedDir(packageId, tenantId);
+        PackageIndex index = new PackageIndex();
+        CompressUtility.unzipApplicationPacakge(localFilePath, intendedDir, index, getUnzipLimits());
+        packageIndexes.put(intendedDir, index);
+    }
+
+    private UnzipLimits getUnzipLimits() {
+        return new UnzipLimits(unzipMaxEntrySize, unzipMaxTotalSize, unzipMaxRatio);
+    }
+
+    private PackageIndex getPackageIndex(String dir) {
+        return packageIndexes.get(dir, PackageIndex::scan);
+    }
+
     private String getFileExtension(String file) {
         List<String> extensions = Arrays.asList("tar", "tar.gz", "tgz", "gz", "zip", "json", "yaml", "yml", "mf");
         for (String ext : extensions) {
@@ -660,6 +870,10 @@ public class ApmService {
      * @throws ApmException exception if failed to get edge repository details
      */
     public String getRepoInfoOfHost(String hostIp, String accessToken) {
+        return getCached(repoInfoCache, hostIp, accessToken, () -> fetchRepoInfoOfHost(hostIp, accessToken));
+    }
+
+    private String fetchRepoInfoOfHost(String hostIp, String accessToken) {
 
         String url = new StringBuilder(getProtocol(isSslEnabled)).append(inventoryIp).append(":").append(inventoryPort)
             .append(INVENTORY_URL).append("/mechosts/").append(hostIp).toString();
@@ -701,6 +915,25 @@ public class ApmService {
      * @throws ApmException exception if failed to get MEPM config details
      */
     public String getMepmCfgOfHost(String tenantId, String hostIp, String accessToken) {
+        return getCached(mepmCfgCache, tenantId + "/" + hostIp, accessToken,
+            () -> fetchMepmCfgOfHost(tenantId, hostIp, accessToken));
+    }
+
+    /**
+     * Removes cached MEPM endpoint of a host and cached port of its MEPM.
+     *
+     * @param tenantId tenant ID
+     * @param hostIp host ip
+     */
+    public void invalidateMepmCfgOfHost(String tenantId, String hostIp) {
+        String hostKey = SCOPE_DELIMITER + tenantId + "/" + hostIp;
+        for (String endpoint : mepmCfgCache.invalidateIf(key -> key.endsWith(hostKey))) {
+            String mepmKey = SCOPE_DELIMITER + endpoint.substring(0, endpoint.lastIndexOf(':'));
+            mepmPortCache.invalidateIf(key -> key.endsWith(mepmKey));
+        }
+    }
+
+    private String fetchMepmCfgOfHost(String tenantId, String hostIp, String accessToken) {
 
         String url = new StringBuilder(getProtocol(isSslEnabled)).append(inventoryIp).append(":").append(inventoryPort)
             .append(INVENTORY_URL).append("/tenants/").append(tenantId).append("/mechosts/").append(hostIp).toString();
@@ -722,13 +955,18 @@ public class ApmService {
             throw new ApmException("MEPM ip is invalid for host " + hostIp);
         }
 
-        url = new StringBuilder(getProtocol(isSslEnabled)).append(inventoryIp).append(":").append(inventoryPort)
+        // hosts of a MEPM share its record
+        return ip + ":" + getCached(mepmPortCache, ip, accessToken, () -> fetchMepmPort(ip, hostIp, accessToken));
+    }
+
+    private String fetchMepmPort(String ip, String hostIp, String accessToken) {
+        String url = new StringBuilder(getProtocol(isSslEnabled)).append(inventoryIp).append(":").append(inventoryPort)
             .append(INVENTORY_URL).append("/mepms/").append(ip).toString();
-        response = sendGetRequest(url, accessToken);
+        String response = sendGetRequest(url, accessToken);
 
         LOGGER.info(EMPTY_RESPONSE, response);
 
-        jsonObject = new JsonParser().parse(response).getAsJsonObject();
+        JsonObject jsonObject = new JsonParser().parse(response).getAsJsonObject();
         JsonElement mepmPort = jsonObject.get("mepmPort");
         if (mepmPort == null) {
             LOGGER.error(Constants.REPO_INFO_NULL, hostIp);
@@ -740,8 +978,7 @@ public class ApmService {
             LOGGER.error(Constants.REPO_PORT_INVALID, hostIp);
             throw new ApmException("MEPM port is invalid for host " + hostIp);
         }
-
-        return mepmIp.getAsString() + ":" + mepmPort.getAsString();
+        return port;
     }
 
     /**
@@ -770,6 +1007,8 @@ public class ApmService {
             throw new ApmException(Constants.LOCAL_FILE_PATH_NULL);
         }
         FileUtils.deleteQuietly(new File(localFilePath));
+        FileUtils.deleteQuietly(new File(ApmServiceHelper.getOriginalPackagePath(localFilePath)));
+        packageIndexes.invalidate(localFilePath);
     }
 
     /**
@@ -781,6 +1020,11 @@ public class ApmService {
      * @throws ApmException exception if failed to get appstore configuration details
      */
     public AppStore getAppStoreCfgFromInventory(String appstoreIp, String accessToken) {
+        return getCached(appStoreCfgCache, appstoreIp, accessToken,
+            () -> fetchAppStoreCfgFromInventory(appstoreIp, accessToken));
+    }
+
+    private AppStore fetchAppStoreCfgFromInventory(String appstoreIp, String accessToken) {
 
         String url = new StringBuilder(getProtocol(isSslEnabled)).append(inventoryIp).append(":").append(inventoryPort)
             .append(INVENTORY_URL).append("/appstore/").append(appstoreIp).toString();
@@ -798,6 +1042,73 @@ public class ApmService {
      * @throws ApmException exception if failed to get appstore configuration details
      */
     public List<AppRepo> getAllAppRepoCfgFromInventory(String accessToken) {
+        String key = getScopedKey(accessToken, ALL_APP_REPOS);
+        List<AppRepo> appRepos = key == null ? null : appRepoCfgCache.getIfPresent(key);
+        if (appRepos != null) {
+            return new LinkedList<>(appRepos);
+        }
+
+        appRepos = fetchAllAppRepoCfgFromInventory(accessToken);
+        // failure to fetch returns empty list, which is not cached
+        if (key != null && !appRepos.isEmpty()) {
+            appRepoCfgCache.put(key, new LinkedList<>(appRepos));
+        }
+        return appRepos;
+    }
+
+    /**
+     * Removes all cached inventory records.
+     */
+    public void invalidateInventoryCache() {
+        repoInfoCache.invalidateAll();
+        mepmCfgCache.invalidateAll();
+        mepmPortCache.invalidateAll();
+        appStoreCfgCache.invalidateAll();
+        appRepoCfgCache.invalidateAll();
+        LOGGER.info("inventory cache invalidated");
+    }
+
+    /**
+     * Returns inventory cache statistics.
+     *
+     * @return statistics of each inventory cache
+     */
+    public Map<String, Map<String, Long>> getInventoryCacheStats() {
+        Map<String, Map<String, Long>> stats = new LinkedHashMap<>();
+        stats.put("edgeRepo", repoInfoCache.getStats());
+        stats.put("mepm", mepmCfgCache.getStats());
+        stats.put("mepmPort", mepmPortCache.getStats());
+        stats.put("appstore", appStoreCfgCache.getStats());
+        stats.put("appRepos", appRepoCfgCache.getStats());
+        return stats;
+    }
+
+    private <V> V getCached(TtlCache<String, V> cache, String key, String accessToken, Supplier<V> loader) {
+        String scopedKey = getScopedKey(accessToken, key);
+        if (scopedKey == null) {
+            return loader.get();
+        }
+        return cache.get(scopedKey, scoped -> loader.get());
+    }
+
+    // records are cached per user and authorities, so a record is not served to a user inventory would refuse it to
+    private String getScopedKey(String accessToken, String key) {
+        try {
+            OAuth2Authentication auth = jwtTokenStore.readAuthentication(accessToken);
+            if (auth == null) {
+                return null;
+            }
+            Set<String> authorities = new TreeSet<>();
+            auth.getAuthorities().forEach(authority -> authorities.add(authority.getAuthority()));
+            return auth.getName() + authorities + SCOPE_DELIMITER + key;
+        } catch (RuntimeException e) {
+            // records are not cached for tokens which cannot be read
+            LOGGER.debug("access token scope not readable {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private List<AppRepo> fetchAllAppRepoCfgFromInventory(String accessToken) {
 
         String url = new StringBuilder(getProtocol(isSslEnabled)).append(inventoryIp).append(":").append(inventoryPort)
             .append(INVENTORY_URL).append("/apprepos").toString();
@@ -855,6 +1166,96 @@ public class ApmService {
         return response.getBody();
     }
 
+    /**
+     * Sends conditional get request.
+     *
+     * @param url          URL
+     * @param accessToken  access token
+     * @param etag         entity tag of cached response, may be null
+     * @param lastModified last modified date of cached response, may be null
+     * @return response, with not modified status when cached response is still valid
+     * @throws ApmException exception if request failed
+     */
+    public ResponseEntity<String> sendConditionalGetRequest(String url, String accessToken, String etag,
+        String lastModified) {
+
+        LOGGER.info("GET request: {}", url);
+        ResponseEntity<String> response;
+
+        try {
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(ACCESS_TOKEN, accessToken);
+            if (etag != null) {
+                headers.setIfNoneMatch(etag);
+            }
+            if (lastModified != null) {
+                headers.set(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+            }
+            HttpEntity<String> entity = new HttpEntity<>(headers);
+            response = restTemplate.exchange(url, HttpMethod.GET, entity, String.class);
+        } catch (ResourceAccessException ex) {
+            LOGGER.error(CONNECTION_FALED, ex.getMessage());
+            throw new ApmException(FAILED_TO_CONNECT + ex.getMessage());
+        } catch (HttpClientErrorException ex) {
+            LOGGER.error(FAILED, ex.getMessage());
+            throw new ApmException("error while fetching " + ex.getMessage());
+        }
+
+        if (HttpStatus.NOT_FOUND.equals(response.getStatusCode())) {
+            LOGGER.error(DATA_NOT_FOUND, response.getStatusCode());
+            throw new NoSuchElementException(NOT_FOUND_STATUS + response.getStatusCode());
+        }
+
+        if (!HttpStatus.OK.equals(response.getStatusCode())
+            && !HttpStatus.NOT_MODIFIED.equals(response.getStatusCode())) {
+            LOGGER.error(FAILURE_RESPONSE_STATUS, response.getStatusCode());
+            throw new ApmException(FAILURE_RESPONSE_STATUS_CODE + response.getStatusCode());
+        }
+
+        return response;
+    }
+
+    /**
+     * Sends head request and returns response headers.
+     *
+     * @param url         URL
+     * @param accessToken access token
+     * @param accept      accepted media types
+     * @return response headers
+     * @throws ApmException exception if request failed
+     */
+    public HttpHeaders sendHeadRequest(String url, String accessToken, String accept) {
+
+        LOGGER.info("HEAD request: {}", url);
+        ResponseEntity<Void> response;
+
+        try {
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(ACCESS_TOKEN, accessToken);
+            headers.set(HttpHeaders.ACCEPT, accept);
+            HttpEntity<String> entity = new HttpEntity<>(headers);
+            response = restTemplate.exchange(url, HttpMethod.HEAD, entity, Void.class);
+        } catch (ResourceAccessException ex) {
+            LOGGER.error(CONNECTION_FALED, ex.getMessage());
+            throw new ApmException(FAILED_TO_CONNECT + ex.getMessage());
+        } catch (HttpClientErrorException ex) {
+            LOGGER.error(FAILED, ex.getMessage());
+            throw new ApmException("error while fetching " + ex.getMessage());
+        }
+
+        if (HttpStatus.NOT_FOUND.equals(response.getStatusCode())) {
+            LOGGER.error(DATA_NOT_FOUND, response.getStatusCode());
+            throw new NoSuchElementException(NOT_FOUND_STATUS + response.getStatusCode());
+        }
+
+        if (!HttpStatus.OK.equals(response.getStatusCode())) {
+            LOGGER.error(FAILURE_RESPONSE_STATUS, response.getStatusCode());
+            throw new ApmException(FAILURE_RESPONSE_STATUS_CODE + response.getStatusCode());
+        }
+
+        return response.getHeaders();
+    }
+
     /**
      * Sends delete request.
      *
@@ -933,36 +1334,145 @@ public class ApmService {
      *
      * @param appstoreEndpoint appstore endpoint
      * @param accessToken access token
-     * @return returns appstore configuration info
+     * @return application packages of appstore and apps whose packages changed since previous refresh
      * @throws ApmException exception if failed to get appstore configuration details
      */
-    public List<AppPackageInfoDto> getAppPackagesInfoFromAppStore(String appstoreEndpoint, String accessToken) {
+    public AppStorePackages getAppPackagesInfoFromAppStore(String appstoreEndpoint, String accessToken) {
         String appsUrl = new StringBuilder(getProtocol(isSslEnabled)).append(appstoreEndpoint)
                                                                      .append("/mec/appstore/v1/apps").toString();
 
-        String response = sendGetRequest(appsUrl, accessToken);
+        // responses of previous crawl are revalidated with conditional requests
+        Map<String, AppStoreCatalog> catalog = new HashMap<>();
+        for (AppStoreCatalog entry : dbService.getAppStoreCatalog(appstoreEndpoint)) {
+            catalog.put(entry.getCatalogId(), entry);
+        }
+        AppStoreCatalog appsEntry = getCatalogEntry(catalog, appstoreEndpoint, null);
+        boolean appsModified = refreshCatalogEntry(appsUrl, accessToken, appsEntry);
+        if (appsModified) {
+            dbService.saveAppStoreCatalog(appsEntry);
+        }
 
-        List<String> appIds = new LinkedList<>();
-        JsonArray appsArray = new JsonParser().parse(response).getAsJsonArray();
+        List<String> appIds = new ArrayList<>();
+        JsonArray appsArray = new JsonParser().parse(appsEntry.getBody()).getAsJsonArray();
         for (JsonElement appElement : appsArray) {
             JsonObject app = appElement.getAsJsonObject();
             appIds.add(app.get("appId").getAsString());
         }
 
-        List<AppPackageInfoDto> appPkgInfos = new LinkedList<>();
+        // packages of all apps are fetched concurrently, bounded per appstore
+        Semaphore permits = appstorePermits.computeIfAbsent(appstoreEndpoint,
+            key -> new Semaphore(perAppstoreLimit, true));
+        Set<String> changedAppIds = ConcurrentHashMap.newKeySet();
+        List<CompletableFuture<List<AppPackageInfoDto>>> fetches = new ArrayList<>();
         for (String appId : appIds) {
+            AppStoreCatalog entry = getCatalogEntry(catalog, appstoreEndpoint, appId);
+            catalog.remove(entry.getCatalogId());
+            if (!appsModified && entry.getBody() != null) {
+                // apps list acts as watermark of the catalogue, while it is unchanged packages of previous crawl
+                // are served without further requests
+                fetches.add(CompletableFuture.completedFuture(parseAppPackagesInfo(entry.getBody())));
+                continue;
+            }
+            String url = appsUrl + "/" + appId + "/packages";
+            fetches.add(CompletableFuture.supplyAsync(() ->
+                getAppPackagesInfoWithPermit(url, accessToken, entry, permits, changedAppIds), appstoreExecutor));
+        }
+
+        // apps without packages are skipped, any other failure aborts the refresh as callers reconcile local
+        // records against the returned list
+        List<AppPackageInfoDto> appPkgInfos = new LinkedList<>();
+        int failed = 0;
+        for (int i = 0; i < fetches.size(); i++) {
             try {
-                List<AppPackageInfoDto> pkgInfos = getAppPackagesInfoBasedOnAppId(appstoreEndpoint, appId, accessToken);
-                appPkgInfos.addAll(pkgInfos);
-            } catch (NoSuchElementException ex) {
-                LOGGER.error("failed to get app package info {}", ex.getMessage());
+                appPkgInfos.addAll(fetches.get(i).join());
+            } catch (CompletionException ex) {
+                if (ex.getCause() instanceof NoSuchElementException) {
+                    LOGGER.error("failed to get app package info {}", ex.getCause().getMessage());
+                    continue;
+                }
+                failed++;
+                LOGGER.error("failed to get app package info of app {}, {}", appIds.get(i),
+                    ex.getCause() != null ? ex.getCause().getMessage() : ex.getMessage());
+            }
+        }
+        if (failed > 0) {
+            throw new ApmException("failed to get app package info of " + failed + " out of " + appIds.size()
+                + " apps from appstore " + appstoreEndpoint);
+        }
+
+        // remaining entries belong to apps no longer listed by appstore
+        for (AppStoreCatalog stale : catalog.values()) {
+            if (stale.getAppId() != null) {
+                dbService.deleteAppStoreCatalog(stale.getCatalogId());
+                changedAppIds.add(stale.getAppId());
             }
         }
+        LOGGER.info("appstore {} catalogue refreshed, {} of {} apps changed", appstoreEndpoint,
+            changedAppIds.size(), appIds.size());
 
         if (appPkgInfos.isEmpty()) {
             throw new NoSuchElementException("app package record does not exist");
         }
-        return appPkgInfos;
+        return new AppStorePackages(appPkgInfos, changedAppIds);
+    }
+
+    private List<AppPackageInfoDto> getAppPackagesInfoWithPermit(String url, String accessToken,
+        AppStoreCatalog entry, Semaphore permits, Set<String> changedAppIds) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApmException("interrupted while getting app package info of app " + entry.getAppId());
+        }
+        try {
+            boolean modified = refreshCatalogEntry(url, accessToken, entry);
+            List<AppPackageInfoDto> appPackageInfos = parseAppPackagesInfo(entry.getBody());
+            if (modified) {
+                dbService.saveAppStoreCatalog(entry);
+                changedAppIds.add(entry.getAppId());
+            }
+            return appPackageInfos;
+        } finally {
+            permits.release();
+        }
+    }
+
+    private static AppStoreCatalog getCatalogEntry(Map<String, AppStoreCatalog> catalog, String appstoreEndpoint,
+        String appId) {
+        String id = appstoreEndpoint + "|" + (appId != null ? appId : "");
+        AppStoreCatalog entry = catalog.get(id);
+        return entry != null ? entry : new AppStoreCatalog(id, appstoreEndpoint, appId, null, null, null, null);
+    }
+
+    /**
+     * Revalidates catalogue entry with appstore and updates it with the new response.
+     *
+     * @param url         catalogue URL
+     * @param accessToken access token
+     * @param entry       catalogue entry
+     * @return true when response has changed
+     */
+    private boolean refreshCatalogEntry(String url, String accessToken, AppStoreCatalog entry) {
+        boolean cached = entry.getBody() != null;
+        ResponseEntity<String> response = sendConditionalGetRequest(url, accessToken,
+            cached ? entry.getEtag() : null, cached ? entry.getLastModified() : null);
+        if (HttpStatus.NOT_MODIFIED.equals(response.getStatusCode())) {
+            if (!cached) {
+                throw new ApmException("not modified response without cached catalogue " + url);
+            }
+            return false;
+        }
+
+        String etag = response.getHeaders().getETag();
+        String lastModified = response.getHeaders().getFirst(HttpHeaders.LAST_MODIFIED);
+        if (Objects.equals(response.getBody(), entry.getBody()) && Objects.equals(etag, entry.getEtag())
+            && Objects.equals(lastModified, entry.getLastModified())) {
+            return false;
+        }
+        entry.setBody(response.getBody());
+        entry.setEtag(etag);
+        entry.setLastModified(lastModified);
+        return true;
     }
 
     /**
@@ -987,22 +1497,7 @@ public class ApmService {
         return new Gson().fromJson(response, AppPackageInfoDto.class);
     }
 
-    /**
-     * Returns application package info.
-     *
-     * @param appstoreEndpoint appstore endpoint
-     * @param accessToken access token
-     * @return returns appstore configuration info
-     * @throws ApmException exception if failed to get appstore configuration details
-     */
-    private List<AppPackageInfoDto> getAppPackagesInfoBasedOnAppId(String appstoreEndpoint, String appId,
-        String accessToken) {
-        String appsUrl = new StringBuilder(getProtocol(isSslEnabled)).append(appstoreEndpoint)
-                                                                     .append("/mec/appstore/v1/apps/")
-            .append(appId).append("/packages").toString();
-
-        String response = sendGetRequest(appsUrl, accessToken);
-
+    private static List<AppPackageInfoDto> parseAppPackagesInfo(String response) {
         List<AppPackageInfoDto> appPackageInfos = new LinkedList<>();
         JsonArray appsArray = new JsonParser().parse(response).getAsJsonArray();
         for (JsonElement app : appsArray) {
@@ -1010,7 +1505,6 @@ public class ApmService {
             dto.setSyncStatus(Constants.APP_NOT_IN_SYNC);
             appPackageInfos.add(dto);
         }
-        LOGGER.info("applications packages: {}", response);
         return appPackageInfos;
     }
 
@@ -1021,41 +1515,7 @@ public class ApmService {
      * @param uploadedImgs uploaded images
      */
     public void uploadAppImage(List<SwImageDescr> imageInfoList, Set<String> uploadedImgs) {
-
-        for (SwImageDescr imageInfo : imageInfoList) {
-            LOGGER.info("Docker image to  upload: {}", imageInfo.getSwImage());
-
-            DockerClient dockerClient = getDockerClient(mecmRepoEndpoint, mecmRepoUsername, mecmRepoPassword);
-
-            String[] dockerImageNames = imageInfo.getSwImage().split("/");
-            String uploadImgName;
-            if (dockerImageNames.length > 1) {
-                uploadImgName = new StringBuilder(mecmRepoEndpoint).append("/mecm/")
-                    .append(dockerImageNames[dockerImageNames.length - 1]).toString();
-            } else {
-                uploadImgName = new StringBuilder(mecmRepoEndpoint).append("/mecm/").append(dockerImageNames[0])
-                    .toString();
-            }
-
-            LOGGER.info("tagged image upload: {}", uploadImgName);
-            String id = dockerClient.inspectImageCmd(imageInfo.getSwImage()).exec().getId();
-            dockerClient.tagImageCmd(id, uploadImgName, imageInfo.getVersion()).withForce().exec();
-
-            uploadedImgs.add(uploadImgName);
-            try {
-                dockerClient.pushImageCmd(uploadImgName).exec(new PushImageResultCallback()).awaitCompletion();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new ApmException("failed to upload image");
-            } catch (NotFoundException e) {
-                LOGGER.error("failed to upload image {}, image not found in repository, {}", uploadImgName,
-                    e.getMessage());
-                throw new ApmException("failed to push image to edge repo");
-            } catch (InternalServerErrorException e) {
-                LOGGER.error("internal server error while uploading image {},{}", uploadImgName, e.getMessage());
-                throw new ApmException("failed to push image to edge repo");
-            }
-        }
+        imageMover.moveImages(null, imageInfoList, null, uploadedImgs, null, new CancelToken());
         LOGGER.info("images uploaded successfully");
     }
 
@@ -1068,21 +1528,23 @@ public class ApmService {
         if (imageInfoList == null || imageInfoList.isEmpty()) {
             return;
         }
-        DockerClientConfig config = DefaultDockerClientConfig.createDefaultConfigBuilder().build();
-
-        DockerClient dockerClient = DockerClientBuilder.getInstance(config).build();
+        DockerClient dockerClient = imageMover.borrowLocalClient();
 
         String id;
-        for (String image : imageInfoList) {
-            try {
-                id = dockerClient.inspectImageCmd(image).exec().getId();
-                if (id != null) {
-                    LOGGER.debug("delete docker image  {}", image);
-                    dockerClient.removeImageCmd(id).withForce(true).exec();
+        try {
+            for (String image : imageInfoList) {
+                try {
+                    id = dockerClient.inspectImageCmd(image).exec().getId();
+                    if (id != null) {
+                        LOGGER.debug("delete docker image  {}", image);
+                        dockerClient.removeImageCmd(id).withForce(true).exec();
+                    }
+                } catch (NotFoundException | ConflictException ex) {
+                    LOGGER.error("docker image {} not found {}", image, ex.getMessage());
                 }
-            } catch (NotFoundException | ConflictException ex) {
-                LOGGER.error("docker image {} not found {}", image, ex.getMessage());
             }
+        } finally {
+            imageMover.releaseLocalClient(dockerClient);
         }
     }
 
@@ -1127,18 +1589,7 @@ public class ApmService {
         File yamlFile;
 
         try {
-            String appPkgDir = getLocalIntendedDir(packageId, tenantId);
-            LOGGER.info("appPkgDir: {}", appPkgDir);
-
-            String mainServiceYaml = appPkgDir + File.separator + getEntryDefinitionFromMetadata(appPkgDir,
-                    "TOSCA.meta");
-
-            String appDefnDir = FilenameUtils.removeExtension(mainServiceYaml);
-            CompressUtility.unzipApplicationPacakge(mainServiceYaml, appDefnDir);
-
-            yamlFile = new File(
-                    appDefnDir + File.separator + getEntryDefinitionFromMetadata(appDefnDir, "TOSCA_VNFD.meta"));
-
+            yamlFile = getMainServiceTemplate(tenantId, packageId);
         } catch (ApmException e) {
             LOGGER.error("failed to get main service template yaml {}", e.getMessage());
             throw new ApmException("failed to get main service template yaml");
@@ -1179,17 +1630,7 @@ public class ApmService {
         File yamlFile;
 
         try {
-            String appPkgDir = getLocalIntendedDir(packageId, tenantId);
-
-            String mainServiceYaml = appPkgDir + File.separator + getEntryDefinitionFromMetadata(appPkgDir,
-                    "TOSCA.meta");
-
-            String appDefnDir = FilenameUtils.removeExtension(mainServiceYaml);
-            CompressUtility.unzipApplicationPacakge(mainServiceYaml, appDefnDir);
-
-            yamlFile = new File(
-                    appDefnDir + File.separator + getEntryDefinitionFromMetadata(appDefnDir, "TOSCA_VNFD.meta"));
-
+            yamlFile = getMainServiceTemplate(tenantId, packageId);
         } catch (ApmException e) {
             LOGGER.error("failed to get main service template yaml {}", e.getMessage());
             throw new ApmException("failed to get main service template yaml");
@@ -16,39 +16,57 @@
 
 package org.edgegallery.mecm.apm.service;
 
+import static org.edgegallery.mecm.apm.utils.ApmServiceHelper.getOriginalPackagePath;
 import static org.edgegallery.mecm.apm.utils.ApmServiceHelper.getProtocol;
 import static org.edgegallery.mecm.apm.utils.ApmServiceHelper.isSuffixExist;
-import static org.edgegallery.mecm.apm.utils.ApmServiceHelper.saveInputStreamToFile;
 import static org.edgegallery.mecm.apm.utils.Constants.DISTRIBUTION_FAILED;
 import static org.edgegallery.mecm.apm.utils.Constants.ERROR;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import java.io.File;
 import java.io.InputStream;
 import java.nio.file.InvalidPathException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import javax.annotation.PostConstruct;
 import lombok.Getter;
 import lombok.Setter;
 import org.apache.commons.io.FileUtils;
 import org.edgegallery.mecm.apm.apihandler.ApmSyncHandler;
 import org.edgegallery.mecm.apm.exception.ApmException;
+import org.edgegallery.mecm.apm.model.ApmInstance;
+import org.edgegallery.mecm.apm.model.ApmJob;
+import org.edgegallery.mecm.apm.model.ApmJobPayload;
 import org.edgegallery.mecm.apm.model.AppPackageInfo;
 import org.edgegallery.mecm.apm.model.AppPackageSyncInfo;
 import org.edgegallery.mecm.apm.model.AppRepo;
 import org.edgegallery.mecm.apm.model.AppStore;
+import org.edgegallery.mecm.apm.model.AppStorePackages;
 import org.edgegallery.mecm.apm.model.AppTemplate;
+import org.edgegallery.mecm.apm.model.MecHost;
 import org.edgegallery.mecm.apm.model.PkgSyncInfo;
 import org.edgegallery.mecm.apm.model.SwImageDescr;
 import org.edgegallery.mecm.apm.model.dto.AppPackageDto;
@@ -64,11 +82,15 @@ import org.edgegallery.mecm.apm.model.dto.templatedto.Resource;
 import org.edgegallery.mecm.apm.model.dto.templatedto.ResourceInfo;
 import org.edgegallery.mecm.apm.utils.ApmServiceHelper;
 import org.edgegallery.mecm.apm.utils.ApmV2Response;
+import org.edgegallery.mecm.apm.utils.CancelToken;
 import org.edgegallery.mecm.apm.utils.CompressUtility;
 import org.edgegallery.mecm.apm.utils.Constants;
+import org.edgegallery.mecm.apm.utils.KeyedLimiter;
+import org.edgegallery.mecm.apm.utils.TtlCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.HttpEntity;
@@ -97,6 +119,8 @@ public class ApmServiceFacade {
     private static final String HTTPS = "https://";
     private static final String PATH_DELIMITER = "/";
     private static final String CSAR = ".csar";
+    private static final String DOCKER_CONTENT_DIGEST = "Docker-Content-Digest";
+    private static final String SYNC_CANCELLED = "sync cancelled";
 
     @Autowired
     private ApmService apmService;
@@ -107,9 +131,27 @@ public class ApmServiceFacade {
     @Autowired
     private DbService dbService;
 
+    @Autowired
+    private DistributionStatusPoller statusPoller;
+
+    @Autowired
+    private PackageGarbageCollector packageGarbageCollector;
+
+    @Autowired
+    private SyncJobEngine syncJobEngine;
+
+    @Autowired
+    private ApmJobWorker jobWorker;
+
     @Value("${apm.package-dir:/usr/app/packages}")
     private String localDirPath;
 
+    @Value("${apm.package-dir-shared:false}")
+    private boolean packageDirShared;
+
+    @Value("${apm.job.lease:60000}")
+    private long jobLease;
+
     private String localPackagePath;
 
     @Autowired
@@ -124,23 +166,136 @@ public class ApmServiceFacade {
     @Value("${server.ssl.enabled:false}")
     private String isSslEnabled;
 
+    @Autowired
+    @Qualifier("distributionExecutor")
+    private Executor distributionExecutor;
+
+    @Value("${apm.distribution.per-mepm-limit:4}")
+    private int perMepmLimit;
+
+    private final KeyedLimiter mepmLimiter = new KeyedLimiter(() -> perMepmLimit,
+            task -> distributionExecutor.execute(task));
+
+    @Autowired
+    @Qualifier("manifestCheckExecutor")
+    private Executor manifestCheckExecutor;
+
+    @Value("${apm.manifest-check.cache-ttl:300000}")
+    private long manifestCacheTtl;
+
+    @Value("${apm.manifest-check.cache-max-size:1000}")
+    private int manifestCacheMaxSize;
+
+    private TtlCache<String, String> manifestCache;
+
     /**
-     * Updates Db and distributes docker application image to host.
+     * Initializes cache of manifests present in MECM repo.
+     */
+    @PostConstruct
+    public void initManifestCache() {
+        manifestCache = new TtlCache<>(manifestCacheTtl, manifestCacheMaxSize);
+    }
+
+    /**
+     * Submits job which updates Db and distributes docker application image to host.
      *
      * @param accessToken   access token
      * @param tenantId      tenant ID
      * @param appPackageDto appPackage details
      * @param syncAppPkg    app package sync info
      */
-    @Async
     public void onboardApplication(String accessToken, String tenantId, AppPackageDto appPackageDto,
                                    PkgSyncInfo syncAppPkg) {
+        jobWorker.submit(ApmJobWorker.ONBOARD, appPackageDto.getAppPkgId() + tenantId, accessToken,
+                new ApmJobPayload(tenantId, appPackageDto, null, withoutRepoInfo(syncAppPkg)));
+    }
+
+    /**
+     * Submits job which distributes docker application image to host.
+     *
+     * @param accessToken   access token
+     * @param tenantId      tenant ID
+     * @param appPackageDto appPackage details
+     * @param localFilePath local package path
+     * @param syncAppPkg    sync application package
+     */
+    public void onboardApplication(String accessToken, String tenantId, AppPackageDto appPackageDto,
+                                   String localFilePath, PkgSyncInfo syncAppPkg) {
+        jobWorker.submit(ApmJobWorker.ONBOARD, appPackageDto.getAppPkgId() + tenantId, accessToken,
+                new ApmJobPayload(tenantId, appPackageDto, localFilePath, withoutRepoInfo(syncAppPkg)));
+    }
+
+    /**
+     * Runs persistent job.
+     *
+     * @param jobType     job type
+     * @param payload     job input
+     * @param accessToken access token, not persisted with the job
+     * @return future completed once hosts the package was distributed to report final distribution status
+     */
+    public CompletableFuture<Void> runJob(String jobType, ApmJobPayload payload, String accessToken) {
+        PkgSyncInfo syncInfo = payload.getSyncInfo();
+        // repo credentials are not persisted with the job, they are read again from inventory
+        syncInfo.setRepoInfo(getRepoInfo(accessToken, syncInfo));
+        if (ApmJobWorker.SYNC.equals(jobType)) {
+            syncAppPkgFromAppstoreToMecmRepo(accessToken, syncInfo, new CancelToken());
+            return CompletableFuture.completedFuture(null);
+        } else if (payload.getLocalFilePath() == null) {
+            return onboardAppPackage(accessToken, payload.getTenantId(), payload.getAppPackageDto(), syncInfo);
+        }
+        return onboardAppPackage(accessToken, payload.getTenantId(), payload.getAppPackageDto(),
+                payload.getLocalFilePath(), syncInfo);
+    }
+
+    /**
+     * Marks work of a job which ran out of attempts as failed. Hosts on which package was already distributed keep
+     * their status.
+     *
+     * @param jobType job type
+     * @param payload job input
+     * @param error   reason for failure
+     */
+    public void failJob(String jobType, ApmJobPayload payload, String error) {
+        if (ApmJobWorker.SYNC.equals(jobType)) {
+            dbService.updateAppPackageSyncStatus(payload.getSyncInfo().getAppId(),
+                    payload.getSyncInfo().getPackageId(), Constants.APP_SYNC_FAILED, error);
+        } else {
+            dbService.updateDistributionStatusOfUndistributedHosts(payload.getTenantId(),
+                    payload.getAppPackageDto().getAppPkgId(), ERROR, error);
+        }
+    }
+
+    private Map<String, AppRepo> getRepoInfo(String accessToken, PkgSyncInfo syncInfo) {
+        Map<String, AppRepo> repoInfo = new HashMap<>();
+        for (AppRepo appRepo : apmService.getAllAppRepoCfgFromInventory(accessToken)) {
+            repoInfo.put(appRepo.getRepoEndPoint(), appRepo);
+        }
+        if (!"-".equals(syncInfo.getAppstoreIp())) {
+            AppStore appstore = apmService.getAppStoreCfgFromInventory(syncInfo.getAppstoreIp(), accessToken);
+            AppRepo appRepo = new AppRepo();
+            appRepo.setRepoEndPoint(appstore.getAppstoreRepo());
+            appRepo.setRepoUserName(appstore.getAppstoreRepoUserName());
+            appRepo.setRepoPassword(appstore.getAppstoreRepoPassword());
+            repoInfo.put(appstore.getAppstoreRepo(), appRepo);
+        }
+        return repoInfo;
+    }
+
+    private static PkgSyncInfo withoutRepoInfo(PkgSyncInfo syncInfo) {
+        return new PkgSyncInfo(syncInfo.getPackageId(), syncInfo.getAppId(), syncInfo.getAppstoreIp(),
+                syncInfo.getAppstorePort(), null);
+    }
+
+    private CompletableFuture<Void> onboardAppPackage(String accessToken, String tenantId,
+                                                      AppPackageDto appPackageDto, PkgSyncInfo syncAppPkg) {
         String packageId = appPackageDto.getAppPkgId();
         List<SwImageDescr> imageInfoList;
+        CompletableFuture<Void> distributed = CompletableFuture.completedFuture(null);
 
         try {
-            InputStream stream = apmService.downloadAppPackage(appPackageDto.getAppPkgPath(), packageId, accessToken);
-            String localFilePath = saveInputStreamToFile(stream, packageId, tenantId, localDirPath);
+            String localFilePath = apmService.downloadAppPackageToFile(appPackageDto.getAppPkgPath(), packageId,
+                    tenantId, localDirPath, accessToken).getFilePath();
+            updateAppPackageOwner(tenantId, packageId);
 
             imageInfoList = apmService.getAppImageInfo(tenantId, localFilePath, appPackageDto.getAppPkgId());
             String appDeployType = apmService.getAppPackageDeploymentType(tenantId, appPackageDto.getAppPkgId());
@@ -149,33 +304,29 @@ public class ApmServiceFacade {
             dbService.createOrUpdateAppTemplate(tenantId, appTemplate);
 
             if ("container".equalsIgnoreCase(appDeployType)) {
-                onboardContainerBasedAppPkg(accessToken, tenantId, appPackageDto, syncAppPkg, imageInfoList);
+                distributed = onboardContainerBasedAppPkg(accessToken, tenantId, appPackageDto, syncAppPkg,
+                        imageInfoList);
                 addAppSyncInfoDb(appPackageDto, syncAppPkg, Constants.SUCCESS);
             } else if ("vm".equalsIgnoreCase(appDeployType)) {
-                onboardVmBasedAppPkg(accessToken, tenantId, appPackageDto);
+                distributed = onboardVmBasedAppPkg(accessToken, tenantId, appPackageDto);
                 addAppSyncInfoDb(appPackageDto, syncAppPkg, Constants.SUCCESS);
             }
-        } catch (ApmException ex) {
+        } catch (ApmException | IllegalArgumentException | NoSuchElementException ex) {
             LOGGER.error(DISTRIBUTION_FAILED, ex.getMessage());
-            return;
+            dbService.updateDistributionStatusOfUndistributedHosts(tenantId, packageId, ERROR, ex.getMessage());
+            // failure is reported to the job so that it is retried
+            throw ex;
         }
         LOGGER.info("On-boading completed...");
+        return distributed;
     }
 
-    /**
-     * Distributes docker application image to host.
-     *
-     * @param accessToken   access token
-     * @param tenantId      tenant ID
-     * @param appPackageDto appPackage details
-     * @param localFilePath local package path
-     * @param syncAppPkg    sync application package
-     */
-    @Async
-    public void onboardApplication(String accessToken, String tenantId, AppPackageDto appPackageDto,
-                                   String localFilePath, PkgSyncInfo syncAppPkg) {
-
+    private CompletableFuture<Void> onboardAppPackage(String accessToken, String tenantId,
+                                                      AppPackageDto appPackageDto, String localFilePath,
+                                                      PkgSyncInfo syncAppPkg) {
+        CompletableFuture<Void> distributed = CompletableFuture.completedFuture(null);
         try {
+            updateAppPackageOwner(tenantId, appPackageDto.getAppPkgId());
             List<SwImageDescr> imageInfoList = apmService.getAppImageInfo(tenantId, localFilePath,
                                                                           appPackageDto.getAppPkgId());
             String appDeployType = apmService.getAppPackageDeploymentType(tenantId, appPackageDto.getAppPkgId());
@@ -184,15 +335,23 @@ public class ApmServiceFacade {
             dbService.createOrUpdateAppTemplate(tenantId, appTemplate);
 
             if ("container".equalsIgnoreCase(appDeployType)) {
-                onboardContainerBasedAppPkg(accessToken, tenantId, appPackageDto, syncAppPkg, imageInfoList);
+                distributed = onboardContainerBasedAppPkg(accessToken, tenantId, appPackageDto, syncAppPkg,
+                        imageInfoList);
             } else if ("vm".equalsIgnoreCase(appDeployType)) {
-                onboardVmBasedAppPkg(accessToken, tenantId, appPackageDto);
+                distributed = onboardVmBasedAppPkg(accessToken, tenantId, appPackageDto);
             }
-        } catch (ApmException | IllegalArgumentException ex) {
+        } catch (ApmException | IllegalArgumentException | NoSuchElementException ex) {
             LOGGER.error(DISTRIBUTION_FAILED, ex.getMessage());
-            return;
+            dbService.updateDistributionStatusOfUndistributedHosts(tenantId, appPackageDto.getAppPkgId(), ERROR,
+                    ex.getMessage());
+            throw ex;
         }
         LOGGER.info("On-boading completed...");
+        return distributed;
+    }
+
+    private void updateAppPackageOwner(String tenantId, String packageId) {
+        dbService.updateAppPackageOwner(tenantId, packageId, packageDirShared ? null : jobWorker.getInstanceId());
     }
 
     private boolean isDockerImageAvailableInPkg(String dockerImage) {
@@ -200,10 +359,10 @@ public class ApmServiceFacade {
                 || isSuffixExist(dockerImage, ".tgz");
     }
 
-    private void onboardContainerBasedAppPkg(String accessToken, String tenantId, AppPackageDto appPackageDto,
-                                             PkgSyncInfo syncAppPkg, List<SwImageDescr> imageInfoList) {
+    private CompletableFuture<Void> onboardContainerBasedAppPkg(String accessToken, String tenantId,
+                                                                AppPackageDto appPackageDto, PkgSyncInfo syncAppPkg,
+                                                                List<SwImageDescr> imageInfoList) {
         String packageId = appPackageDto.getAppPkgId();
-        String dockerImgspath;
         boolean downloadImg = true;
         Set<String> loadedImgs = new HashSet<>();
         try {
@@ -212,12 +371,7 @@ public class ApmServiceFacade {
                     downloadImg = false;
 
                     LOGGER.info("application package contains docker images...");
-                    dockerImgspath = apmService.unzipDockerImages(appPackageDto.getAppPkgId(), tenantId);
-                    apmService.loadDockerImages(packageId, imageInfoList, loadedImgs);
-
-                    FileUtils.deleteQuietly(new File(dockerImgspath + ".zip"));
-                    FileUtils.deleteQuietly(new File(dockerImgspath));
-
+                    apmService.loadDockerImagesFromPackage(packageId, tenantId, imageInfoList, loadedImgs);
                     break;
                 }
             }
@@ -227,25 +381,29 @@ public class ApmServiceFacade {
             apmService.updateAppPackageWithRepoInfo(tenantId, packageId);
 
             String sourceDir = apmService.getLocalIntendedDir(packageId, tenantId);
-            CompressUtility.compressAppPackage(sourceDir, sourceDir + File.separator + packageId + CSAR);
+            CompressUtility.rewriteAppPackage(getOriginalPackagePath(sourceDir), sourceDir,
+                    sourceDir + File.separator + packageId + CSAR);
         } catch (ApmException | IllegalArgumentException ex) {
             LOGGER.error(DISTRIBUTION_FAILED, ex.getMessage());
             apmService.deleteAppPkgDockerImages(loadedImgs);
-            dbService.updateDistributionStatusOfAllHost(tenantId, packageId, ERROR, ex.getMessage());
+            dbService.updateDistributionStatusOfUndistributedHosts(tenantId, packageId, ERROR, ex.getMessage());
             throw new ApmException(ex.getMessage());
         }
 
-        distributeApplication(tenantId, appPackageDto, accessToken);
+        return distributeApplication(tenantId, appPackageDto, accessToken);
     }
 
-    private void onboardVmBasedAppPkg(String accessToken, String tenantId, AppPackageDto appPackageDto) {
+    private CompletableFuture<Void> onboardVmBasedAppPkg(String accessToken, String tenantId,
+                                                         AppPackageDto appPackageDto) {
 
         String sourceDir = apmService.getLocalIntendedDir(appPackageDto.getAppPkgId(), tenantId);
-        CompressUtility.compressAppPackage(sourceDir, sourceDir + File.separator + appPackageDto.getAppPkgId() + CSAR);
+        CompressUtility.rewriteAppPackage(getOriginalPackagePath(sourceDir), sourceDir,
+                sourceDir + File.separator + appPackageDto.getAppPkgId() + CSAR);
 
-        distributeApplication(tenantId, appPackageDto, accessToken);
+        CompletableFuture<Void> distributed = distributeApplication(tenantId, appPackageDto, accessToken);
 
         LOGGER.info("On-boading vm based applicaiton package completed...");
+        return distributed;
     }
 
     private void addAppSyncInfoDb(AppPackageDto appPackageDto, PkgSyncInfo syncInfo, String operationalInfo) {
@@ -352,6 +510,28 @@ public class ApmServiceFacade {
         }
     }
 
+    /**
+     * Returns runtime metrics of application package manager.
+     *
+     * @return metrics
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("inventoryCache", apmService.getInventoryCacheStats());
+        metrics.put("pendingDistributions", statusPoller.getPendingCount());
+        metrics.put("packageDir", packageGarbageCollector.getStats());
+        metrics.put("activeSyncJobs", syncJobEngine.getActiveJobCount());
+        metrics.put("jobs", jobWorker.getStats());
+        return metrics;
+    }
+
+    /**
+     * Removes all cached inventory records.
+     */
+    public void invalidateInventoryCache() {
+        apmService.invalidateInventoryCache();
+    }
+
     /**
      * Returns list of app package info.
      *
@@ -362,6 +542,20 @@ public class ApmServiceFacade {
         return dbService.getAllAppPackage(tenantId);
     }
 
+    /**
+     * Returns a page of app package info modified on or after the given time.
+     *
+     * @param tenantId      tenant ID
+     * @param modifiedSince lower bound of modified time, null for all packages
+     * @param limit         max number of packages to return
+     * @param offset        number of packages to skip
+     * @return list of app package info
+     */
+    public List<AppPackageDto> getAllAppPackageInfo(String tenantId, LocalDateTime modifiedSince,
+                                                    int limit, int offset) {
+        return dbService.getAllAppPackage(tenantId, modifiedSince, limit, offset);
+    }
+
     /**
      * Deletes app package in host.
      *
@@ -385,6 +579,30 @@ public class ApmServiceFacade {
         return apmService.getAppPackageFile(ApmServiceHelper.getLocalFilePath(localDirPath, packageId, tenantId));
     }
 
+    /**
+     * Returns address of the instance holding app package csar file when it is not held by this instance.
+     *
+     * @param tenantId  tenant ID
+     * @param packageId package ID
+     * @return protocol and end point of instance holding the package, null when package is served locally
+     */
+    public String getAppPackageLocation(String tenantId, String packageId) {
+        if (packageDirShared
+                || new File(ApmServiceHelper.getLocalFilePath(localDirPath, packageId, tenantId)).exists()) {
+            return null;
+        }
+        String owner = dbService.getAppPackage(tenantId, packageId).getOwner();
+        if (owner == null || owner.equals(jobWorker.getInstanceId())) {
+            return null;
+        }
+        ApmInstance instance = jobWorker.getLiveInstance(owner);
+        if (instance == null || instance.getEndpoint() == null || instance.getEndpoint().isEmpty()) {
+            LOGGER.error("app package {} is held by instance {} which is not reachable", packageId, owner);
+            throw new NoSuchElementException("app package is not available on any live instance");
+        }
+        return getProtocol(isSslEnabled) + instance.getEndpoint();
+    }
+
     /**
      * Create app package record in db.
      *
@@ -422,11 +640,11 @@ public class ApmServiceFacade {
                 //Download docker images if path in swImagewDescr refers to remote
                 if (downloadImage) {
                     downloadedImgs = new HashSet<>();
-                    apmService.downloadAppImage(syncAppPkg, imageInfoList, downloadedImgs);
                 }
 
                 uploadedImgs = new HashSet<>();
-                apmService.uploadAppImage(imageInfoList, uploadedImgs);
+                apmService.syncAppImages(syncAppPkg, imageInfoList, downloadedImgs, uploadedImgs,
+                        progress -> dbService.updateAppPackageOperationalInfo(packageId, progress), new CancelToken());
             }
         } catch (ApmException e) {
             throw new ApmException(e.getMessage());
@@ -436,119 +654,127 @@ public class ApmServiceFacade {
         }
     }
 
-    private void distributeApplication(String tenantId, AppPackageDto appPackageDto, String accessToken) {
+    private CompletableFuture<Void> distributeApplication(String tenantId, AppPackageDto appPackageDto,
+                                                          String accessToken) {
         String packageId = appPackageDto.getAppPkgId();
+        boolean failFast = !Constants.DISTRIBUTION_POLICY_BEST_EFFORT.equals(appPackageDto.getDistributionPolicy());
+        AtomicBoolean aborted = new AtomicBoolean(false);
+        AtomicInteger failed = new AtomicInteger(0);
+
+        LOGGER.info("Entering distribution flow, package {}, hosts {}, fail fast {}", packageId,
+                appPackageDto.getMecHostInfo().size(), failFast);
+        List<CompletableFuture<Void>> results = new LinkedList<>();
+        Queue<CompletableFuture<String>> statuses = new ConcurrentLinkedQueue<>();
         for (MecHostDto host : appPackageDto.getMecHostInfo()) {
-            String distributionStatus;
-            String error = "";
-            try {
-                LOGGER.info("Entering distribution flow");
-                uploadAndDistributeApplicationPackage(accessToken, host.getHostIp(), tenantId,
-                        appPackageDto.getAppId(), packageId);
-                //  wait for distribution status to fetch from aapplcm
-                String mepmEndPoint = apmService.getMepmCfgOfHost(tenantId, host.getHostIp(), accessToken);
-                updateDistributionStatus(mepmEndPoint, tenantId, packageId, accessToken, error, host.getHostIp());
-
-            } catch (ApmException e) {
-                distributionStatus = ERROR;
-                error = e.getMessage();
-                LOGGER.error(Constants.DISTRIBUTION_IN_HOST_FAILED, packageId, host.getHostIp());
-                dbService.updateDistributionStatusOfHost(tenantId, packageId, host.getHostIp(), distributionStatus,
-                        error);
-                throw new ApmException(e.getMessage());
-            }
+            results.add(CompletableFuture.supplyAsync(() -> distributeApplicationToHost(tenantId, appPackageDto,
+                    host.getHostIp(), accessToken, aborted, statuses), distributionExecutor)
+                    .thenCompose(Function.identity())
+                    .thenAccept(success -> {
+                        if (!success) {
+                            failed.incrementAndGet();
+                            if (failFast) {
+                                aborted.set(true);
+                            }
+                        }
+                    }));
         }
-    }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).join();
 
-    private void updateDistributionStatus(String mepmEndPoint, String tenantId, String packageId, String accessToken,
-                                          String error, String host) {
-        String status = "";
-        String response = "";
-        boolean timeout = false;
-        JsonArray jsonarray = new JsonArray();
+        if (failed.get() > 0) {
+            LOGGER.error("application package {} distribution failed on {} of {} hosts", packageId, failed.get(),
+                    results.size());
+            throw new ApmException("distribution failed on " + failed.get() + " of " + results.size() + " hosts");
+        }
+        return CompletableFuture.allOf(statuses.toArray(new CompletableFuture[0]));
+    }
 
-        for (int i = 0; i < 20; i++) {
-            response = getAppPkgDistributionStatus(mepmEndPoint, tenantId,
-                    packageId, accessToken);
-            LOGGER.info("response is : {} attempt no. {}", response, i);
-            JsonObject json = new JsonParser().parse(response).getAsJsonObject();
-            JsonArray output = json.get("data").getAsJsonArray();
+    private CompletableFuture<Boolean> distributeApplicationToHost(String tenantId, AppPackageDto appPackageDto,
+                                                                   String hostIp, String accessToken,
+                                                                   AtomicBoolean aborted,
+                                                                   Queue<CompletableFuture<String>> statuses) {
+        String packageId = appPackageDto.getAppPkgId();
+        MecHost mecHost = dbService.findHostWithIp(tenantId, packageId, hostIp);
+        if (mecHost != null && Constants.DISTRIBUTE_STATE_DISTRIBUTED.equalsIgnoreCase(
+                mecHost.getDistributionStatus())) {
+            // distributed by an earlier attempt of the job
+            return CompletableFuture.completedFuture(true);
+        }
+        if (aborted.get()) {
+            dbService.updateDistributionStatusOfHost(tenantId, packageId, hostIp, ERROR,
+                    Constants.DISTRIBUTION_CANCELLED);
+            return CompletableFuture.completedFuture(false);
+        }
 
-            for (JsonElement hosts : output) {
-                jsonarray = hosts.getAsJsonObject().get("mecHostInfo").getAsJsonArray();
-            }
-            for (JsonElement element : jsonarray) {
-                status = element.getAsJsonObject().get("status").getAsString();
-            }
+        String mepmEndPoint;
+        try {
+            mepmEndPoint = apmService.getMepmCfgOfHost(tenantId, hostIp, accessToken);
+        } catch (RuntimeException e) {
+            return CompletableFuture.completedFuture(failHost(tenantId, packageId, hostIp, e));
+        }
 
-            if (status.equalsIgnoreCase("Distributing")
-                    || status.equalsIgnoreCase("uploading")) {
-                try {
-                    Thread.sleep(30 * 1000L);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    LOGGER.error("InterruptedException in updateDistributionStatus");
-                }
-                timeout = true;
+        // hosts wait in the queue of their MEPM rather than on a pool thread
+        return submitToMepm(mepmEndPoint, () -> {
+            if (aborted.get()) {
+                dbService.updateDistributionStatusOfHost(tenantId, packageId, hostIp, ERROR,
+                        Constants.DISTRIBUTION_CANCELLED);
+                return false;
             }
-            if (status.equalsIgnoreCase("Distributed")
-                    || status.equalsIgnoreCase("Error")
-                    || status.equalsIgnoreCase("uploaded")) {
-                timeout = false;
-                LOGGER.info("status is : {} attempt no. {}", status, i);
-                break;
+            try {
+                uploadApplicationPackage(mepmEndPoint, tenantId, appPackageDto.getAppId(), packageId, accessToken);
+                distributeApplicationPackage(mepmEndPoint, tenantId, packageId, hostIp, accessToken);
+
+                // distribution status is fetched from applcm by the shared poller, no thread waits for it, while
+                // job stays open until final status is reported so that distribution is resumed if instance stops
+                statuses.add(statusPoller.track(mepmEndPoint, tenantId, packageId, hostIp, accessToken));
+                return true;
+            } catch (RuntimeException e) {
+                return failHost(tenantId, packageId, hostIp, e);
             }
-            LOGGER.info("status is : {} attempt no. {}", status, i);
-        }
-
-        if (timeout) {
-            status = "Timeout";
-        }
-        dbService.updateDistributionStatusOfHost(tenantId, packageId, host,
-                status, error);
-        LOGGER.info("Application package {}, on-boarding on {} completed...", packageId, host);
+        });
     }
 
-    private String getAppPkgDistributionStatus(String mepmEndPoint, String tenantId,
-                                               String pkgId, String accessToken) {
-        LOGGER.info("distribute application package ");
-        String url = new StringBuilder(getProtocol(isSslEnabled)).append(mepmEndPoint)
-                .append(LCMCONTROLLER_URL).append(tenantId)
-                .append(PACKAGES_URL).append(pkgId).toString();
-        return apmService.sendGetRequest(url, accessToken);
+    private boolean failHost(String tenantId, String packageId, String hostIp, RuntimeException e) {
+        LOGGER.error(Constants.DISTRIBUTION_IN_HOST_FAILED, packageId, hostIp);
+        // MEPM of the host may have changed in inventory, look it up again on next attempt
+        apmService.invalidateMepmCfgOfHost(tenantId, hostIp);
+        dbService.updateDistributionStatusOfHost(tenantId, packageId, hostIp, ERROR,
+                e.getMessage() != null ? e.getMessage() : "distribution failed");
+        return false;
     }
 
     /**
-     * Returns manifest for a given docker image reference.
+     * Returns digest of manifest for a given docker image reference. Presence is checked with a HEAD request and
+     * positive answers are cached.
      *
      * @param repo        repository endpoint
      * @param repository  docker repository
      * @param tag         docker image tag
      * @param accessToken access token
-     * @return returns appstore configuration info
-     * @throws ApmException exception if failed to get appstore configuration details
+     * @return manifest digest, empty when repository does not report it
+     * @throws ApmException exception if manifest is not available
      */
     public String checkIfManifestPresentRepo(String repo, String repository, String tag, String accessToken) {
-        String url;
+        return getManifestDigest(getManifestUrl(repo, repository, tag), accessToken);
+    }
+
+    private String getManifestUrl(String repo, String repository, String tag) {
         String[] repos = repo.split(":");
+        String path = repository.startsWith(PATH_DELIMITER) ? repository.substring(1) : repository;
 
+        StringBuilder url = new StringBuilder(getProtocol(isSslEnabled)).append(repo);
         if (repos.length == 1) {
-            url = new StringBuilder(getProtocol(isSslEnabled)).append(repo).append(":")
-                    .append("443").append("/v2")
-                    .append(repository)
-                    .append("/manifests/")
-                    .append(tag).toString();
-        } else {
-            url = new StringBuilder(getProtocol(isSslEnabled)).append(repo).append("/v2/")
-                    .append(repository)
-                    .append("/manifests/")
-                    .append(tag).toString();
+            url.append(":").append("443");
         }
-        LOGGER.info("check if manifest available in repo: {}", url);
+        return url.append("/v2/").append(path).append("/manifests/").append(tag).toString();
+    }
 
-        String response = apmService.sendGetRequest(url, accessToken);
-        LOGGER.info("manifest query result {}", response);
-        return response;
+    private String getManifestDigest(String url, String accessToken) {
+        return manifestCache.get(url, key -> {
+            LOGGER.info("check if manifest available in repo: {}", key);
+            HttpHeaders headers = apmService.sendHeadRequest(key, accessToken, RegistryClient.MANIFEST_ACCEPT);
+            String digest = headers.getFirst(DOCKER_CONTENT_DIGEST);
+            return digest != null ? digest : "";
+        });
     }
 
     private List<SwImageDescr> getImagesExcludingAlreadyUploaded(List<SwImageDescr> imageInfoList,
@@ -560,21 +786,27 @@ public class ApmServiceFacade {
             throw new ApmException("swImageDescr image info list is null");
         }
 
+        // manifests of all images are checked concurrently, so the check takes one round trip
+        List<CompletableFuture<Boolean>> checks = new LinkedList<>();
         for (SwImageDescr imageInfo : imageInfoList) {
-            try {
-                String tag = imageInfo.getVersion();
-                String name = imageInfo.getName();
-                if (tag == null || name == null) {
-                    LOGGER.error("could not find image name or image version in descriptor");
-                    throw new ApmException("could not find image name or image version in descriptor");
-                }
-                String[] imageName = name.split(":");
-                String mecmRepository = "/mecm/" + imageName[0];
-
-                checkIfManifestPresentRepo(mecmRepoEndpoint, mecmRepository, tag, accessToken);
+            String tag = imageInfo.getVersion();
+            String name = imageInfo.getName();
+            if (tag == null || name == null) {
+                LOGGER.error("could not find image name or image version in descriptor");
+                checks.add(CompletableFuture.completedFuture(false));
+                continue;
+            }
+            String[] imageName = name.split(":");
+            String url = getManifestUrl(mecmRepoEndpoint, "/mecm/" + imageName[0], tag);
+            checks.add(CompletableFuture.supplyAsync(() -> isManifestPresent(url, accessToken),
+                    manifestCheckExecutor));
+        }
 
+        Iterator<CompletableFuture<Boolean>> results = checks.iterator();
+        for (SwImageDescr imageInfo : imageInfoList) {
+            if (results.next().join()) {
                 LOGGER.info("image is available in repo, skip download/upload {}", imageInfo.getSwImage());
-            } catch (ApmException | NoSuchElementException ex) {
+            } else {
                 imagesLstExcImgsInRepo.add(imageInfo);
                 LOGGER.error("image is not available in repo, download image: {}", imageInfo.getSwImage());
             }
@@ -582,6 +814,15 @@ public class ApmServiceFacade {
         return imagesLstExcImgsInRepo;
     }
 
+    private boolean isManifestPresent(String url, String accessToken) {
+        try {
+            getManifestDigest(url, accessToken);
+            return true;
+        } catch (ApmException | NoSuchElementException ex) {
+            return false;
+        }
+    }
+
     /**
      * Upload and distribute application package on the edge host.
      *
@@ -709,9 +950,9 @@ public class ApmServiceFacade {
      *
      * @param appstoreEndPoint appstore end point
      * @param accessToken      access token
-     * @return app store configuration
+     * @return application packages of appstore and apps whose packages changed since previous refresh
      */
-    public List<AppPackageInfoDto> getAppPackagesInfo(String appstoreEndPoint, String accessToken) {
+    public AppStorePackages getAppPackagesInfo(String appstoreEndPoint, String accessToken) {
 
         return apmService.getAppPackagesInfoFromAppStore(appstoreEndPoint, accessToken);
     }
@@ -733,11 +974,12 @@ public class ApmServiceFacade {
     /**
      * Adds application package info.
      *
-     * @param appstoreIp appstore end point
-     * @param apps       application package infos
+     * @param appstoreIp    appstore end point
+     * @param apps          application package infos
+     * @param changedAppIds apps whose packages changed, packages of other apps are not reconciled
      */
-    public void deleteNonExistingPackages(String appstoreIp, List<AppPackageInfoDto> apps) {
-        dbService.deleteNonExistingPackages(appstoreIp, apps);
+    public void deleteNonExistingPackages(String appstoreIp, List<AppPackageInfoDto> apps, Set<String> changedAppIds) {
+        dbService.deleteNonExistingPackages(appstoreIp, apps, changedAppIds);
     }
 
     /**
@@ -781,21 +1023,177 @@ public class ApmServiceFacade {
     }
 
     /**
-     * Updates Db and distributes docker application image to host.
+     * Submits sync job which updates Db and syncs application packages and their images to MECM repo.
      *
      * @param accessToken access token
      * @param syncInfos   sync appPackage details
+     * @return sync job ID
      */
-    @Async
-    public void syncApplicationPackages(String accessToken, AppPackageSyncInfo syncInfos) {
+    public String syncApplicationPackages(String accessToken, AppPackageSyncInfo syncInfos) {
         List<PkgSyncInfo> pkgInfos = syncInfos.getSyncInfo();
+        String jobId = UUID.randomUUID().toString().replace("-", "");
+        Map<String, String> apmJobIds = new HashMap<>();
         for (PkgSyncInfo syncInfo : pkgInfos) {
+            // persisted so that sync is resumed by another instance if this one stops
+            String appPkgInfoId = syncInfo.getAppId() + syncInfo.getPackageId();
+            apmJobIds.put(appPkgInfoId, jobWorker.submitRunning(ApmJobWorker.SYNC, appPkgInfoId, jobId, accessToken,
+                    new ApmJobPayload(null, null, null, withoutRepoInfo(syncInfo))));
             syncInfo.setRepoInfo(syncInfos.getRepoInfo());
-            syncAppPkgFromAppstoreToMecmRepo(accessToken, syncInfo);
         }
+        return syncJobEngine.submit(jobId, pkgInfos, (syncInfo, cancel) -> {
+            syncAppPkgFromAppstoreToMecmRepo(accessToken, syncInfo, cancel);
+            return true;
+        }, (syncInfo, error) -> jobWorker.complete(apmJobIds.get(syncInfo.getAppId() + syncInfo.getPackageId()),
+                error));
     }
 
-    private void syncAppPkgFromAppstoreToMecmRepo(String accessToken, PkgSyncInfo syncInfo) {
+    /**
+     * Claims sync of an application package so that it is synced by one request at a time across instances.
+     *
+     * @param appPkgInfoId app package info ID
+     * @return true if claimed, false if sync of package is in progress
+     */
+    public boolean claimAppPackageSync(String appPkgInfoId) {
+        return dbService.claimAppPackageSync(appPkgInfoId, LocalDateTime.now().minus(jobLease, ChronoUnit.MILLIS));
+    }
+
+    /**
+     * Claims sync of an application package, adding its package info when it is synced for the first time.
+     *
+     * @param appstoreIp   appstore IP
+     * @param appstorePort appstore port
+     * @param appPkgInfo   application package info
+     * @return true if claimed, false if sync of package is in progress
+     */
+    public boolean claimAppPackageSync(String appstoreIp, String appstorePort, AppPackageInfoDto appPkgInfo) {
+        return dbService.claimAppPackageSync(appstoreIp, appstorePort, appPkgInfo,
+                LocalDateTime.now().minus(jobLease, ChronoUnit.MILLIS));
+    }
+
+    /**
+     * Returns location of instance which runs sync job when it is not this one.
+     *
+     * @param jobId sync job ID
+     * @return location of submitting instance, null if job is served by this instance
+     * @throws NoSuchElementException if job does not exist
+     */
+    public String getSyncJobLocation(String jobId) {
+        if (syncJobEngine.hasJob(jobId)) {
+            return null;
+        }
+        List<ApmJob> apmJobs = getApmJobsOfSyncJob(jobId);
+        String submitter = apmJobs.get(0).getAffinity();
+        if (submitter == null || submitter.equals(jobWorker.getInstanceId())) {
+            return null;
+        }
+        ApmInstance instance = jobWorker.getLiveInstance(submitter);
+        if (instance == null || instance.getEndpoint() == null || instance.getEndpoint().isEmpty()) {
+            // submitter is gone, its packages are resumed by other instances and tracked in DB
+            LOGGER.info("sync job {} submitter {} is not reachable, serving it from DB", jobId, submitter);
+            return null;
+        }
+        return getProtocol(isSslEnabled) + instance.getEndpoint();
+    }
+
+    /**
+     * Returns progress of sync job.
+     *
+     * @param jobId sync job ID
+     * @return job progress
+     */
+    public Map<String, Object> getSyncJobProgress(String jobId) {
+        if (syncJobEngine.hasJob(jobId)) {
+            return syncJobEngine.getProgress(jobId);
+        }
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (String state : new String[] {SyncJobEngine.QUEUED, SyncJobEngine.RUNNING, SyncJobEngine.SUCCEEDED,
+            SyncJobEngine.FAILED, SyncJobEngine.CANCELLED, SyncJobEngine.TIMED_OUT}) {
+            counts.put(state, 0);
+        }
+        List<Map<String, String>> packages = new LinkedList<>();
+        List<ApmJob> apmJobs = getApmJobsOfSyncJob(jobId);
+        for (ApmJob apmJob : apmJobs) {
+            PkgSyncInfo syncInfo = new Gson().fromJson(apmJob.getPayload(), ApmJobPayload.class).getSyncInfo();
+            long endTime = apmJob.getFinishedTime() > 0 ? apmJob.getFinishedTime() : System.currentTimeMillis();
+            Map<String, String> pkg = new LinkedHashMap<>();
+            pkg.put("appId", syncInfo.getAppId());
+            pkg.put("packageId", syncInfo.getPackageId());
+            pkg.put("state", toSyncState(apmJob.getState()));
+            pkg.put("elapsedTime", String.valueOf(Math.max(0,
+                    endTime - apmJob.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli())));
+            counts.merge(pkg.get("state"), 1, Integer::sum);
+            packages.add(pkg);
+        }
+
+        Map<String, Object> progress = new LinkedHashMap<>();
+        progress.put("jobId", jobId);
+        progress.put("total", apmJobs.size());
+        progress.put("states", counts);
+        progress.put("packages", packages);
+        return progress;
+    }
+
+    /**
+     * Cancels sync job.
+     *
+     * @param jobId sync job ID
+     */
+    public void cancelSyncJob(String jobId) {
+        if (syncJobEngine.hasJob(jobId)) {
+            syncJobEngine.cancel(jobId);
+            return;
+        }
+        for (ApmJob apmJob : getApmJobsOfSyncJob(jobId)) {
+            if (ApmJobWorker.PENDING.equals(apmJob.getState()) && !jobWorker.cancel(apmJob, SYNC_CANCELLED)) {
+                LOGGER.info("sync of {} of job {} already claimed, left to finish", apmJob.getResourceId(), jobId);
+            }
+        }
+    }
+
+    /**
+     * Cancels sync of a package of sync job.
+     *
+     * @param jobId     sync job ID
+     * @param appId     app ID
+     * @param packageId package ID
+     * @return true if cancelled, false if sync of package was already finished
+     */
+    public boolean cancelSyncJobPackage(String jobId, String appId, String packageId) {
+        if (syncJobEngine.hasJob(jobId)) {
+            return syncJobEngine.cancel(jobId, appId, packageId);
+        }
+        for (ApmJob apmJob : getApmJobsOfSyncJob(jobId)) {
+            if ((appId + packageId).equals(apmJob.getResourceId())) {
+                return jobWorker.cancel(apmJob, SYNC_CANCELLED);
+            }
+        }
+        throw new NoSuchElementException("package " + packageId + " not part of sync job " + jobId);
+    }
+
+    private List<ApmJob> getApmJobsOfSyncJob(String jobId) {
+        List<ApmJob> apmJobs = dbService.getApmJobsOfBatch(jobId);
+        if (apmJobs.isEmpty()) {
+            throw new NoSuchElementException("sync job " + jobId + " does not exist");
+        }
+        return apmJobs;
+    }
+
+    private static String toSyncState(String apmJobState) {
+        switch (apmJobState) {
+            case ApmJobWorker.PENDING:
+                return SyncJobEngine.QUEUED;
+            case ApmJobWorker.DONE:
+                return SyncJobEngine.SUCCEEDED;
+            case ApmJobWorker.FAILED:
+                return SyncJobEngine.FAILED;
+            case ApmJobWorker.CANCELLED:
+                return SyncJobEngine.CANCELLED;
+            default:
+                return SyncJobEngine.RUNNING;
+        }
+    }
+
+    private void syncAppPkgFromAppstoreToMecmRepo(String accessToken, PkgSyncInfo syncInfo, CancelToken cancel) {
 
         String host = syncInfo.getAppstoreIp() + ":" + syncInfo.getAppstorePort();
         String appPackageId = syncInfo.getAppId() + syncInfo.getPackageId();
@@ -809,13 +1207,13 @@ public class ApmServiceFacade {
         boolean isDockerImgAvailable = false;
         List<SwImageDescr> imageInfoList;
         String dockerImgPath;
-        InputStream stream;
         try {
             dbService.updateAppPackageSyncStatus(syncInfo.getAppId(), syncInfo.getPackageId(),
                     Constants.APP_SYNC_INPROGRESS, "");
 
-            stream = apmService.downloadAppPackage(appPkgPath, syncInfo.getPackageId(), accessToken);
-            String localFilePath = saveInputStreamToFile(stream, appPackageId, null, localDirPath);
+            String localFilePath = apmService.downloadAppPackageToFile(appPkgPath, appPackageId, null, localDirPath,
+                    accessToken).getFilePath();
+            cancel.throwIfCancelled();
 
             imageInfoList = apmService.getAppImageInfo(null, localFilePath, appPackageId);
             String appDeployType = apmService.getAppPackageDeploymentType(null, appPackageId);
@@ -836,29 +1234,32 @@ public class ApmServiceFacade {
 
                 if (isDockerImgAvailable) {
                     LOGGER.info("application package contains docker images...");
-                    dockerImgPath = apmService.unzipDockerImages(appPackageId, null);
-                    apmService.loadDockerImages(appPackageId, imageInfoList, downloadedImgs);
-
-                    FileUtils.deleteQuietly(new File(dockerImgPath + ".zip"));
-                    FileUtils.deleteQuietly(new File(dockerImgPath));
-
+                    apmService.loadDockerImagesFromPackage(appPackageId, null, imageInfoList, downloadedImgs);
+                    cancel.throwIfCancelled();
                 } else {
                     LOGGER.info("application package has image repo info to download...");
-                    apmService.downloadAppImage(syncInfo, imageInfoList, downloadedImgs);
                 }
-                apmService.uploadAppImage(imageInfoList, uploadedImgs);
+                // images not loaded from package are downloaded and each is uploaded as soon as it is downloaded
+                apmService.syncAppImages(syncInfo, imageInfoList, isDockerImgAvailable ? null : downloadedImgs,
+                        uploadedImgs, progress -> dbService.updateAppPackageOperationalInfo(appPackageId, progress),
+                        cancel);
             }
 
+            cancel.throwIfCancelled();
             dbService.updateAppPackageSyncStatus(syncInfo.getAppId(), syncInfo.getPackageId(),
                     Constants.APP_IN_SYNC, Constants.SUCCESS);
         } catch (ApmException | IllegalArgumentException | NoSuchElementException e) {
             LOGGER.error(Constants.SYNC_APP_FAILED, appPackageId);
             dbService.updateAppPackageSyncStatus(syncInfo.getAppId(),
                     syncInfo.getPackageId(), Constants.APP_SYNC_FAILED, e.getMessage());
+            // failure is reported to the job so that it is retried
+            throw e;
         } finally {
             apmService.deleteAppPkgDockerImages(downloadedImgs);
             apmService.deleteAppPkgDockerImages(uploadedImgs);
             apmService.deleteAppPackageFile(appPkgPath);
+            String packageDir = apmService.getLocalIntendedDir(appPackageId, null);
+            FileUtils.deleteQuietly(new File(getOriginalPackagePath(packageDir)));
         }
     }
 
@@ -872,15 +1273,13 @@ public class ApmServiceFacade {
         AppTemplateDto appTemplateDto = new AppTemplateDto();
 
         try {
-            InputStream stream = apmService.downloadAppPackage(appPkgPath, packageId, accessToken);
-            String localFilePath = saveInputStreamToFile(stream, packageId, tenantId, localDirPath);
+            String localFilePath = apmService.downloadAppPackageToFile(appPkgPath, packageId, tenantId, localDirPath,
+                    accessToken).getFilePath();
             LOGGER.info("localPath: {}", localFilePath);
 
 
             //unzip app package
-            String intendedDir = apmService.getLocalIntendedDir(packageId, tenantId);
-            LOGGER.info("intendeDir: {}", intendedDir);
-            CompressUtility.unzipApplicationPacakge(localFilePath, intendedDir);
+            apmService.extractAppPackage(localFilePath, packageId, tenantId);
 
             ResourceInfo resourceInfo = apmService.getVduComputeInfo(tenantId, appPkgPath, packageId, appTemplateDto,
                     false);
@@ -991,8 +1390,7 @@ public class ApmServiceFacade {
         try {
             LOGGER.info("localFilePath: {}", localFilePath);
             //unzip app package
-            String intendedDir = apmService.getLocalIntendedDir(packageId, tenantId);
-            CompressUtility.unzipApplicationPacakge(localFilePath, intendedDir);
+            apmService.extractAppPackage(localFilePath, packageId, tenantId);
 
             AppTemplateDto appTemplateDto = apmService.getVduComputeTemplateInfo(tenantId, appPkgPath, packageId);
             appTemplateDto.setAppPackageId(packageId);
@@ -1033,4 +1431,15 @@ public class ApmServiceFacade {
         }
     }
 
+    private CompletableFuture<Boolean> submitToMepm(String mepmEndPoint, Supplier<Boolean> work) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        mepmLimiter.submit(mepmEndPoint, slot -> {
+            try {
+                result.complete(work.get());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
 }
@@ -19,33 +19,49 @@ package org.edgegallery.mecm.apm.service;
 import static org.edgegallery.mecm.apm.utils.Constants.RECORD_NOT_FOUND;
 
 import java.io.File;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Set;
 import org.edgegallery.mecm.apm.exception.ApmException;
+import org.edgegallery.mecm.apm.model.ApmInstance;
+import org.edgegallery.mecm.apm.model.ApmJob;
 import org.edgegallery.mecm.apm.model.ApmTenant;
 import org.edgegallery.mecm.apm.model.AppPackage;
 import org.edgegallery.mecm.apm.model.AppPackageInfo;
+import org.edgegallery.mecm.apm.model.AppStoreCatalog;
 import org.edgegallery.mecm.apm.model.AppTemplate;
 import org.edgegallery.mecm.apm.model.MecHost;
+import org.edgegallery.mecm.apm.model.PackageBlob;
+import org.edgegallery.mecm.apm.model.PackageFile;
+import org.edgegallery.mecm.apm.model.RepoBlob;
 import org.edgegallery.mecm.apm.model.dto.AppPackageDto;
 import org.edgegallery.mecm.apm.model.dto.AppPackageInfoDto;
 import org.edgegallery.mecm.apm.model.dto.MecHostDto;
+import org.edgegallery.mecm.apm.repository.ApmInstanceRepository;
+import org.edgegallery.mecm.apm.repository.ApmJobRepository;
 import org.edgegallery.mecm.apm.repository.ApmTenantRepository;
 import org.edgegallery.mecm.apm.repository.AppPackageInfoRepository;
 import org.edgegallery.mecm.apm.repository.AppPackageRepository;
+import org.edgegallery.mecm.apm.repository.AppStoreCatalogRepository;
 import org.edgegallery.mecm.apm.repository.AppTemplateRepository;
 import org.edgegallery.mecm.apm.repository.MecHostRepository;
+import org.edgegallery.mecm.apm.repository.PackageBlobRepository;
+import org.edgegallery.mecm.apm.repository.RepoBlobRepository;
 import org.edgegallery.mecm.apm.utils.Constants;
 import org.modelmapper.ModelMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 import org.springframework.util.FileSystemUtils;
 
@@ -54,6 +70,8 @@ public class DbService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DbService.class);
 
+    private static final int MAX_JOB_ERROR_LENGTH = 1024;
+
     @Autowired
     private AppPackageRepository appPackageRepository;
 
@@ -69,6 +87,21 @@ public class DbService {
     @Autowired
     private AppTemplateRepository appTemplateRepository;
 
+    @Autowired
+    private RepoBlobRepository repoBlobRepository;
+
+    @Autowired
+    private PackageBlobRepository packageBlobRepository;
+
+    @Autowired
+    private AppStoreCatalogRepository appStoreCatalogRepository;
+
+    @Autowired
+    private ApmJobRepository apmJobRepository;
+
+    @Autowired
+    private ApmInstanceRepository apmInstanceRepository;
+
     @Value("${apm.package-dir:/usr/app/packages}")
     private String localDirPath;
 
@@ -186,14 +219,9 @@ public class DbService {
         AppPackageDto appPackageDto = mapper.map(info.get(), AppPackageDto.class);
 
         List<MecHostDto> mecHostDtoList = new LinkedList<>();
-        List<String> mecHost = new LinkedList<>();
-        mecHostRepository.findAll().forEach((MecHost host) -> {
-            if (host.getPkgHostKey().equals(id)) {
-                mecHostDtoList.add(new MecHostDto(host.getHostIp(), host.getDistributionStatus(),
-                        host.getError()));
-                mecHost.add(host.getHostIp());
-            }
-        });
+        for (MecHost host : mecHostRepository.findByPkgHostKey(id)) {
+            mecHostDtoList.add(new MecHostDto(host.getHostIp(), host.getDistributionStatus(), host.getError()));
+        }
         appPackageDto.setMecHostInfo(mecHostDtoList);
         return appPackageDto;
     }
@@ -215,6 +243,24 @@ public class DbService {
         return info.get();
     }
 
+    /**
+     * Updates instance holding the package files, if app package exists.
+     *
+     * @param tenantId  tenant ID
+     * @param packageId package ID
+     * @param owner     owner instance, null when package files are shared by all instances
+     */
+    public void updateAppPackageOwner(String tenantId, String packageId, String owner) {
+        Optional<AppPackage> info = appPackageRepository.findById(packageId + tenantId);
+        if (!info.isPresent()) {
+            LOGGER.debug("app package {} not found", packageId);
+            return;
+        }
+        AppPackage appPackage = info.get();
+        appPackage.setOwner(owner);
+        appPackageRepository.save(appPackage);
+    }
+
     /**
      * Returns list of app package.
      *
@@ -222,26 +268,46 @@ public class DbService {
      * @return list of app package
      */
     public List<AppPackageDto> getAllAppPackage(String tenantId) {
-        List<AppPackage> packageList = new LinkedList<>();
-        appPackageRepository.findAll().forEach((AppPackage appPackage) -> {
-            if (appPackage.getTenantId().equals(tenantId)) {
-                packageList.add(appPackage);
-            }
-        });
+        return getAppPackagesWithHosts(tenantId, appPackageRepository.findByTenantId(tenantId));
+    }
+
+    /**
+     * Returns a page of app packages modified on or after the given time.
+     *
+     * @param tenantId      tenant ID
+     * @param modifiedSince lower bound of modified time, null for all packages
+     * @param limit         max number of packages to return
+     * @param offset        number of packages to skip
+     * @return list of app package
+     */
+    public List<AppPackageDto> getAllAppPackage(String tenantId, LocalDateTime modifiedSince, int limit, int offset) {
+        LocalDateTime since = modifiedSince != null ? modifiedSince : LocalDateTime.of(1970, 1, 1, 0, 0);
+        return getAppPackagesWithHosts(tenantId,
+                appPackageRepository.findByTenantIdModifiedSince(tenantId, since, limit, offset));
+    }
 
+    private List<AppPackageDto> getAppPackagesWithHosts(String tenantId, List<AppPackage> packageList) {
         List<AppPackageDto> appPackageDtoList = new LinkedList<>();
+        if (packageList.isEmpty()) {
+            return appPackageDtoList;
+        }
+
+        Set<String> pkgHostKeys = new HashSet<>();
         for (AppPackage appPackage : packageList) {
-            ModelMapper mapper = new ModelMapper();
-            AppPackageDto appPackageDto = mapper.map(appPackage, AppPackageDto.class);
+            pkgHostKeys.add(appPackage.getAppPkgId() + tenantId);
+        }
 
-            List<MecHostDto> mecHostDtoList = new LinkedList<>();
-            mecHostRepository.findAll().forEach((MecHost host) -> {
-                if (host.getPkgHostKey().equals(appPackage.getAppPkgId() + tenantId)) {
-                    mecHostDtoList.add(new MecHostDto(host.getHostIp(), host.getDistributionStatus(),
-                            host.getError()));
-                }
-            });
-            appPackageDto.setMecHostInfo(mecHostDtoList);
+        Map<String, List<MecHostDto>> hostsByKey = new HashMap<>();
+        for (MecHost host : mecHostRepository.findByPkgHostKeyIn(pkgHostKeys)) {
+            hostsByKey.computeIfAbsent(host.getPkgHostKey(), key -> new LinkedList<>())
+                    .add(new MecHostDto(host.getHostIp(), host.getDistributionStatus(), host.getError()));
+        }
+
+        ModelMapper mapper = new ModelMapper();
+        for (AppPackage appPackage : packageList) {
+            AppPackageDto appPackageDto = mapper.map(appPackage, AppPackageDto.class);
+            appPackageDto.setMecHostInfo(hostsByKey.getOrDefault(appPackage.getAppPkgId() + tenantId,
+                    new LinkedList<>()));
             appPackageDtoList.add(appPackageDto);
         }
         return appPackageDtoList;
@@ -281,6 +347,7 @@ public class DbService {
                 LOGGER.info("host record for tenant {}, appId {} package {} and host {} created successfully",
                         tenantId, appPackageDto.getAppId(), appPackageDto.getAppPkgId(), mecHostDto.getHostIp());
             }
+            touchAppPackage(appPackageDto.getAppPkgId() + tenantId);
         }
     }
 
@@ -305,14 +372,13 @@ public class DbService {
         String id = packageId + tenantId;
 
         List<String> hosts = new LinkedList<>();
-        mecHostRepository.findAll().forEach((MecHost host) -> {
-            if (host.getPkgHostKey().equals(id)) {
-                mecHostRepository.delete(host);
-                hosts.add(host.getHostIp());
-                LOGGER.info("host record for tenant {} and package {} deleted successfully",
-                        tenantId, packageId);
-            }
-        });
+        List<MecHost> mecHosts = mecHostRepository.findByPkgHostKey(id);
+        for (MecHost host : mecHosts) {
+            hosts.add(host.getHostIp());
+        }
+        mecHostRepository.deleteAll(mecHosts);
+        touchAppPackage(id);
+        LOGGER.info("host records for tenant {} and package {} deleted successfully", tenantId, packageId);
         return hosts;
     }
 
@@ -325,14 +391,13 @@ public class DbService {
      */
     public void deleteHostWithIp(String tenantId, String packageId, String hostIp) {
         String id = packageId + tenantId;
-        mecHostRepository.findAll().forEach((MecHost host) -> {
-            if (host.getPkgHostKey().equals(id)
-                    && host.getHostIp().equals(hostIp)) {
-                mecHostRepository.delete(host);
-                LOGGER.info("host record for tenant {}, package {} and host ip {} deleted successfully",
-                        tenantId, packageId, hostIp);
-            }
-        });
+        List<MecHost> mecHosts = mecHostRepository.findByPkgHostKeyAndHostIp(id, hostIp);
+        if (!mecHosts.isEmpty()) {
+            mecHostRepository.deleteAll(mecHosts);
+            touchAppPackage(id);
+            LOGGER.info("host record for tenant {}, package {} and host ip {} deleted successfully",
+                    tenantId, packageId, hostIp);
+        }
 
         List<MecHost> mecHost = mecHostRepository.findByPkgHostKey(id);
         if (mecHost.isEmpty()) {
@@ -352,17 +417,11 @@ public class DbService {
      * @return host record which matches host ip, tenant ID and package ID
      */
     public MecHost findHostWithIp(String tenantId, String packageId, String hostIp) {
-        Iterable<MecHost> mecHostIterable = mecHostRepository.findAll();
-        Iterator<MecHost> it = mecHostIterable.iterator();
-        String id = packageId + tenantId;
-        while (it.hasNext()) {
-            MecHost host = it.next();
-            if (host.getPkgHostKey().equals(id)
-                    && host.getHostIp().equals(hostIp)) {
-                return host;
-            }
+        List<MecHost> mecHosts = mecHostRepository.findByPkgHostKeyAndHostIp(packageId + tenantId, hostIp);
+        if (mecHosts.isEmpty()) {
+            return null;
         }
-        return null;
+        return mecHosts.get(0);
     }
 
     /**
@@ -375,14 +434,46 @@ public class DbService {
      */
     public void updateDistributionStatusOfAllHost(String tenantId, String packageId,
                                                 String status, String error) {
-        String id = packageId + tenantId;
-        mecHostRepository.findAll().forEach((MecHost host) -> {
-            if (host.getPkgHostKey().equals(id)) {
+        List<MecHost> mecHosts = mecHostRepository.findByPkgHostKey(packageId + tenantId);
+        for (MecHost host : mecHosts) {
+            host.setDistributionStatus(status);
+            host.setError(error);
+        }
+        mecHostRepository.saveAll(mecHosts);
+        touchAppPackage(packageId + tenantId);
+    }
+
+    /**
+     * Updates distribution status of hosts on which package is not yet distributed.
+     *
+     * @param tenantId  tenant ID
+     * @param packageId package ID
+     * @param status    distribution status
+     * @param error     reason for failure
+     */
+    public void updateDistributionStatusOfUndistributedHosts(String tenantId, String packageId,
+                                                             String status, String error) {
+        List<MecHost> mecHosts = new LinkedList<>();
+        for (MecHost host : mecHostRepository.findByPkgHostKey(packageId + tenantId)) {
+            if (!Constants.DISTRIBUTE_STATE_DISTRIBUTED.equalsIgnoreCase(host.getDistributionStatus())) {
                 host.setDistributionStatus(status);
                 host.setError(error);
-                mecHostRepository.save(host);
+                mecHosts.add(host);
             }
-        });
+        }
+        if (!mecHosts.isEmpty()) {
+            mecHostRepository.saveAll(mecHosts);
+            touchAppPackage(packageId + tenantId);
+        }
+    }
+
+    /**
+     * Bumps package modified time so that host changes are visible to modifiedSince queries.
+     *
+     * @param pkgHostKey package ID followed by tenant ID
+     */
+    private void touchAppPackage(String pkgHostKey) {
+        appPackageRepository.touchModifiedTime(pkgHostKey, LocalDateTime.now());
     }
 
     /**
@@ -396,15 +487,13 @@ public class DbService {
      */
     public void updateDistributionStatusOfHost(String tenantId, String packageId,
                                                String hostIp, String status, String error) {
-        String id = packageId + tenantId;
-        mecHostRepository.findAll().forEach((MecHost host) -> {
-            if (host.getPkgHostKey().equals(id)
-                    && host.getHostIp().equals(hostIp)) {
-                host.setDistributionStatus(status);
-                host.setError(error);
-                mecHostRepository.save(host);
-            }
-        });
+        List<MecHost> mecHosts = mecHostRepository.findByPkgHostKeyAndHostIp(packageId + tenantId, hostIp);
+        for (MecHost host : mecHosts) {
+            host.setDistributionStatus(status);
+            host.setError(error);
+        }
+        mecHostRepository.saveAll(mecHosts);
+        touchAppPackage(packageId + tenantId);
     }
 
     private void deleteAppPackageSyncInfo(String appstoreIp) {
@@ -428,6 +517,18 @@ public class DbService {
      * @param inAppPkgInfos app package infos
      */
     public void deleteNonExistingPackages(String appstoreIp, List<AppPackageInfoDto> inAppPkgInfos) {
+        deleteNonExistingPackages(appstoreIp, inAppPkgInfos, null);
+    }
+
+    /**
+     * Deleted non existing app packages of changed apps, sync status of all app package infos is updated.
+     *
+     * @param appstoreIp    app store IP
+     * @param inAppPkgInfos app package infos
+     * @param changedAppIds apps whose packages changed, null to reconcile packages of all apps
+     */
+    public void deleteNonExistingPackages(String appstoreIp, List<AppPackageInfoDto> inAppPkgInfos,
+                                          Set<String> changedAppIds) {
 
         if (inAppPkgInfos == null || inAppPkgInfos.isEmpty()) {
             deleteAppPackageSyncInfo(appstoreIp);
@@ -440,13 +541,24 @@ public class DbService {
         }
 
         Map<String, AppPackageInfoDto> inAppPkgInfosMap = new HashMap<>();
+        Set<String> inAppIds = new HashSet<>();
         for (AppPackageInfoDto inAppPkgInfo : inAppPkgInfos) {
             inAppPkgInfosMap.put(inAppPkgInfo.getAppId() + inAppPkgInfo.getPackageId(), inAppPkgInfo);
+            inAppIds.add(inAppPkgInfo.getAppId());
         }
 
         List<AppPackageInfo> appPkgInfosDb = appPkgSyncRepository.findByAppstoreId(appstoreIp);
 
         for (AppPackageInfo dbAppPackageInfo : appPkgInfosDb) {
+            if (changedAppIds != null && !changedAppIds.contains(dbAppPackageInfo.getAppId())
+                    && inAppIds.contains(dbAppPackageInfo.getAppId())) {
+                // packages of unchanged app are not reconciled
+                AppPackageInfoDto dto = inAppPkgInfosMap.get(dbAppPackageInfo.getAppPkgInfoId());
+                if (dto != null) {
+                    dto.setSyncStatus(dbAppPackageInfo.getSyncStatus());
+                }
+                continue;
+            }
             if (!inAppPkgInfosMap.containsKey(dbAppPackageInfo.getAppPkgInfoId())) {
                 appPkgSyncRepository.deleteById(dbAppPackageInfo.getAppPkgInfoId());
                 LOGGER.info("deleting package, info not available in appstore {}", dbAppPackageInfo.getPackageId());
@@ -523,6 +635,76 @@ public class DbService {
         LOGGER.info("updated app {}, sync status {}, operInfo {}", pkgInfo.getName(), syncStatus, operationalinfo);
     }
 
+    /**
+     * Updates operational info of app package info record, if record exists.
+     *
+     * @param appPkgInfoId    app package info ID
+     * @param operationalinfo operational info
+     */
+    public void updateAppPackageOperationalInfo(String appPkgInfoId, String operationalinfo) {
+        Optional<AppPackageInfo> appPkgInfo = appPkgSyncRepository.findById(appPkgInfoId);
+        if (!appPkgInfo.isPresent()) {
+            LOGGER.debug("app package info {} not found", appPkgInfoId);
+            return;
+        }
+        AppPackageInfo pkgInfo = appPkgInfo.get();
+        pkgInfo.setOperationalInfo(operationalinfo);
+        appPkgSyncRepository.save(pkgInfo);
+    }
+
+    /**
+     * Claims sync of app package info record. Sync in progress is claimed again only when it has not been updated
+     * since given time and no job is working on it any more.
+     *
+     * @param appPkgInfoId app package info ID
+     * @param staleBefore  time before which sync in progress is considered stale
+     * @return true if claimed, false if sync is in progress
+     */
+    public boolean claimAppPackageSync(String appPkgInfoId, LocalDateTime staleBefore) {
+        return appPkgSyncRepository.claimSync(appPkgInfoId, Constants.APP_SYNC_INPROGRESS, LocalDateTime.now(),
+                staleBefore) == 1;
+    }
+
+    /**
+     * Claims sync of an application package, adding its package info record already claimed when it does not
+     * exist. Record is never overwritten, so that a claim of a concurrent request is kept.
+     *
+     * @param appstoreIp   app store IP
+     * @param appstorePort app store port
+     * @param inAppPkgInfo app package info
+     * @param staleBefore  time before which sync in progress is considered stale
+     * @return true if claimed, false if sync is in progress
+     */
+    public boolean claimAppPackageSync(String appstoreIp, String appstorePort, AppPackageInfoDto inAppPkgInfo,
+                                       LocalDateTime staleBefore) {
+        AppPackageInfo pkgInfo = new ModelMapper().map(inAppPkgInfo, AppPackageInfo.class);
+        String key = pkgInfo.getAppId() + pkgInfo.getPackageId();
+        if (appPkgSyncRepository.existsById(key)) {
+            return claimAppPackageSync(key, staleBefore);
+        }
+        if (appPkgSyncRepository.findByAppstoreId(appstoreIp).size() >= Constants.MAX_APPS_PER_APPSTORE) {
+            throw new ApmException("failed to update sync info DB, max limit is " + Constants.MAX_APPS_PER_APPSTORE);
+        }
+        pkgInfo.setAppstoreEndpoint(appstoreIp + ":" + appstorePort);
+        pkgInfo.setAppPkgInfoId(key);
+        pkgInfo.setAppstoreIp(appstoreIp);
+        pkgInfo.setSyncStatus(Constants.APP_SYNC_INPROGRESS);
+        pkgInfo.setCreateTime(LocalDateTime.now());
+        try {
+            if (appPkgSyncRepository.insertIfAbsent(key, pkgInfo.getAppId(), pkgInfo.getPackageId(),
+                    pkgInfo.getName(), appstoreIp, pkgInfo.getAppstoreEndpoint(), Constants.APP_SYNC_INPROGRESS,
+                    pkgInfo.getCreateTime()) == 1) {
+                // rest of package info is written by the request holding the claim
+                appPkgSyncRepository.save(pkgInfo);
+                LOGGER.info("application package info {} added and claimed", key);
+                return true;
+            }
+        } catch (DataIntegrityViolationException e) {
+            LOGGER.info("application package info {} added by concurrent request", key);
+        }
+        return claimAppPackageSync(key, staleBefore);
+    }
+
     /**
      * Retrieves all app package info records.
      *
@@ -547,6 +729,28 @@ public class DbService {
         return pkgInfos;
     }
 
+    /**
+     * Returns IDs of all app package records.
+     *
+     * @return app package IDs
+     */
+    public Set<String> getAllAppPackageIds() {
+        return new HashSet<>(appPackageRepository.findAllIds());
+    }
+
+    /**
+     * Returns all app package info records.
+     *
+     * @return app package info by app package info ID
+     */
+    public Map<String, AppPackageInfo> getAllAppPackageSyncInfo() {
+        Map<String, AppPackageInfo> pkgInfos = new HashMap<>();
+        for (AppPackageInfo pkgInfo : appPkgSyncRepository.findAll()) {
+            pkgInfos.put(pkgInfo.getAppPkgInfoId(), pkgInfo);
+        }
+        return pkgInfos;
+    }
+
     /**
      * Retrieves app package info records.
      *
@@ -664,4 +868,255 @@ public class DbService {
         }
         return info.get();
     }
+
+    /**
+     * Returns repository of registry in which a blob is known to be present.
+     *
+     * @param registry registry end point
+     * @param digest   blob digest
+     * @return repository, null when blob is not known to be present
+     */
+    public String getRepositoryOfBlob(String registry, String digest) {
+        Optional<RepoBlob> blob = repoBlobRepository.findById(registry + "|" + digest);
+        return blob.map(RepoBlob::getRepository).orElse(null);
+    }
+
+    /**
+     * Records a blob present in a repository of registry.
+     *
+     * @param registry   registry end point
+     * @param digest     blob digest
+     * @param repository repository
+     */
+    public void addRepoBlob(String registry, String digest, String repository) {
+        String id = registry + "|" + digest;
+        if (repoBlobRepository.existsById(id)) {
+            return;
+        }
+        repoBlobRepository.save(new RepoBlob(id, registry, digest, repository, null));
+    }
+
+    /**
+     * Deletes blob record of registry.
+     *
+     * @param registry registry end point
+     * @param digest   blob digest
+     */
+    public void deleteRepoBlob(String registry, String digest) {
+        String id = registry + "|" + digest;
+        if (repoBlobRepository.existsById(id)) {
+            repoBlobRepository.deleteById(id);
+        }
+    }
+
+    /**
+     * Returns package blob downloaded from a source URL.
+     *
+     * @param sourceUrl package download URL
+     * @return package blob, null when package was not downloaded
+     */
+    public PackageBlob getPackageBlob(String sourceUrl) {
+        return packageBlobRepository.findById(sourceUrl).orElse(null);
+    }
+
+    /**
+     * Records package blob downloaded from a source URL.
+     *
+     * @param sourceUrl   package download URL
+     * @param packageFile downloaded package file
+     */
+    public void addPackageBlob(String sourceUrl, PackageFile packageFile) {
+        packageBlobRepository.save(new PackageBlob(sourceUrl, packageFile.getSha256(), packageFile.getSize(),
+                packageFile.getEtag(), packageFile.getLastModified(), null));
+    }
+
+    /**
+     * Deletes package blob record of a source URL.
+     *
+     * @param sourceUrl package download URL
+     */
+    public void deletePackageBlob(String sourceUrl) {
+        if (packageBlobRepository.existsById(sourceUrl)) {
+            packageBlobRepository.deleteById(sourceUrl);
+        }
+    }
+
+    /**
+     * Returns catalogue entries of appstore.
+     *
+     * @param appstoreEndpoint appstore end point
+     * @return catalogue entries
+     */
+    public List<AppStoreCatalog> getAppStoreCatalog(String appstoreEndpoint) {
+        return appStoreCatalogRepository.findByAppstoreEndpoint(appstoreEndpoint);
+    }
+
+    /**
+     * Adds or updates catalogue entry of appstore.
+     *
+     * @param catalog catalogue entry
+     */
+    public void saveAppStoreCatalog(AppStoreCatalog catalog) {
+        appStoreCatalogRepository.save(catalog);
+    }
+
+    /**
+     * Deletes catalogue entry of appstore.
+     *
+     * @param catalogId catalogue entry ID
+     */
+    public void deleteAppStoreCatalog(String catalogId) {
+        if (appStoreCatalogRepository.existsById(catalogId)) {
+            appStoreCatalogRepository.deleteById(catalogId);
+        }
+    }
+
+    /**
+     * Adds persistent job.
+     *
+     * @param job job
+     */
+    public void addApmJob(ApmJob job) {
+        apmJobRepository.save(job);
+    }
+
+    /**
+     * Returns persistent job.
+     *
+     * @param jobId job ID
+     * @return job, null when job does not exist
+     */
+    public ApmJob getApmJob(String jobId) {
+        return apmJobRepository.findById(jobId).orElse(null);
+    }
+
+    /**
+     * Returns IDs of jobs which are pending or whose lease has expired, oldest first. Jobs with affinity to
+     * another instance are returned only when that instance is not alive.
+     *
+     * @param now        current time in milliseconds
+     * @param owner      instance claiming jobs
+     * @param aliveAfter instances whose last heartbeat is older than this time in milliseconds are not alive
+     * @param limit      max number of IDs
+     * @return job IDs
+     */
+    public List<String> getClaimableApmJobIds(long now, String owner, long aliveAfter, int limit) {
+        return apmJobRepository.findClaimableIds(now, owner, aliveAfter, limit);
+    }
+
+    /**
+     * Claims job for an owner if it is still claimable.
+     *
+     * @param jobId       job ID
+     * @param owner       owner instance
+     * @param now         current time in milliseconds
+     * @param leaseExpiry lease expiry time in milliseconds
+     * @return true if claimed, false if job was claimed by another owner
+     */
+    public boolean claimApmJob(String jobId, String owner, long now, long leaseExpiry) {
+        return apmJobRepository.claim(jobId, owner, now, leaseExpiry) == 1;
+    }
+
+    /**
+     * Renews lease of running jobs of an owner.
+     *
+     * @param owner       owner instance
+     * @param jobIds      job IDs
+     * @param leaseExpiry lease expiry time in milliseconds
+     * @return number of renewed jobs
+     */
+    public int renewApmJobLeases(String owner, Collection<String> jobIds, long leaseExpiry) {
+        if (jobIds.isEmpty()) {
+            return 0;
+        }
+        return apmJobRepository.renewLeases(owner, jobIds, leaseExpiry);
+    }
+
+    /**
+     * Moves running job of an owner to given state.
+     *
+     * @param jobId       job ID
+     * @param owner       owner instance
+     * @param state       new state
+     * @param nextRunTime time of next attempt in milliseconds, for pending state
+     * @param lastError   error of last attempt
+     * @return true if updated, false if job is not owned any more
+     */
+    public boolean finishApmJob(String jobId, String owner, String state, long nextRunTime, String lastError) {
+        String error = lastError != null && lastError.length() > MAX_JOB_ERROR_LENGTH
+                ? lastError.substring(0, MAX_JOB_ERROR_LENGTH) : lastError;
+        return apmJobRepository.finish(jobId, owner, state, nextRunTime, System.currentTimeMillis(), error) == 1;
+    }
+
+    /**
+     * Returns jobs submitted together in a batch.
+     *
+     * @param batchId batch ID
+     * @return jobs of batch, oldest first
+     */
+    public List<ApmJob> getApmJobsOfBatch(String batchId) {
+        return apmJobRepository.findByBatchId(batchId);
+    }
+
+    /**
+     * Cancels job which has not been claimed yet.
+     *
+     * @param jobId  job ID
+     * @param reason reason for cancellation
+     * @return true if cancelled, false if job is not pending any more
+     */
+    public boolean cancelPendingApmJob(String jobId, String reason) {
+        return apmJobRepository.cancelPending(jobId, System.currentTimeMillis(), reason) == 1;
+    }
+
+    /**
+     * Returns running jobs of an owner to pending state.
+     *
+     * @param owner owner instance
+     * @return number of released jobs
+     */
+    public int releaseApmJobs(String owner) {
+        return apmJobRepository.releaseAll(owner, System.currentTimeMillis());
+    }
+
+    /**
+     * Deletes jobs finished before given time.
+     *
+     * @param before time in milliseconds
+     * @return number of deleted jobs
+     */
+    public int deleteFinishedApmJobs(long before) {
+        return apmJobRepository.deleteFinishedBefore(before);
+    }
+
+    /**
+     * Records heartbeat of an instance.
+     *
+     * @param instanceId instance ID
+     * @param endpoint   end point on which instance is reachable by other instances
+     * @param now        current time in milliseconds
+     */
+    public void heartbeatApmInstance(String instanceId, String endpoint, long now) {
+        apmInstanceRepository.save(new ApmInstance(instanceId, endpoint, now));
+    }
+
+    /**
+     * Returns instance.
+     *
+     * @param instanceId instance ID
+     * @return instance, null when instance does not exist
+     */
+    public ApmInstance getApmInstance(String instanceId) {
+        return apmInstanceRepository.findById(instanceId).orElse(null);
+    }
+
+    /**
+     * Deletes instances whose last heartbeat is older than given time.
+     *
+     * @param before time in milliseconds
+     * @return number of deleted instances
+     */
+    public int deleteStaleApmInstances(long before) {
+        return apmInstanceRepository.deleteStaleBefore(before);
+    }
 }
@@ -0,0 +1,316 @@
+/*
+ *  Copyright 2020 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.service;
+
+import static org.edgegallery.mecm.apm.utils.ApmServiceHelper.getProtocol;
+import static org.edgegallery.mecm.apm.utils.Constants.ERROR;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.Setter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Tracks application package distributions pending on MEPM and polls their status from a shared scheduler.
+ * Pending hosts are grouped per MEPM and package so that one status query serves all hosts of a package.
+ */
+@Service("DistributionStatusPoller")
+public class DistributionStatusPoller {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DistributionStatusPoller.class);
+    private static final String LCMCONTROLLER_URL = "/lcmcontroller/v2/tenants/";
+    private static final String PACKAGES_URL = "/packages/";
+    private static final String TIMEOUT = "Timeout";
+    private static final int MAX_FAILED_POLLS = 3;
+
+    private final Map<String, PendingDistribution> pending = new ConcurrentHashMap<>();
+
+    private final Set<String> busyMepms = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService scheduler;
+
+    @Autowired
+    private ApmService apmService;
+
+    @Autowired
+    private DbService dbService;
+
+    @Value("${server.ssl.enabled:false}")
+    private String isSslEnabled;
+
+    @Value("${apm.distribution.status.poller-threads:4}")
+    private int pollerThreads;
+
+    @Value("${apm.distribution.status.tick-interval:2000}")
+    private long tickInterval;
+
+    @Value("${apm.distribution.status.initial-interval:5000}")
+    private long initialInterval;
+
+    @Value("${apm.distribution.status.max-interval:60000}")
+    private long maxInterval;
+
+    @Value("${apm.distribution.status.timeout:600000}")
+    private long timeout;
+
+    /**
+     * Starts polling scheduler.
+     */
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newScheduledThreadPool(pollerThreads,
+                new CustomizableThreadFactory("apm-status-poller-"));
+        scheduler.scheduleWithFixedDelay(this::tick, tickInterval, tickInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops polling scheduler.
+     */
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Starts tracking distribution status of a package on a host.
+     *
+     * @param mepmEndPoint MEPM end point
+     * @param tenantId     tenant ID
+     * @param packageId    package ID
+     * @param hostIp       host IP
+     * @param accessToken  access token
+     * @return future completed with final distribution status
+     */
+    public CompletableFuture<String> track(String mepmEndPoint, String tenantId, String packageId, String hostIp,
+                                           String accessToken) {
+        long now = System.currentTimeMillis();
+        PendingDistribution entry = new PendingDistribution(mepmEndPoint, tenantId, packageId, hostIp, accessToken);
+        entry.setInterval(initialInterval);
+        entry.setNextPollTime(now + initialInterval);
+        entry.setDeadline(now + timeout);
+
+        PendingDistribution previous = pending.put(entry.getKey(), entry);
+        if (previous != null) {
+            entry.getResult().whenComplete((status, ex) -> previous.getResult().complete(status));
+        }
+        LOGGER.info("tracking distribution of package {} on host {}", packageId, hostIp);
+        return entry.getResult();
+    }
+
+    /**
+     * Returns number of distributions whose status is being tracked.
+     *
+     * @return number of pending distributions
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    private void tick() {
+        try {
+            Map<String, List<PendingDistribution>> byMepm = new HashMap<>();
+            for (PendingDistribution entry : pending.values()) {
+                if (!busyMepms.contains(entry.getMepmEndPoint())) {
+                    byMepm.computeIfAbsent(entry.getMepmEndPoint(), key -> new LinkedList<>()).add(entry);
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, List<PendingDistribution>> batch : byMepm.entrySet()) {
+                if (batch.getValue().stream().noneMatch(entry -> entry.getNextPollTime() <= now)) {
+                    continue;
+                }
+                busyMepms.add(batch.getKey());
+                scheduler.execute(() -> {
+                    try {
+                        pollMepm(batch.getValue(), now);
+                    } finally {
+                        busyMepms.remove(batch.getKey());
+                    }
+                });
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("distribution status poll tick failed {}", e.getMessage());
+        }
+    }
+
+    private void pollMepm(List<PendingDistribution> entries, long now) {
+        Map<String, List<PendingDistribution>> byPackage = new HashMap<>();
+        for (PendingDistribution entry : entries) {
+            byPackage.computeIfAbsent(entry.getTenantId() + "|" + entry.getPackageId(), key -> new LinkedList<>())
+                    .add(entry);
+        }
+
+        for (List<PendingDistribution> hosts : byPackage.values()) {
+            // hosts of the package not yet due get their status from the same response
+            if (hosts.stream().noneMatch(entry -> entry.getNextPollTime() <= now)) {
+                continue;
+            }
+            try {
+                pollPackage(hosts);
+            } catch (RuntimeException e) {
+                LOGGER.error("failed to update distribution status of package {}, {}", hosts.get(0).getPackageId(),
+                        e.getMessage());
+            }
+        }
+    }
+
+    private void pollPackage(List<PendingDistribution> hosts) {
+        PendingDistribution first = hosts.get(0);
+        Map<String, String> statuses;
+        try {
+            String url = new StringBuilder(getProtocol(isSslEnabled)).append(first.getMepmEndPoint())
+                    .append(LCMCONTROLLER_URL).append(first.getTenantId())
+                    .append(PACKAGES_URL).append(first.getPackageId()).toString();
+            statuses = parseStatuses(apmService.sendGetRequest(url, first.getAccessToken()));
+        } catch (RuntimeException e) {
+            for (PendingDistribution entry : hosts) {
+                entry.setFailedPolls(entry.getFailedPolls() + 1);
+                LOGGER.error("failed to query distribution status of package {} on host {}, attempt {}",
+                        entry.getPackageId(), entry.getHostIp(), entry.getFailedPolls());
+                if (entry.getFailedPolls() >= MAX_FAILED_POLLS) {
+                    complete(entry, ERROR, e.getMessage());
+                } else {
+                    reschedule(entry, false);
+                }
+            }
+            return;
+        }
+
+        for (PendingDistribution entry : hosts) {
+            entry.setFailedPolls(0);
+            String status = statuses.get(entry.getHostIp());
+            if (status == null) {
+                // response without host IP carries status of the only host
+                status = statuses.size() == 1 && statuses.containsKey("") ? statuses.get("") : "";
+            }
+            updateStatus(entry, status);
+        }
+    }
+
+    private void updateStatus(PendingDistribution entry, String status) {
+        LOGGER.info("distribution status of package {} on host {} is {}", entry.getPackageId(), entry.getHostIp(),
+                status);
+        if (isFinalStatus(status)) {
+            complete(entry, status, "");
+            return;
+        }
+
+        if (System.currentTimeMillis() >= entry.getDeadline()) {
+            complete(entry, TIMEOUT, "");
+            return;
+        }
+
+        boolean changed = !status.isEmpty() && !status.equals(entry.getLastStatus());
+        if (changed) {
+            entry.setLastStatus(status);
+            dbService.updateDistributionStatusOfHost(entry.getTenantId(), entry.getPackageId(), entry.getHostIp(),
+                    status, "");
+        }
+        reschedule(entry, changed);
+    }
+
+    private void reschedule(PendingDistribution entry, boolean progressed) {
+        long interval = progressed ? initialInterval : Math.min(entry.getInterval() * 2, maxInterval);
+        entry.setInterval(interval);
+        entry.setNextPollTime(System.currentTimeMillis() + interval);
+    }
+
+    private void complete(PendingDistribution entry, String status, String error) {
+        pending.remove(entry.getKey(), entry);
+        dbService.updateDistributionStatusOfHost(entry.getTenantId(), entry.getPackageId(), entry.getHostIp(),
+                status, error);
+        entry.getResult().complete(status);
+        LOGGER.info("Application package {}, on-boarding on {} completed with status {}", entry.getPackageId(),
+                entry.getHostIp(), status);
+    }
+
+    private static boolean isFinalStatus(String status) {
+        return "Distributed".equalsIgnoreCase(status) || "Error".equalsIgnoreCase(status)
+                || "uploaded".equalsIgnoreCase(status);
+    }
+
+    private static Map<String, String> parseStatuses(String response) {
+        Map<String, String> statuses = new HashMap<>();
+        JsonObject json = new JsonParser().parse(response).getAsJsonObject();
+        for (JsonElement pkg : json.get("data").getAsJsonArray()) {
+            JsonElement mecHostInfo = pkg.getAsJsonObject().get("mecHostInfo");
+            if (mecHostInfo == null || !mecHostInfo.isJsonArray()) {
+                continue;
+            }
+            for (JsonElement element : mecHostInfo.getAsJsonArray()) {
+                JsonObject host = element.getAsJsonObject();
+                JsonElement hostIp = host.get("hostIp");
+                JsonElement status = host.get("status");
+                if (status != null && !status.isJsonNull()) {
+                    statuses.put(hostIp != null && !hostIp.isJsonNull() ? hostIp.getAsString() : "",
+                            status.getAsString());
+                }
+            }
+        }
+        return statuses;
+    }
+
+    @Getter
+    @Setter
+    private static final class PendingDistribution {
+
+        private final String mepmEndPoint;
+        private final String tenantId;
+        private final String packageId;
+        private final String hostIp;
+        private final String accessToken;
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private volatile String lastStatus = "";
+        private volatile long interval;
+        private volatile long nextPollTime;
+        private volatile long deadline;
+        private volatile int failedPolls;
+
+        private PendingDistribution(String mepmEndPoint, String tenantId, String packageId, String hostIp,
+                                    String accessToken) {
+            this.mepmEndPoint = mepmEndPoint;
+            this.tenantId = tenantId;
+            this.packageId = packageId;
+            this.hostIp = hostIp;
+            this.accessToken = accessToken;
+        }
+
+        private String getKey() {
+            return mepmEndPoint + "|" + tenantId + "|" + packageId + "|" + hostIp;
+        }
+    }
+}
@@ -0,0 +1,416 @@
+/*
+ *  Copyright 2020 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.service;
+
+import static org.edgegallery.mecm.apm.utils.ApmServiceHelper.getProtocol;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.PullImageResultCallback;
+import com.github.dockerjava.api.exception.InternalServerErrorException;
+import com.github.dockerjava.api.exception.NotFoundException;
+import com.github.dockerjava.core.DefaultDockerClientConfig;
+import com.github.dockerjava.core.DockerClientBuilder;
+import com.github.dockerjava.core.DockerClientConfig;
+import com.github.dockerjava.core.command.PushImageResultCallback;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import javax.annotation.PreDestroy;
+import org.edgegallery.mecm.apm.exception.ApmException;
+import org.edgegallery.mecm.apm.model.AppRepo;
+import org.edgegallery.mecm.apm.model.SwImageDescr;
+import org.edgegallery.mecm.apm.service.RegistryClient.Registry;
+import org.edgegallery.mecm.apm.utils.CancelToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Moves docker images of application packages to MECM repository. Images are pulled in parallel and each image is
+ * pushed as soon as its own pull completes. Docker clients are reused per registry and number of concurrent
+ * transfers per registry is limited. In registry sync mode images are copied from source registry to MECM
+ * repository directly, bypassing local docker.
+ */
+@Service("ImageMover")
+public class ImageMover {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImageMover.class);
+
+    private static final String SSL = "/usr/app/ssl";
+
+    private static final String LOCAL_DOCKER = "local";
+
+    private static final String REGISTRY_MODE = "registry";
+
+    private final Map<String, BlockingQueue<DockerClient>> idleClients = new ConcurrentHashMap<>();
+
+    private final Map<String, Semaphore> registryPermits = new ConcurrentHashMap<>();
+
+    @Autowired
+    @Qualifier("imageExecutor")
+    private Executor imageExecutor;
+
+    @Value("${server.ssl.enabled:false}")
+    private String isSslEnabled;
+
+    @Value("${apm.mecm-repo-password:}")
+    private String mecmRepoPassword;
+
+    @Value("${apm.mecm-repo-username:}")
+    private String mecmRepoUsername;
+
+    @Value("${apm.mecm-repo-endpoint:}")
+    private String mecmRepoEndpoint;
+
+    @Value("${apm.image.per-registry-limit:3}")
+    private int perRegistryLimit;
+
+    @Value("${apm.image-sync-mode:docker}")
+    private String imageSyncMode;
+
+    @Autowired
+    private RegistryClient registryClient;
+
+    /**
+     * Moves images to MECM repository.
+     *
+     * @param sourceRepos source repositories by host, null when images are already in local docker
+     * @param images      image descriptors
+     * @param pulledImgs  pulled images
+     * @param pushedImgs  pushed images, null when images are not to be pushed
+     * @param progress    consumer of progress messages, may be null
+     * @param cancel      cancellation of the move, returns at once when cancelled while images are still moved
+     */
+    public void moveImages(Map<String, AppRepo> sourceRepos, List<SwImageDescr> images, Set<String> pulledImgs,
+                           Set<String> pushedImgs, Consumer<String> progress, CancelToken cancel) {
+        AtomicInteger pulled = new AtomicInteger();
+        AtomicInteger pushed = new AtomicInteger();
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        int total = images.size();
+        Runnable report = () -> reportProgress(progress, sourceRepos == null ? null
+                : "images pulled " + pulled.get() + "/" + total, pushedImgs == null ? null
+                : "images pushed " + pushed.get() + "/" + total);
+
+        List<CompletableFuture<Boolean>> futures = new LinkedList<>();
+        List<CompletableFuture<Boolean>> stages = new LinkedList<>();
+        for (SwImageDescr image : images) {
+            if (REGISTRY_MODE.equalsIgnoreCase(imageSyncMode) && sourceRepos != null && pushedImgs != null) {
+                // image is copied between registries, it never enters local docker
+                futures.add(CompletableFuture.supplyAsync(() -> runStage(failure, cancel, () -> {
+                    copyImage(sourceRepos, image, cancel);
+                    pulled.incrementAndGet();
+                    pushed.incrementAndGet();
+                    report.run();
+                }), imageExecutor));
+                continue;
+            }
+            CompletableFuture<Boolean> future = CompletableFuture.supplyAsync(() -> sourceRepos == null
+                    || runStage(failure, cancel, () -> {
+                        pullImage(sourceRepos, image.getSwImage(), pulledImgs, cancel);
+                        pulled.incrementAndGet();
+                        report.run();
+                    }), imageExecutor);
+            if (pushedImgs != null) {
+                stages.add(future);
+                future = future.thenApplyAsync(proceed -> proceed && runStage(failure, cancel, () -> {
+                    pushImage(image, pushedImgs, cancel);
+                    pushed.incrementAndGet();
+                    report.run();
+                }), imageExecutor);
+            }
+            futures.add(future);
+        }
+        stages.addAll(futures);
+
+        // waiting is not interruptible, so cancellation completes the wait and drops images not yet moved
+        CompletableFuture<Void> cancelled = new CompletableFuture<>();
+        Runnable abort = () -> {
+            cancelled.complete(null);
+            stages.forEach(stage -> stage.cancel(true));
+        };
+        cancel.addListener(abort);
+        try {
+            CompletableFuture.anyOf(CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])), cancelled)
+                    .join();
+        } finally {
+            cancel.removeListener(abort);
+        }
+        cancel.throwIfCancelled();
+
+        RuntimeException e = failure.get();
+        if (e instanceof ApmException) {
+            throw e;
+        } else if (e != null) {
+            throw new ApmException(e.getMessage());
+        }
+        LOGGER.info("{} images moved successfully", total);
+    }
+
+    /**
+     * Returns docker client of local docker, client must be released after use.
+     *
+     * @return docker client
+     */
+    public DockerClient borrowLocalClient() {
+        DockerClient client = getIdleClients(LOCAL_DOCKER).poll();
+        return client != null ? client
+                : DockerClientBuilder.getInstance(DefaultDockerClientConfig.createDefaultConfigBuilder().build())
+                .build();
+    }
+
+    /**
+     * Returns docker client of local docker to pool.
+     *
+     * @param client docker client
+     */
+    public void releaseLocalClient(DockerClient client) {
+        getIdleClients(LOCAL_DOCKER).offer(client);
+    }
+
+    /**
+     * Closes pooled docker clients.
+     */
+    @PreDestroy
+    public void close() {
+        for (BlockingQueue<DockerClient> clients : idleClients.values()) {
+            DockerClient client;
+            while ((client = clients.poll()) != null) {
+                try {
+                    client.close();
+                } catch (IOException e) {
+                    LOGGER.debug("failed to close docker client {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void pullImage(Map<String, AppRepo> sourceRepos, String image, Set<String> pulledImgs,
+                           CancelToken cancel) {
+        String sourceRepoHost = image.split("/")[0];
+        AppRepo repo = sourceRepos.get(sourceRepoHost);
+        if (repo == null) {
+            LOGGER.error("Download failed, source repo not configured: {}", sourceRepoHost);
+            throw new ApmException("docker image download failed source repo not configured " + sourceRepoHost);
+        }
+
+        LOGGER.info("download docker image {}", image);
+        try {
+            withRegistryClient(sourceRepoHost, repo.getRepoUserName(), repo.getRepoPassword(), client -> {
+                PullImageResultCallback callback = new PullImageResultCallback();
+                awaitTransfer(callback, cancel, () -> client.pullImageCmd(image).exec(callback).awaitCompletion());
+            });
+            synchronized (pulledImgs) {
+                pulledImgs.add(image);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApmException("failed to download image");
+        } catch (NotFoundException e) {
+            LOGGER.error("failed to download image {}, image not found in repository, {}", image, e.getMessage());
+            throw new ApmException("failed to pull image from source repo");
+        } catch (InternalServerErrorException e) {
+            LOGGER.error("internal server error while downloading image {},{}", image, e.getMessage());
+            throw new ApmException("failed to download docker image from source repo");
+        }
+    }
+
+    private void copyImage(Map<String, AppRepo> sourceRepos, SwImageDescr imageInfo, CancelToken cancel) {
+        String image = imageInfo.getSwImage();
+        String sourceRepoHost = image.split("/")[0];
+        AppRepo repo = sourceRepos.get(sourceRepoHost);
+        if (repo == null || image.length() <= sourceRepoHost.length()) {
+            LOGGER.error("Copy failed, source repo not configured: {}", sourceRepoHost);
+            throw new ApmException("docker image download failed source repo not configured " + sourceRepoHost);
+        }
+
+        String path = image.substring(sourceRepoHost.length() + 1);
+        String repository = path;
+        String reference = "latest";
+        String targetTag = reference;
+        int digestIndex = path.indexOf('@');
+        int tagIndex = path.lastIndexOf(':');
+        if (digestIndex >= 0) {
+            repository = path.substring(0, digestIndex);
+            reference = path.substring(digestIndex + 1);
+            targetTag = imageInfo.getVersion();
+        } else if (tagIndex > path.lastIndexOf('/')) {
+            repository = path.substring(0, tagIndex);
+            reference = path.substring(tagIndex + 1);
+            targetTag = reference;
+        }
+        String targetRepository = "mecm/" + repository.substring(repository.lastIndexOf('/') + 1);
+
+        Semaphore permits = registryPermits.computeIfAbsent(mecmRepoEndpoint,
+            key -> new Semaphore(perRegistryLimit, true));
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApmException("failed to upload image");
+        }
+        try {
+            int transferred = registryClient.copyImage(
+                    new Registry(sourceRepoHost, repo.getRepoUserName(), repo.getRepoPassword()), repository,
+                    reference, new Registry(mecmRepoEndpoint, mecmRepoUsername, mecmRepoPassword), targetRepository,
+                    targetTag, cancel);
+            LOGGER.info("image {} copied to {}/{}:{}, {} blobs transferred", image, mecmRepoEndpoint,
+                    targetRepository, targetTag, transferred);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void pushImage(SwImageDescr imageInfo, Set<String> pushedImgs, CancelToken cancel) {
+        String[] dockerImageNames = imageInfo.getSwImage().split("/");
+        String uploadImgName = new StringBuilder(mecmRepoEndpoint).append("/mecm/")
+                .append(dockerImageNames[dockerImageNames.length - 1]).toString();
+
+        LOGGER.info("tagged image upload: {}", uploadImgName);
+        try {
+            withRegistryClient(mecmRepoEndpoint, mecmRepoUsername, mecmRepoPassword, client -> {
+                String id = client.inspectImageCmd(imageInfo.getSwImage()).exec().getId();
+                client.tagImageCmd(id, uploadImgName, imageInfo.getVersion()).withForce().exec();
+                synchronized (pushedImgs) {
+                    pushedImgs.add(uploadImgName);
+                }
+                PushImageResultCallback callback = new PushImageResultCallback();
+                awaitTransfer(callback, cancel,
+                    () -> client.pushImageCmd(uploadImgName).exec(callback).awaitCompletion());
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApmException("failed to upload image");
+        } catch (NotFoundException e) {
+            LOGGER.error("failed to upload image {}, image not found in repository, {}", uploadImgName,
+                    e.getMessage());
+            throw new ApmException("failed to push image to edge repo");
+        } catch (InternalServerErrorException e) {
+            LOGGER.error("internal server error while uploading image {},{}", uploadImgName, e.getMessage());
+            throw new ApmException("failed to push image to edge repo");
+        }
+    }
+
+    private void withRegistryClient(String registry, String userName, String password, DockerAction action)
+            throws InterruptedException {
+        Semaphore permits = registryPermits.computeIfAbsent(registry, key -> new Semaphore(perRegistryLimit, true));
+        permits.acquire();
+        String key = registry + "|" + userName;
+        DockerClient client = getIdleClients(key).poll();
+        try {
+            if (client == null) {
+                client = createRegistryClient(registry, userName, password);
+            }
+            action.run(client);
+        } finally {
+            if (client != null) {
+                getIdleClients(key).offer(client);
+            }
+            permits.release();
+        }
+    }
+
+    private DockerClient createRegistryClient(String registry, String userName, String password) {
+        DockerClientConfig config = DefaultDockerClientConfig.createDefaultConfigBuilder().withDockerTlsVerify(true)
+                .withDockerCertPath(SSL).withRegistryUrl(getProtocol(isSslEnabled) + registry)
+                .withRegistryUsername(userName).withRegistryPassword(password).build();
+        return DockerClientBuilder.getInstance(config).build();
+    }
+
+    private BlockingQueue<DockerClient> getIdleClients(String key) {
+        return idleClients.computeIfAbsent(key, k -> new LinkedBlockingQueue<>());
+    }
+
+    private static void awaitTransfer(Closeable callback, CancelToken cancel, Transfer transfer)
+            throws InterruptedException {
+        // closing the callback aborts the docker stream, which does not react to interrupts
+        Runnable abort = () -> {
+            try {
+                callback.close();
+            } catch (IOException e) {
+                LOGGER.debug("failed to abort docker transfer {}", e.getMessage());
+            }
+        };
+        cancel.addListener(abort);
+        try {
+            transfer.await();
+        } finally {
+            cancel.removeListener(abort);
+        }
+        // aborted transfer completes like a finished one
+        cancel.throwIfCancelled();
+    }
+
+    private static boolean runStage(AtomicReference<RuntimeException> failure, CancelToken cancel,
+                                    Runnable stage) {
+        // images not yet started are skipped once any image failed or the move is cancelled
+        if (failure.get() != null || cancel.isCancelled()) {
+            return false;
+        }
+        try {
+            stage.run();
+            return true;
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+            return false;
+        }
+    }
+
+    private static void reportProgress(Consumer<String> progress, String pullProgress, String pushProgress) {
+        if (progress == null) {
+            return;
+        }
+        StringBuilder message = new StringBuilder();
+        if (pullProgress != null) {
+            message.append(pullProgress);
+        }
+        if (pushProgress != null) {
+            message.append(message.length() > 0 ? ", " : "").append(pushProgress);
+        }
+        try {
+            progress.accept(message.toString());
+        } catch (RuntimeException e) {
+            LOGGER.error("failed to report image sync progress {}", e.getMessage());
+        }
+    }
+
+    @FunctionalInterface
+    private interface DockerAction {
+
+        void run(DockerClient client) throws InterruptedException;
+    }
+
+    @FunctionalInterface
+    private interface Transfer {
+
+        void await() throws InterruptedException;
+    }
+}
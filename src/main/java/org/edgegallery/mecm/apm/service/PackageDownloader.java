@@ -0,0 +1,502 @@
+/*
+ *  Copyright 2020 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.service;
+
+import com.google.common.io.BaseEncoding;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.io.FileUtils;
+import org.edgegallery.mecm.apm.exception.ApmException;
+import org.edgegallery.mecm.apm.model.PackageFile;
+import org.edgegallery.mecm.apm.utils.Constants;
+import org.edgegallery.mecm.apm.utils.FileChecker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Downloads application packages to local files. Content is streamed through a direct buffer into a partial file
+ * which is resumed with conditional range requests after connection failures, large packages are optionally fetched
+ * as parallel range segments. Length and checksum are verified before the partial file becomes the package file.
+ */
+@Service("PackageDownloader")
+public class PackageDownloader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PackageDownloader.class);
+
+    private static final String ACCESS_TOKEN = "ACCESS_TOKEN";
+
+    private static final String PART_SUFFIX = ".part";
+
+    private static final String SEGMENTS_SUFFIX = ".segments";
+
+    private static final String VALIDATOR_SUFFIX = ".validator";
+
+    private static final String WEAK_ETAG_PREFIX = "W/";
+
+    private static final String DIGEST = "Digest";
+
+    private static final String SHA_256_DIGEST = "sha-256=";
+
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+|\\*)");
+
+    @Autowired
+    private RestTemplate restTemplate;
+
+    @Autowired
+    @Qualifier("downloadExecutor")
+    private Executor downloadExecutor;
+
+    @Value("${apm.download.buffer-size:1048576}")
+    private int bufferSize;
+
+    @Value("${apm.download.max-retries:3}")
+    private int maxRetries;
+
+    @Value("${apm.download.retry-interval:2000}")
+    private long retryInterval;
+
+    @Value("${apm.download.segments:1}")
+    private int segments;
+
+    @Value("${apm.download.segment-threshold:16777216}")
+    private long segmentThreshold;
+
+    /**
+     * Downloads file, resumes partial file left by a previous attempt.
+     *
+     * @param url         download url
+     * @param file        local file
+     * @param accessToken access token
+     * @return downloaded package file
+     */
+    public PackageFile download(String url, File file, String accessToken) {
+        File partFile = new File(file.getPath() + PART_SUFFIX);
+        File validatorFile = new File(partFile.getPath() + VALIDATOR_SUFFIX);
+        // segments leave holes in their file, so it is never resumed as a single stream
+        File segmentFile = new File(file.getPath() + SEGMENTS_SUFFIX);
+        try {
+            DownloadResult result = null;
+            if (segments > 1) {
+                HttpHeaders remote = getRemoteHeaders(url, accessToken);
+                if ("bytes".equalsIgnoreCase(remote.getFirst(HttpHeaders.ACCEPT_RANGES))
+                        && remote.getContentLength() >= segmentThreshold) {
+                    result = downloadSegments(url, segmentFile, file.getName(), accessToken, remote);
+                }
+            }
+            if (result == null) {
+                result = downloadWithResume(url, partFile, file.getName(), accessToken);
+            }
+
+            verify(result, file.getName());
+            Files.move(result.file.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            FileUtils.deleteQuietly(validatorFile);
+            PackageFile packageFile = new PackageFile(file.getCanonicalPath(), result.size, result.sha256);
+            packageFile.setEtag(result.remote.getETag());
+            packageFile.setLastModified(result.remote.getFirst(HttpHeaders.LAST_MODIFIED));
+            return packageFile;
+        } catch (ResourceAccessException ex) {
+            // partial file is kept so that next attempt resumes from it
+            FileUtils.deleteQuietly(segmentFile);
+            LOGGER.error(Constants.FAILED_TO_CONNECT_APPSTORE);
+            throw new ApmException(Constants.FAILED_TO_CONNECT_APPSTORE);
+        } catch (HttpClientErrorException ex) {
+            LOGGER.error("client error while downloading app package {}", ex.getMessage());
+            throw new ApmException(Constants.ERROR_IN_DOWNLOADING_CSAR);
+        } catch (HttpServerErrorException ex) {
+            LOGGER.error("server error while downloading app package {}", ex.getMessage());
+            throw new ApmException(Constants.ERROR_IN_DOWNLOADING_CSAR);
+        } catch (ApmException | IllegalArgumentException ex) {
+            FileUtils.deleteQuietly(partFile);
+            FileUtils.deleteQuietly(validatorFile);
+            FileUtils.deleteQuietly(segmentFile);
+            throw ex;
+        } catch (IOException ex) {
+            FileUtils.deleteQuietly(partFile);
+            FileUtils.deleteQuietly(validatorFile);
+            FileUtils.deleteQuietly(segmentFile);
+            LOGGER.error(Constants.FAILED_TO_CREATE_CSAR, file.getName());
+            throw new ApmException("failed to create csar file " + file.getName());
+        }
+    }
+
+    /**
+     * Returns true if remote file served to the access token is unchanged since a local copy was downloaded, as
+     * confirmed by a not modified response to a conditional request.
+     *
+     * @param url          download url
+     * @param accessToken  access token
+     * @param etag         entity tag of local copy, may be null
+     * @param lastModified last modified time of local copy, may be null
+     * @return true if local copy may be used, false if remote file is to be downloaded again
+     * @throws ApmException if remote file cannot be accessed with the access token
+     */
+    public boolean isNotModified(String url, String accessToken, String etag, String lastModified) {
+        if (etag == null && lastModified == null) {
+            // local copy cannot be revalidated
+            return false;
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(ACCESS_TOKEN, accessToken);
+        if (etag != null) {
+            headers.setIfNoneMatch(etag);
+        }
+        if (lastModified != null) {
+            headers.set(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+        }
+        HttpStatus status;
+        try {
+            status = restTemplate.exchange(url, HttpMethod.HEAD, new HttpEntity<>(headers), Void.class)
+                    .getStatusCode();
+        } catch (ResourceAccessException ex) {
+            LOGGER.error(Constants.FAILED_TO_CONNECT_APPSTORE);
+            throw new ApmException(Constants.FAILED_TO_CONNECT_APPSTORE);
+        } catch (HttpClientErrorException ex) {
+            if (ex.getStatusCode() == HttpStatus.METHOD_NOT_ALLOWED) {
+                // remote cannot be checked cheaply, access is checked by downloading again
+                return false;
+            }
+            LOGGER.error("client error while checking app package {}", ex.getMessage());
+            throw new ApmException(Constants.ERROR_IN_DOWNLOADING_CSAR);
+        } catch (HttpServerErrorException ex) {
+            LOGGER.error("server error while checking app package {}", ex.getMessage());
+            throw new ApmException(Constants.ERROR_IN_DOWNLOADING_CSAR);
+        }
+
+        return status == HttpStatus.NOT_MODIFIED;
+    }
+
+    private DownloadResult downloadWithResume(String url, File partFile, String fileName, String accessToken) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return downloadFrom(url, partFile, fileName, accessToken);
+            } catch (ResourceAccessException ex) {
+                if (attempt > maxRetries) {
+                    throw ex;
+                }
+                LOGGER.warn("download of {} interrupted at {} bytes, attempt {}, {}", fileName, partFile.length(),
+                        attempt, ex.getMessage());
+                pause(attempt);
+            } catch (HttpClientErrorException ex) {
+                if (ex.getStatusCode() != HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE || attempt > maxRetries) {
+                    throw ex;
+                }
+                // partial file does not match remote file any more
+                LOGGER.warn("discarding partial file of {}, range not satisfiable", fileName);
+                FileUtils.deleteQuietly(partFile);
+            }
+        }
+    }
+
+    private DownloadResult downloadFrom(String url, File partFile, String fileName, String accessToken) {
+        long offset = partFile.length();
+        File validatorFile = new File(partFile.getPath() + VALIDATOR_SUFFIX);
+        // partial file is resumed only when it can be tied to the remote file it was written from
+        String validator = offset > 0 ? readValidator(validatorFile) : null;
+        return restTemplate.execute(url, HttpMethod.GET, request -> {
+            request.getHeaders().set(ACCESS_TOKEN, accessToken);
+            if (validator != null) {
+                // whole file is sent instead of the range when remote file changed since
+                request.getHeaders().set(HttpHeaders.RANGE, "bytes=" + offset + "-");
+                request.getHeaders().set(HttpHeaders.IF_RANGE, validator);
+            }
+        }, response -> {
+            long start = 0;
+            long total = response.getHeaders().getContentLength();
+            if (response.getStatusCode() == HttpStatus.PARTIAL_CONTENT) {
+                long[] range = parseContentRange(response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+                if (range[0] != offset) {
+                    throw new ApmException("unexpected content range for " + fileName);
+                }
+                start = range[0];
+                total = range[2];
+                LOGGER.info("resuming download of {} from {} bytes", fileName, start);
+            } else if (response.getStatusCode() == HttpStatus.OK) {
+                if (offset > 0) {
+                    LOGGER.info("partial file of {} not resumable, restarting download", fileName);
+                }
+                writeValidator(validatorFile, getValidator(response.getHeaders()));
+            } else {
+                LOGGER.error(Constants.CSAR_DOWNLOAD_FAILED, fileName);
+                throw new ApmException("failed to download app package " + fileName);
+            }
+            if (total > 0) {
+                FileChecker.checkFileSize(fileName, total);
+            }
+
+            MessageDigest digest = newSha256Digest();
+            try (FileChannel target = FileChannel.open(partFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                target.truncate(start);
+                hash(target, start, digest);
+                AtomicLong position = new AtomicLong(start);
+                transfer(response.getBody(), target, position, Long.MAX_VALUE, digest, fileName);
+                return new DownloadResult(partFile, position.get(), total, encode(digest.digest()),
+                        response.getHeaders());
+            }
+        });
+    }
+
+    private DownloadResult downloadSegments(String url, File segmentFile, String fileName, String accessToken,
+                                            HttpHeaders remote) throws IOException {
+        long length = remote.getContentLength();
+        FileChecker.checkFileSize(fileName, length);
+        long segmentSize = (length + segments - 1) / segments;
+        LOGGER.info("downloading {} of {} bytes in {} segments", fileName, length, segments);
+
+        try (FileChannel target = FileChannel.open(segmentFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            target.truncate(length);
+            List<CompletableFuture<Void>> futures = new LinkedList<>();
+            for (long start = 0; start < length; start += segmentSize) {
+                long from = start;
+                long end = Math.min(start + segmentSize, length);
+                futures.add(CompletableFuture.runAsync(() -> downloadSegment(url, target, from, end, fileName,
+                        accessToken), downloadExecutor));
+            }
+            try {
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+            } catch (CompletionException ex) {
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw ex;
+            }
+
+            MessageDigest digest = newSha256Digest();
+            hash(target, length, digest);
+            return new DownloadResult(segmentFile, target.size(), length, encode(digest.digest()), remote);
+        }
+    }
+
+    private void downloadSegment(String url, FileChannel target, long from, long end, String fileName,
+                                 String accessToken) {
+        AtomicLong position = new AtomicLong(from);
+        for (int attempt = 1; position.get() < end; attempt++) {
+            long offset = position.get();
+            try {
+                restTemplate.execute(url, HttpMethod.GET, request -> {
+                    request.getHeaders().set(ACCESS_TOKEN, accessToken);
+                    request.getHeaders().set(HttpHeaders.RANGE, "bytes=" + offset + "-" + (end - 1));
+                }, response -> {
+                    if (response.getStatusCode() != HttpStatus.PARTIAL_CONTENT) {
+                        throw new ApmException("range request not supported for " + fileName);
+                    }
+                    transfer(response.getBody(), target, position, end, null, fileName);
+                    return null;
+                });
+            } catch (ResourceAccessException ex) {
+                if (attempt > maxRetries) {
+                    throw ex;
+                }
+                LOGGER.warn("segment of {} interrupted at {} bytes, attempt {}, {}", fileName, position.get(),
+                        attempt, ex.getMessage());
+                pause(attempt);
+            }
+        }
+    }
+
+    private void transfer(InputStream body, FileChannel target, AtomicLong position, long end,
+                          MessageDigest digest, String fileName) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+        try (ReadableByteChannel source = Channels.newChannel(body)) {
+            while (source.read(buffer) != -1 || buffer.position() > 0) {
+                buffer.flip();
+                long next = position.get() + buffer.remaining();
+                FileChecker.checkFileSize(fileName, next);
+                if (next > end) {
+                    throw new ApmException("received more data than requested for " + fileName);
+                }
+
+                if (digest != null) {
+                    buffer.mark();
+                    digest.update(buffer);
+                    buffer.reset();
+                }
+                while (buffer.hasRemaining()) {
+                    position.addAndGet(target.write(buffer, position.get()));
+                }
+                buffer.clear();
+            }
+        }
+    }
+
+    private void hash(FileChannel channel, long length, MessageDigest digest) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+        long position = 0;
+        while (position < length) {
+            buffer.limit((int) Math.min(buffer.capacity(), length - position));
+            int read = channel.read(buffer, position);
+            if (read == -1) {
+                throw new ApmException("partial file shorter than expected");
+            }
+            position += read;
+            buffer.flip();
+            digest.update(buffer);
+            buffer.clear();
+        }
+    }
+
+    private HttpHeaders getRemoteHeaders(String url, String accessToken) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(ACCESS_TOKEN, accessToken);
+        try {
+            return restTemplate.exchange(url, HttpMethod.HEAD, new HttpEntity<>(headers), Void.class).getHeaders();
+        } catch (RestClientException ex) {
+            LOGGER.warn("failed to get remote file info, downloading in single stream {}", ex.getMessage());
+            return new HttpHeaders();
+        }
+    }
+
+    private static String readValidator(File validatorFile) {
+        if (!validatorFile.isFile()) {
+            return null;
+        }
+        try {
+            return new String(Files.readAllBytes(validatorFile.toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            LOGGER.warn("failed to read validator of partial file {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static void writeValidator(File validatorFile, String validator) throws IOException {
+        if (validator == null) {
+            FileUtils.deleteQuietly(validatorFile);
+            return;
+        }
+        Files.write(validatorFile.toPath(), validator.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String getValidator(HttpHeaders headers) {
+        // weak entity tags must not be used with If-Range
+        String etag = headers.getETag();
+        if (etag != null && !etag.startsWith(WEAK_ETAG_PREFIX)) {
+            return etag;
+        }
+        return headers.getFirst(HttpHeaders.LAST_MODIFIED);
+    }
+
+    private void pause(int attempt) {
+        try {
+            Thread.sleep(retryInterval * attempt);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApmException("download interrupted");
+        }
+    }
+
+    private static void verify(DownloadResult result, String fileName) {
+        if (result.expectedSize > 0 && result.size != result.expectedSize) {
+            LOGGER.error("size of {} is {}, expected {}", fileName, result.size, result.expectedSize);
+            throw new ApmException(Constants.CSAR_CHECKSUM_MISMATCH);
+        }
+        if (result.expectedSha256 != null && !result.expectedSha256.equalsIgnoreCase(result.sha256)) {
+            LOGGER.error("sha256 of {} is {}, expected {}", fileName, result.sha256, result.expectedSha256);
+            throw new ApmException(Constants.CSAR_CHECKSUM_MISMATCH);
+        }
+    }
+
+    private static long[] parseContentRange(String contentRange) {
+        Matcher matcher = contentRange == null ? null : CONTENT_RANGE.matcher(contentRange);
+        if (matcher == null || !matcher.matches()) {
+            throw new ApmException("invalid content range " + contentRange);
+        }
+        long total = "*".equals(matcher.group(3)) ? -1 : Long.parseLong(matcher.group(3));
+        return new long[] {Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)), total};
+    }
+
+    private static String getSha256Digest(HttpHeaders headers) {
+        for (String value : headers.getValuesAsList(DIGEST)) {
+            if (value.regionMatches(true, 0, SHA_256_DIGEST, 0, SHA_256_DIGEST.length())) {
+                try {
+                    return encode(BaseEncoding.base64().decode(value.substring(SHA_256_DIGEST.length())));
+                } catch (IllegalArgumentException e) {
+                    LOGGER.warn("ignoring invalid digest header {}", value);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String encode(byte[] bytes) {
+        return BaseEncoding.base16().lowerCase().encode(bytes);
+    }
+
+    private static MessageDigest newSha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 digest not available", e);
+        }
+    }
+
+    private static final class DownloadResult {
+
+        private final File file;
+
+        private final long size;
+
+        private final long expectedSize;
+
+        private final String sha256;
+
+        private final String expectedSha256;
+
+        private final HttpHeaders remote;
+
+        private DownloadResult(File file, long size, long expectedSize, String sha256, HttpHeaders remote) {
+            this.file = file;
+            this.size = size;
+            this.expectedSize = expectedSize;
+            this.sha256 = sha256;
+            this.expectedSha256 = getSha256Digest(remote);
+            this.remote = remote;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ *  Copyright 2021 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.apache.commons.io.FileUtils;
+import org.edgegallery.mecm.apm.model.AppPackageInfo;
+import org.edgegallery.mecm.apm.utils.Constants;
+import org.edgegallery.mecm.apm.utils.PackageStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Reconciles package directory against app package records. Package directories and files not owned by an app
+ * package or app package info record are removed, as are stored packages no more linked from any package
+ * directory. When package directory exceeds its quota, least recently synced packages which are not onboarded by
+ * a tenant are evicted, they are downloaded again from appstore when needed.
+ */
+@Service("PackageGarbageCollector")
+public class PackageGarbageCollector {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PackageGarbageCollector.class);
+
+    private static final String[] OWNED_FILE_SUFFIXES = {".orig.csar", ".csar"};
+
+    private final AtomicLong runs = new AtomicLong();
+
+    private final AtomicLong orphansRemoved = new AtomicLong();
+
+    private final AtomicLong blobsRemoved = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong storeSize = new AtomicLong();
+
+    private ScheduledExecutorService scheduler;
+
+    @Autowired
+    private DbService dbService;
+
+    @Value("${apm.package-dir:/usr/app/packages}")
+    private String localDirPath;
+
+    @Value("${apm.package-gc.interval:3600000}")
+    private long interval;
+
+    @Value("${apm.package-gc.grace-period:3600000}")
+    private long gracePeriod;
+
+    @Value("${apm.package-gc.quota:0}")
+    private long quota;
+
+    /**
+     * Starts collector scheduler, collector is disabled with non positive interval.
+     */
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("apm-package-gc-"));
+        if (interval > 0) {
+            scheduler.scheduleWithFixedDelay(this::tick, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops collector scheduler.
+     */
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Returns package directory statistics.
+     *
+     * @return size, quota and removal counts of package directory
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("size", storeSize.get());
+        stats.put("quota", quota);
+        stats.put("runs", runs.get());
+        stats.put("orphansRemoved", orphansRemoved.get());
+        stats.put("blobsRemoved", blobsRemoved.get());
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+
+    /**
+     * Removes orphan packages and evicts synced packages above quota.
+     */
+    public synchronized void collect() {
+        File baseDir = new File(localDirPath);
+        File[] entries = baseDir.listFiles();
+        if (entries == null) {
+            return;
+        }
+
+        Set<String> onboarded = dbService.getAllAppPackageIds();
+        Map<String, AppPackageInfo> synced = dbService.getAllAppPackageSyncInfo();
+        File storeRoot = PackageStore.getStoreDir(localDirPath).getParentFile();
+        long now = System.currentTimeMillis();
+
+        List<File> evictable = new LinkedList<>();
+        for (File entry : entries) {
+            // entries just created belong to onboarding or sync not yet recorded
+            if (entry.equals(storeRoot) || now - entry.lastModified() < gracePeriod) {
+                continue;
+            }
+            String owner = getOwner(entry);
+            if (onboarded.contains(owner)) {
+                continue;
+            }
+            if (!synced.containsKey(owner)) {
+                LOGGER.info("removing orphan package entry {}", entry.getName());
+                FileUtils.deleteQuietly(entry);
+                orphansRemoved.incrementAndGet();
+            } else if (entry.isDirectory()
+                    && !Constants.APP_SYNC_INPROGRESS.equals(synced.get(owner).getSyncStatus())) {
+                evictable.add(entry);
+            }
+        }
+        removeUnlinkedBlobs(now);
+
+        long size = getDiskUsage(baseDir);
+        if (quota > 0 && size > quota) {
+            // ordered by last sync recorded in app package info, directory time only breaks ties
+            evictable.sort(Comparator.comparing((File entry) -> getSyncTime(synced.get(getOwner(entry))))
+                    .thenComparingLong(File::lastModified));
+            Iterator<File> it = evictable.iterator();
+            while (size > quota && it.hasNext()) {
+                File entry = it.next();
+                LOGGER.info("package directory above quota, evicting synced package {}", entry.getName());
+                FileUtils.deleteQuietly(entry);
+                evictions.incrementAndGet();
+                removeUnlinkedBlobs(now);
+                size = getDiskUsage(baseDir);
+            }
+            if (size > quota) {
+                LOGGER.warn("package directory size {} is above quota {}", size, quota);
+            }
+        }
+        storeSize.set(size);
+        runs.incrementAndGet();
+    }
+
+    private void tick() {
+        try {
+            collect();
+        } catch (RuntimeException e) {
+            LOGGER.error("package garbage collection failed {}", e.getMessage());
+        }
+    }
+
+    private void removeUnlinkedBlobs(long now) {
+        File[] blobs = PackageStore.getStoreDir(localDirPath).listFiles();
+        if (blobs == null) {
+            return;
+        }
+        for (File blob : blobs) {
+            if (now - blob.lastModified() >= gracePeriod && getLinkCount(blob) == 1) {
+                LOGGER.info("removing stored package {} not linked by any package", blob.getName());
+                FileUtils.deleteQuietly(blob);
+                blobsRemoved.incrementAndGet();
+            }
+        }
+    }
+
+    private static LocalDateTime getSyncTime(AppPackageInfo pkgInfo) {
+        return pkgInfo.getUpdateTime() != null ? pkgInfo.getUpdateTime() : LocalDateTime.MIN;
+    }
+
+    private static String getOwner(File entry) {
+        String name = entry.getName();
+        if (entry.isFile()) {
+            for (String suffix : OWNED_FILE_SUFFIXES) {
+                if (name.endsWith(suffix)) {
+                    return name.substring(0, name.length() - suffix.length());
+                }
+            }
+        }
+        return name;
+    }
+
+    private static int getLinkCount(File file) {
+        try {
+            return (Integer) Files.getAttribute(file.toPath(), "unix:nlink");
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            // blobs are copied where hard links are not supported, so they are kept
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    private static long getDiskUsage(File dir) {
+        // hard links of stored packages are counted once
+        Set<Object> counted = new HashSet<>();
+        long size = 0;
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            Iterator<Path> it = paths.iterator();
+            while (it.hasNext()) {
+                BasicFileAttributes attributes = Files.readAttributes(it.next(), BasicFileAttributes.class);
+                Object key = attributes.fileKey();
+                if (attributes.isRegularFile() && (key == null || counted.add(key))) {
+                    size += attributes.size();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("failed to compute size of package directory {}", e.getMessage());
+        }
+        return size;
+    }
+}
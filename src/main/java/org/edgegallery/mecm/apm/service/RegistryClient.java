@@ -0,0 +1,392 @@
+/*
+ *  Copyright 2020 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.service;
+
+import static org.edgegallery.mecm.apm.utils.ApmServiceHelper.getProtocol;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.apache.commons.io.IOUtils;
+import org.edgegallery.mecm.apm.exception.ApmException;
+import org.edgegallery.mecm.apm.utils.BufferPool;
+import org.edgegallery.mecm.apm.utils.CancelToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResponseExtractor;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+/**
+ * Docker registry v2 client copying images directly between registries. Manifests and layer blobs are streamed
+ * from source registry to target registry without local docker, blobs already present in target are skipped and
+ * blobs of the same registry are mounted across repositories instead of being transferred. Blobs known to be in
+ * the target registry are recorded by digest, so layers shared between images are transferred only once.
+ */
+@Service("RegistryClient")
+public class RegistryClient {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RegistryClient.class);
+
+    private static final String MANIFEST_LIST = "application/vnd.docker.distribution.manifest.list.v2+json";
+
+    private static final String OCI_INDEX = "application/vnd.oci.image.index.v1+json";
+
+    public static final String MANIFEST_ACCEPT = String.join(",", MANIFEST_LIST, OCI_INDEX,
+            "application/vnd.docker.distribution.manifest.v2+json", "application/vnd.oci.image.manifest.v1+json",
+            "application/vnd.docker.distribution.manifest.v1+prettyjws");
+
+    private static final Pattern CHALLENGE_PARAM = Pattern.compile("(\\w+)=\"([^\"]*)\"");
+
+    private static final String DIGEST = "digest";
+
+    private static final String BLOBS = "/blobs/";
+
+    private final Map<String, String> authorizations = new ConcurrentHashMap<>();
+
+    private final RestTemplate restTemplate;
+
+    @Autowired
+    private DbService dbService;
+
+    @Value("${server.ssl.enabled:false}")
+    private String isSslEnabled;
+
+    /**
+     * Creates registry client whose requests stream their bodies instead of buffering them.
+     */
+    public RegistryClient() {
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setBufferRequestBody(false);
+        restTemplate = new RestTemplate(requestFactory);
+    }
+
+    /**
+     * Copies image from source repository to target repository.
+     *
+     * @param source          source registry
+     * @param sourceRepo      source repository, such as library/nginx
+     * @param sourceReference source tag or digest
+     * @param target          target registry
+     * @param targetRepo      target repository
+     * @param targetTag       target tag
+     * @param cancel          cancellation of the copy, stops transfer of blobs
+     * @return number of blobs transferred
+     */
+    public int copyImage(Registry source, String sourceRepo, String sourceReference, Registry target,
+                         String targetRepo, String targetTag, CancelToken cancel) {
+        LOGGER.info("copy image {}/{}:{} to {}/{}:{}", source.getHost(), sourceRepo, sourceReference,
+                target.getHost(), targetRepo, targetTag);
+        try {
+            return copyManifest(source, sourceRepo, sourceReference, target, targetRepo, targetTag, cancel);
+        } catch (RestClientException e) {
+            cancel.throwIfCancelled();
+            LOGGER.error("failed to copy image {}/{}:{}, {}", source.getHost(), sourceRepo, sourceReference,
+                    e.getMessage());
+            throw new ApmException("failed to copy image to edge repo");
+        }
+    }
+
+    private int copyManifest(Registry source, String sourceRepo, String reference, Registry target,
+                             String targetRepo, String targetReference, CancelToken cancel) {
+        Manifest manifest = execute(source, sourceRepo, HttpMethod.GET,
+                uri(source, sourceRepo, "/manifests/" + reference),
+                request -> request.getHeaders().set(HttpHeaders.ACCEPT, MANIFEST_ACCEPT),
+                response -> new Manifest(response.getHeaders().getContentType(),
+                        IOUtils.toByteArray(response.getBody())));
+        JsonObject json = new JsonParser().parse(new String(manifest.getBody(), StandardCharsets.UTF_8))
+                .getAsJsonObject();
+
+        int transferred = 0;
+        String mediaType = manifest.getMediaType() != null ? manifest.getMediaType().toString() : "";
+        if (mediaType.startsWith(MANIFEST_LIST) || mediaType.startsWith(OCI_INDEX)) {
+            // platform manifests are referenced by digest from the list and must exist before it
+            for (JsonElement child : json.getAsJsonArray("manifests")) {
+                String digest = child.getAsJsonObject().get(DIGEST).getAsString();
+                transferred += copyManifest(source, sourceRepo, digest, target, targetRepo, digest, cancel);
+            }
+        } else {
+            for (String digest : getBlobDigests(json)) {
+                if (copyBlob(source, sourceRepo, target, targetRepo, digest, cancel)) {
+                    transferred++;
+                }
+            }
+        }
+
+        // image is not tagged in target when copy was cancelled
+        cancel.throwIfCancelled();
+
+        execute(target, targetRepo, HttpMethod.PUT, uri(target, targetRepo, "/manifests/" + targetReference),
+            request -> {
+                if (manifest.getMediaType() != null) {
+                    request.getHeaders().setContentType(manifest.getMediaType());
+                }
+                request.getHeaders().setContentLength(manifest.getBody().length);
+                request.getBody().write(manifest.getBody());
+            }, response -> null);
+        return transferred;
+    }
+
+    private boolean copyBlob(Registry source, String sourceRepo, Registry target, String targetRepo,
+                             String digest, CancelToken cancel) {
+        try {
+            return transferBlob(source, sourceRepo, target, targetRepo, digest, cancel);
+        } catch (UploadUnauthorizedException e) {
+            // streamed blob cannot be sent again, copy restarts in a new upload session with renewed authorization
+            LOGGER.info("upload of blob {} to {} not authorized, restarting copy", digest, targetRepo);
+        }
+        try {
+            return transferBlob(source, sourceRepo, target, targetRepo, digest, cancel);
+        } catch (UploadUnauthorizedException e) {
+            throw new ApmException("upload of blob " + digest + " to " + targetRepo + " not authorized");
+        }
+    }
+
+    private boolean transferBlob(Registry source, String sourceRepo, Registry target, String targetRepo,
+                                 String digest, CancelToken cancel) {
+        cancel.throwIfCancelled();
+        if (isBlobPresent(target, targetRepo, digest)) {
+            LOGGER.debug("blob {} already present in {}", digest, targetRepo);
+            dbService.addRepoBlob(target.getHost(), digest, targetRepo);
+            return false;
+        }
+
+        // layers shared with images synced before are mounted from the repository known to hold them
+        String knownRepo = dbService.getRepositoryOfBlob(target.getHost(), digest);
+        String mountFrom = null;
+        if (knownRepo != null && !knownRepo.equals(targetRepo)) {
+            mountFrom = knownRepo;
+        } else if (source.getHost().equals(target.getHost())) {
+            mountFrom = sourceRepo;
+        }
+
+        URI uploads = uri(target, targetRepo, BLOBS + "uploads/");
+        if (mountFrom != null) {
+            uploads = UriComponentsBuilder.fromUri(uploads).queryParam("mount", digest).queryParam("from", mountFrom)
+                    .build().toUri();
+        }
+        URI uploadsUri = uploads;
+        UploadSession session = execute(target, targetRepo, HttpMethod.POST, uploadsUri,
+            request -> request.getHeaders().setContentLength(0),
+            response -> new UploadSession(response.getStatusCode(), response.getHeaders().getLocation()));
+        if (session.getStatus() == HttpStatus.CREATED) {
+            LOGGER.debug("blob {} mounted from {}", digest, mountFrom);
+            dbService.addRepoBlob(target.getHost(), digest, targetRepo);
+            return false;
+        }
+        if (knownRepo != null) {
+            // blob is no more in the repository it was recorded for
+            dbService.deleteRepoBlob(target.getHost(), digest);
+        }
+        if (session.getLocation() == null) {
+            throw new ApmException("registry returned no upload location for " + targetRepo);
+        }
+
+        // upload location carries opaque, already encoded state which must be kept as is
+        String upload = uploadsUri.resolve(session.getLocation()).toString();
+        URI location = URI.create(upload + (upload.contains("?") ? "&" : "?") + DIGEST + "=" + digest);
+        execute(source, sourceRepo, HttpMethod.GET, uri(source, sourceRepo, BLOBS + digest), request -> { },
+            blob -> executeOnce(target, targetRepo, HttpMethod.PUT, location, request -> {
+                request.getHeaders().setContentType(MediaType.APPLICATION_OCTET_STREAM);
+                long length = blob.getHeaders().getContentLength();
+                if (length >= 0) {
+                    request.getHeaders().setContentLength(length);
+                }
+                BufferPool.getDefault().copy(cancel.guard(blob.getBody()), request.getBody());
+            }, response -> null));
+        dbService.addRepoBlob(target.getHost(), digest, targetRepo);
+        LOGGER.info("blob {} copied to {}", digest, targetRepo);
+        return true;
+    }
+
+    private boolean isBlobPresent(Registry registry, String repository, String digest) {
+        try {
+            execute(registry, repository, HttpMethod.HEAD, uri(registry, repository, BLOBS + digest), request -> { },
+                response -> null);
+            return true;
+        } catch (HttpClientErrorException e) {
+            if (e.getStatusCode() == HttpStatus.NOT_FOUND) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    private <T> T execute(Registry registry, String repository, HttpMethod method, URI uri, RequestCallback callback,
+                          ResponseExtractor<T> extractor) {
+        String key = registry.getHost() + "|" + repository;
+        try {
+            return restTemplate.execute(uri, method, authorized(key, callback), extractor);
+        } catch (HttpClientErrorException e) {
+            String challenge = getChallenge(e);
+            if (challenge == null) {
+                throw e;
+            }
+            // authorize against challenge of the registry and retry once, callback must be able to write again
+            authorizations.put(key, authorize(registry, challenge));
+            return restTemplate.execute(uri, method, authorized(key, callback), extractor);
+        }
+    }
+
+    private <T> T executeOnce(Registry registry, String repository, HttpMethod method, URI uri,
+                              RequestCallback callback, ResponseExtractor<T> extractor) {
+        String key = registry.getHost() + "|" + repository;
+        try {
+            return restTemplate.execute(uri, method, authorized(key, callback), extractor);
+        } catch (HttpClientErrorException e) {
+            String challenge = getChallenge(e);
+            if (challenge == null) {
+                throw e;
+            }
+            // request body is consumed, caller repeats the whole transfer with the renewed authorization
+            authorizations.put(key, authorize(registry, challenge));
+            throw new UploadUnauthorizedException();
+        }
+    }
+
+    private RequestCallback authorized(String key, RequestCallback callback) {
+        return request -> {
+            String authorization = authorizations.get(key);
+            if (authorization != null) {
+                request.getHeaders().set(HttpHeaders.AUTHORIZATION, authorization);
+            }
+            callback.doWithRequest(request);
+        };
+    }
+
+    private static String getChallenge(HttpClientErrorException e) {
+        if (e.getStatusCode() != HttpStatus.UNAUTHORIZED || e.getResponseHeaders() == null) {
+            return null;
+        }
+        return e.getResponseHeaders().getFirst(HttpHeaders.WWW_AUTHENTICATE);
+    }
+
+    private String authorize(Registry registry, String challenge) {
+        String basic = "Basic " + Base64.getEncoder().encodeToString((registry.getUserName() + ":"
+                + registry.getPassword()).getBytes(StandardCharsets.UTF_8));
+        if (!challenge.regionMatches(true, 0, "Bearer", 0, "Bearer".length())) {
+            return basic;
+        }
+
+        Map<String, String> params = new HashMap<>();
+        Matcher matcher = CHALLENGE_PARAM.matcher(challenge);
+        while (matcher.find()) {
+            params.put(matcher.group(1), matcher.group(2));
+        }
+        UriComponentsBuilder tokenUri = UriComponentsBuilder.fromHttpUrl(params.get("realm"));
+        if (params.containsKey("service")) {
+            tokenUri.queryParam("service", params.get("service"));
+        }
+        if (params.containsKey("scope")) {
+            tokenUri.queryParam("scope", params.get("scope"));
+        }
+
+        boolean hasCredentials = registry.getUserName() != null && !registry.getUserName().isEmpty();
+        String response = restTemplate.execute(tokenUri.build().encode().toUri(), HttpMethod.GET, request -> {
+            if (hasCredentials) {
+                request.getHeaders().set(HttpHeaders.AUTHORIZATION, basic);
+            }
+        }, tokenResponse -> IOUtils.toString(tokenResponse.getBody(), StandardCharsets.UTF_8));
+        JsonObject token = new JsonParser().parse(response).getAsJsonObject();
+        JsonElement value = token.has("token") ? token.get("token") : token.get("access_token");
+        if (value == null) {
+            throw new ApmException("registry token not received from " + params.get("realm"));
+        }
+        return "Bearer " + value.getAsString();
+    }
+
+    private URI uri(Registry registry, String repository, String path) {
+        return URI.create(getProtocol(isSslEnabled) + registry.getHost() + "/v2/" + repository + path);
+    }
+
+    private static Set<String> getBlobDigests(JsonObject manifest) {
+        Set<String> digests = new LinkedHashSet<>();
+        if (manifest.has("config")) {
+            digests.add(manifest.getAsJsonObject("config").get(DIGEST).getAsString());
+        }
+        if (manifest.has("layers")) {
+            for (JsonElement layer : manifest.getAsJsonArray("layers")) {
+                digests.add(layer.getAsJsonObject().get(DIGEST).getAsString());
+            }
+        }
+        if (manifest.has("fsLayers")) {
+            for (JsonElement layer : manifest.getAsJsonArray("fsLayers")) {
+                digests.add(layer.getAsJsonObject().get("blobSum").getAsString());
+            }
+        }
+        return digests;
+    }
+
+    /**
+     * Registry end point and its credentials.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static final class Registry {
+
+        private final String host;
+        private final String userName;
+        private final String password;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static final class Manifest {
+
+        private final MediaType mediaType;
+        private final byte[] body;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static final class UploadSession {
+
+        private final HttpStatus status;
+        private final URI location;
+    }
+
+    /**
+     * Upload rejected as unauthorized after its body was streamed.
+     */
+    private static final class UploadUnauthorizedException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+    }
+}
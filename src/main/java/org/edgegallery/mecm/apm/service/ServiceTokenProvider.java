@@ -0,0 +1,102 @@
+/*
+ *  Copyright 2021 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.service;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Provides access token of APM itself, obtained from auth server with client credentials. Used to resume jobs
+ * whose submitter token is not available, as tokens of users are never persisted.
+ */
+@Service("ServiceTokenProvider")
+public class ServiceTokenProvider {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServiceTokenProvider.class);
+    private static final long EXPIRY_MARGIN = 60000L;
+
+    @Autowired
+    private RestTemplate restTemplate;
+
+    @Value("${apm.service-auth.token-uri:}")
+    private String tokenUri;
+
+    @Value("${apm.service-auth.client-id:}")
+    private String clientId;
+
+    @Value("${apm.service-auth.client-secret:}")
+    private String clientSecret;
+
+    private String accessToken;
+
+    private long expiry;
+
+    /**
+     * Returns access token of APM, fetched again shortly before it expires.
+     *
+     * @return access token, null when client credentials are not configured or token could not be obtained
+     */
+    public synchronized String getAccessToken() {
+        if (clientId.isEmpty() || tokenUri.isEmpty()) {
+            return null;
+        }
+        if (accessToken != null && System.currentTimeMillis() < expiry - EXPIRY_MARGIN) {
+            return accessToken;
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+        headers.set(HttpHeaders.AUTHORIZATION, "Basic " + Base64.getEncoder()
+                .encodeToString((clientId + ":" + clientSecret).getBytes(StandardCharsets.UTF_8)));
+        MultiValueMap<String, String> form = new LinkedMultiValueMap<>();
+        form.add("grant_type", "client_credentials");
+        try {
+            String response = restTemplate.exchange(tokenUri, HttpMethod.POST, new HttpEntity<>(form, headers),
+                    String.class).getBody();
+            JsonObject json = new JsonParser().parse(response == null ? "" : response).getAsJsonObject();
+            JsonElement token = json.get("access_token");
+            if (token == null || token.isJsonNull()) {
+                throw new IllegalStateException("no access token in response");
+            }
+            JsonElement expiresIn = json.get("expires_in");
+            accessToken = token.getAsString();
+            expiry = System.currentTimeMillis() + (expiresIn != null ? expiresIn.getAsLong() * 1000 : EXPIRY_MARGIN);
+            return accessToken;
+        } catch (RestClientException | JsonParseException | IllegalStateException e) {
+            LOGGER.error("failed to get service access token {}", e.getMessage());
+            accessToken = null;
+            return null;
+        }
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ *  Copyright 2021 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.edgegallery.mecm.apm.service;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.Getter;
+import org.edgegallery.mecm.apm.model.PkgSyncInfo;
+import org.edgegallery.mecm.apm.utils.CancelToken;
+import org.edgegallery.mecm.apm.utils.Constants;
+import org.edgegallery.mecm.apm.utils.KeyedLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Runs application package sync jobs. Packages of a job are synced concurrently on a shared pool with a limit on
+ * packages synced from the same appstore at a time. Each package has its own timeout and can be cancelled, and
+ * progress of a job is kept for a retention period after it is finished. An aborted package gives up its appstore
+ * slot at once, its sync is asked to stop through a cancel token and its status is written once the sync returns.
+ */
+@Service("SyncJobEngine")
+public class SyncJobEngine {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SyncJobEngine.class);
+
+    static final String QUEUED = "QUEUED";
+    static final String RUNNING = "RUNNING";
+    static final String SUCCEEDED = "SUCCEEDED";
+    static final String FAILED = "FAILED";
+    static final String CANCELLED = "CANCELLED";
+    static final String TIMED_OUT = "TIMED_OUT";
+
+    private static final String CANCELLED_REASON = "sync cancelled";
+    private static final String TIMED_OUT_REASON = "sync timed out";
+
+    private final Map<String, SyncJob> jobs = new ConcurrentHashMap<>();
+
+    private final KeyedLimiter appstoreLimiter = new KeyedLimiter(() -> perAppstoreLimit,
+            task -> syncExecutor.execute(task));
+
+    private ScheduledExecutorService watchdog;
+
+    @Autowired
+    @Qualifier("syncExecutor")
+    private Executor syncExecutor;
+
+    @Autowired
+    private DbService dbService;
+
+    @Value("${apm.sync.per-appstore-limit:4}")
+    private int perAppstoreLimit;
+
+    @Value("${apm.sync.package-timeout:3600000}")
+    private long packageTimeout;
+
+    @Value("${apm.sync.job-retention:86400000}")
+    private long jobRetention;
+
+    /**
+     * Starts package timeout watchdog.
+     */
+    @PostConstruct
+    public void start() {
+        watchdog = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("apm-sync-watchdog-"));
+    }
+
+    /**
+     * Stops package timeout watchdog.
+     */
+    @PreDestroy
+    public void stop() {
+        watchdog.shutdownNow();
+    }
+
+    /**
+     * Submits sync job.
+     *
+     * @param pkgInfos packages to sync
+     * @param sync     syncs a package, returns true on success, stops when given cancel token is cancelled
+     * @param done     called once sync of a package is over, also when it was cancelled before it started, with
+     *                 reason for failure or null when package was synced or aborted
+     * @return job ID
+     */
+    public String submit(List<PkgSyncInfo> pkgInfos, BiPredicate<PkgSyncInfo, CancelToken> sync,
+                         BiConsumer<PkgSyncInfo, String> done) {
+        return submit(UUID.randomUUID().toString().replace("-", ""), pkgInfos, sync, done);
+    }
+
+    /**
+     * Submits sync job with given ID.
+     *
+     * @param jobId    job ID
+     * @param pkgInfos packages to sync
+     * @param sync     syncs a package, returns true on success, stops when given cancel token is cancelled
+     * @param done     called once sync of a package is over, also when it was cancelled before it started, with
+     *                 reason for failure or null when package was synced or aborted
+     * @return job ID
+     */
+    public String submit(String jobId, List<PkgSyncInfo> pkgInfos, BiPredicate<PkgSyncInfo, CancelToken> sync,
+                         BiConsumer<PkgSyncInfo, String> done) {
+        removeExpiredJobs();
+        SyncJob job = new SyncJob(jobId);
+        for (PkgSyncInfo pkgInfo : pkgInfos) {
+            job.getTasks().put(pkgInfo.getAppId() + pkgInfo.getPackageId(), new SyncTask(pkgInfo));
+        }
+        jobs.put(job.getJobId(), job);
+
+        for (SyncTask task : job.getTasks().values()) {
+            String appstore = task.getPkgInfo().getAppstoreIp() + ":" + task.getPkgInfo().getAppstorePort();
+            appstoreLimiter.submit(appstore, slot -> run(job, task, slot, sync, done));
+        }
+        LOGGER.info("sync job {} submitted with {} packages", job.getJobId(), job.getTasks().size());
+        return job.getJobId();
+    }
+
+    /**
+     * Returns true if sync job is known to this instance.
+     *
+     * @param jobId job ID
+     * @return true if job was submitted to this instance and is retained
+     */
+    public boolean hasJob(String jobId) {
+        return jobs.containsKey(jobId);
+    }
+
+    /**
+     * Returns progress of sync job.
+     *
+     * @param jobId job ID
+     * @return job progress with state of each package
+     * @throws NoSuchElementException if job does not exist
+     */
+    public Map<String, Object> getProgress(String jobId) {
+        SyncJob job = getJob(jobId);
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (String state : new String[] {QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED, TIMED_OUT}) {
+            counts.put(state, 0);
+        }
+        List<Map<String, String>> packages = new LinkedList<>();
+        for (SyncTask task : job.getTasks().values()) {
+            Map<String, String> pkg = new LinkedHashMap<>();
+            synchronized (task) {
+                pkg.put("appId", task.getPkgInfo().getAppId());
+                pkg.put("packageId", task.getPkgInfo().getPackageId());
+                pkg.put("state", task.getState());
+                pkg.put("elapsedTime", String.valueOf(task.getElapsedTime()));
+            }
+            counts.merge(pkg.get("state"), 1, Integer::sum);
+            packages.add(pkg);
+        }
+
+        Map<String, Object> progress = new LinkedHashMap<>();
+        progress.put("jobId", jobId);
+        progress.put("total", job.getTasks().size());
+        progress.put("states", counts);
+        progress.put("packages", packages);
+        return progress;
+    }
+
+    /**
+     * Cancels all unfinished packages of sync job.
+     *
+     * @param jobId job ID
+     * @throws NoSuchElementException if job does not exist
+     */
+    public void cancel(String jobId) {
+        SyncJob job = getJob(jobId);
+        for (SyncTask task : job.getTasks().values()) {
+            abort(task, CANCELLED);
+        }
+        job.markFinished(jobRetention);
+    }
+
+    /**
+     * Cancels sync of a package of sync job.
+     *
+     * @param jobId     job ID
+     * @param appId     app ID
+     * @param packageId package ID
+     * @return true if package was cancelled, false if it was already finished
+     * @throws NoSuchElementException if job or package does not exist
+     */
+    public boolean cancel(String jobId, String appId, String packageId) {
+        SyncTask task = getJob(jobId).getTasks().get(appId + packageId);
+        if (task == null) {
+            throw new NoSuchElementException("package " + packageId + " not part of sync job " + jobId);
+        }
+        return abort(task, CANCELLED);
+    }
+
+    /**
+     * Returns number of sync jobs with unfinished packages.
+     *
+     * @return number of active jobs
+     */
+    public int getActiveJobCount() {
+        return (int) jobs.values().stream().filter(job -> !job.isFinished()).count();
+    }
+
+    private SyncJob getJob(String jobId) {
+        SyncJob job = jobs.get(jobId);
+        if (job == null) {
+            throw new NoSuchElementException("sync job " + jobId + " does not exist");
+        }
+        return job;
+    }
+
+    private void run(SyncJob job, SyncTask task, KeyedLimiter.Slot slot, BiPredicate<PkgSyncInfo, CancelToken> sync,
+                     BiConsumer<PkgSyncInfo, String> done) {
+        if (!task.begin(Thread.currentThread(), slot)) {
+            job.markFinished(jobRetention);
+            done.accept(task.getPkgInfo(), null);
+            return;
+        }
+        ScheduledFuture<?> timer = watchdog.schedule(() -> abort(task, TIMED_OUT), packageTimeout,
+                TimeUnit.MILLISECONDS);
+        boolean success = false;
+        String error = "sync failed";
+        try {
+            success = sync.test(task.getPkgInfo(), task.getCancelToken());
+        } catch (RuntimeException e) {
+            LOGGER.error("sync of package {} failed {}", task.getPkgInfo().getPackageId(), e.getMessage());
+            error = e.getMessage();
+        } finally {
+            timer.cancel(false);
+            String abortedState = task.end(success);
+            // clears interrupt of an aborted package before thread is reused
+            Thread.interrupted();
+            if (abortedState != null) {
+                // written once the aborted sync stopped so it is not overridden by the sync
+                updateAbortedStatus(task, abortedState);
+            }
+            job.markFinished(jobRetention);
+            done.accept(task.getPkgInfo(), success || abortedState != null ? null : error);
+        }
+    }
+
+    private boolean abort(SyncTask task, String state) {
+        boolean aborted = task.abort(state);
+        if (aborted) {
+            LOGGER.info("sync of package {} aborted, {}", task.getPkgInfo().getPackageId(), state);
+            task.getCancelToken().cancel(getReason(state));
+            if (task.isFinished()) {
+                // package had not started
+                updateAbortedStatus(task, state);
+            } else {
+                task.getSlot().release();
+            }
+        }
+        return aborted;
+    }
+
+    private void updateAbortedStatus(SyncTask task, String state) {
+        dbService.updateAppPackageSyncStatus(task.getPkgInfo().getAppId(), task.getPkgInfo().getPackageId(),
+                Constants.APP_SYNC_FAILED, getReason(state));
+    }
+
+    private static String getReason(String state) {
+        return TIMED_OUT.equals(state) ? TIMED_OUT_REASON : CANCELLED_REASON;
+    }
+
+    private void removeExpiredJobs() {
+        long now = System.currentTimeMillis();
+        jobs.values().removeIf(job -> job.getExpiry() > 0 && job.getExpiry() <= now);
+    }
+
+    @Getter
+    private static final class SyncJob {
+
+        private final String jobId;
+
+        private final Map<String, SyncTask> tasks = new LinkedHashMap<>();
+
+        private volatile long expiry;
+
+        private SyncJob(String jobId) {
+            this.jobId = jobId;
+        }
+
+        private boolean isFinished() {
+            return tasks.values().stream().allMatch(SyncTask::isFinished);
+        }
+
+        private void markFinished(long retention) {
+            if (isFinished()) {
+                expiry = System.currentTimeMillis() + retention;
+            }
+        }
+    }
+
+    @Getter
+    private static final class SyncTask {
+
+        private final PkgSyncInfo pkgInfo;
+
+        private final CancelToken cancelToken = new CancelToken();
+
+        private String state = QUEUED;
+
+        private Thread worker;
+
+        private KeyedLimiter.Slot slot;
+
+        private String abortedState;
+
+        private long startTime;
+
+        private long endTime;
+
+        private SyncTask(PkgSyncInfo pkgInfo) {
+            this.pkgInfo = pkgInfo;
+        }
+
+        private synchronized boolean begin(Thread thread, KeyedLimiter.Slot runSlot) {
+            if (!QUEUED.equals(state)) {
+                return false;
+            }
+            state = RUNNING;
+            worker = thread;
+            slot = runSlot;
+            startTime = System.currentTimeMillis();
+            return true;
+        }
+
+        private synchronized String end(boolean success) {
+            worker = null;
+            endTime = System.currentTimeMillis();
+            state = abortedState != null ? abortedState : success ? SUCCEEDED : FAILED;
+            return abortedState;
+        }
+
+        private synchronized boolean abort(String reason) {
+            if (QUEUED.equals(state)) {
+                state = reason;
+                endTime = System.currentTimeMillis();
+                return true;
+            }
+            if (!RUNNING.equals(state) || abortedState != null) {
+                return false;
+            }
+            abortedState = reason;
+            worker.interrupt();
+            return true;
+        }
+
+        private synchronized boolean isFinished() {
+            return !QUEUED.equals(state) && !RUNNING.equals(state);
+        }
+
+        private synchronized long getElapsedTime() {
+            if (startTime == 0) {
+                return 0;
+            }
+            return (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime;
+        }
+    }
+}
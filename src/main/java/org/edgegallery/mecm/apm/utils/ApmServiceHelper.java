@@ -70,6 +70,7 @@ public final class ApmServiceHelper {
     static final int TOO_BIG = 104857600;
     private static final Logger LOGGER = LoggerFactory.getLogger(ApmServiceHelper.class);
     private static final String CSAR = ".csar";
+    private static final String ORIGINAL_CSAR = ".orig.csar";
     private static final String INPUT_DEFAULT_ATTR = "default";
 
     private ApmServiceHelper() {
@@ -115,6 +116,16 @@ public final class ApmServiceHelper {
                 .append(packageId + CSAR).toString();
     }
 
+    /**
+     * Returns path where original package is kept while its extracted copy is being updated.
+     *
+     * @param packageDirPath local package directory path
+     * @return original package path
+     */
+    public static String getOriginalPackagePath(String packageDirPath) {
+        return packageDirPath + ORIGINAL_CSAR;
+    }
+
     /**
      * Returns local package directory path based on package Id.
      *
@@ -132,20 +143,14 @@ public final class ApmServiceHelper {
     }
 
     /**
-     * Saves input stream to file.
+     * Returns local path of app package file, creates its directory when absent.
      *
-     * @param resourceStream   input resource stream
      * @param packageId        package ID
      * @param tenantId         tenant ID
-     * @param localDirBasePath local dir path
-     * @return file path
+     * @param localDirBasePath base directory
+     * @return local file path
      */
-    public static String saveInputStreamToFile(InputStream resourceStream, String packageId, String tenantId,
-                                               String localDirBasePath) {
-        if (resourceStream == null) {
-            LOGGER.info(Constants.FAILED_TO_READ_INPUTSTREAM, packageId);
-            throw new ApmException("failed to read input stream from app store for package " + packageId);
-        }
+    public static String getLocalPackageFilePath(String packageId, String tenantId, String localDirBasePath) {
         String localDirPath;
         if (tenantId != null) {
             localDirPath = createDir(localDirBasePath + File.separator + packageId + tenantId);
@@ -154,18 +159,7 @@ public final class ApmServiceHelper {
         } else {
             localDirPath = createDir(localDirBasePath + File.separator + packageId);
         }
-
-        String localFilePath = localDirPath + File.separator + packageId + CSAR;
-        File file = new File(localFilePath);
-        try {
-            FileUtils.copyInputStreamToFile(resourceStream, file);
-            FileChecker.check(file);
-            LOGGER.info("app package {} downloaded from appstore successfully", packageId);
-            return file.getCanonicalPath();
-        } catch (IOException e) {
-            LOGGER.error(Constants.FAILED_TO_CREATE_CSAR, packageId);
-            throw new ApmException("failed to create csar file for package " + packageId);
-        }
+        return localDirPath + File.separator + packageId + CSAR;
     }
 
     /**
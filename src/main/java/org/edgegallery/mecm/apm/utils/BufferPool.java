@@ -0,0 +1,100 @@
+/*
+ *  Copyright 2020 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pool of fixed size copy buffers. Buffers are allocated on demand and at most max pooled buffers are kept for
+ * reuse, so heap used for copying does not depend on file sizes.
+ */
+public final class BufferPool {
+
+    private static final BufferPool DEFAULT = new BufferPool(64 * 1024, 64);
+
+    private final int bufferSize;
+
+    private final BlockingQueue<byte[]> buffers;
+
+    /**
+     * Creates buffer pool.
+     *
+     * @param bufferSize size of buffers in bytes
+     * @param maxPooled  max number of buffers kept for reuse
+     */
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.buffers = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    /**
+     * Returns shared buffer pool.
+     *
+     * @return buffer pool
+     */
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns pooled buffer, allocates a new one when pool is empty.
+     *
+     * @return buffer
+     */
+    public byte[] acquire() {
+        byte[] buffer = buffers.poll();
+        return buffer != null ? buffer : new byte[bufferSize];
+    }
+
+    /**
+     * Returns buffer to pool.
+     *
+     * @param buffer buffer acquired from this pool
+     */
+    public void release(byte[] buffer) {
+        if (buffer != null && buffer.length == bufferSize) {
+            buffers.offer(buffer);
+        }
+    }
+
+    /**
+     * Copies input stream to output stream through a pooled buffer.
+     *
+     * @param input  input stream
+     * @param output output stream
+     * @return number of bytes copied
+     * @throws IOException exception if failed to copy
+     */
+    public long copy(InputStream input, OutputStream output) throws IOException {
+        byte[] buffer = acquire();
+        try {
+            long count = 0;
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+                count += read;
+            }
+            return count;
+        } finally {
+            release(buffer);
+        }
+    }
+}
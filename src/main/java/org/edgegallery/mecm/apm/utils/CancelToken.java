@@ -0,0 +1,152 @@
+/*
+ *  Copyright 2021 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import org.edgegallery.mecm.apm.exception.ApmException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cancellation signal passed through long running work. Work checks it between steps, and listeners abort
+ * transfers which do not react to thread interrupts, such as docker and HTTP streams.
+ */
+public final class CancelToken {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CancelToken.class);
+
+    private final List<Runnable> listeners = new LinkedList<>();
+
+    private volatile String reason;
+
+    /**
+     * Cancels work, runs registered listeners once.
+     *
+     * @param cancelReason reason for cancellation
+     * @return true if cancelled, false if already cancelled
+     */
+    public boolean cancel(String cancelReason) {
+        List<Runnable> toRun;
+        synchronized (this) {
+            if (reason != null) {
+                return false;
+            }
+            reason = cancelReason;
+            toRun = new ArrayList<>(listeners);
+            listeners.clear();
+        }
+        for (Runnable listener : toRun) {
+            runListener(listener);
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if work is cancelled.
+     *
+     * @return true if cancelled
+     */
+    public boolean isCancelled() {
+        return reason != null;
+    }
+
+    /**
+     * Returns reason for cancellation.
+     *
+     * @return reason, null when not cancelled
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * Throws if work is cancelled.
+     *
+     * @throws ApmException if cancelled
+     */
+    public void throwIfCancelled() {
+        String cancelReason = reason;
+        if (cancelReason != null) {
+            throw new ApmException(cancelReason);
+        }
+    }
+
+    /**
+     * Adds listener run on cancellation, listener is run at once when work is already cancelled.
+     *
+     * @param listener listener
+     */
+    public void addListener(Runnable listener) {
+        synchronized (this) {
+            if (reason == null) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        runListener(listener);
+    }
+
+    /**
+     * Removes listener.
+     *
+     * @param listener listener
+     */
+    public synchronized void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns stream which fails on next read once work is cancelled.
+     *
+     * @param in stream
+     * @return cancellable stream
+     */
+    public InputStream guard(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                check();
+                return super.read();
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                check();
+                return super.read(buffer, offset, length);
+            }
+
+            private void check() throws IOException {
+                if (reason != null) {
+                    throw new IOException(reason);
+                }
+            }
+        };
+    }
+
+    private static void runListener(Runnable listener) {
+        try {
+            listener.run();
+        } catch (RuntimeException e) {
+            LOGGER.error("cancel listener failed {}", e.getMessage());
+        }
+    }
+}
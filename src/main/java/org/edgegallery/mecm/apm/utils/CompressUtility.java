@@ -25,6 +25,8 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -32,30 +34,64 @@ import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.edgegallery.mecm.apm.exception.ApmException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 public final class CompressUtility {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(CompressUtility.class);
     private static final String COMPRESS_FAILED = "failed to compress";
+    private static final String FILE_TOO_BIG = "file being unzipped is too big";
+    private static final String FILE_TOO_COMPRESSED = "file being unzipped is compressed too much";
     static final int TOO_MANY = 1024;
-    static final int TOO_BIG = 104857600;
+    // small text files legitimately compress far beyond any sane ratio
+    static final long RATIO_THRESHOLD = 1024L * 1024;
+    private static final long MTIME_TOLERANCE = 2000;
+    private static final int MAX_TRANSFORMED_SIZE = 10 * 1024 * 1024;
+    private static final String[] COMPRESSED_EXTENSIONS = {".tar.gz", ".tgz", ".zip", ".gz", ".csar"};
+    private static final ExecutorService UNZIP_POOL = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), newDaemonThreadFactory("apm-unzip-"));
 
     private CompressUtility() {
     }
 
+    private static ThreadFactory newDaemonThreadFactory(String prefix) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(prefix);
+        threadFactory.setDaemon(true);
+        return threadFactory;
+    }
+
     /**
      * Returns software image descriptor content in string format.
      *
@@ -63,9 +99,34 @@ public final class CompressUtility {
      * @param intendedDir   intended directory
      */
     public static void unzipApplicationPacakge(String localFilePath, String intendedDir) {
+        unzipApplicationPacakge(localFilePath, intendedDir, null);
+    }
+
+    /**
+     * Unzips application package and records extracted files in package index.
+     *
+     * @param localFilePath CSAR file path
+     * @param intendedDir   intended directory
+     * @param index         package index, may be null
+     */
+    public static void unzipApplicationPacakge(String localFilePath, String intendedDir, PackageIndex index) {
+        unzipApplicationPacakge(localFilePath, intendedDir, index, UnzipLimits.getDefault());
+    }
+
+    /**
+     * Unzips application package within given limits and records extracted files in package index.
+     *
+     * @param localFilePath CSAR file path
+     * @param intendedDir   intended directory
+     * @param index         package index, may be null
+     * @param limits        unzip limits
+     */
+    public static void unzipApplicationPacakge(String localFilePath, String intendedDir, PackageIndex index,
+                                               UnzipLimits limits) {
 
         LOGGER.debug("unzip package....");
         try (ZipFile zipFile = new ZipFile(localFilePath)) {
+            Map<String, ZipEntry> files = new LinkedHashMap<>();
             Enumeration<? extends ZipEntry> entries = zipFile.entries();
             int entriesCount = 0;
             while (entries.hasMoreElements()) {
@@ -77,13 +138,14 @@ public final class CompressUtility {
                 // sanitize file path
                 String fileName = sanitizeFileName(entry.getName(), intendedDir);
                 if (!entry.isDirectory()) {
-                    try (InputStream inputStream = zipFile.getInputStream(entry)) {
-                        if (inputStream.available() > TOO_BIG) {
-                            throw new IllegalStateException("file being unzipped is too big");
-                        }
-                        FileUtils.copyInputStreamToFile(inputStream, new File(fileName));
-                        LOGGER.info("unzip package... {}", entry.getName());
+                    if (entry.getSize() > limits.getMaxEntrySize()) {
+                        throw new IllegalStateException(FILE_TOO_BIG);
                     }
+                    if (isCompressedTooMuch(entry, entry.getSize(), limits)) {
+                        throw new IllegalStateException(FILE_TOO_COMPRESSED);
+                    }
+                    FileUtils.forceMkdirParent(new File(fileName));
+                    files.put(fileName, entry);
                 } else {
 
                     File dir = new File(fileName);
@@ -91,12 +153,81 @@ public final class CompressUtility {
                     LOGGER.debug("creating dir {}, status {}", fileName, dirStatus);
                 }
             }
+
+            // entries are inflated independently, sizes are counted on inflated bytes as declared ones can lie
+            AtomicLong totalSize = new AtomicLong();
+            AtomicBoolean failed = new AtomicBoolean();
+            List<CompletableFuture<Void>> futures = new LinkedList<>();
+            for (Map.Entry<String, ZipEntry> file : files.entrySet()) {
+                futures.add(CompletableFuture.runAsync(() -> unzipEntry(zipFile, file.getValue(), file.getKey(),
+                        limits, totalSize, failed), UNZIP_POOL));
+            }
+            waitForAll(futures);
+
+            if (index != null) {
+                files.keySet().forEach(index::add);
+            }
         } catch (IOException e) {
             LOGGER.error(Constants.FAILED_TO_UNZIP_CSAR);
             throw new ApmException(Constants.FAILED_TO_UNZIP_CSAR);
         }
     }
 
+    private static void unzipEntry(ZipFile zipFile, ZipEntry entry, String fileName, UnzipLimits limits,
+                                   AtomicLong totalSize, AtomicBoolean failed) {
+        byte[] buffer = BufferPool.getDefault().acquire();
+        try (InputStream inputStream = zipFile.getInputStream(entry);
+             OutputStream outputStream = new FileOutputStream(fileName)) {
+            long entrySize = 0;
+            int read;
+            while ((read = inputStream.read(buffer)) != -1 && !failed.get()) {
+                entrySize += read;
+                if (entrySize > limits.getMaxEntrySize()) {
+                    throw new IllegalStateException(FILE_TOO_BIG);
+                }
+                if (isCompressedTooMuch(entry, entrySize, limits)) {
+                    throw new IllegalStateException(FILE_TOO_COMPRESSED);
+                }
+                if (totalSize.addAndGet(read) > limits.getMaxTotalSize()) {
+                    throw new IllegalStateException("package being unzipped is too big");
+                }
+                outputStream.write(buffer, 0, read);
+            }
+            LOGGER.info("unzip package... {}", entry.getName());
+        } catch (IOException e) {
+            failed.set(true);
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            failed.set(true);
+            throw e;
+        } finally {
+            BufferPool.getDefault().release(buffer);
+        }
+        if (entry.getTime() != -1 && !new File(fileName).setLastModified(entry.getTime())) {
+            LOGGER.debug("failed to restore time of {}", entry.getName());
+        }
+    }
+
+    private static boolean isCompressedTooMuch(ZipEntry entry, long inflatedSize, UnzipLimits limits) {
+        long compressedSize = entry.getCompressedSize();
+        return inflatedSize > RATIO_THRESHOLD && compressedSize > 0
+                && inflatedSize / compressedSize > limits.getMaxRatio();
+    }
+
+    private static void waitForAll(List<CompletableFuture<Void>> futures) throws IOException {
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
     /**
      * Decompress tar file.
      *
@@ -104,6 +235,17 @@ public final class CompressUtility {
      * @param destFile destination folder
      */
     public static void deCompress(String tarFile, File destFile) {
+        deCompress(tarFile, destFile, null);
+    }
+
+    /**
+     * Decompress tar file and records extracted files in package index.
+     *
+     * @param tarFile  tar file
+     * @param destFile destination folder
+     * @param index    package index, may be null
+     */
+    public static void deCompress(String tarFile, File destFile, PackageIndex index) {
         TarArchiveInputStream tis = null;
         try (FileInputStream fis = new FileInputStream(tarFile)) {
 
@@ -128,6 +270,9 @@ public final class CompressUtility {
                         FileOutputStream fos = new FileOutputStream(outputFile);
                         IOUtils.copy(tis, fos);
                         fos.close();
+                        if (index != null) {
+                            index.add(outputFile.getCanonicalPath());
+                        }
                     }
                 }
             }
@@ -167,6 +312,85 @@ public final class CompressUtility {
         }
     }
 
+    /**
+     * Copies chart archive to a new gzipped tar in one pass, replacing content of the top level entry with given
+     * file name as it passes through. Tar and gzipped tar sources are supported.
+     *
+     * @param source      source tar file
+     * @param target      target tgz file
+     * @param fileName    name of file to transform, such as values.yaml
+     * @param transformer returns new content of the file from its current content
+     * @return directory of the transformed file within the archive, null when archive has no such file
+     */
+    public static String transformTarEntry(File source, File target, String fileName,
+                                           UnaryOperator<byte[]> transformer) {
+        String entryDir = null;
+        try (InputStream inputStream = openTarInputStream(source);
+             TarArchiveInputStream tis = new TarArchiveInputStream(inputStream);
+             TarArchiveOutputStream tos = new TarArchiveOutputStream(new GzipCompressorOutputStream(
+                     new BufferedOutputStream(new FileOutputStream(target))))) {
+            tos.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            tos.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+
+            TarArchiveEntry tarEntry;
+            while ((tarEntry = tis.getNextTarEntry()) != null) {
+                String dir = entryDir == null && tarEntry.isFile() ? getTopLevelDir(tarEntry.getName(), fileName)
+                        : null;
+                if (dir == null) {
+                    tos.putArchiveEntry(tarEntry);
+                    BufferPool.getDefault().copy(tis, tos);
+                    tos.closeArchiveEntry();
+                    continue;
+                }
+
+                if (tarEntry.getSize() > MAX_TRANSFORMED_SIZE) {
+                    throw new IllegalStateException(fileName + " is too big to transform");
+                }
+                byte[] content = transformer.apply(IOUtils.toByteArray(tis));
+                tarEntry.setSize(content.length);
+                tarEntry.setModTime(System.currentTimeMillis());
+                tos.putArchiveEntry(tarEntry);
+                tos.write(content);
+                tos.closeArchiveEntry();
+                entryDir = dir;
+                LOGGER.info("transformed {} in {}", tarEntry.getName(), source.getName());
+            }
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(target);
+            throw new ApmException("failed to transform tar, IO exception " + e.getMessage());
+        } catch (RuntimeException e) {
+            FileUtils.deleteQuietly(target);
+            throw e;
+        }
+        return entryDir;
+    }
+
+    private static InputStream openTarInputStream(File source) throws IOException {
+        InputStream inputStream = new BufferedInputStream(new FileInputStream(source));
+        try {
+            // gzip is detected from magic bytes, file extensions of charts are not reliable
+            inputStream.mark(2);
+            int magic = inputStream.read() | inputStream.read() << 8;
+            inputStream.reset();
+            return magic == GZIPInputStream.GZIP_MAGIC ? new GZIPInputStream(inputStream) : inputStream;
+        } catch (IOException e) {
+            inputStream.close();
+            throw e;
+        }
+    }
+
+    private static String getTopLevelDir(String entryName, String fileName) {
+        String name = entryName.startsWith("./") ? entryName.substring(2) : entryName;
+        if (name.equals(fileName)) {
+            return "";
+        }
+        int separator = name.indexOf('/');
+        if (separator > 0 && name.substring(separator + 1).equals(fileName)) {
+            return name.substring(0, separator);
+        }
+        return null;
+    }
+
     private static void addFileToTar(String filePath, String parent,
                                      TarArchiveOutputStream tarArchive) throws IOException {
 
@@ -211,14 +435,14 @@ public final class CompressUtility {
         LOGGER.info("Compress application package");
         final Path srcDir = Paths.get(sourceDir);
         String zipFileName = sourceDir.concat(".csar");
-        try (ZipOutputStream os = new ZipOutputStream(new FileOutputStream(zipFileName))) {
+        try (ZipArchiveOutputStream os = new ZipArchiveOutputStream(new File(zipFileName))) {
             Files.walkFileTree(srcDir, new SimpleFileVisitor<Path>() {
                 @Override
                 public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs)
                         throws IOException {
                     if (!srcDir.equals(dir)) {
-                        os.putNextEntry(new ZipEntry(srcDir.relativize(dir).toString() + "/"));
-                        os.closeEntry();
+                        os.putArchiveEntry(new ZipArchiveEntry(srcDir.relativize(dir).toString() + "/"));
+                        os.closeArchiveEntry();
                     }
                     return FileVisitResult.CONTINUE;
                 }
@@ -226,11 +450,7 @@ public final class CompressUtility {
                 @Override
                 public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
                     try {
-                        Path targetFile = srcDir.relativize(file);
-                        os.putNextEntry(new ZipEntry(targetFile.toString()));
-                        byte[] bytes = Files.readAllBytes(file);
-                        os.write(bytes, 0, bytes.length);
-                        os.closeEntry();
+                        putFileEntry(os, srcDir.relativize(file).toString(), file.toFile());
                     } catch (IOException e) {
                         throw new ApmException("failed to zip application package");
                     }
@@ -240,6 +460,85 @@ public final class CompressUtility {
         } catch (IOException e) {
             throw new ApmException("failed to zip application package IO exception");
         }
+        replaceSourceDir(sourceDir, zipFileName, destDir);
+        LOGGER.info("compressed application package successfully");
+    }
+
+    /**
+     * ZIP application package reusing entries of the original package. Entries whose files are unchanged since
+     * extraction are copied raw from the original package, changed and new files are compressed, and entries whose
+     * files were removed are dropped. Whole package is compressed when original package is not available.
+     *
+     * @param originalCsar original package path
+     * @param sourceDir    source path
+     * @param destDir      destination path
+     */
+    public static void rewriteAppPackage(String originalCsar, String sourceDir, String destDir) {
+        File original = new File(originalCsar);
+        if (!original.isFile()) {
+            compressAppPackage(sourceDir, destDir);
+            return;
+        }
+
+        LOGGER.info("Rewrite application package");
+        final Path srcDir = Paths.get(sourceDir);
+        String zipFileName = sourceDir.concat(".csar");
+        Set<String> written = new HashSet<>();
+        int copied = 0;
+        try (org.apache.commons.compress.archivers.zip.ZipFile zipFile =
+                     new org.apache.commons.compress.archivers.zip.ZipFile(original);
+             ZipArchiveOutputStream os = new ZipArchiveOutputStream(new File(zipFileName))) {
+            Enumeration<ZipArchiveEntry> entries = zipFile.getEntries();
+            while (entries.hasMoreElements()) {
+                ZipArchiveEntry entry = entries.nextElement();
+                File file = new File(sanitizeFileName(entry.getName(), sourceDir));
+                if (!file.exists() || entry.isDirectory() != file.isDirectory()
+                        || !written.add(file.getCanonicalPath())) {
+                    continue;
+                }
+                if (entry.isDirectory() || isUnchanged(entry, file)) {
+                    os.addRawArchiveEntry(entry, zipFile.getRawInputStream(entry));
+                    copied++;
+                } else {
+                    putFileEntry(os, entry.getName(), file);
+                }
+            }
+
+            try (Stream<Path> paths = Files.walk(srcDir)) {
+                Iterator<Path> it = paths.filter(path -> !srcDir.equals(path)).iterator();
+                while (it.hasNext()) {
+                    Path path = it.next();
+                    if (!written.add(path.toFile().getCanonicalPath())) {
+                        continue;
+                    }
+                    if (Files.isDirectory(path)) {
+                        os.putArchiveEntry(new ZipArchiveEntry(srcDir.relativize(path).toString() + "/"));
+                        os.closeArchiveEntry();
+                    } else {
+                        putFileEntry(os, srcDir.relativize(path).toString(), path.toFile());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new ApmException("failed to zip application package IO exception");
+        }
+        replaceSourceDir(sourceDir, zipFileName, destDir);
+        FileUtils.deleteQuietly(original);
+        LOGGER.info("rewrote application package successfully, {} of {} entries copied", copied, written.size());
+    }
+
+    private static boolean isUnchanged(ZipArchiveEntry entry, File file) throws IOException {
+        if (entry.getSize() != file.length()) {
+            return false;
+        }
+        // extraction restores entry time, files modified later have a newer time
+        if (entry.getTime() != -1 && Math.abs(file.lastModified() - entry.getTime()) < MTIME_TOLERANCE) {
+            return true;
+        }
+        return entry.getCrc() == crcOf(file);
+    }
+
+    private static void replaceSourceDir(String sourceDir, String zipFileName, String destDir) {
         try {
             FileUtils.deleteQuietly(new File(sourceDir));
             FileUtils.forceMkdir(new File(sourceDir));
@@ -248,6 +547,42 @@ public final class CompressUtility {
         } catch (IOException e) {
             throw new ApmException("failed to delete redundant files from app package");
         }
-        LOGGER.info("compressed application package successfully");
+    }
+
+    private static void putFileEntry(ZipArchiveOutputStream os, String entryName, File file) throws IOException {
+        ZipArchiveEntry entry = new ZipArchiveEntry(file, entryName);
+        if (isCompressed(entryName)) {
+            // already compressed content is stored as is
+            entry.setMethod(ZipEntry.STORED);
+        }
+        os.putArchiveEntry(entry);
+        try (InputStream inputStream = new FileInputStream(file)) {
+            BufferPool.getDefault().copy(inputStream, os);
+        }
+        os.closeArchiveEntry();
+    }
+
+    private static boolean isCompressed(String fileName) {
+        String name = fileName.toLowerCase(Locale.ROOT);
+        for (String extension : COMPRESSED_EXTENSIONS) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long crcOf(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = BufferPool.getDefault().acquire();
+        try (InputStream inputStream = new FileInputStream(file)) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        } finally {
+            BufferPool.getDefault().release(buffer);
+        }
+        return crc.getValue();
     }
 }
@@ -44,8 +44,7 @@ public final class Constants {
     public static final String SYNC_APP_FAILED = "failed to synchronize the package {}";
     public static final String CSAR_NOT_EXIST = "csar package file does not exists";
     public static final String CSAR_DOWNLOAD_FAILED = "failed to download app package for package {}";
-    public static final String GET_INPUTSTREAM_FAILED = "failed to get input stream from app store response for "
-            + "package {}";
+    public static final String CSAR_CHECKSUM_MISMATCH = "csar package checksum mismatch";
     public static final String FAILED_TO_GET_REPO_INFO = "failed to get repository information of host {}";
     public static final String REPO_INFO_NULL = "edge repository information is null for host {}";
     public static final String REPO_IP_INVALID = "edge repository ip is invalid for host {}";
@@ -53,7 +52,6 @@ public final class Constants {
     public static final String LOCAL_FILE_PATH_NULL = "local file path is null";
     public static final String DISTRIBUTION_FAILED = "failed to distribute the package {}";
     public static final String DISTRIBUTION_IN_HOST_FAILED = "failed to distribute the package {} in host {}";
-    public static final String FAILED_TO_READ_INPUTSTREAM = "failed to read input stream from app store for package {}";
     public static final String FAILED_TO_CREATE_CSAR = "failed to create csar file for package {}";
     public static final String FAILED_TO_SAVE_CSAR = "failed to save csar file locally for package {}";
     public static final String FAILED_TO_UNZIP_CSAR = "failed to unzip the csar file";
@@ -82,6 +80,12 @@ public final class Constants {
     public static final int MAX_TENANTS = 20;
     public static final String MAX_LIMIT_REACHED_ERROR = "Max record limit exceeded";
     public static final int MAX_APPS_PER_APPSTORE = 400;
+    public static final int MAX_PAGE_LIMIT = 1000;
+
+    public static final String DISTRIBUTION_POLICY_FAIL_FAST = "FAIL_FAST";
+    public static final String DISTRIBUTION_POLICY_BEST_EFFORT = "BEST_EFFORT";
+    public static final String DISTRIBUTION_POLICY_REGEX = "FAIL_FAST|BEST_EFFORT";
+    public static final String DISTRIBUTION_CANCELLED = "distribution cancelled, failed on other host";
 
     public static final String APP_SYNC_INPROGRESS = "SYNC_INPROGRESS";
     public static final String APP_SYNC_FAILED = "SYNC_FAILED";
@@ -47,8 +47,16 @@ public final class FileChecker {
      * @param file object.
      */
     public static void check(File file) {
-        String fileName = file.getName();
+        checkFileName(file.getName());
+        checkFileSize(file.getName(), file.length());
+    }
 
+    /**
+     * Checks file name if is invalid.
+     *
+     * @param fileName file name
+     */
+    public static void checkFileName(String fileName) {
         // file name should not contains blank.
         if (fileName != null && WHITE_SPACE_PATTERN.split(fileName).length > 1) {
             throw new IllegalArgumentException(fileName + Constants.FILENAME_BLANK);
@@ -57,8 +65,16 @@ public final class FileChecker {
         if (!isAllowedFileName(fileName)) {
             throw new IllegalArgumentException(fileName + Constants.FILENAME_ILLEGAL);
         }
+    }
 
-        if (file.length() > MAX_ZIP_FILE_SIZE) {
+    /**
+     * Checks file size if is too big.
+     *
+     * @param fileName file name
+     * @param size     file size in bytes
+     */
+    public static void checkFileSize(String fileName, long size) {
+        if (size > MAX_ZIP_FILE_SIZE) {
             throw new IllegalArgumentException(fileName + Constants.FILE_SIZE_TOO_BIG);
         }
     }
@@ -0,0 +1,129 @@
+/*
+ *  Copyright 2020 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.utils;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+
+/**
+ * Runs tasks on an executor with a limit on tasks of the same key running at a time. Tasks over the limit wait in
+ * a queue of their key rather than on a pool thread, and are dispatched in submission order as slots of the key
+ * are released.
+ */
+public final class KeyedLimiter {
+
+    private final IntSupplier limit;
+
+    private final Executor executor;
+
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+
+    /**
+     * Creates limiter.
+     *
+     * @param limit    max number of running tasks per key, read on each dispatch
+     * @param executor executor of tasks
+     */
+    public KeyedLimiter(IntSupplier limit, Executor executor) {
+        this.limit = limit;
+        this.executor = executor;
+    }
+
+    /**
+     * Queues task of the key. Task holds a slot of the key from its start until it returns or releases the slot.
+     *
+     * @param key  key
+     * @param task task, given its slot
+     */
+    public void submit(String key, Consumer<Slot> task) {
+        lanes.computeIfAbsent(key, k -> new Lane()).enqueue(task);
+    }
+
+    /**
+     * Slot held by a running task.
+     */
+    public static final class Slot {
+
+        private final Lane lane;
+
+        private boolean released;
+
+        private Slot(Lane lane) {
+            this.lane = lane;
+        }
+
+        /**
+         * Releases slot so that next task of the key can start, later calls have no effect.
+         */
+        public void release() {
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            lane.release();
+        }
+    }
+
+    private final class Lane {
+
+        private final Deque<Consumer<Slot>> queue = new ArrayDeque<>();
+
+        private int running;
+
+        private void enqueue(Consumer<Slot> task) {
+            synchronized (this) {
+                queue.add(task);
+            }
+            dispatch();
+        }
+
+        private void release() {
+            synchronized (this) {
+                running--;
+            }
+            dispatch();
+        }
+
+        private void dispatch() {
+            while (true) {
+                Consumer<Slot> next;
+                synchronized (this) {
+                    if (running >= limit.getAsInt() || queue.isEmpty()) {
+                        return;
+                    }
+                    next = queue.poll();
+                    running++;
+                }
+                Slot slot = new Slot(this);
+                executor.execute(() -> {
+                    try {
+                        next.accept(slot);
+                    } finally {
+                        slot.release();
+                    }
+                });
+            }
+        }
+    }
+}
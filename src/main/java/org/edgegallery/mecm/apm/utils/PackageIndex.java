@@ -0,0 +1,161 @@
+/*
+ *  Copyright 2020 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import org.edgegallery.mecm.apm.exception.ApmException;
+
+/**
+ * Index of files extracted from an application package. Files are recorded by canonical path while the package
+ * is extracted, so lookups of package artifacts such as TOSCA.meta, SwImageDesc.json, manifest, charts and
+ * values.yaml are answered from memory and memoized instead of walking the package directory.
+ */
+public final class PackageIndex {
+
+    private static final String TAR = "tar";
+
+    private final Map<String, File> files = new LinkedHashMap<>();
+
+    private final Map<String, File> lookups = new HashMap<>();
+
+    private File mainServiceTemplate;
+
+    /**
+     * Builds index of an already extracted package by walking its directory once.
+     *
+     * @param dir package directory
+     * @return package index
+     */
+    public static PackageIndex scan(String dir) {
+        PackageIndex index = new PackageIndex();
+        File root = new File(dir);
+        if (!root.isDirectory()) {
+            throw new IllegalArgumentException(dir + " is not a directory");
+        }
+        try (Stream<Path> paths = Files.walk(root.toPath())) {
+            Iterator<Path> it = paths.filter(Files::isRegularFile).iterator();
+            while (it.hasNext()) {
+                index.add(it.next().toFile().getCanonicalPath());
+            }
+        } catch (IOException e) {
+            throw new ApmException("failed to index app package " + e.getMessage());
+        }
+        return index;
+    }
+
+    /**
+     * Records extracted file.
+     *
+     * @param canonicalPath canonical path of file
+     */
+    public synchronized void add(String canonicalPath) {
+        files.put(canonicalPath, new File(canonicalPath));
+        lookups.clear();
+    }
+
+    /**
+     * Removes file or all files of a directory from index.
+     *
+     * @param canonicalPath canonical path of file or directory
+     */
+    public synchronized void remove(String canonicalPath) {
+        String dirPrefix = canonicalPath + File.separator;
+        files.keySet().removeIf(path -> path.equals(canonicalPath) || path.startsWith(dirPrefix));
+        lookups.clear();
+        mainServiceTemplate = null;
+    }
+
+    /**
+     * Returns first file whose path contains given path and which has given extension. Tar lookups also match
+     * tgz and tar.gz files.
+     *
+     * @param path        file/path to search
+     * @param extension   file extension
+     * @param extensionOf returns extension of a file path
+     * @return file, null when not found
+     */
+    public synchronized File find(String path, String extension, UnaryOperator<String> extensionOf) {
+        return lookups.computeIfAbsent(path + '|' + extension, key -> {
+            for (Map.Entry<String, File> entry : files.entrySet()) {
+                if (!entry.getKey().contains(path)) {
+                    continue;
+                }
+                String ext = extensionOf.apply(entry.getKey());
+                if (ext.equals(extension) || TAR.equals(extension)
+                        && ("tgz".equals(ext) || "tar.gz".equals(ext) || TAR.equals(ext))) {
+                    return entry.getValue();
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Returns first file under given directory whose name ends with given suffix.
+     *
+     * @param dir        canonical path of directory
+     * @param nameSuffix file name suffix
+     * @return file, null when not found
+     */
+    public synchronized File findInDir(String dir, String nameSuffix) {
+        String dirPrefix = dir + File.separator;
+        return lookups.computeIfAbsent(dir + '|' + nameSuffix + "|name", key -> {
+            for (Map.Entry<String, File> entry : files.entrySet()) {
+                if (entry.getKey().startsWith(dirPrefix) && entry.getValue().getName().endsWith(nameSuffix)) {
+                    return entry.getValue();
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Returns main service template of package.
+     *
+     * @return main service template, null when not yet extracted
+     */
+    public synchronized File getMainServiceTemplate() {
+        return mainServiceTemplate;
+    }
+
+    /**
+     * Sets main service template of package.
+     *
+     * @param mainServiceTemplate main service template
+     */
+    public synchronized void setMainServiceTemplate(File mainServiceTemplate) {
+        this.mainServiceTemplate = mainServiceTemplate;
+    }
+
+    /**
+     * Returns number of indexed files.
+     *
+     * @return number of files
+     */
+    public synchronized int size() {
+        return files.size();
+    }
+}
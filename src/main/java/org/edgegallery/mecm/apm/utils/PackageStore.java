@@ -0,0 +1,121 @@
+/*
+ *  Copyright 2021 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.regex.Pattern;
+import org.apache.commons.io.FileUtils;
+import org.edgegallery.mecm.apm.exception.ApmException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Content addressable store of application package files. Each package is stored once by its SHA-256 digest under
+ * the store directory of the package directory, package files of tenants are hard links to the stored blob.
+ */
+public final class PackageStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PackageStore.class);
+
+    private static final String STORE_DIR = ".store" + File.separator + "sha256";
+
+    private static final Pattern SHA_256 = Pattern.compile("[0-9a-f]{64}");
+
+    private PackageStore() {
+    }
+
+    /**
+     * Returns store directory of a package directory.
+     *
+     * @param baseDir package directory
+     * @return store directory
+     */
+    public static File getStoreDir(String baseDir) {
+        return new File(baseDir, STORE_DIR);
+    }
+
+    /**
+     * Returns stored blob of a digest.
+     *
+     * @param baseDir package directory
+     * @param sha256  SHA-256 digest of package
+     * @param size    size of package
+     * @return stored blob, null when not stored
+     */
+    public static File getBlob(String baseDir, String sha256, long size) {
+        File blob = getBlobFile(baseDir, sha256);
+        return blob.isFile() && blob.length() == size ? blob : null;
+    }
+
+    /**
+     * Moves package file to store and replaces it with a link to the stored blob. A blob already stored by an
+     * other tenant is kept and the package file is linked to it.
+     *
+     * @param baseDir package directory
+     * @param file    package file
+     * @param sha256  SHA-256 digest of package
+     * @return stored blob
+     */
+    public static File store(String baseDir, File file, String sha256) {
+        File blob = getBlobFile(baseDir, sha256);
+        try {
+            FileUtils.forceMkdirParent(blob);
+            if (blob.isFile()) {
+                Files.delete(file.toPath());
+            } else {
+                Files.move(file.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            link(blob, file);
+            return blob;
+        } catch (IOException e) {
+            LOGGER.error("failed to store app package {}, {}", file.getName(), e.getMessage());
+            throw new ApmException("failed to store app package " + file.getName());
+        }
+    }
+
+    /**
+     * Links package file to a stored blob, the blob is copied when file system does not support hard links.
+     *
+     * @param blob stored blob
+     * @param file package file
+     */
+    public static void link(File blob, File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+            try {
+                Files.createLink(file.toPath(), blob.toPath());
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                LOGGER.warn("hard link to {} not supported, copying it", blob.getName());
+                Files.copy(blob.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            LOGGER.error("failed to link app package {}, {}", file.getName(), e.getMessage());
+            throw new ApmException("failed to link app package " + file.getName());
+        }
+    }
+
+    private static File getBlobFile(String baseDir, String sha256) {
+        if (sha256 == null || !SHA_256.matcher(sha256).matches()) {
+            throw new IllegalArgumentException("invalid package digest " + sha256);
+        }
+        return new File(getStoreDir(baseDir), sha256 + ".csar");
+    }
+}
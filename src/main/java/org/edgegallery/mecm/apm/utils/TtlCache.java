@@ -0,0 +1,229 @@
+/*
+ *  Copyright 2020 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.utils;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Size bounded cache whose entries expire after a fixed time to live. Least recently used entries are evicted
+ * first when the cache is full. Concurrent lookups of an absent key share a single load. Invalidation also discards
+ * loads in progress, their values are returned to lookups already waiting but are not cached. A cache with non
+ * positive time to live does not hold any entry.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public final class TtlCache<K, V> {
+
+    private final long ttlMillis;
+
+    private final int maxSize;
+
+    private final Map<K, Entry<V>> entries;
+
+    private final Map<K, CompletableFuture<V>> loading = new HashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates cache.
+     *
+     * @param ttlMillis time to live of entries in milliseconds
+     * @param maxSize   max number of entries
+     */
+    public TtlCache(long ttlMillis, int maxSize) {
+        this.ttlMillis = ttlMillis;
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns cached value of the key, loads and caches it when absent or expired. Callers asking for a key which
+     * is being loaded wait for that load and get its value or exception. Null values are not cached.
+     *
+     * @param key    key
+     * @param loader loader of value
+     * @return value of the key
+     */
+    public V get(K key, Function<K, V> loader) {
+        CompletableFuture<V> load;
+        CompletableFuture<V> ownLoad = null;
+        synchronized (this) {
+            V value = getIfPresent(key);
+            if (value != null) {
+                hits.incrementAndGet();
+                return value;
+            }
+            load = loading.get(key);
+            if (load != null) {
+                hits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+                ownLoad = new CompletableFuture<>();
+                loading.put(key, ownLoad);
+            }
+        }
+        if (ownLoad == null) {
+            return await(load);
+        }
+
+        try {
+            V value = loader.apply(key);
+            synchronized (this) {
+                // value loaded before an invalidation of the key is stale
+                if (loading.remove(key, ownLoad)) {
+                    put(key, value);
+                }
+            }
+            ownLoad.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                loading.remove(key, ownLoad);
+            }
+            ownLoad.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns cached value of the key.
+     *
+     * @param key key
+     * @return cached value, null when absent or expired
+     */
+    public synchronized V getIfPresent(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiry <= System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Caches value of the key.
+     *
+     * @param key   key
+     * @param value value
+     */
+    public synchronized void put(K key, V value) {
+        if (value == null || ttlMillis <= 0 || maxSize <= 0) {
+            return;
+        }
+        entries.put(key, new Entry<>(value, System.currentTimeMillis() + ttlMillis));
+
+        Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+        while (entries.size() > maxSize && it.hasNext()) {
+            it.next();
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes cached value of the key.
+     *
+     * @param key key
+     */
+    public synchronized void invalidate(K key) {
+        entries.remove(key);
+        loading.remove(key);
+    }
+
+    /**
+     * Removes cached values of matching keys.
+     *
+     * @param filter filter of keys
+     * @return removed values
+     */
+    public synchronized List<V> invalidateIf(Predicate<K> filter) {
+        List<V> removed = new LinkedList<>();
+        Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<K, Entry<V>> entry = it.next();
+            if (filter.test(entry.getKey())) {
+                removed.add(entry.getValue().value);
+                it.remove();
+            }
+        }
+        loading.keySet().removeIf(filter);
+        return removed;
+    }
+
+    /**
+     * Removes all cached values.
+     */
+    public synchronized void invalidateAll() {
+        entries.clear();
+        loading.clear();
+    }
+
+    /**
+     * Returns cache statistics.
+     *
+     * @return hits, misses, evictions and size of the cache
+     */
+    public synchronized Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        stats.put("size", (long) entries.size());
+        return stats;
+    }
+
+    private static <V> V await(CompletableFuture<V> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static final class Entry<V> {
+
+        private final V value;
+
+        private final long expiry;
+
+        private Entry(V value, long expiry) {
+            this.value = value;
+            this.expiry = expiry;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ *  Copyright 2021 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.edgegallery.mecm.apm.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Limits applied while unzipping packages. Sizes are checked on inflated bytes, max entry and max total size are in
+ * bytes. The max ratio of inflated to compressed size of an entry guards against zip bombs whose entries stay under
+ * the size limits.
+ */
+@Getter
+@AllArgsConstructor
+public final class UnzipLimits {
+
+    private static final UnzipLimits DEFAULT = new UnzipLimits(100L * 1024 * 1024, 1024L * 1024 * 1024, 100);
+
+    private final long maxEntrySize;
+
+    private final long maxTotalSize;
+
+    private final int maxRatio;
+
+    /**
+     * Returns default unzip limits.
+     *
+     * @return unzip limits
+     */
+    public static UnzipLimits getDefault() {
+        return DEFAULT;
+    }
+}
@@ -13,6 +13,7 @@
         tenant_id varchar(255) not null,
         created_time timestamp default current_timestamp,
         modified_time timestamp default current_timestamp,
+        owner_id varchar(255),
         primary key (id)
     );
 
@@ -27,6 +28,12 @@
         primary key (id)
     );
 
+    create index if not exists idx_apppackage_tenant_id_modified_time on apppackage (tenant_id, modified_time);
+
+    create index if not exists idx_apppackagehost_pkg_host_key_host_ip on apppackagehost (pkg_host_key, host_ip);
+
+    create index if not exists idx_apppackagehost_tenant_id on apppackagehost (tenant_id);
+
     create table if not exists apmtenant (
         tenant  varchar(255) not null,
         primary key (tenant)
@@ -83,3 +90,67 @@
         	  references apptemplate(template_id)
     );
 
+    create table if not exists repoblob (
+        id varchar(512) not null,
+        registry varchar(255) not null,
+        digest varchar(128) not null,
+        repository varchar(255) not null,
+        created_time timestamp default current_timestamp,
+        primary key (id)
+    );
+
+    create table if not exists packageblob (
+        source_url varchar(1024) not null,
+        digest varchar(64) not null,
+        size bigint not null,
+        etag varchar(255),
+        last_modified varchar(64),
+        created_time timestamp default current_timestamp,
+        primary key (source_url)
+    );
+
+    create table if not exists appstorecatalog (
+        id varchar(512) not null,
+        appstore_endpoint varchar(255) not null,
+        app_id varchar(255),
+        etag varchar(255),
+        last_modified varchar(64),
+        body text,
+        modified_time timestamp default current_timestamp,
+        primary key (id)
+    );
+
+    create table if not exists apmjob (
+        id varchar(64) not null,
+        job_type varchar(32) not null,
+        state varchar(32) not null,
+        resource_id varchar(255),
+        affinity_id varchar(255),
+        payload text,
+        owner_id varchar(255),
+        attempts integer default 0,
+        max_attempts integer default 1,
+        lease_expiry bigint default 0,
+        next_run_time bigint default 0,
+        finished_time bigint default 0,
+        last_error varchar(1024),
+        created_time timestamp default current_timestamp,
+        primary key (id)
+    );
+
+    create index if not exists idx_apmjob_state on apmjob (state);
+
+    alter table apppackage add column if not exists owner_id varchar(255);
+
+    create index if not exists idx_apmjob_resource_id on apmjob (resource_id);
+
+    alter table apmjob add column if not exists batch_id varchar(64);
+
+    create index if not exists idx_apmjob_batch_id on apmjob (batch_id);
+
+    create table if not exists apminstance (
+        id varchar(255) not null,
+        endpoint varchar(255),
+        heartbeat_time bigint default 0,
+        primary key (id)
+    );
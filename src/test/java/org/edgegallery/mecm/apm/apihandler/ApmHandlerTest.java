@@ -31,6 +31,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.LinkedList;
 import java.util.List;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.edgegallery.mecm.apm.ApmApplicationTest;
 import org.edgegallery.mecm.apm.model.dto.AppPackageDto;
@@ -125,8 +126,9 @@ public class ApmHandlerTest {
         File file = ResourceUtils.getFile("classpath:packages");
         apmServiceFacade.setLocalDirPath(file.getPath());
         InputStream inputStream = IOUtils.toInputStream("mock data for test", "UTF-8");
-        String response = ApmServiceHelper.saveInputStreamToFile(inputStream,
-                packageDto.getAppPkgId(), TENANT_ID, file.getPath());
+        String response = ApmServiceHelper.getLocalPackageFilePath(packageDto.getAppPkgId(), TENANT_ID,
+                file.getPath());
+        FileUtils.copyInputStreamToFile(inputStream, new File(response));
         assertNotNull(response);
         File responseFile = new File(response);
         assertTrue(responseFile.exists());
@@ -437,6 +439,19 @@ public class ApmHandlerTest {
         assertNotNull(obj.getContentAsString());
     }
 
+    @Test
+    @WithMockUser(roles = "MECM_TENANT")
+    public void getAllAppPackageInfoWithInvalidModifiedSince() throws Exception {
+        ResultActions resultActions =
+                mvc.perform(MockMvcRequestBuilders.get("/apm/v1/tenants/" + TENANT_ID
+                        + "/packages?modifiedSince=yesterday")
+                        .accept(MediaType.APPLICATION_JSON_VALUE))
+                        .andExpect(MockMvcResultMatchers.status().isBadRequest());
+        MvcResult result = resultActions.andReturn();
+        MockHttpServletResponse obj = result.getResponse();
+        assertNotNull(obj.getContentAsString());
+    }
+
     @Test
     @WithMockUser(roles = "MECM_TENANT")
     public void getAppPackageInfoWithInvalidPackageId() throws Exception {
@@ -30,6 +30,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.edgegallery.mecm.apm.ApmApplicationTest;
 import org.edgegallery.mecm.apm.model.AppPackageSyncInfo;
@@ -122,8 +123,9 @@ public class SyncAppPackageTest {
         File file = ResourceUtils.getFile("classpath:packages");
         apmServiceFacade.setLocalDirPath(file.getPath());
         InputStream inputStream = IOUtils.toInputStream("mock data for test", "UTF-8");
-        String response = ApmServiceHelper.saveInputStreamToFile(inputStream,
-                packageDto.getAppPkgId(), null, file.getPath());
+        String response = ApmServiceHelper.getLocalPackageFilePath(packageDto.getAppPkgId(), null,
+                file.getPath());
+        FileUtils.copyInputStreamToFile(inputStream, new File(response));
         assertNotNull(response);
         File responseFile = new File(response);
         assertTrue(responseFile.exists());
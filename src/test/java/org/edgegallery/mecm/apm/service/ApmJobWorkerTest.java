@@ -0,0 +1,281 @@
+/*
+ *  Copyright 2021 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.edgegallery.mecm.apm.exception.ApmException;
+import org.edgegallery.mecm.apm.model.ApmJob;
+import org.edgegallery.mecm.apm.model.ApmJobPayload;
+import org.edgegallery.mecm.apm.utils.Constants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.provider.token.TokenStore;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class ApmJobWorkerTest {
+
+    private static final String INSTANCE_ID = "apm-1";
+    private static final String JOB_ID = "f50358433cf8eb4719a62a49ed118c9b";
+
+    @InjectMocks
+    private ApmJobWorker worker;
+
+    @Mock
+    private ApmServiceFacade facade;
+
+    @Mock
+    private DbService dbService;
+
+    @Mock
+    private TokenStore jwtTokenStore;
+
+    @Mock
+    private ServiceTokenProvider serviceTokenProvider;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        ReflectionTestUtils.setField(worker, "configuredInstanceId", INSTANCE_ID);
+        ReflectionTestUtils.setField(worker, "advertisedEndpoint", "");
+        ReflectionTestUtils.setField(worker, "workerThreads", 1);
+        ReflectionTestUtils.setField(worker, "pollInterval", 60000L);
+        ReflectionTestUtils.setField(worker, "lease", 60000L);
+        ReflectionTestUtils.setField(worker, "maxAttempts", 2);
+        ReflectionTestUtils.setField(worker, "retryInterval", 1000L);
+        ReflectionTestUtils.setField(worker, "retention", 60000L);
+        when(serviceTokenProvider.getAccessToken()).thenReturn("service-token");
+        worker.start();
+    }
+
+    @After
+    public void tearDown() {
+        worker.stop();
+    }
+
+    @Test
+    public void testClaimedJobIsRunAndFinished() throws Exception {
+        givenClaimableJob(1);
+        when(dbService.claimApmJob(eq(JOB_ID), eq(INSTANCE_ID), anyLong(), anyLong())).thenReturn(true);
+        when(facade.runJob(anyString(), any(), any())).thenReturn(CompletableFuture.completedFuture(null));
+
+        tick();
+
+        verify(facade, timeout(5000)).runJob(eq(ApmJobWorker.ONBOARD), any(), eq("service-token"));
+        verify(dbService, timeout(5000)).finishApmJob(JOB_ID, INSTANCE_ID, ApmJobWorker.DONE, 0, null);
+        verify(dbService).releaseApmJobs(INSTANCE_ID);
+        verify(dbService, times(2)).heartbeatApmInstance(eq(INSTANCE_ID), eq(""), anyLong());
+    }
+
+    @Test
+    public void testJobKeepsLeaseUntilDistributionIsOver() throws Exception {
+        givenClaimableJob(1);
+        when(dbService.claimApmJob(eq(JOB_ID), eq(INSTANCE_ID), anyLong(), anyLong())).thenReturn(true);
+        CompletableFuture<Void> distributed = new CompletableFuture<>();
+        when(facade.runJob(anyString(), any(), any())).thenReturn(distributed);
+
+        tick();
+        verify(facade, timeout(5000)).runJob(eq(ApmJobWorker.ONBOARD), any(), eq("service-token"));
+        tick();
+
+        verify(dbService, never()).finishApmJob(anyString(), anyString(), anyString(), anyLong(), any());
+        verify(dbService, atLeastOnce()).renewApmJobLeases(eq(INSTANCE_ID), eq(Collections.singleton(JOB_ID)),
+                anyLong());
+        assertEquals(1, worker.getStats().get("runningJobs"));
+
+        distributed.complete(null);
+
+        verify(dbService).finishApmJob(JOB_ID, INSTANCE_ID, ApmJobWorker.DONE, 0, null);
+        assertEquals(0, worker.getStats().get("runningJobs"));
+    }
+
+    @Test
+    public void testSubmitterTokenIsNotPersisted() {
+        ArgumentCaptor<ApmJob> job = ArgumentCaptor.forClass(ApmJob.class);
+
+        String jobId = worker.submit(ApmJobWorker.ONBOARD, "pkg", "user-token", new ApmJobPayload());
+
+        verify(dbService).addApmJob(job.capture());
+        assertEquals(jobId, job.getValue().getJobId());
+        assertEquals(INSTANCE_ID, job.getValue().getAffinity());
+        assertFalse(job.getValue().getPayload().contains("user-token"));
+    }
+
+    @Test
+    public void testJobRunsWithSubmitterTokenWhileValid() throws Exception {
+        givenClaimableJob(1);
+        givenSubmitterToken(false);
+        when(dbService.claimApmJob(eq(JOB_ID), eq(INSTANCE_ID), anyLong(), anyLong())).thenReturn(true);
+        when(facade.runJob(anyString(), any(), any())).thenReturn(CompletableFuture.completedFuture(null));
+
+        tick();
+
+        verify(facade, timeout(5000)).runJob(eq(ApmJobWorker.ONBOARD), any(), eq("user-token"));
+    }
+
+    @Test
+    public void testJobRunsWithServiceTokenOnceSubmitterTokenExpired() throws Exception {
+        givenClaimableJob(1);
+        givenSubmitterToken(true);
+        when(dbService.claimApmJob(eq(JOB_ID), eq(INSTANCE_ID), anyLong(), anyLong())).thenReturn(true);
+        when(facade.runJob(anyString(), any(), any())).thenReturn(CompletableFuture.completedFuture(null));
+
+        tick();
+
+        verify(facade, timeout(5000)).runJob(eq(ApmJobWorker.ONBOARD), any(), eq("service-token"));
+    }
+
+    @Test
+    public void testJobWithoutValidTokenFails() throws Exception {
+        givenClaimableJob(1);
+        givenSubmitterToken(true);
+        when(serviceTokenProvider.getAccessToken()).thenReturn(null);
+        when(dbService.claimApmJob(eq(JOB_ID), eq(INSTANCE_ID), anyLong(), anyLong())).thenReturn(true);
+        when(dbService.finishApmJob(JOB_ID, INSTANCE_ID, ApmJobWorker.FAILED, 0, "no valid access token to run job"))
+                .thenReturn(true);
+
+        tick();
+
+        verify(facade, timeout(5000)).failJob(eq(ApmJobWorker.ONBOARD), any(), eq("no valid access token to run job"));
+        verify(facade, never()).runJob(anyString(), any(), any());
+    }
+
+    @Test
+    public void testJobClaimedByOtherInstanceIsSkipped() throws Exception {
+        givenClaimableJob(1);
+        when(dbService.claimApmJob(eq(JOB_ID), eq(INSTANCE_ID), anyLong(), anyLong())).thenReturn(false);
+
+        tick();
+
+        verify(dbService, never()).getApmJob(anyString());
+        verify(facade, never()).runJob(anyString(), any(), any());
+    }
+
+    @Test
+    public void testFailedJobIsRetried() throws Exception {
+        givenClaimableJob(1);
+        when(dbService.claimApmJob(eq(JOB_ID), eq(INSTANCE_ID), anyLong(), anyLong())).thenReturn(true);
+        doThrow(new ApmException("repo unreachable")).when(facade).runJob(anyString(), any(), any());
+
+        tick();
+
+        verify(dbService, timeout(5000)).finishApmJob(eq(JOB_ID), eq(INSTANCE_ID), eq(ApmJobWorker.PENDING),
+                anyLong(), eq("repo unreachable"));
+        verify(facade, never()).failJob(anyString(), any(), anyString());
+    }
+
+    @Test
+    public void testJobFailsAfterLastAttempt() throws Exception {
+        givenClaimableJob(2);
+        when(dbService.claimApmJob(eq(JOB_ID), eq(INSTANCE_ID), anyLong(), anyLong())).thenReturn(true);
+        when(dbService.finishApmJob(JOB_ID, INSTANCE_ID, ApmJobWorker.FAILED, 0, "repo unreachable"))
+                .thenReturn(true);
+        doThrow(new ApmException("repo unreachable")).when(facade).runJob(anyString(), any(), any());
+
+        tick();
+
+        verify(facade, timeout(5000)).failJob(eq(ApmJobWorker.ONBOARD), any(),
+                eq("repo unreachable"));
+    }
+
+    @Test
+    public void testJobWhoseSyncFailsIsRetried() throws Exception {
+        ApmService apmService = mock(ApmService.class);
+        ApmServiceFacade failingFacade = new ApmServiceFacade();
+        ReflectionTestUtils.setField(failingFacade, "apmService", apmService);
+        ReflectionTestUtils.setField(failingFacade, "dbService", dbService);
+        ReflectionTestUtils.setField(worker, "facade", failingFacade);
+        when(apmService.downloadAppPackageToFile(anyString(), anyString(), any(), any(), any()))
+                .thenThrow(new ApmException("download failed"));
+
+        givenClaimableJob(1);
+        ApmJob job = dbService.getApmJob(JOB_ID);
+        job.setJobType(ApmJobWorker.SYNC);
+        job.setPayload("{\"syncInfo\":{\"packageId\":\"f50358433cf8eb4719a62a49ed118c9b\","
+                + "\"appId\":\"e261211d80d04cb6aed00e5cd1f2cd11\",\"appstoreIp\":\"-\",\"appstorePort\":\"-\"}}");
+        when(dbService.claimApmJob(eq(JOB_ID), eq(INSTANCE_ID), anyLong(), anyLong())).thenReturn(true);
+
+        tick();
+
+        verify(dbService, timeout(5000)).finishApmJob(eq(JOB_ID), eq(INSTANCE_ID), eq(ApmJobWorker.PENDING),
+                anyLong(), eq("download failed"));
+        verify(dbService).updateAppPackageSyncStatus("e261211d80d04cb6aed00e5cd1f2cd11",
+                "f50358433cf8eb4719a62a49ed118c9b", Constants.APP_SYNC_FAILED, "download failed");
+        verify(dbService, never()).finishApmJob(JOB_ID, INSTANCE_ID, ApmJobWorker.DONE, 0, null);
+    }
+
+    @Test
+    public void testFailedJobRunByCallerIsRetried() {
+        givenClaimableJob(1);
+
+        worker.complete(JOB_ID, "sync failed");
+
+        verify(dbService).finishApmJob(eq(JOB_ID), eq(INSTANCE_ID), eq(ApmJobWorker.PENDING), anyLong(),
+                eq("sync failed"));
+    }
+
+    private void givenClaimableJob(int attempts) {
+        ApmJob job = new ApmJob();
+        job.setJobId(JOB_ID);
+        job.setJobType(ApmJobWorker.ONBOARD);
+        job.setState(ApmJobWorker.RUNNING);
+        job.setPayload("{\"tenantId\":\"18db0283-3c67-4042-a708-a8e4a10c6b32\"}");
+        job.setAttempts(attempts);
+        job.setMaxAttempts(2);
+        when(dbService.getClaimableApmJobIds(anyLong(), eq(INSTANCE_ID), anyLong(), anyInt()))
+                .thenReturn(Collections.singletonList(JOB_ID));
+        when(dbService.getApmJob(JOB_ID)).thenReturn(job);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void givenSubmitterToken(boolean expired) {
+        ((Map<String, String>) ReflectionTestUtils.getField(worker, "accessTokens")).put(JOB_ID, "user-token");
+        OAuth2AccessToken token = mock(OAuth2AccessToken.class);
+        when(token.isExpired()).thenReturn(expired);
+        when(jwtTokenStore.readAccessToken("user-token")).thenReturn(token);
+    }
+
+    private void tick() throws Exception {
+        Method tick = ApmJobWorker.class.getDeclaredMethod("tick");
+        tick.setAccessible(true);
+        tick.invoke(worker);
+    }
+}
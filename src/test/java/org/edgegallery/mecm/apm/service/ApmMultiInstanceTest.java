@@ -0,0 +1,313 @@
+/*
+ *  Copyright 2021 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Method;
+import java.time.LocalDateTime;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.edgegallery.mecm.apm.ApmApplicationTest;
+import org.edgegallery.mecm.apm.model.ApmJob;
+import org.edgegallery.mecm.apm.model.ApmJobPayload;
+import org.edgegallery.mecm.apm.model.AppPackageInfo;
+import org.edgegallery.mecm.apm.model.dto.AppPackageInfoDto;
+import org.edgegallery.mecm.apm.repository.ApmJobRepository;
+import org.edgegallery.mecm.apm.repository.AppPackageInfoRepository;
+import org.edgegallery.mecm.apm.utils.Constants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = ApmApplicationTest.class)
+public class ApmMultiInstanceTest {
+
+    private static final long LEASE = 60000L;
+    private static final String APP_PKG_INFO_ID = "c1d2e3f4a5b6c7d8e9f0a1b2c3d4e5f6a7b8c9d0e1f2a3b4c5d6e7f8a9b0c1d2";
+
+    @Autowired
+    private DbService dbService;
+
+    @Autowired
+    private ApmJobWorker jobWorker;
+
+    @Autowired
+    private ApmJobRepository apmJobRepository;
+
+    @Autowired
+    private AppPackageInfoRepository appPkgInfoRepository;
+
+    private final ApmServiceFacade facade = Mockito.mock(ApmServiceFacade.class);
+
+    private final ServiceTokenProvider serviceTokenProvider = Mockito.mock(ServiceTokenProvider.class);
+
+    private final Map<String, AtomicInteger> runs = new ConcurrentHashMap<>();
+
+    private final List<ApmJobWorker> instances = new LinkedList<>();
+
+    private final List<String> jobIds = new LinkedList<>();
+
+    @Before
+    public void setUp() {
+        // jobs are claimed only by the instances created by this test
+        jobWorker.stop();
+        when(serviceTokenProvider.getAccessToken()).thenReturn("service-token");
+        doAnswer(invocation -> {
+            ApmJobPayload payload = invocation.getArgument(1);
+            runs.computeIfAbsent(payload.getTenantId(), key -> new AtomicInteger()).incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }).when(facade).runJob(anyString(), any(), any());
+    }
+
+    @After
+    public void tearDown() {
+        for (ApmJobWorker instance : instances) {
+            instance.stop();
+        }
+        for (String jobId : jobIds) {
+            apmJobRepository.deleteById(jobId);
+        }
+        if (appPkgInfoRepository.existsById(APP_PKG_INFO_ID)) {
+            appPkgInfoRepository.deleteById(APP_PKG_INFO_ID);
+        }
+        jobWorker.start();
+    }
+
+    @Test
+    public void testEachJobRunsOnceAcrossInstances() throws Exception {
+        List<ApmJobWorker> cluster = new LinkedList<>();
+        for (int i = 1; i <= 3; i++) {
+            cluster.add(newInstance("apm-" + i));
+        }
+        for (int i = 0; i < 12; i++) {
+            addJob("job" + i, ApmJobWorker.PENDING, null, 0, null);
+        }
+
+        awaitDone(cluster);
+
+        for (String jobId : jobIds) {
+            assertEquals(jobId, 1, runs.get(jobId).get());
+        }
+    }
+
+    @Test
+    public void testJobOfDeadInstanceIsTakenOver() throws Exception {
+        ApmJobWorker live = newInstance("apm-1");
+        ApmJobWorker survivor = newInstance("apm-2");
+        addJob("orphan", ApmJobWorker.RUNNING, "apm-dead", System.currentTimeMillis() - 1, null);
+        addJob("owned", ApmJobWorker.RUNNING, "apm-1", System.currentTimeMillis() + LEASE, null);
+
+        tick(survivor);
+        awaitState("orphan", ApmJobWorker.DONE);
+
+        ApmJob owned = dbService.getApmJob("owned");
+        assertEquals(ApmJobWorker.RUNNING, owned.getState());
+        assertEquals("apm-1", owned.getOwner());
+        assertFalse(runs.containsKey("owned"));
+        assertNotNull(survivor.getLiveInstance(live.getInstanceId()));
+        assertNull(survivor.getLiveInstance("apm-dead"));
+    }
+
+    @Test
+    public void testPinnedJobWaitsForLiveInstance() throws Exception {
+        ApmJobWorker pinnedTo = newInstance("apm-1");
+        ApmJobWorker other = newInstance("apm-2");
+        addJob("pinned", ApmJobWorker.PENDING, null, 0, "apm-1");
+        addJob("stranded", ApmJobWorker.PENDING, null, 0, "apm-gone");
+
+        tick(other);
+        awaitState("stranded", ApmJobWorker.DONE);
+        assertEquals(ApmJobWorker.PENDING, dbService.getApmJob("pinned").getState());
+
+        tick(pinnedTo);
+        awaitState("pinned", ApmJobWorker.DONE);
+        assertEquals(1, runs.get("pinned").get());
+    }
+
+    @Test
+    public void testSyncIsClaimedOnceAcrossInstances() throws Exception {
+        AppPackageInfo info = new AppPackageInfo();
+        info.setAppPkgInfoId(APP_PKG_INFO_ID);
+        info.setAppId(APP_PKG_INFO_ID.substring(0, 32));
+        info.setPackageId(APP_PKG_INFO_ID.substring(32));
+        info.setName("codelab-demo1");
+        info.setAppstoreIp("1.1.1.1");
+        info.setAppstoreEndpoint("1.1.1.1:8099");
+        info.setSyncStatus(Constants.APP_NOT_IN_SYNC);
+        appPkgInfoRepository.save(info);
+
+        ExecutorService requests = Executors.newFixedThreadPool(8);
+        List<Callable<Boolean>> claims = new LinkedList<>();
+        for (int i = 0; i < 8; i++) {
+            claims.add(() -> dbService.claimAppPackageSync(APP_PKG_INFO_ID, LocalDateTime.now().minusMinutes(1)));
+        }
+        int claimed = 0;
+        for (Future<Boolean> claim : requests.invokeAll(claims)) {
+            claimed += claim.get() ? 1 : 0;
+        }
+        requests.shutdown();
+        assertEquals(1, claimed);
+
+        // sync in progress is taken over only once no job is working on it
+        addJob("sync", ApmJobWorker.RUNNING, "apm-dead", System.currentTimeMillis() - 1, null);
+        ApmJob sync = dbService.getApmJob("sync");
+        sync.setResourceId(APP_PKG_INFO_ID);
+        dbService.addApmJob(sync);
+        assertFalse(dbService.claimAppPackageSync(APP_PKG_INFO_ID, LocalDateTime.now().plusMinutes(1)));
+
+        apmJobRepository.deleteById("sync");
+        assertTrue(dbService.claimAppPackageSync(APP_PKG_INFO_ID, LocalDateTime.now().plusMinutes(1)));
+    }
+
+    @Test
+    public void testFirstSyncIsClaimedOnceAcrossInstances() throws Exception {
+        AppPackageInfoDto pkgInfo = new AppPackageInfoDto();
+        pkgInfo.setAppId(APP_PKG_INFO_ID.substring(0, 32));
+        pkgInfo.setPackageId(APP_PKG_INFO_ID.substring(32));
+        pkgInfo.setName("codelab-demo1");
+        pkgInfo.setVersion("1.0");
+
+        ExecutorService requests = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Callable<Boolean>> claims = new LinkedList<>();
+        for (int i = 0; i < 8; i++) {
+            claims.add(() -> {
+                start.await();
+                return dbService.claimAppPackageSync("1.1.1.1", "8099", pkgInfo, LocalDateTime.now().minusMinutes(1));
+            });
+        }
+        List<Future<Boolean>> results = new LinkedList<>();
+        for (Callable<Boolean> claim : claims) {
+            results.add(requests.submit(claim));
+        }
+        start.countDown();
+        int claimed = 0;
+        for (Future<Boolean> result : results) {
+            claimed += result.get() ? 1 : 0;
+        }
+        requests.shutdown();
+        assertEquals(1, claimed);
+
+        AppPackageInfo info = appPkgInfoRepository.findById(APP_PKG_INFO_ID).get();
+        assertEquals(Constants.APP_SYNC_INPROGRESS, info.getSyncStatus());
+        assertEquals("1.0", info.getVersion());
+        assertEquals("1.1.1.1:8099", info.getAppstoreEndpoint());
+
+        // failed sync waiting to be retried by its job is not claimed again
+        dbService.updateAppPackageSyncStatus(info.getAppId(), info.getPackageId(), Constants.APP_SYNC_FAILED, "");
+        addJob("retry", ApmJobWorker.PENDING, null, 0, null);
+        ApmJob retry = dbService.getApmJob("retry");
+        retry.setResourceId(APP_PKG_INFO_ID);
+        retry.setNextRunTime(Long.MAX_VALUE);
+        dbService.addApmJob(retry);
+        assertFalse(dbService.claimAppPackageSync("1.1.1.1", "8099", pkgInfo, LocalDateTime.now().minusMinutes(1)));
+    }
+
+    private ApmJobWorker newInstance(String instanceId) {
+        ApmJobWorker instance = new ApmJobWorker();
+        ReflectionTestUtils.setField(instance, "dbService", dbService);
+        ReflectionTestUtils.setField(instance, "facade", facade);
+        ReflectionTestUtils.setField(instance, "serviceTokenProvider", serviceTokenProvider);
+        ReflectionTestUtils.setField(instance, "configuredInstanceId", instanceId);
+        ReflectionTestUtils.setField(instance, "advertisedEndpoint", instanceId + ":8092");
+        ReflectionTestUtils.setField(instance, "workerThreads", 4);
+        ReflectionTestUtils.setField(instance, "pollInterval", 3600000L);
+        ReflectionTestUtils.setField(instance, "lease", LEASE);
+        ReflectionTestUtils.setField(instance, "maxAttempts", 3);
+        ReflectionTestUtils.setField(instance, "retryInterval", 1000L);
+        ReflectionTestUtils.setField(instance, "retention", 86400000L);
+        instance.start();
+        instances.add(instance);
+        return instance;
+    }
+
+    private void addJob(String jobId, String state, String owner, long leaseExpiry, String affinity) {
+        ApmJob job = new ApmJob();
+        job.setJobId(jobId);
+        job.setJobType(ApmJobWorker.ONBOARD);
+        job.setState(state);
+        job.setOwner(owner);
+        job.setAffinity(affinity);
+        job.setLeaseExpiry(leaseExpiry);
+        job.setMaxAttempts(3);
+        job.setPayload("{\"tenantId\":\"" + jobId + "\"}");
+        dbService.addApmJob(job);
+        jobIds.add(jobId);
+    }
+
+    private void awaitDone(List<ApmJobWorker> cluster) throws Exception {
+        ExecutorService ticks = Executors.newFixedThreadPool(cluster.size());
+        try {
+            for (int round = 0; round < 50 && !allDone(); round++) {
+                List<Callable<Object>> tasks = new LinkedList<>();
+                for (ApmJobWorker instance : cluster) {
+                    tasks.add(() -> {
+                        tick(instance);
+                        return null;
+                    });
+                }
+                ticks.invokeAll(tasks);
+                Thread.sleep(100);
+            }
+        } finally {
+            ticks.shutdown();
+        }
+        assertTrue(allDone());
+    }
+
+    private boolean allDone() {
+        return jobIds.stream().allMatch(jobId -> ApmJobWorker.DONE.equals(dbService.getApmJob(jobId).getState()));
+    }
+
+    private void awaitState(String jobId, String state) throws InterruptedException {
+        for (int i = 0; i < 50 && !state.equals(dbService.getApmJob(jobId).getState()); i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(state, dbService.getApmJob(jobId).getState());
+    }
+
+    private static void tick(ApmJobWorker instance) throws Exception {
+        Method tick = ApmJobWorker.class.getDeclaredMethod("tick");
+        tick.setAccessible(true);
+        tick.invoke(instance);
+    }
+}
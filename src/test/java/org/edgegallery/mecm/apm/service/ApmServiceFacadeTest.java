@@ -17,23 +17,48 @@
 package org.edgegallery.mecm.apm.service;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
 import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
 
+import com.google.gson.Gson;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.LocalDateTime;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ArrayList;
-
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.edgegallery.mecm.apm.ApmApplicationTest;
 import org.edgegallery.mecm.apm.exception.ApmException;
+import org.edgegallery.mecm.apm.model.ApmInstance;
+import org.edgegallery.mecm.apm.model.ApmJob;
+import org.edgegallery.mecm.apm.model.ApmJobPayload;
 import org.edgegallery.mecm.apm.model.AppPackageInfo;
 import org.edgegallery.mecm.apm.model.PkgSyncInfo;
 import org.edgegallery.mecm.apm.model.SwImageDescr;
@@ -52,9 +77,14 @@ import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.client.MockRestServiceServer;
 import org.springframework.util.ResourceUtils;
 import org.springframework.web.client.RestTemplate;
@@ -94,6 +124,15 @@ public class ApmServiceFacadeTest {
     @Mock
     AppPackageInfoRepository appPkgSyncRepository;
 
+    @Mock
+    private DistributionStatusPoller statusPoller;
+
+    @Mock
+    private ApmJobWorker jobWorker;
+
+    @Mock
+    private SyncJobEngine syncJobEngine;
+
     @Autowired
     @Mock
     private RestTemplate restTemplate;
@@ -139,7 +178,8 @@ public class ApmServiceFacadeTest {
         File file = ResourceUtils.getFile("classpath:packages");
         facades.setLocalDirPath(file.getPath());
         InputStream inputStream = IOUtils.toInputStream("mock data for test", "UTF-8");
-        String response = ApmServiceHelper.saveInputStreamToFile(inputStream, PACKAGE_ID, TENANT_ID, file.getPath());
+        String response = ApmServiceHelper.getLocalPackageFilePath(PACKAGE_ID, TENANT_ID, file.getPath());
+        FileUtils.copyInputStreamToFile(inputStream, new File(response));
         assertNotNull(response);
         File responseFile = new File(response);
         assertTrue(responseFile.exists());
@@ -291,4 +331,180 @@ public class ApmServiceFacadeTest {
         assertDoesNotThrow(() -> facade.getAppPackageInfoDB("id1"));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void getImagesExcludingAlreadyUploadedCachesPresentManifests() throws Exception {
+        String nginx = "http://mecm.io:5000/v2/mecm/nginx/manifests/1.0";
+        String redis = "http://mecm.io:5000/v2/mecm/redis/manifests/2.0";
+        ReflectionTestUtils.setField(facade, "mecmRepoEndpoint", "mecm.io:5000");
+        ReflectionTestUtils.setField(facade, "isSslEnabled", "false");
+        ReflectionTestUtils.setField(facade, "manifestCheckExecutor", (Executor) Runnable::run);
+        ReflectionTestUtils.setField(facade, "manifestCacheTtl", 60000L);
+        ReflectionTestUtils.setField(facade, "manifestCacheMaxSize", 10);
+        facade.initManifestCache();
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Docker-Content-Digest", "sha256:1111");
+        when(apmService.sendHeadRequest(eq(nginx), anyString(), anyString())).thenReturn(headers);
+        when(apmService.sendHeadRequest(eq(redis), anyString(), anyString()))
+                .thenThrow(new NoSuchElementException("not found"));
+
+        SwImageDescr redisImage = new SwImageDescr();
+        redisImage.setName("redis");
+        redisImage.setVersion("2.0");
+        SwImageDescr nginxImage = new SwImageDescr();
+        nginxImage.setName("nginx:1.0");
+        nginxImage.setVersion("1.0");
+        List<SwImageDescr> images = Arrays.asList(nginxImage, redisImage);
+
+        Method method = ApmServiceFacade.class.getDeclaredMethod("getImagesExcludingAlreadyUploaded", List.class,
+                String.class);
+        method.setAccessible(true);
+        method.invoke(facade, images, ACCESS_TOKEN);
+        List<?> missing = (List<?>) method.invoke(facade, images, ACCESS_TOKEN);
+
+        assertEquals(Arrays.asList(redisImage), missing);
+        assertEquals("sha256:1111", facade.checkIfManifestPresentRepo("mecm.io:5000", "/mecm/nginx", "1.0",
+                ACCESS_TOKEN));
+        verify(apmService, times(1)).sendHeadRequest(eq(nginx), anyString(), anyString());
+        verify(apmService, times(2)).sendHeadRequest(eq(redis), anyString(), anyString());
+    }
+
+    @Test
+    public void testDistributionIsBoundPerMepm() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        ReflectionTestUtils.setField(facade, "distributionExecutor", executor);
+        ReflectionTestUtils.setField(facade, "perMepmLimit", 2);
+        ReflectionTestUtils.setField(facade, "isSslEnabled", "false");
+        ReflectionTestUtils.setField(facade, "localDirPath", "/tmp/packages");
+        List<MecHostDto> hosts = new LinkedList<>();
+        for (int i = 1; i <= 6; i++) {
+            MecHostDto host = new MecHostDto();
+            host.setHostIp("1.1.1." + i);
+            hosts.add(host);
+        }
+        MecHostDto other = new MecHostDto();
+        other.setHostIp("2.2.2.2");
+        hosts.add(other);
+        packageDto.setMecHostInfo(hosts);
+        when(apmService.getMepmCfgOfHost(eq(TENANT_ID), anyString(), eq(ACCESS_TOKEN))).thenReturn("3.3.3.3:8080");
+        when(apmService.getMepmCfgOfHost(TENANT_ID, "2.2.2.2", ACCESS_TOKEN)).thenReturn("4.4.4.4:8080");
+        when(statusPoller.track(anyString(), anyString(), anyString(), anyString(), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(Constants.DISTRIBUTE_STATE_DISTRIBUTED));
+
+        Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+        Map<String, AtomicInteger> maxRunning = new ConcurrentHashMap<>();
+        when(restTemplate.exchange(anyString(), eq(HttpMethod.POST), any(HttpEntity.class), eq(String.class)))
+                .thenAnswer(invocation -> {
+                    String mepm = ((String) invocation.getArguments()[0]).split("/")[2];
+                    int now = running.computeIfAbsent(mepm, key -> new AtomicInteger()).incrementAndGet();
+                    maxRunning.computeIfAbsent(mepm, key -> new AtomicInteger()).accumulateAndGet(now, Math::max);
+                    Thread.sleep(50);
+                    running.get(mepm).decrementAndGet();
+                    return new ResponseEntity<>("", HttpStatus.OK);
+                });
+
+        try {
+            Method method = ApmServiceFacade.class.getDeclaredMethod("distributeApplication", String.class,
+                    AppPackageDto.class, String.class);
+            method.setAccessible(true);
+            CompletableFuture<?> statuses = (CompletableFuture<?>) method.invoke(facade, TENANT_ID, packageDto,
+                    ACCESS_TOKEN);
+
+            statuses.get(5, TimeUnit.SECONDS);
+            assertEquals(2, maxRunning.get("3.3.3.3:8080").get());
+            assertEquals(1, maxRunning.get("4.4.4.4:8080").get());
+            verify(apmService, times(7)).sendPostRequest(anyString(), anyString(), eq(ACCESS_TOKEN));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testUnexpectedDistributionErrorFailsHost() throws Exception {
+        ReflectionTestUtils.setField(facade, "distributionExecutor", (Executor) Runnable::run);
+        ReflectionTestUtils.setField(facade, "perMepmLimit", 2);
+        packageDto.setDistributionPolicy(Constants.DISTRIBUTION_POLICY_BEST_EFFORT);
+        when(apmService.getMepmCfgOfHost(TENANT_ID, "1.1.1.1", ACCESS_TOKEN))
+                .thenThrow(new IllegalStateException("inventory unavailable"));
+        when(apmService.getMepmCfgOfHost(TENANT_ID, "2.2.2.2", ACCESS_TOKEN)).thenReturn("3.3.3.3:8080");
+        when(restTemplate.exchange(anyString(), eq(HttpMethod.POST), any(HttpEntity.class), eq(String.class)))
+                .thenThrow(new IllegalArgumentException("invalid upload"));
+
+        Method method = ApmServiceFacade.class.getDeclaredMethod("distributeApplication", String.class,
+                AppPackageDto.class, String.class);
+        method.setAccessible(true);
+        try {
+            method.invoke(facade, TENANT_ID, packageDto, ACCESS_TOKEN);
+            fail("expected distribution to fail");
+        } catch (InvocationTargetException e) {
+            assertTrue(e.getCause() instanceof ApmException);
+        }
+        verify(dbService).updateDistributionStatusOfHost(TENANT_ID, PACKAGE_ID, "1.1.1.1", "Error",
+                "inventory unavailable");
+        verify(dbService).updateDistributionStatusOfHost(TENANT_ID, PACKAGE_ID, "2.2.2.2", "Error",
+                "invalid upload");
+    }
+
+    @Test
+    public void testSyncJobIsRedirectedToLiveSubmitter() {
+        ApmJob running = newSyncJob("job1", "2.2.2.2", ApmJobWorker.RUNNING);
+        when(syncJobEngine.hasJob("batch1")).thenReturn(false);
+        when(dbService.getApmJobsOfBatch("batch1")).thenReturn(Arrays.asList(running));
+        when(jobWorker.getInstanceId()).thenReturn("instance1");
+        when(jobWorker.getLiveInstance("instance2")).thenReturn(new ApmInstance("instance2", "5.5.5.5:8092", 0L));
+
+        assertEquals("http://5.5.5.5:8092", facade.getSyncJobLocation("batch1"));
+    }
+
+    @Test
+    public void testSyncJobOfDeadSubmitterIsServedFromDb() {
+        ApmJob done = newSyncJob("job1", "2.2.2.2", ApmJobWorker.DONE);
+        ApmJob pending = newSyncJob("job2", "3.3.3.3", ApmJobWorker.PENDING);
+        when(syncJobEngine.hasJob("batch1")).thenReturn(false);
+        when(dbService.getApmJobsOfBatch("batch1")).thenReturn(Arrays.asList(done, pending));
+        when(jobWorker.getInstanceId()).thenReturn("instance1");
+        when(jobWorker.getLiveInstance("instance2")).thenReturn(null);
+        when(jobWorker.cancel(pending, "sync cancelled")).thenReturn(true);
+
+        assertNull(facade.getSyncJobLocation("batch1"));
+        Map<String, Object> progress = facade.getSyncJobProgress("batch1");
+        assertEquals(2, progress.get("total"));
+        Map<String, Integer> states = (Map<String, Integer>) progress.get("states");
+        assertEquals(Integer.valueOf(1), states.get(SyncJobEngine.SUCCEEDED));
+        assertEquals(Integer.valueOf(1), states.get(SyncJobEngine.QUEUED));
+
+        assertFalse(facade.cancelSyncJobPackage("batch1", APP_ID, "2.2.2.2"));
+        facade.cancelSyncJob("batch1");
+        verify(jobWorker, times(1)).cancel(eq(done), anyString());
+        verify(jobWorker).cancel(pending, "sync cancelled");
+    }
+
+    @Test
+    public void testUnknownSyncJobIsNotFound() {
+        when(syncJobEngine.hasJob("batch1")).thenReturn(false);
+        when(dbService.getApmJobsOfBatch("batch1")).thenReturn(new ArrayList<>());
+
+        try {
+            facade.getSyncJobLocation("batch1");
+            fail("expected sync job to be not found");
+        } catch (NoSuchElementException e) {
+            assertTrue(e.getMessage().contains("batch1"));
+        }
+    }
+
+    private ApmJob newSyncJob(String jobId, String packageId, String state) {
+        PkgSyncInfo syncInfo = new PkgSyncInfo();
+        syncInfo.setAppId(APP_ID);
+        syncInfo.setPackageId(packageId);
+        ApmJob job = new ApmJob();
+        job.setJobId(jobId);
+        job.setJobType(ApmJobWorker.SYNC);
+        job.setResourceId(APP_ID + packageId);
+        job.setBatchId("batch1");
+        job.setAffinity("instance2");
+        job.setState(state);
+        job.setPayload(new Gson().toJson(new ApmJobPayload(null, null, null, syncInfo)));
+        job.setCreateTime(LocalDateTime.now());
+        return job;
+    }
+}
@@ -18,36 +18,55 @@ package org.edgegallery.mecm.apm.service;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
 import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
 import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.LoadImageCmd;
 import com.github.dockerjava.api.exception.DockerClientException;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.edgegallery.mecm.apm.ApmApplicationTest;
 import org.edgegallery.mecm.apm.exception.ApmException;
 import org.edgegallery.mecm.apm.model.AppRepo;
+import org.edgegallery.mecm.apm.model.AppStorePackages;
+import org.edgegallery.mecm.apm.model.PackageFile;
 import org.edgegallery.mecm.apm.model.PkgSyncInfo;
 import org.edgegallery.mecm.apm.model.SwImageDescr;
+import org.edgegallery.mecm.apm.model.dto.AppPackageInfoDto;
 import org.edgegallery.mecm.apm.utils.ApmServiceHelper;
 import org.junit.Test;
 import org.junit.jupiter.api.BeforeEach;
@@ -56,11 +75,16 @@ import org.mockito.InjectMocks;
 import org.mockito.MockitoAnnotations;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.TokenStore;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.ExpectedCount;
 import org.springframework.test.web.client.MockRestServiceServer;
 import org.springframework.util.ResourceUtils;
 import org.springframework.web.client.RestTemplate;
@@ -93,21 +117,291 @@ public class ApmServiceTest {
 
 
     @Test
-    public void downloadAppPackageTest() throws FileNotFoundException {
+    public void downloadAppPackageToFileTest() throws IOException {
 
         mockServer = MockRestServiceServer.createServer(restTemplate);
 
         File file = ResourceUtils.getFile("classpath:22406fba-fd5d-4f55-b3fa-89a45fee913a.csar");
-        InputStream ins = new BufferedInputStream(new FileInputStream(file.getPath()));
-        InputStreamResource inputStreamResource = new InputStreamResource(ins);
         String url = "http://1.1.1.1:8099/mec/appstore/v1/apps/8ec923a8-9e30-4c94-a7ac-c92279488db2/packages"
                 + "/0fb274f2-213b-4a66-accc-ab218470caa3/action/download";
         mockServer.expect(requestTo(url))
                 .andExpect(method(HttpMethod.GET))
-                .andRespond(withSuccess(inputStreamResource, MediaType.APPLICATION_OCTET_STREAM));
+                .andExpect(header("ACCESS_TOKEN", "access token"))
+                .andRespond(withSuccess(Files.toByteArray(file), MediaType.APPLICATION_OCTET_STREAM));
+
+        File baseDir = java.nio.file.Files.createTempDirectory("apm").toFile();
+        try {
+            PackageFile packageFile = apmService.downloadAppPackageToFile(url, PACKAGE_ID, TENANT_ID,
+                    baseDir.getPath(), "access token");
+            assertEquals(file.length(), packageFile.getSize());
+            assertEquals(Files.asByteSource(file).hash(Hashing.sha256()).toString(), packageFile.getSha256());
+            assertTrue(Files.equal(file, new File(packageFile.getFilePath())));
+            mockServer.verify();
+        } finally {
+            FileUtils.deleteQuietly(baseDir);
+        }
+    }
 
-        InputStream response = apmService.downloadAppPackage(url, PACKAGE_ID, "access token");
-        assertNotNull(response);
+    @Test
+    public void downloadAppPackageToFileFromStoreTest() throws IOException {
+
+        mockServer = MockRestServiceServer.createServer(restTemplate);
+
+        File file = ResourceUtils.getFile("classpath:22406fba-fd5d-4f55-b3fa-89a45fee913a.csar");
+        String url = "http://1.1.1.1:8099/mec/appstore/v1/apps/8ec923a8-9e30-4c94-a7ac-c92279488db2/packages"
+                + "/0fb274f2-213b-4a66-accc-ab218470caa4/action/download";
+        HttpHeaders remote = new HttpHeaders();
+        remote.setETag("\"pkg-v1\"");
+        mockServer.expect(requestTo(url))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess(Files.toByteArray(file), MediaType.APPLICATION_OCTET_STREAM).headers(remote));
+        mockServer.expect(requestTo(url))
+                .andExpect(method(HttpMethod.HEAD))
+                .andExpect(header("ACCESS_TOKEN", "access token 2"))
+                .andExpect(header(HttpHeaders.IF_NONE_MATCH, "\"pkg-v1\""))
+                .andRespond(withStatus(HttpStatus.NOT_MODIFIED));
+
+        File baseDir = java.nio.file.Files.createTempDirectory("apm").toFile();
+        try {
+            PackageFile first = apmService.downloadAppPackageToFile(url, PACKAGE_ID, TENANT_ID,
+                    baseDir.getPath(), "access token");
+            PackageFile second = apmService.downloadAppPackageToFile(url, PACKAGE_ID, "tenant2",
+                    baseDir.getPath(), "access token 2");
+
+            mockServer.verify();
+            assertEquals(first.getSha256(), second.getSha256());
+            assertEquals(file.length(), second.getSize());
+            assertTrue(java.nio.file.Files.isSameFile(new File(first.getFilePath()).toPath(),
+                    new File(second.getFilePath()).toPath()));
+            assertTrue(Files.equal(file, new File(second.getFilePath())));
+        } finally {
+            FileUtils.deleteQuietly(baseDir);
+        }
+    }
+
+    @Test
+    public void downloadAppPackageToFileFromStoreChangedRemotelyTest() throws IOException {
+
+        mockServer = MockRestServiceServer.createServer(restTemplate);
+
+        File file = ResourceUtils.getFile("classpath:22406fba-fd5d-4f55-b3fa-89a45fee913a.csar");
+        File changed = ResourceUtils.getFile("classpath:22406fba-fd5d-4f55-b3fa-89a45fee913b.csar");
+        String url = "http://1.1.1.1:8099/mec/appstore/v1/apps/8ec923a8-9e30-4c94-a7ac-c92279488db2/packages"
+                + "/0fb274f2-213b-4a66-accc-ab218470caa6/action/download";
+        HttpHeaders remote = new HttpHeaders();
+        remote.setLastModified(1000L);
+        mockServer.expect(requestTo(url))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess(Files.toByteArray(file), MediaType.APPLICATION_OCTET_STREAM).headers(remote));
+        mockServer.expect(requestTo(url))
+                .andExpect(method(HttpMethod.HEAD))
+                .andExpect(header(HttpHeaders.IF_MODIFIED_SINCE, remote.getFirst(HttpHeaders.LAST_MODIFIED)))
+                .andRespond(withSuccess());
+        mockServer.expect(requestTo(url))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess(Files.toByteArray(changed), MediaType.APPLICATION_OCTET_STREAM));
+
+        File baseDir = java.nio.file.Files.createTempDirectory("apm").toFile();
+        try {
+            apmService.downloadAppPackageToFile(url, PACKAGE_ID, TENANT_ID, baseDir.getPath(), "access token");
+            PackageFile second = apmService.downloadAppPackageToFile(url, PACKAGE_ID, "tenant2",
+                    baseDir.getPath(), "access token");
+
+            mockServer.verify();
+            assertTrue(Files.equal(changed, new File(second.getFilePath())));
+        } finally {
+            FileUtils.deleteQuietly(baseDir);
+        }
+    }
+
+    @Test
+    public void downloadAppPackageToFileFromStoreWithoutValidatorTest() throws IOException {
+
+        mockServer = MockRestServiceServer.createServer(restTemplate);
+
+        File file = ResourceUtils.getFile("classpath:22406fba-fd5d-4f55-b3fa-89a45fee913a.csar");
+        String url = "http://1.1.1.1:8099/mec/appstore/v1/apps/8ec923a8-9e30-4c94-a7ac-c92279488db2/packages"
+                + "/0fb274f2-213b-4a66-accc-ab218470caa7/action/download";
+        mockServer.expect(ExpectedCount.twice(), requestTo(url))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess(Files.toByteArray(file), MediaType.APPLICATION_OCTET_STREAM));
+
+        File baseDir = java.nio.file.Files.createTempDirectory("apm").toFile();
+        try {
+            PackageFile first = apmService.downloadAppPackageToFile(url, PACKAGE_ID, TENANT_ID,
+                    baseDir.getPath(), "access token");
+            PackageFile second = apmService.downloadAppPackageToFile(url, PACKAGE_ID, "tenant2",
+                    baseDir.getPath(), "access token");
+
+            // package is downloaded again and deduplicated by its digest
+            mockServer.verify();
+            assertTrue(java.nio.file.Files.isSameFile(new File(first.getFilePath()).toPath(),
+                    new File(second.getFilePath()).toPath()));
+        } finally {
+            FileUtils.deleteQuietly(baseDir);
+        }
+    }
+
+    @Test
+    public void downloadAppPackageToFileFromStoreRejectedByAppstoreTest() throws IOException {
+
+        mockServer = MockRestServiceServer.createServer(restTemplate);
+
+        File file = ResourceUtils.getFile("classpath:22406fba-fd5d-4f55-b3fa-89a45fee913a.csar");
+        String url = "http://1.1.1.1:8099/mec/appstore/v1/apps/8ec923a8-9e30-4c94-a7ac-c92279488db2/packages"
+                + "/0fb274f2-213b-4a66-accc-ab218470caa5/action/download";
+        HttpHeaders remote = new HttpHeaders();
+        remote.setETag("\"pkg-v1\"");
+        mockServer.expect(requestTo(url))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess(Files.toByteArray(file), MediaType.APPLICATION_OCTET_STREAM).headers(remote));
+        mockServer.expect(requestTo(url))
+                .andExpect(method(HttpMethod.HEAD))
+                .andExpect(header("ACCESS_TOKEN", "other token"))
+                .andRespond(withStatus(HttpStatus.FORBIDDEN));
+
+        File baseDir = java.nio.file.Files.createTempDirectory("apm").toFile();
+        try {
+            apmService.downloadAppPackageToFile(url, PACKAGE_ID, TENANT_ID, baseDir.getPath(), "access token");
+            // stored package is not handed to a caller the appstore does not serve it to
+            assertThrows(ApmException.class, () -> apmService.downloadAppPackageToFile(url, PACKAGE_ID, "tenant2",
+                    baseDir.getPath(), "other token"));
+            mockServer.verify();
+            assertFalse(new File(ApmServiceHelper.getLocalPackageFilePath(PACKAGE_ID, "tenant2", baseDir.getPath()))
+                    .exists());
+        } finally {
+            FileUtils.deleteQuietly(baseDir);
+        }
+    }
+
+    @Test
+    public void downloadAppPackageResumeTest() throws IOException {
+
+        mockServer = MockRestServiceServer.createServer(restTemplate);
+
+        File file = ResourceUtils.getFile("classpath:22406fba-fd5d-4f55-b3fa-89a45fee913a.csar");
+        byte[] content = Files.toByteArray(file);
+        int offset = content.length / 2;
+        String url = "http://1.1.1.1:8099/mec/appstore/v1/apps/8ec923a8-9e30-4c94-a7ac-c92279488db2/packages"
+                + "/0fb274f2-213b-4a66-accc-ab218470caa3/action/download";
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + offset + "-" + (content.length - 1) + "/" + content.length);
+        mockServer.expect(requestTo(url))
+                .andExpect(method(HttpMethod.GET))
+                .andExpect(header(HttpHeaders.RANGE, "bytes=" + offset + "-"))
+                .andExpect(header(HttpHeaders.IF_RANGE, "\"v1\""))
+                .andRespond(withStatus(HttpStatus.PARTIAL_CONTENT).headers(headers)
+                        .body(Arrays.copyOfRange(content, offset, content.length)));
+
+        File baseDir = java.nio.file.Files.createTempDirectory("apm").toFile();
+        try {
+            String localFilePath = ApmServiceHelper.getLocalPackageFilePath(PACKAGE_ID, TENANT_ID, baseDir.getPath());
+            Files.write(Arrays.copyOf(content, offset), new File(localFilePath + ".part"));
+            Files.write("\"v1\"".getBytes(StandardCharsets.UTF_8), new File(localFilePath + ".part.validator"));
+
+            PackageFile packageFile = apmService.downloadAppPackageToFile(url, PACKAGE_ID, TENANT_ID,
+                    baseDir.getPath(), "access token");
+            assertEquals(content.length, packageFile.getSize());
+            assertEquals(Files.asByteSource(file).hash(Hashing.sha256()).toString(), packageFile.getSha256());
+            assertTrue(Files.equal(file, new File(packageFile.getFilePath())));
+            mockServer.verify();
+        } finally {
+            FileUtils.deleteQuietly(baseDir);
+        }
+    }
+
+    @Test
+    public void getAppPackagesInfoFromAppStoreSkipsAppsWithoutPackagesTest() {
+        String appsUrl = "https://1.1.1.1:8099/mec/appstore/v1/apps";
+        mockServer = MockRestServiceServer.bindTo(restTemplate).ignoreExpectOrder(true).build();
+        mockServer.expect(requestTo(appsUrl))
+                .andRespond(withSuccess("[{\"appId\":\"app1\"},{\"appId\":\"app2\"},{\"appId\":\"app3\"}]",
+                        MediaType.APPLICATION_JSON));
+        mockServer.expect(requestTo(appsUrl + "/app1/packages"))
+                .andRespond(withSuccess("[{\"packageId\":\"pkg1\"}]", MediaType.APPLICATION_JSON));
+        mockServer.expect(requestTo(appsUrl + "/app2/packages"))
+                .andRespond(withSuccess("[]", MediaType.APPLICATION_JSON));
+        mockServer.expect(requestTo(appsUrl + "/app3/packages"))
+                .andRespond(withSuccess("[{\"packageId\":\"pkg3\"}]", MediaType.APPLICATION_JSON));
+
+        List<AppPackageInfoDto> infos = apmService.getAppPackagesInfoFromAppStore("1.1.1.1:8099", "access token")
+                .getAppPackageInfos();
+        assertEquals(2, infos.size());
+        assertEquals("pkg1", infos.get(0).getPackageId());
+        assertEquals("pkg3", infos.get(1).getPackageId());
+        mockServer.verify();
+    }
+
+    @Test
+    public void getAppPackagesInfoFromAppStoreFailsOnServerErrorTest() {
+        String appsUrl = "https://3.3.3.3:8099/mec/appstore/v1/apps";
+        mockServer = MockRestServiceServer.bindTo(restTemplate).ignoreExpectOrder(true).build();
+        mockServer.expect(requestTo(appsUrl))
+                .andRespond(withSuccess("[{\"appId\":\"app1\"},{\"appId\":\"app2\"}]",
+                        MediaType.APPLICATION_JSON));
+        mockServer.expect(requestTo(appsUrl + "/app1/packages"))
+                .andRespond(withSuccess("[{\"packageId\":\"pkg1\"}]", MediaType.APPLICATION_JSON));
+        mockServer.expect(requestTo(appsUrl + "/app2/packages"))
+                .andRespond(withStatus(HttpStatus.INTERNAL_SERVER_ERROR));
+
+        assertThrows(ApmException.class, () -> apmService.getAppPackagesInfoFromAppStore("3.3.3.3:8099",
+                "access token"));
+        mockServer.verify();
+    }
+
+    @Test
+    public void getAppPackagesInfoFromAppStoreRevalidatesCatalogueTest() {
+        String appsUrl = "https://2.2.2.2:8099/mec/appstore/v1/apps";
+        HttpHeaders appsHeaders = new HttpHeaders();
+        appsHeaders.setETag("\"apps-v1\"");
+        HttpHeaders pkgsHeaders = new HttpHeaders();
+        pkgsHeaders.setETag("\"pkgs-v1\"");
+        mockServer = MockRestServiceServer.createServer(restTemplate);
+        mockServer.expect(requestTo(appsUrl))
+                .andRespond(withSuccess("[{\"appId\":\"app1\"}]", MediaType.APPLICATION_JSON).headers(appsHeaders));
+        mockServer.expect(requestTo(appsUrl + "/app1/packages"))
+                .andRespond(withSuccess("[{\"packageId\":\"pkg1\"}]", MediaType.APPLICATION_JSON)
+                        .headers(pkgsHeaders));
+        mockServer.expect(requestTo(appsUrl))
+                .andExpect(header(HttpHeaders.IF_NONE_MATCH, "\"apps-v1\""))
+                .andRespond(withStatus(HttpStatus.NOT_MODIFIED));
+
+        AppStorePackages first = apmService.getAppPackagesInfoFromAppStore("2.2.2.2:8099", "access token");
+        AppStorePackages second = apmService.getAppPackagesInfoFromAppStore("2.2.2.2:8099", "access token");
+        assertEquals(1, first.getAppPackageInfos().size());
+        assertEquals(Collections.singleton("app1"), first.getChangedAppIds());
+        assertEquals(1, second.getAppPackageInfos().size());
+        assertEquals("pkg1", second.getAppPackageInfos().get(0).getPackageId());
+        assertTrue(second.getChangedAppIds().isEmpty());
+        mockServer.verify();
+    }
+
+    @Test
+    public void getAppPackagesInfoFromAppStoreReportsChangedAppsTest() {
+        String appsUrl = "https://4.4.4.4:8099/mec/appstore/v1/apps";
+        HttpHeaders pkgsHeaders = new HttpHeaders();
+        pkgsHeaders.setETag("\"pkgs-v1\"");
+        mockServer = MockRestServiceServer.bindTo(restTemplate).ignoreExpectOrder(true).build();
+        mockServer.expect(requestTo(appsUrl))
+                .andRespond(withSuccess("[{\"appId\":\"app1\"}]", MediaType.APPLICATION_JSON));
+        mockServer.expect(requestTo(appsUrl + "/app1/packages"))
+                .andRespond(withSuccess("[{\"packageId\":\"pkg1\"}]", MediaType.APPLICATION_JSON)
+                        .headers(pkgsHeaders));
+        apmService.getAppPackagesInfoFromAppStore("4.4.4.4:8099", "access token");
+        mockServer.verify();
+
+        mockServer.reset();
+        mockServer.expect(requestTo(appsUrl))
+                .andRespond(withSuccess("[{\"appId\":\"app1\"},{\"appId\":\"app2\"}]",
+                        MediaType.APPLICATION_JSON));
+        mockServer.expect(requestTo(appsUrl + "/app1/packages"))
+                .andExpect(header(HttpHeaders.IF_NONE_MATCH, "\"pkgs-v1\""))
+                .andRespond(withStatus(HttpStatus.NOT_MODIFIED));
+        mockServer.expect(requestTo(appsUrl + "/app2/packages"))
+                .andRespond(withSuccess("[{\"packageId\":\"pkg2\"}]", MediaType.APPLICATION_JSON));
+        AppStorePackages packages = apmService.getAppPackagesInfoFromAppStore("4.4.4.4:8099", "access token");
+        assertEquals(2, packages.getAppPackageInfos().size());
+        assertEquals(Collections.singleton("app2"), packages.getChangedAppIds());
         mockServer.verify();
     }
 
@@ -176,7 +470,8 @@ public class ApmServiceTest {
     public void testDeleteFile() throws IOException {
         File file = ResourceUtils.getFile("classpath:packages");
         InputStream inputStream = IOUtils.toInputStream("mock data for test", "UTF-8");
-        String response = ApmServiceHelper.saveInputStreamToFile(inputStream, PACKAGE_ID, TENANT_ID, file.getPath());
+        String response = ApmServiceHelper.getLocalPackageFilePath(PACKAGE_ID, TENANT_ID, file.getPath());
+        FileUtils.copyInputStreamToFile(inputStream, new File(response));
         assertNotNull(response);
         File responseFile = new File(response);
         assertTrue(responseFile.exists());
@@ -263,6 +558,57 @@ public class ApmServiceTest {
         mockServer.verify();
     }
 
+    @Test
+    public void inventoryCacheIsSharedWithinAuthorizationScopeTest() {
+        RestTemplate template = new RestTemplate();
+        MockRestServiceServer server = MockRestServiceServer.bindTo(template).build();
+        TokenStore tokenStore = mock(TokenStore.class);
+        OAuth2Authentication user1 = mock(OAuth2Authentication.class);
+        when(user1.getName()).thenReturn("user1");
+        doReturn(Collections.singletonList(new SimpleGrantedAuthority("ROLE_MECM_TENANT"))).when(user1)
+                .getAuthorities();
+        OAuth2Authentication user2 = mock(OAuth2Authentication.class);
+        when(user2.getName()).thenReturn("user2");
+        doReturn(Collections.singletonList(new SimpleGrantedAuthority("ROLE_MECM_TENANT"))).when(user2)
+                .getAuthorities();
+        when(tokenStore.readAuthentication("token1")).thenReturn(user1);
+        when(tokenStore.readAuthentication("token1b")).thenReturn(user1);
+        when(tokenStore.readAuthentication("token2")).thenReturn(user2);
+
+        ApmService service = new ApmService();
+        ReflectionTestUtils.setField(service, "restTemplate", template);
+        ReflectionTestUtils.setField(service, "jwtTokenStore", tokenStore);
+        ReflectionTestUtils.setField(service, "inventoryIp", "1.1.1.1");
+        ReflectionTestUtils.setField(service, "inventoryPort", "8080");
+        ReflectionTestUtils.setField(service, "isSslEnabled", "false");
+        ReflectionTestUtils.setField(service, "inventoryCacheTtl", 60000L);
+        ReflectionTestUtils.setField(service, "inventoryCacheMaxSize", 100);
+        service.initCaches();
+
+        String hosts = "http://1.1.1.1:8080/inventory/v1/tenants/" + TENANT_ID + "/mechosts/";
+        String mepm = "http://1.1.1.1:8080/inventory/v1/mepms/3.3.3.3";
+        String hostBody = "{'mepmIp': '3.3.3.3'}";
+        String mepmBody = "{'mepmIp': '3.3.3.3', 'mepmPort': '808'}";
+        server.expect(requestTo(hosts + "1.1.1.1")).andExpect(header("access_token", "token1"))
+                .andRespond(withSuccess(hostBody, MediaType.APPLICATION_JSON));
+        server.expect(requestTo(mepm)).andRespond(withSuccess(mepmBody, MediaType.APPLICATION_JSON));
+        // MEPM record is shared by its hosts
+        server.expect(requestTo(hosts + "2.2.2.2")).andRespond(withSuccess(hostBody, MediaType.APPLICATION_JSON));
+        // another user gets records inventory gives to it
+        server.expect(requestTo(hosts + "1.1.1.1")).andExpect(header("access_token", "token2"))
+                .andRespond(withSuccess(hostBody, MediaType.APPLICATION_JSON));
+        server.expect(requestTo(mepm)).andExpect(header("access_token", "token2"))
+                .andRespond(withSuccess(mepmBody, MediaType.APPLICATION_JSON));
+
+        assertEquals("3.3.3.3:808", service.getMepmCfgOfHost(TENANT_ID, "1.1.1.1", "token1"));
+        assertEquals("3.3.3.3:808", service.getMepmCfgOfHost(TENANT_ID, "2.2.2.2", "token1"));
+        assertEquals("3.3.3.3:808", service.getMepmCfgOfHost(TENANT_ID, "1.1.1.1", "token1b"));
+        assertEquals("3.3.3.3:808", service.getMepmCfgOfHost(TENANT_ID, "1.1.1.1", "token2"));
+        server.verify();
+        assertEquals(1L, service.getInventoryCacheStats().get("mepm").get("hits").longValue());
+        assertEquals(1L, service.getInventoryCacheStats().get("mepmPort").get("hits").longValue());
+    }
+
     @Test
     public void getMepmCfgOfHostMepmIpInvalidTest() {
         String url = "https://1.1.1.1:8080/inventory/v1/tenants/" + TENANT_ID + "/mechosts/1.1.1.1";
@@ -355,4 +701,49 @@ public class ApmServiceTest {
         method1.invoke(apmService, obj1);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void loadDockerImagesFromPackageStreamTest() throws IOException {
+        File baseDir = java.nio.file.Files.createTempDirectory("apm").toFile();
+        try {
+            File imageDir = new File(baseDir, PACKAGE_ID + "/Image");
+            assertTrue(imageDir.mkdirs());
+            File imageZip = new File(imageDir, "SwImages.zip");
+            try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(imageZip))) {
+                zip.putNextEntry(new ZipEntry("SwImages/nginx.tar"));
+                zip.write("nginx".getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+
+            List<String> loaded = new ArrayList<>();
+            DockerClient dockerClient = mock(DockerClient.class);
+            LoadImageCmd loadImageCmd = mock(LoadImageCmd.class);
+            when(dockerClient.loadImageCmd(any(InputStream.class))).thenAnswer(invocation -> {
+                loaded.add(IOUtils.toString((InputStream) invocation.getArgument(0), StandardCharsets.UTF_8));
+                return loadImageCmd;
+            });
+            ImageMover imageMover = mock(ImageMover.class);
+            when(imageMover.borrowLocalClient()).thenReturn(dockerClient);
+
+            ApmService service = new ApmService();
+            ReflectionTestUtils.setField(service, "localDirPath", baseDir.getPath());
+            ReflectionTestUtils.setField(service, "imageLoadMode", "stream");
+            ReflectionTestUtils.setField(service, "imageMover", imageMover);
+            service.initCaches();
+
+            SwImageDescr image = new SwImageDescr();
+            image.setName("nginx:1.0");
+            image.setSwImage("Image/SwImages/nginx.tar");
+            Set<String> loadedImgs = new HashSet<>();
+            service.loadDockerImagesFromPackage(PACKAGE_ID, null, Arrays.asList(image), loadedImgs);
+
+            assertEquals(Arrays.asList("nginx"), loaded);
+            assertTrue(loadedImgs.contains("nginx:1.0"));
+            assertEquals("nginx:1.0", image.getSwImage());
+            assertFalse(imageZip.exists());
+            assertFalse(new File(imageDir, "SwImages").exists());
+            verify(imageMover).releaseLocalClient(dockerClient);
+        } finally {
+            FileUtils.deleteQuietly(baseDir);
+        }
+    }
+}
@@ -19,7 +19,9 @@ package org.edgegallery.mecm.apm.service;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -72,6 +74,8 @@ import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(SpringRunner.class)
@@ -218,6 +222,48 @@ public class DbServiceTest {
                 + "-a8e4a10c6b32", PACKAGE_ID));
     }
 
+    @Test
+    public void testGetAllAppPackagePaged() {
+        assertDoesNotThrow(() -> dbServices.createAppPackage(TENANT_ID, packageDto));
+        assertDoesNotThrow(() -> dbServices.createHost(TENANT_ID, packageDto));
+
+        List<AppPackageDto> packageDtos = dbServices.getAllAppPackage(TENANT_ID, null, 10, 0);
+        assertEquals(1, packageDtos.size());
+        assertEquals(2, packageDtos.get(0).getMecHostInfo().size());
+        assertEquals("1.1.1.1", packageDtos.get(0).getMecHostInfo().get(0).getHostIp());
+
+        assertEquals(0, dbServices.getAllAppPackage(TENANT_ID, null, 10, 1).size());
+        assertEquals(1, dbServices.getAllAppPackage(TENANT_ID, LocalDateTime.now().minusDays(1), 10, 0).size());
+        assertEquals(0, dbServices.getAllAppPackage(TENANT_ID, LocalDateTime.now().plusDays(1), 10, 0).size());
+
+        // clean up
+        assertDoesNotThrow(() -> dbServices.deleteAppPackage(TENANT_ID, PACKAGE_ID));
+        assertDoesNotThrow(() -> dbServices.deleteHost(TENANT_ID, PACKAGE_ID));
+    }
+
+    @Test
+    public void testGetAllAppPackageModifiedSinceHostUpdate() throws InterruptedException {
+        assertDoesNotThrow(() -> dbServices.createAppPackage(TENANT_ID, packageDto));
+        assertDoesNotThrow(() -> dbServices.createHost(TENANT_ID, packageDto));
+        Thread.sleep(10);
+        LocalDateTime since = LocalDateTime.now();
+        assertEquals(0, dbServices.getAllAppPackage(TENANT_ID, since, 10, 0).size());
+
+        assertDoesNotThrow(() -> dbServices.updateDistributionStatusOfHost(TENANT_ID, PACKAGE_ID, "2.2.2.2",
+                ERROR, FAILED_TO_CONNECT));
+        List<AppPackageDto> packageDtos = dbServices.getAllAppPackage(TENANT_ID, since, 10, 0);
+        assertEquals(1, packageDtos.size());
+        for (MecHostDto hostDto : packageDtos.get(0).getMecHostInfo()) {
+            if ("2.2.2.2".equals(hostDto.getHostIp())) {
+                assertEquals(ERROR, hostDto.getStatus());
+            }
+        }
+
+        // clean up
+        assertDoesNotThrow(() -> dbServices.deleteAppPackage(TENANT_ID, PACKAGE_ID));
+        assertDoesNotThrow(() -> dbServices.deleteHost(TENANT_ID, PACKAGE_ID));
+    }
+
     @Test
     public void testUpdateDistributionStatusOfAllHost() {
         assertDoesNotThrow(() -> dbServices.createAppPackage(TENANT_ID, packageDto));
@@ -333,6 +379,35 @@ public class DbServiceTest {
 
     }
 
+    @Test
+    public void deleteNonExistingPackagesOfChangedAppsTest() {
+        List<AppPackageInfo> appPkgInfosDb = new ArrayList<>();
+        appPkgInfosDb.add(newAppPackageInfo("app1", "old1"));
+        appPkgInfosDb.add(newAppPackageInfo("app2", "old2"));
+        appPkgInfosDb.add(newAppPackageInfo("app3", "pkg3"));
+        when(appPkgSyncRepository.findByAppstoreId("1.1.1.1")).thenReturn(appPkgInfosDb);
+        List<AppPackageInfoDto> inAppPkgInfos = new ArrayList<>();
+        for (String app : new String[] {"app1", "app2"}) {
+            AppPackageInfoDto infoDto = new AppPackageInfoDto();
+            infoDto.setAppId(app);
+            infoDto.setPackageId("pkg");
+            inAppPkgInfos.add(infoDto);
+        }
+
+        dbService.deleteNonExistingPackages("1.1.1.1", inAppPkgInfos, Collections.singleton("app2"));
+        verify(appPkgSyncRepository, never()).deleteById("app1old1");
+        verify(appPkgSyncRepository).deleteById("app2old2");
+        verify(appPkgSyncRepository).deleteById("app3pkg3");
+    }
+
+    private static AppPackageInfo newAppPackageInfo(String appId, String packageId) {
+        AppPackageInfo packageInfo = new AppPackageInfo();
+        packageInfo.setAppPkgInfoId(appId + packageId);
+        packageInfo.setAppId(appId);
+        packageInfo.setPackageId(packageId);
+        return packageInfo;
+    }
+
     @Test
     public void buildHttpClient() {
         restClientHelper = new RestClientHelper(true, "path", "trust");
@@ -351,7 +426,6 @@ public class DbServiceTest {
     @Test
     public void testApmService() {
         assertThrows(ApmException.class, () -> ApmServiceHelper.getHostList(null));
-        assertThrows(ApmException.class, () -> ApmServiceHelper.saveInputStreamToFile(null, "packageId", TENANT_ID, "path"));
     }
 
     @Test
@@ -0,0 +1,108 @@
+/*
+ *  Copyright 2020 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class DistributionStatusPollerTest {
+
+    private static final String TENANT_ID = "18db0283-3c67-4042-a708-a8e4a10c6b32";
+    private static final String PACKAGE_ID = "f50358433cf8eb4719a62a49ed118c9b";
+    private static final String MEPM = "1.1.1.1:8080";
+
+    @InjectMocks
+    private DistributionStatusPoller poller;
+
+    @Mock
+    private ApmService apmService;
+
+    @Mock
+    private DbService dbService;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        ReflectionTestUtils.setField(poller, "isSslEnabled", "false");
+        ReflectionTestUtils.setField(poller, "pollerThreads", 1);
+        ReflectionTestUtils.setField(poller, "tickInterval", 60000L);
+        ReflectionTestUtils.setField(poller, "initialInterval", 0L);
+        ReflectionTestUtils.setField(poller, "maxInterval", 0L);
+        ReflectionTestUtils.setField(poller, "timeout", 60000L);
+        poller.start();
+    }
+
+    @After
+    public void tearDown() {
+        poller.stop();
+    }
+
+    @Test
+    public void testOneQueryPerMepmAndPackage() throws Exception {
+        when(apmService.sendGetRequest(anyString(), anyString())).thenReturn("{\"data\":[{\"mecHostInfo\":["
+                + "{\"hostIp\":\"1.1.1.1\",\"status\":\"Distributed\"},"
+                + "{\"hostIp\":\"2.2.2.2\",\"status\":\"Error\"}]}]}");
+
+        CompletableFuture<String> host1 = poller.track(MEPM, TENANT_ID, PACKAGE_ID, "1.1.1.1", "token");
+        CompletableFuture<String> host2 = poller.track(MEPM, TENANT_ID, PACKAGE_ID, "2.2.2.2", "token");
+        tick();
+
+        assertEquals("Distributed", host1.get(5, TimeUnit.SECONDS));
+        assertEquals("Error", host2.get(5, TimeUnit.SECONDS));
+        assertEquals(0, poller.getPendingCount());
+        verify(apmService, times(1)).sendGetRequest(anyString(), anyString());
+        verify(dbService).updateDistributionStatusOfHost(TENANT_ID, PACKAGE_ID, "1.1.1.1", "Distributed", "");
+        verify(dbService).updateDistributionStatusOfHost(TENANT_ID, PACKAGE_ID, "2.2.2.2", "Error", "");
+    }
+
+    @Test
+    public void testInProgressStatusKeepsTracking() throws Exception {
+        when(apmService.sendGetRequest(anyString(), anyString())).thenReturn("{\"data\":[{\"mecHostInfo\":["
+                + "{\"hostIp\":\"1.1.1.1\",\"status\":\"Distributing\"}]}]}");
+
+        CompletableFuture<String> host1 = poller.track(MEPM, TENANT_ID, PACKAGE_ID, "1.1.1.1", "token");
+        tick();
+
+        verify(dbService, timeout(5000)).updateDistributionStatusOfHost(eq(TENANT_ID), eq(PACKAGE_ID),
+                eq("1.1.1.1"), eq("Distributing"), eq(""));
+        assertFalse(host1.isDone());
+        assertEquals(1, poller.getPendingCount());
+    }
+
+    private void tick() throws Exception {
+        Method tick = DistributionStatusPoller.class.getDeclaredMethod("tick");
+        tick.setAccessible(true);
+        tick.invoke(poller);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ *  Copyright 2020 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.edgegallery.mecm.apm.exception.ApmException;
+import org.edgegallery.mecm.apm.model.AppRepo;
+import org.edgegallery.mecm.apm.model.SwImageDescr;
+import org.edgegallery.mecm.apm.utils.CancelToken;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class ImageMoverTest {
+
+    private ImageMover imageMover;
+
+    @Before
+    public void setUp() {
+        imageMover = new ImageMover();
+        Executor directExecutor = Runnable::run;
+        ReflectionTestUtils.setField(imageMover, "imageExecutor", directExecutor);
+        ReflectionTestUtils.setField(imageMover, "perRegistryLimit", 1);
+        ReflectionTestUtils.setField(imageMover, "mecmRepoEndpoint", "1.1.1.1:443");
+    }
+
+    @Test
+    public void testFailedPullSkipsPushAndRemainingImages() {
+        List<SwImageDescr> images = Arrays.asList(image("repo.io/app1:1"), image("repo.io/app2:1"));
+        Set<String> pulled = new HashSet<>();
+        Set<String> pushed = new HashSet<>();
+        List<String> progress = new LinkedList<>();
+
+        try {
+            imageMover.moveImages(Collections.emptyMap(), images, pulled, pushed, progress::add,
+                    new CancelToken());
+            fail("expected image move to fail");
+        } catch (ApmException e) {
+            assertTrue(e.getMessage().contains("source repo not configured repo.io"));
+        }
+        assertTrue(pulled.isEmpty());
+        assertTrue(pushed.isEmpty());
+        assertEquals(0, progress.size());
+    }
+
+    @Test
+    public void testCancelReturnsWhileImageCopyIsBlocked() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        RegistryClient registryClient = mock(RegistryClient.class);
+        CountDownLatch copying = new CountDownLatch(1);
+        CountDownLatch unblock = new CountDownLatch(1);
+        when(registryClient.copyImage(any(), anyString(), anyString(), any(), anyString(), anyString(), any()))
+                .thenAnswer(invocation -> {
+                    copying.countDown();
+                    // blocks like a transfer which ignores interrupts
+                    while (!unblock.await(100, TimeUnit.MILLISECONDS)) {
+                        Thread.interrupted();
+                    }
+                    return 1;
+                });
+        ReflectionTestUtils.setField(imageMover, "imageExecutor", executor);
+        ReflectionTestUtils.setField(imageMover, "imageSyncMode", "registry");
+        ReflectionTestUtils.setField(imageMover, "registryClient", registryClient);
+        Map<String, AppRepo> repos = Collections.singletonMap("repo.io",
+                new AppRepo("1", "repo", null, "repo.io", "user", "pass"));
+        CancelToken cancel = new CancelToken();
+        CompletableFuture<Void> move = CompletableFuture.runAsync(() -> imageMover.moveImages(repos,
+                Arrays.asList(image("repo.io/app1:1"), image("repo.io/app2:1")), new HashSet<>(), new HashSet<>(),
+                null, cancel));
+
+        try {
+            assertTrue(copying.await(5, TimeUnit.SECONDS));
+            cancel.cancel("sync cancelled");
+            try {
+                move.get(5, TimeUnit.SECONDS);
+                fail("expected image move to be cancelled");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof ApmException);
+                assertEquals("sync cancelled", e.getCause().getMessage());
+            }
+            // second image waits for the registry permit and is skipped
+            unblock.countDown();
+            verify(registryClient, after(500).times(1)).copyImage(any(), anyString(), anyString(), any(),
+                    anyString(), anyString(), any());
+        } finally {
+            unblock.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private static SwImageDescr image(String name) {
+        SwImageDescr image = new SwImageDescr();
+        image.setSwImage(name);
+        image.setVersion("1");
+        return image;
+    }
+}
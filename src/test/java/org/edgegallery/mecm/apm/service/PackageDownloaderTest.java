@@ -0,0 +1,141 @@
+/*
+ *  Copyright 2021 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import com.google.common.hash.Hashing;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import org.apache.commons.io.FileUtils;
+import org.edgegallery.mecm.apm.model.PackageFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+public class PackageDownloaderTest {
+
+    private static final String URL = "http://1.1.1.1:8099/mec/appstore/v1/apps/1/packages/2/action/download";
+
+    private PackageDownloader downloader;
+
+    private MockRestServiceServer server;
+
+    private File baseDir;
+
+    @Before
+    public void setUp() throws IOException {
+        baseDir = Files.createTempDirectory("apm").toFile();
+        downloader = new PackageDownloader();
+        RestTemplate restTemplate = new RestTemplate();
+        server = MockRestServiceServer.bindTo(restTemplate).build();
+        Executor directExecutor = Runnable::run;
+        ReflectionTestUtils.setField(downloader, "restTemplate", restTemplate);
+        ReflectionTestUtils.setField(downloader, "downloadExecutor", directExecutor);
+        // defaults of application configuration
+        ReflectionTestUtils.setField(downloader, "bufferSize", 1048576);
+        ReflectionTestUtils.setField(downloader, "maxRetries", 3);
+        ReflectionTestUtils.setField(downloader, "retryInterval", 0L);
+        ReflectionTestUtils.setField(downloader, "segments", 1);
+        ReflectionTestUtils.setField(downloader, "segmentThreshold", 16777216L);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(baseDir);
+    }
+
+    @Test
+    public void testPackageBelowSizeLimitIsDownloadedInSegments() throws IOException {
+        ReflectionTestUtils.setField(downloader, "segments", 2);
+        byte[] content = new byte[20 * 1024 * 1024];
+        new Random(1).nextBytes(content);
+        int half = content.length / 2;
+        HttpHeaders remote = new HttpHeaders();
+        remote.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        remote.setContentLength(content.length);
+        server.expect(requestTo(URL)).andExpect(method(HttpMethod.HEAD)).andRespond(withSuccess().headers(remote));
+        server.expect(requestTo(URL)).andExpect(header(HttpHeaders.RANGE, "bytes=0-" + (half - 1)))
+                .andRespond(withStatus(HttpStatus.PARTIAL_CONTENT).body(Arrays.copyOfRange(content, 0, half)));
+        server.expect(requestTo(URL)).andExpect(header(HttpHeaders.RANGE, "bytes=" + half + "-" + (content.length - 1)))
+                .andRespond(withStatus(HttpStatus.PARTIAL_CONTENT)
+                        .body(Arrays.copyOfRange(content, half, content.length)));
+
+        File file = new File(baseDir, "app.csar");
+        PackageFile result = downloader.download(URL, file, "token");
+
+        server.verify();
+        assertEquals(content.length, result.getSize());
+        assertEquals(Hashing.sha256().hashBytes(content).toString(), result.getSha256());
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void testPartialFileIsResumedWhenRemoteFileIsUnchanged() throws IOException {
+        File file = new File(baseDir, "app.csar");
+        Files.write(new File(baseDir, "app.csar.part").toPath(), "hello ".getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(baseDir, "app.csar.part.validator").toPath(), "\"v1\"".getBytes(StandardCharsets.UTF_8));
+        HttpHeaders range = new HttpHeaders();
+        range.set(HttpHeaders.CONTENT_RANGE, "bytes 6-10/11");
+        server.expect(requestTo(URL)).andExpect(header(HttpHeaders.RANGE, "bytes=6-"))
+                .andExpect(header(HttpHeaders.IF_RANGE, "\"v1\""))
+                .andRespond(withStatus(HttpStatus.PARTIAL_CONTENT).headers(range).body("world"));
+
+        PackageFile result = downloader.download(URL, file, "token");
+
+        server.verify();
+        assertEquals(11, result.getSize());
+        assertEquals("hello world", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        assertFalse(new File(baseDir, "app.csar.part.validator").exists());
+    }
+
+    @Test
+    public void testPartialFileIsDiscardedWhenRemoteFileChanged() throws IOException {
+        File file = new File(baseDir, "app.csar");
+        Files.write(new File(baseDir, "app.csar.part").toPath(), "hello ".getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(baseDir, "app.csar.part.validator").toPath(), "\"v1\"".getBytes(StandardCharsets.UTF_8));
+        HttpHeaders changed = new HttpHeaders();
+        changed.setETag("\"v2\"");
+        server.expect(requestTo(URL)).andExpect(header(HttpHeaders.IF_RANGE, "\"v1\""))
+                .andRespond(withSuccess("changed", MediaType.APPLICATION_OCTET_STREAM).headers(changed));
+
+        PackageFile result = downloader.download(URL, file, "token");
+
+        server.verify();
+        assertEquals(7, result.getSize());
+        assertEquals("changed", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ *  Copyright 2021 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import org.apache.commons.io.FileUtils;
+import org.edgegallery.mecm.apm.model.AppPackageInfo;
+import org.edgegallery.mecm.apm.utils.Constants;
+import org.edgegallery.mecm.apm.utils.PackageStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class PackageGarbageCollectorTest {
+
+    private static final long HOUR = 3600000L;
+    private static final String DIGEST = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    @InjectMocks
+    private PackageGarbageCollector collector;
+
+    @Mock
+    private DbService dbService;
+
+    private File baseDir;
+
+    private Map<String, AppPackageInfo> synced;
+
+    @Before
+    public void setUp() throws IOException {
+        MockitoAnnotations.initMocks(this);
+        baseDir = Files.createTempDirectory("apm").toFile();
+        ReflectionTestUtils.setField(collector, "localDirPath", baseDir.getPath());
+        ReflectionTestUtils.setField(collector, "gracePeriod", HOUR);
+        ReflectionTestUtils.setField(collector, "quota", 0L);
+
+        when(dbService.getAllAppPackageIds()).thenReturn(new HashSet<>(Arrays.asList("pkg1tenant1")));
+        synced = new HashMap<>();
+        synced.put("app1pkg1", newPackageInfo(Constants.APP_IN_SYNC, 4 * HOUR));
+        synced.put("app2pkg2", newPackageInfo(Constants.APP_IN_SYNC, 3 * HOUR));
+        synced.put("app3pkg3", newPackageInfo(Constants.APP_SYNC_INPROGRESS, 6 * HOUR));
+        when(dbService.getAllAppPackageSyncInfo()).thenReturn(synced);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(baseDir);
+    }
+
+    @Test
+    public void testOrphansAreRemoved() throws IOException {
+        File onboarded = createPackage("pkg1tenant1", 10, 2 * HOUR);
+        File synced = createPackage("app1pkg1", 10, 2 * HOUR);
+        File orphan = createPackage("orphan", 10, 2 * HOUR);
+        File orphanOriginal = createFile(new File(baseDir, "orphan.orig.csar"), 10, 2 * HOUR);
+        File recent = createPackage("recent", 10, 0);
+        File blob = createFile(new File(PackageStore.getStoreDir(baseDir.getPath()), DIGEST + ".csar"), 10,
+                2 * HOUR);
+
+        collector.collect();
+
+        assertTrue(onboarded.exists());
+        assertTrue(synced.exists());
+        assertTrue(recent.exists());
+        assertFalse(orphan.exists());
+        assertFalse(orphanOriginal.exists());
+        assertFalse(blob.exists());
+        assertEquals(2L, collector.getStats().get("orphansRemoved").longValue());
+        assertEquals(1L, collector.getStats().get("blobsRemoved").longValue());
+        assertEquals(30L, collector.getStats().get("size").longValue());
+    }
+
+    @Test
+    public void testLeastRecentlySyncedPackagesAreEvictedAboveQuota() throws IOException {
+        ReflectionTestUtils.setField(collector, "quota", 300L);
+        File onboarded = createPackage("pkg1tenant1", 100, 5 * HOUR);
+        File oldest = createPackage("app1pkg1", 100, 4 * HOUR);
+        File newer = createPackage("app2pkg2", 100, 3 * HOUR);
+        File syncing = createPackage("app3pkg3", 100, 6 * HOUR);
+
+        collector.collect();
+
+        assertTrue(onboarded.exists());
+        assertTrue(syncing.exists());
+        assertTrue(newer.exists());
+        assertFalse(oldest.exists());
+        assertEquals(1L, collector.getStats().get("evictions").longValue());
+        assertEquals(300L, collector.getStats().get("size").longValue());
+    }
+
+    @Test
+    public void testEvictionFollowsRecordedSyncTime() throws IOException {
+        ReflectionTestUtils.setField(collector, "quota", 150L);
+        // package directory touched long ago but package synced again recently
+        synced.get("app1pkg1").setUpdateTime(LocalDateTime.now().minusMinutes(1));
+        File resynced = createPackage("app1pkg1", 100, 4 * HOUR);
+        File stale = createPackage("app2pkg2", 100, 2 * HOUR);
+
+        collector.collect();
+
+        assertTrue(resynced.exists());
+        assertFalse(stale.exists());
+        assertEquals(1L, collector.getStats().get("evictions").longValue());
+    }
+
+    private static AppPackageInfo newPackageInfo(String syncStatus, long age) {
+        AppPackageInfo pkgInfo = new AppPackageInfo();
+        pkgInfo.setSyncStatus(syncStatus);
+        pkgInfo.setUpdateTime(LocalDateTime.now().minus(age, ChronoUnit.MILLIS));
+        return pkgInfo;
+    }
+
+    private File createPackage(String name, int size, long age) throws IOException {
+        File dir = new File(baseDir, name);
+        createFile(new File(dir, "package.csar"), size, age);
+        assertTrue(dir.setLastModified(System.currentTimeMillis() - age));
+        return dir;
+    }
+
+    private static File createFile(File file, int size, long age) throws IOException {
+        FileUtils.writeByteArrayToFile(file, new byte[size]);
+        assertTrue(file.setLastModified(System.currentTimeMillis() - age));
+        return file;
+    }
+}
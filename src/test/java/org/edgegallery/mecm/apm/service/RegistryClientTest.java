@@ -0,0 +1,195 @@
+/*
+ *  Copyright 2020 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.content;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import org.edgegallery.mecm.apm.service.RegistryClient.Registry;
+import org.edgegallery.mecm.apm.utils.CancelToken;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+public class RegistryClientTest {
+
+    private static final String MANIFEST_TYPE = "application/vnd.docker.distribution.manifest.v2+json";
+    private static final String CONFIG = "sha256:1111";
+    private static final String LAYER = "sha256:2222";
+    private static final String SOURCE = "http://source.io/v2/app/nginx";
+    private static final String TARGET = "http://mecm.io/v2/mecm/nginx";
+    private static final String MANIFEST = "{\"schemaVersion\":2,\"mediaType\":\"" + MANIFEST_TYPE + "\","
+            + "\"config\":{\"digest\":\"" + CONFIG + "\"},\"layers\":[{\"digest\":\"" + LAYER + "\"}]}";
+
+    private RegistryClient registryClient;
+
+    private MockRestServiceServer server;
+
+    private DbService dbService;
+
+    @Before
+    public void setUp() {
+        registryClient = new RegistryClient();
+        dbService = mock(DbService.class);
+        ReflectionTestUtils.setField(registryClient, "isSslEnabled", "false");
+        ReflectionTestUtils.setField(registryClient, "dbService", dbService);
+        RestTemplate restTemplate = (RestTemplate) ReflectionTestUtils.getField(registryClient, "restTemplate");
+        server = MockRestServiceServer.bindTo(restTemplate).build();
+    }
+
+    @Test
+    public void testCopyImageSkipsPresentBlobs() {
+        HttpHeaders challenge = new HttpHeaders();
+        challenge.set(HttpHeaders.WWW_AUTHENTICATE,
+                "Bearer realm=\"http://auth.io/token\",service=\"source.io\",scope=\"repository:app/nginx:pull\"");
+        server.expect(requestTo(SOURCE + "/manifests/1.0")).andExpect(method(HttpMethod.GET))
+                .andRespond(withStatus(HttpStatus.UNAUTHORIZED).headers(challenge));
+        server.expect(requestTo("http://auth.io/token?service=source.io&scope=repository:app/nginx:pull"))
+                .andExpect(header(HttpHeaders.AUTHORIZATION, "Basic dXNlcjpwYXNz"))
+                .andRespond(withSuccess("{\"token\":\"abc\"}", MediaType.APPLICATION_JSON));
+        server.expect(requestTo(SOURCE + "/manifests/1.0")).andExpect(header(HttpHeaders.AUTHORIZATION, "Bearer abc"))
+                .andRespond(withSuccess(MANIFEST, MediaType.parseMediaType(MANIFEST_TYPE)));
+
+        server.expect(requestTo(TARGET + "/blobs/" + CONFIG)).andExpect(method(HttpMethod.HEAD))
+                .andRespond(withSuccess());
+        server.expect(requestTo(TARGET + "/blobs/" + LAYER)).andExpect(method(HttpMethod.HEAD))
+                .andRespond(withStatus(HttpStatus.NOT_FOUND));
+        server.expect(requestTo(TARGET + "/blobs/uploads/")).andExpect(method(HttpMethod.POST))
+                .andRespond(withStatus(HttpStatus.ACCEPTED)
+                        .location(URI.create("/v2/mecm/nginx/blobs/uploads/1?_state=a%3D")));
+        server.expect(requestTo(SOURCE + "/blobs/" + LAYER)).andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess("layer", MediaType.APPLICATION_OCTET_STREAM));
+        server.expect(requestTo(TARGET + "/blobs/uploads/1?_state=a%3D&digest=" + LAYER))
+                .andExpect(method(HttpMethod.PUT)).andExpect(content().string("layer"))
+                .andRespond(withStatus(HttpStatus.CREATED));
+        server.expect(requestTo(TARGET + "/manifests/1.0")).andExpect(method(HttpMethod.PUT))
+                .andExpect(content().contentType(MANIFEST_TYPE))
+                .andExpect(content().bytes(MANIFEST.getBytes(StandardCharsets.UTF_8)))
+                .andRespond(withStatus(HttpStatus.CREATED));
+
+        int transferred = registryClient.copyImage(new Registry("source.io", "user", "pass"), "app/nginx", "1.0",
+                new Registry("mecm.io", "admin", "admin"), "mecm/nginx", "1.0", new CancelToken());
+
+        assertEquals(1, transferred);
+        server.verify();
+        verify(dbService).addRepoBlob("mecm.io", CONFIG, "mecm/nginx");
+        verify(dbService).addRepoBlob("mecm.io", LAYER, "mecm/nginx");
+    }
+
+    @Test
+    public void testCopyImageMountsBlobsOfSameRegistry() {
+        String source = "http://mecm.io/v2/app/nginx";
+        server.expect(requestTo(source + "/manifests/1.0"))
+                .andRespond(withSuccess(MANIFEST, MediaType.parseMediaType(MANIFEST_TYPE)));
+        server.expect(requestTo(TARGET + "/blobs/" + CONFIG)).andRespond(withStatus(HttpStatus.NOT_FOUND));
+        server.expect(requestTo(TARGET + "/blobs/uploads/?mount=" + CONFIG + "&from=app/nginx"))
+                .andExpect(method(HttpMethod.POST)).andRespond(withStatus(HttpStatus.CREATED));
+        server.expect(requestTo(TARGET + "/blobs/" + LAYER)).andRespond(withStatus(HttpStatus.NOT_FOUND));
+        server.expect(requestTo(TARGET + "/blobs/uploads/?mount=" + LAYER + "&from=app/nginx"))
+                .andExpect(method(HttpMethod.POST)).andRespond(withStatus(HttpStatus.CREATED));
+        server.expect(requestTo(TARGET + "/manifests/1.0")).andExpect(method(HttpMethod.PUT))
+                .andRespond(withStatus(HttpStatus.CREATED));
+
+        Registry registry = new Registry("mecm.io", "admin", "admin");
+        assertEquals(0, registryClient.copyImage(registry, "app/nginx", "1.0", registry, "mecm/nginx", "1.0",
+                new CancelToken()));
+        server.verify();
+    }
+
+    @Test
+    public void testCopyImageMountsBlobsKnownInOtherRepository() {
+        when(dbService.getRepositoryOfBlob("mecm.io", CONFIG)).thenReturn("mecm/nginx-old");
+        when(dbService.getRepositoryOfBlob("mecm.io", LAYER)).thenReturn("mecm/nginx-gone");
+        server.expect(requestTo(SOURCE + "/manifests/2.0"))
+                .andRespond(withSuccess(MANIFEST, MediaType.parseMediaType(MANIFEST_TYPE)));
+        server.expect(requestTo(TARGET + "/blobs/" + CONFIG)).andRespond(withStatus(HttpStatus.NOT_FOUND));
+        server.expect(requestTo(TARGET + "/blobs/uploads/?mount=" + CONFIG + "&from=mecm/nginx-old"))
+                .andRespond(withStatus(HttpStatus.CREATED));
+        server.expect(requestTo(TARGET + "/blobs/" + LAYER)).andRespond(withStatus(HttpStatus.NOT_FOUND));
+        server.expect(requestTo(TARGET + "/blobs/uploads/?mount=" + LAYER + "&from=mecm/nginx-gone"))
+                .andRespond(withStatus(HttpStatus.ACCEPTED).location(URI.create("/v2/mecm/nginx/blobs/uploads/2")));
+        server.expect(requestTo(SOURCE + "/blobs/" + LAYER))
+                .andRespond(withSuccess("layer", MediaType.APPLICATION_OCTET_STREAM));
+        server.expect(requestTo(TARGET + "/blobs/uploads/2?digest=" + LAYER)).andExpect(method(HttpMethod.PUT))
+                .andRespond(withStatus(HttpStatus.CREATED));
+        server.expect(requestTo(TARGET + "/manifests/2.0")).andExpect(method(HttpMethod.PUT))
+                .andRespond(withStatus(HttpStatus.CREATED));
+
+        int transferred = registryClient.copyImage(new Registry("source.io", "", ""), "app/nginx", "2.0",
+                new Registry("mecm.io", "admin", "admin"), "mecm/nginx", "2.0", new CancelToken());
+
+        assertEquals(1, transferred);
+        server.verify();
+        verify(dbService).deleteRepoBlob("mecm.io", LAYER);
+        verify(dbService).addRepoBlob("mecm.io", LAYER, "mecm/nginx");
+    }
+
+    @Test
+    public void testBlobCopyRestartsWhenUploadIsRejectedAfterStreaming() {
+        HttpHeaders challenge = new HttpHeaders();
+        challenge.set(HttpHeaders.WWW_AUTHENTICATE,
+                "Bearer realm=\"http://auth.io/token\",service=\"mecm.io\",scope=\"repository:mecm/nginx:push\"");
+        server.expect(requestTo(SOURCE + "/manifests/1.0"))
+                .andRespond(withSuccess(MANIFEST, MediaType.parseMediaType(MANIFEST_TYPE)));
+        server.expect(requestTo(TARGET + "/blobs/" + CONFIG)).andRespond(withSuccess());
+        server.expect(requestTo(TARGET + "/blobs/" + LAYER)).andRespond(withStatus(HttpStatus.NOT_FOUND));
+        server.expect(requestTo(TARGET + "/blobs/uploads/")).andExpect(method(HttpMethod.POST))
+                .andRespond(withStatus(HttpStatus.ACCEPTED).location(URI.create("/v2/mecm/nginx/blobs/uploads/1")));
+        server.expect(requestTo(SOURCE + "/blobs/" + LAYER))
+                .andRespond(withSuccess("layer", MediaType.APPLICATION_OCTET_STREAM));
+        server.expect(requestTo(TARGET + "/blobs/uploads/1?digest=" + LAYER)).andExpect(method(HttpMethod.PUT))
+                .andExpect(content().string("layer"))
+                .andRespond(withStatus(HttpStatus.UNAUTHORIZED).headers(challenge));
+        server.expect(requestTo("http://auth.io/token?service=mecm.io&scope=repository:mecm/nginx:push"))
+                .andRespond(withSuccess("{\"token\":\"renewed\"}", MediaType.APPLICATION_JSON));
+
+        // whole copy is repeated with a fresh stream instead of replaying the consumed one
+        server.expect(requestTo(TARGET + "/blobs/" + LAYER)).andExpect(header(HttpHeaders.AUTHORIZATION,
+                "Bearer renewed")).andRespond(withStatus(HttpStatus.NOT_FOUND));
+        server.expect(requestTo(TARGET + "/blobs/uploads/")).andExpect(method(HttpMethod.POST))
+                .andRespond(withStatus(HttpStatus.ACCEPTED).location(URI.create("/v2/mecm/nginx/blobs/uploads/2")));
+        server.expect(requestTo(SOURCE + "/blobs/" + LAYER))
+                .andRespond(withSuccess("layer", MediaType.APPLICATION_OCTET_STREAM));
+        server.expect(requestTo(TARGET + "/blobs/uploads/2?digest=" + LAYER)).andExpect(method(HttpMethod.PUT))
+                .andExpect(header(HttpHeaders.AUTHORIZATION, "Bearer renewed"))
+                .andExpect(content().string("layer")).andRespond(withStatus(HttpStatus.CREATED));
+        server.expect(requestTo(TARGET + "/manifests/1.0")).andExpect(method(HttpMethod.PUT))
+                .andRespond(withStatus(HttpStatus.CREATED));
+
+        int transferred = registryClient.copyImage(new Registry("source.io", "", ""), "app/nginx", "1.0",
+                new Registry("mecm.io", "admin", "admin"), "mecm/nginx", "1.0", new CancelToken());
+
+        assertEquals(1, transferred);
+        server.verify();
+    }
+}
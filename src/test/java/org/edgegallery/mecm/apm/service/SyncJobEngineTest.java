@@ -0,0 +1,220 @@
+/*
+ *  Copyright 2021 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package org.edgegallery.mecm.apm.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.edgegallery.mecm.apm.model.PkgSyncInfo;
+import org.edgegallery.mecm.apm.utils.CancelToken;
+import org.edgegallery.mecm.apm.utils.Constants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class SyncJobEngineTest {
+
+    private static final String APP_ID = "e261211d80d04cb6aed00e5cd1f2cd11";
+
+    @InjectMocks
+    private SyncJobEngine engine;
+
+    @Mock
+    private DbService dbService;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        executor = Executors.newFixedThreadPool(4);
+        ReflectionTestUtils.setField(engine, "syncExecutor", executor);
+        ReflectionTestUtils.setField(engine, "perAppstoreLimit", 2);
+        ReflectionTestUtils.setField(engine, "packageTimeout", 60000L);
+        ReflectionTestUtils.setField(engine, "jobRetention", 60000L);
+        engine.start();
+    }
+
+    @After
+    public void tearDown() {
+        engine.stop();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testPackagesOfAppstoreSyncedWithinLimit() throws Exception {
+        List<PkgSyncInfo> done = new CopyOnWriteArrayList<>();
+        List<String> errors = new CopyOnWriteArrayList<>();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        String jobId = engine.submit(packages("1.1.1.1", 5), (pkg, cancel) -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            sleep(50);
+            running.decrementAndGet();
+            if (pkg.getPackageId().endsWith("3")) {
+                throw new IllegalArgumentException("invalid package");
+            }
+            return !pkg.getPackageId().endsWith("4");
+        }, (pkg, error) -> {
+            if (error != null) {
+                errors.add(pkg.getPackageId().substring(31) + ":" + error);
+            }
+            done.add(pkg);
+        });
+
+        Map<String, Integer> states = awaitFinished(jobId);
+        assertEquals(2, maxRunning.get());
+        assertEquals(Integer.valueOf(3), states.get(SyncJobEngine.SUCCEEDED));
+        assertEquals(Integer.valueOf(2), states.get(SyncJobEngine.FAILED));
+        assertEquals(0, engine.getActiveJobCount());
+        assertEquals(5, awaitSize(done, 5));
+        Collections.sort(errors);
+        assertEquals(Arrays.asList("3:invalid package", "4:sync failed"), errors);
+    }
+
+    @Test
+    public void testPackageTimesOutAndQueuedPackageIsCancelled() throws Exception {
+        ReflectionTestUtils.setField(engine, "perAppstoreLimit", 1);
+        ReflectionTestUtils.setField(engine, "packageTimeout", 200L);
+        List<PkgSyncInfo> done = new CopyOnWriteArrayList<>();
+        List<String> errors = new CopyOnWriteArrayList<>();
+        CountDownLatch started = new CountDownLatch(1);
+        List<PkgSyncInfo> pkgs = packages("1.1.1.1", 2);
+        String jobId = engine.submit(pkgs, (pkg, cancel) -> {
+            started.countDown();
+            sleep(60000);
+            return true;
+        }, (pkg, error) -> {
+            if (error != null) {
+                errors.add(error);
+            }
+            done.add(pkg);
+        });
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(engine.cancel(jobId, APP_ID, pkgs.get(1).getPackageId()));
+
+        Map<String, Integer> states = awaitFinished(jobId);
+        assertEquals(Integer.valueOf(1), states.get(SyncJobEngine.TIMED_OUT));
+        assertEquals(Integer.valueOf(1), states.get(SyncJobEngine.CANCELLED));
+        verify(dbService, timeout(5000)).updateAppPackageSyncStatus(APP_ID, pkgs.get(0).getPackageId(),
+                Constants.APP_SYNC_FAILED, "sync timed out");
+        verify(dbService).updateAppPackageSyncStatus(APP_ID, pkgs.get(1).getPackageId(),
+                Constants.APP_SYNC_FAILED, "sync cancelled");
+        assertEquals(2, awaitSize(done, 2));
+        // aborted packages are not retried
+        assertTrue(errors.isEmpty());
+    }
+
+    @Test
+    public void testCancelFreesAppstoreSlotOfBlockedSync() throws Exception {
+        ReflectionTestUtils.setField(engine, "perAppstoreLimit", 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch secondStarted = new CountDownLatch(1);
+        CountDownLatch unblock = new CountDownLatch(1);
+        List<CancelToken> tokens = new CopyOnWriteArrayList<>();
+        List<PkgSyncInfo> pkgs = packages("1.1.1.1", 2);
+        String jobId = engine.submit(pkgs, (pkg, cancel) -> {
+            tokens.add(cancel);
+            if (pkg == pkgs.get(1)) {
+                secondStarted.countDown();
+                return true;
+            }
+            started.countDown();
+            // blocks like a transfer which ignores interrupts
+            while (true) {
+                try {
+                    unblock.await();
+                    return true;
+                } catch (InterruptedException e) {
+                    // keeps waiting
+                }
+            }
+        }, (pkg, error) -> { });
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(engine.cancel(jobId, APP_ID, pkgs.get(0).getPackageId()));
+
+        assertTrue(secondStarted.await(5, TimeUnit.SECONDS));
+        assertTrue(tokens.get(0).isCancelled());
+        assertEquals("sync cancelled", tokens.get(0).getReason());
+        verify(dbService, never()).updateAppPackageSyncStatus(APP_ID, pkgs.get(0).getPackageId(),
+                Constants.APP_SYNC_FAILED, "sync cancelled");
+
+        unblock.countDown();
+        Map<String, Integer> states = awaitFinished(jobId);
+        assertEquals(Integer.valueOf(1), states.get(SyncJobEngine.CANCELLED));
+        assertEquals(Integer.valueOf(1), states.get(SyncJobEngine.SUCCEEDED));
+        verify(dbService, timeout(5000)).updateAppPackageSyncStatus(APP_ID, pkgs.get(0).getPackageId(),
+                Constants.APP_SYNC_FAILED, "sync cancelled");
+    }
+
+    private static List<PkgSyncInfo> packages(String appstoreIp, int count) {
+        PkgSyncInfo[] pkgs = new PkgSyncInfo[count];
+        for (int i = 0; i < count; i++) {
+            pkgs[i] = new PkgSyncInfo(String.format("%031d%d", 0, i), APP_ID, appstoreIp, "8099", null);
+        }
+        return Arrays.asList(pkgs);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Integer> awaitFinished(String jobId) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            Map<String, Integer> states = (Map<String, Integer>) engine.getProgress(jobId).get("states");
+            boolean finished = states.get(SyncJobEngine.QUEUED) == 0 && states.get(SyncJobEngine.RUNNING) == 0;
+            if (finished || System.currentTimeMillis() > deadline) {
+                return states;
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    private static int awaitSize(List<PkgSyncInfo> list, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (list.size() < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        return list.size();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
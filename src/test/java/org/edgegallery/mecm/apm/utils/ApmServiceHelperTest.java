@@ -26,12 +26,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.List;
 import javax.validation.ConstraintViolationException;
-import org.apache.commons.io.IOUtils;
 import org.edgegallery.mecm.apm.exception.ApmException;
 import org.edgegallery.mecm.apm.model.dto.MecHostDto;
 import org.junit.jupiter.api.Test;
@@ -74,27 +72,6 @@ class ApmServiceHelperTest {
         }
     }
 
-    @Test
-    void testSaveInputStreamToFile() throws IOException {
-        File file = ResourceUtils.getFile("classpath:packages");
-        InputStream inputStream = IOUtils.toInputStream("mock data for test", "UTF-8");
-        String response = ApmServiceHelper.saveInputStreamToFile(inputStream, PACKAGE_ID, TENANT_ID, file.getPath());
-        assertNotNull(response);
-        File responseFile = new File(response);
-        assertTrue(responseFile.exists());
-
-        // clean up
-        Files.deleteIfExists(Paths.get(response));
-    }
-
-    @Test
-    void testSaveNullInputStreamToFile() throws IOException {
-        File file = ResourceUtils.getFile("classpath:packages");
-        String localFilePath = file.getPath();
-        assertThrows(ApmException.class, () -> ApmServiceHelper.saveInputStreamToFile(null,
-                PACKAGE_ID, TENANT_ID, localFilePath));
-    }
-
     @Test
     void testGetMainServiceYamlInvalid() throws IOException {
         File file = ResourceUtils.getFile("classpath:22406fba-fd5d-4f55-b3fa-89a45fee913b.csar");
@@ -0,0 +1,63 @@
+/*
+ *  Copyright 2021 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.edgegallery.mecm.apm.exception.ApmException;
+import org.junit.jupiter.api.Test;
+
+class CancelTokenTest {
+
+    @Test
+    void testListenersRunOnce() {
+        CancelToken cancel = new CancelToken();
+        AtomicInteger runs = new AtomicInteger();
+        Runnable removed = runs::incrementAndGet;
+        cancel.addListener(runs::incrementAndGet);
+        cancel.addListener(removed);
+        cancel.removeListener(removed);
+
+        assertTrue(cancel.cancel("sync cancelled"));
+        assertFalse(cancel.cancel("sync timed out"));
+        assertEquals(1, runs.get());
+        assertEquals("sync cancelled", cancel.getReason());
+
+        // listener added after cancellation is run at once
+        cancel.addListener(runs::incrementAndGet);
+        assertEquals(2, runs.get());
+        ApmException e = assertThrows(ApmException.class, cancel::throwIfCancelled);
+        assertEquals("sync cancelled", e.getMessage());
+    }
+
+    @Test
+    void testGuardedStreamFailsOnceCancelled() throws IOException {
+        CancelToken cancel = new CancelToken();
+        InputStream in = cancel.guard(new ByteArrayInputStream(new byte[] {1, 2, 3}));
+
+        assertEquals(1, in.read());
+        cancel.cancel("sync cancelled");
+        assertThrows(IOException.class, () -> in.read(new byte[2], 0, 2));
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ *  Copyright 2020 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.edgegallery.mecm.apm.exception.ApmException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.ResourceUtils;
+
+class CompressUtilityTest {
+
+    private static final String ROOT = "22406fba-fd5d-4f55-b3fa-89a45fee913a/";
+    private static final String CHART = "7e9b913f-748a-42b7-a088-abe3f750f04c";
+
+    private File dir;
+
+    private File csar;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("apm").toFile();
+        csar = ResourceUtils.getFile("classpath:22406fba-fd5d-4f55-b3fa-89a45fee913a.csar");
+    }
+
+    @AfterEach
+    void tearDown() {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    @Test
+    void testUnzipApplicationPackage() throws IOException {
+        PackageIndex index = new PackageIndex();
+        CompressUtility.unzipApplicationPacakge(csar.getPath(), dir.getPath(), index);
+
+        int files = 0;
+        try (ZipFile zipFile = new ZipFile(csar)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                files++;
+                try (InputStream inputStream = zipFile.getInputStream(entry)) {
+                    assertArrayEquals(IOUtils.toByteArray(inputStream),
+                            FileUtils.readFileToByteArray(new File(dir, entry.getName())));
+                }
+            }
+        }
+        assertEquals(files, index.size());
+    }
+
+    @Test
+    void testUnzipInvalidPackage() throws IOException {
+        File invalid = new File(dir, "invalid.csar");
+        FileUtils.writeStringToFile(invalid, "not a zip", "UTF-8");
+        String intendedDir = new File(dir, "invalid").getPath();
+        assertThrows(ApmException.class, () -> CompressUtility.unzipApplicationPacakge(invalid.getPath(),
+                intendedDir));
+    }
+
+    @Test
+    void testUnzipRejectsHighlyCompressedEntry() throws IOException {
+        File bomb = new File(dir, "bomb.zip");
+        writeZip(bomb, "zeros.bin", new byte[4 * 1024 * 1024]);
+        String intendedDir = new File(dir, "bomb").getPath();
+        assertThrows(IllegalStateException.class, () -> CompressUtility.unzipApplicationPacakge(bomb.getPath(),
+                intendedDir, null, new UnzipLimits(Long.MAX_VALUE, Long.MAX_VALUE, 100)));
+        CompressUtility.unzipApplicationPacakge(bomb.getPath(), intendedDir, null,
+                new UnzipLimits(Long.MAX_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE));
+        assertEquals(4 * 1024 * 1024, new File(intendedDir, "zeros.bin").length());
+    }
+
+    @Test
+    void testUnzipRejectsEntryAboveConfiguredSize() {
+        String intendedDir = new File(dir, "pkg").getPath();
+        assertThrows(IllegalStateException.class, () -> CompressUtility.unzipApplicationPacakge(csar.getPath(),
+                intendedDir, null, new UnzipLimits(16, Long.MAX_VALUE, Integer.MAX_VALUE)));
+    }
+
+    @Test
+    void testCompressAppPackage() throws IOException {
+        File pkgDir = new File(dir, "pkg");
+        CompressUtility.unzipApplicationPacakge(csar.getPath(), pkgDir.getPath());
+        File output = new File(dir, "out.csar");
+        CompressUtility.compressAppPackage(pkgDir.getPath(), output.getPath());
+
+        int stored = 0;
+        try (ZipFile original = new ZipFile(csar); ZipFile zipFile = new ZipFile(output)) {
+            Enumeration<? extends ZipEntry> entries = original.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                ZipEntry copied = zipFile.getEntry(entry.getName());
+                if (copied.getMethod() == ZipEntry.STORED) {
+                    stored++;
+                }
+                try (InputStream expected = original.getInputStream(entry);
+                     InputStream actual = zipFile.getInputStream(copied)) {
+                    assertArrayEquals(IOUtils.toByteArray(expected), IOUtils.toByteArray(actual));
+                }
+            }
+        }
+        assertTrue(stored > 0);
+    }
+
+    @Test
+    void testRewriteAppPackage() throws IOException {
+        File original = new File(dir, "pkg.orig.csar");
+        FileUtils.copyFile(csar, original);
+        File pkgDir = new File(dir, "pkg");
+        CompressUtility.unzipApplicationPacakge(original.getPath(), pkgDir.getPath());
+
+        File meta = new File(pkgDir, ROOT + "TOSCA-Metadata/TOSCA.meta");
+        FileUtils.writeStringToFile(meta, "modified", "UTF-8");
+        FileUtils.deleteQuietly(new File(pkgDir, ROOT + "MainServiceTemplate.mf"));
+        FileUtils.writeStringToFile(new File(pkgDir, ROOT + "Artifacts/new.txt"), "new", "UTF-8");
+
+        File output = new File(dir, "out.csar");
+        CompressUtility.rewriteAppPackage(original.getPath(), pkgDir.getPath(), output.getPath());
+
+        assertFalse(original.exists());
+        try (ZipFile source = new ZipFile(csar); ZipFile zipFile = new ZipFile(output)) {
+            assertNull(zipFile.getEntry(ROOT + "MainServiceTemplate.mf"));
+            assertEquals("new", readEntry(zipFile, ROOT + "Artifacts/new.txt"));
+            assertEquals("modified", readEntry(zipFile, ROOT + "TOSCA-Metadata/TOSCA.meta"));
+
+            ZipEntry unchanged = source.getEntry(ROOT + "Definitions/MainServiceTemplate.yaml");
+            ZipEntry copied = zipFile.getEntry(unchanged.getName());
+            assertEquals(unchanged.getCompressedSize(), copied.getCompressedSize());
+            assertEquals(readEntry(source, unchanged.getName()), readEntry(zipFile, copied.getName()));
+        }
+    }
+
+    @Test
+    void testTransformTarEntry() throws IOException {
+        CompressUtility.unzipApplicationPacakge(csar.getPath(), dir.getPath());
+        File chart = new File(dir, ROOT + "Artifacts/Deployment/Charts/" + CHART + ".tgz");
+        File output = new File(dir, "out.tgz");
+
+        assertEquals(CHART, CompressUtility.transformTarEntry(chart, output, "values.yaml",
+                content -> "imageLocation: {}".getBytes(StandardCharsets.UTF_8)));
+
+        Map<String, String> entries = new HashMap<>();
+        try (TarArchiveInputStream tis = new TarArchiveInputStream(new GzipCompressorInputStream(
+                new FileInputStream(output)))) {
+            TarArchiveEntry entry;
+            while ((entry = tis.getNextTarEntry()) != null) {
+                entries.put(entry.getName(), IOUtils.toString(tis, StandardCharsets.UTF_8));
+            }
+        }
+        assertEquals(4, entries.size());
+        assertEquals("imageLocation: {}", entries.get(CHART + "/values.yaml"));
+        assertTrue(entries.get(CHART + "/Chart.yaml").contains("name"));
+
+        assertNull(CompressUtility.transformTarEntry(chart, output, "missing.yaml", content -> content));
+    }
+
+    private static void writeZip(File file, String name, byte[] content) throws IOException {
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file))) {
+            zos.putNextEntry(new ZipEntry(name));
+            zos.write(content);
+            zos.closeEntry();
+        }
+    }
+
+    private static String readEntry(ZipFile zipFile, String name) throws IOException {
+        try (InputStream inputStream = zipFile.getInputStream(zipFile.getEntry(name))) {
+            return IOUtils.toString(inputStream, "UTF-8");
+        }
+    }
+}
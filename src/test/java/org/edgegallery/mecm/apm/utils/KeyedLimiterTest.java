@@ -0,0 +1,89 @@
+/*
+ *  Copyright 2020 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class KeyedLimiterTest {
+
+    @Test
+    void testLimitIsPerKey() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            KeyedLimiter limiter = new KeyedLimiter(() -> 2, executor);
+            Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+            Map<String, AtomicInteger> maxRunning = new ConcurrentHashMap<>();
+            CountDownLatch done = new CountDownLatch(8);
+            for (int i = 0; i < 8; i++) {
+                String key = i < 6 ? "a" : "b";
+                limiter.submit(key, slot -> {
+                    int now = running.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+                    maxRunning.computeIfAbsent(key, k -> new AtomicInteger()).accumulateAndGet(now, Math::max);
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.get(key).decrementAndGet();
+                    done.countDown();
+                });
+            }
+
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(2, maxRunning.get("a").get());
+            assertEquals(2, maxRunning.get("b").get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testReleasedSlotStartsNextTask() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            KeyedLimiter limiter = new KeyedLimiter(() -> 1, executor);
+            CountDownLatch blocked = new CountDownLatch(1);
+            CountDownLatch next = new CountDownLatch(1);
+            limiter.submit("a", slot -> {
+                slot.release();
+                slot.release();
+                try {
+                    blocked.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            limiter.submit("a", slot -> next.countDown());
+
+            // second task starts while first one still runs
+            assertTrue(next.await(5, TimeUnit.SECONDS));
+            blocked.countDown();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
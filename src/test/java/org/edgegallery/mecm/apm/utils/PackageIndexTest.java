@@ -0,0 +1,86 @@
+/*
+ *  Copyright 2020 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.function.UnaryOperator;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.ResourceUtils;
+
+class PackageIndexTest {
+
+    private static final UnaryOperator<String> EXTENSION_OF = path -> path.endsWith(".tar.gz") ? "tar.gz"
+            : FilenameUtils.getExtension(path);
+
+    private File dir;
+
+    private PackageIndex index;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("apm").toFile();
+        index = new PackageIndex();
+        File csar = ResourceUtils.getFile("classpath:22406fba-fd5d-4f55-b3fa-89a45fee913a.csar");
+        CompressUtility.unzipApplicationPacakge(csar.getPath(), dir.getPath(), index);
+    }
+
+    @AfterEach
+    void tearDown() {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    @Test
+    void testLookupFromExtraction() throws IOException {
+        File meta = index.findInDir(dir.getCanonicalPath(), "TOSCA.meta");
+        assertNotNull(meta);
+        assertTrue(meta.exists());
+
+        File charts = index.find("/Artifacts/Deployment/Charts/", "tar", EXTENSION_OF);
+        assertNotNull(charts);
+        assertTrue(charts.getName().endsWith(".tgz"));
+        assertNotNull(index.find(".mf", "mf", EXTENSION_OF));
+        assertNull(index.find("Image/SwImageDesc", "json", EXTENSION_OF));
+
+        assertEquals(PackageIndex.scan(dir.getPath()).size(), index.size());
+    }
+
+    @Test
+    void testRemove() throws IOException {
+        File charts = index.find("/Artifacts/Deployment/Charts/", "tar", EXTENSION_OF);
+        index.remove(charts.getParentFile().getCanonicalPath());
+
+        assertNull(index.find("/Artifacts/Deployment/Charts/", "tar", EXTENSION_OF));
+        assertNotNull(index.find(".mf", "mf", EXTENSION_OF));
+    }
+
+    @Test
+    void testScanMissingDir() {
+        assertThrows(IllegalArgumentException.class, () -> PackageIndex.scan(dir.getPath() + "/missing"));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *  Copyright 2020 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PackageStoreTest {
+
+    private static final String DIGEST = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    private static final byte[] CONTENT = "test".getBytes(StandardCharsets.UTF_8);
+
+    private File baseDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        baseDir = Files.createTempDirectory("apm").toFile();
+    }
+
+    @AfterEach
+    void tearDown() {
+        FileUtils.deleteQuietly(baseDir);
+    }
+
+    @Test
+    void testPackagesOfTenantsShareStoredBlob() throws IOException {
+        File tenant1 = writePackage("pkgtenant1");
+        File tenant2 = writePackage("pkgtenant2");
+
+        File blob = PackageStore.store(baseDir.getPath(), tenant1, DIGEST);
+        assertEquals(blob, PackageStore.store(baseDir.getPath(), tenant2, DIGEST));
+
+        assertTrue(Files.isSameFile(blob.toPath(), tenant1.toPath()));
+        assertTrue(Files.isSameFile(blob.toPath(), tenant2.toPath()));
+        assertArrayEquals(CONTENT, Files.readAllBytes(tenant2.toPath()));
+        assertEquals(1, PackageStore.getStoreDir(baseDir.getPath()).list().length);
+    }
+
+    @Test
+    void testGetBlob() throws IOException {
+        assertNull(PackageStore.getBlob(baseDir.getPath(), DIGEST, CONTENT.length));
+
+        File blob = PackageStore.store(baseDir.getPath(), writePackage("pkg"), DIGEST);
+        assertEquals(blob, PackageStore.getBlob(baseDir.getPath(), DIGEST, CONTENT.length));
+        assertNull(PackageStore.getBlob(baseDir.getPath(), DIGEST, CONTENT.length + 1));
+
+        File file = new File(baseDir, "pkgtenant3/pkg.csar");
+        assertTrue(file.getParentFile().mkdirs());
+        PackageStore.link(blob, file);
+        assertTrue(Files.isSameFile(blob.toPath(), file.toPath()));
+    }
+
+    @Test
+    void testInvalidDigest() {
+        assertThrows(IllegalArgumentException.class, () -> PackageStore.getBlob(baseDir.getPath(),
+                "../../etc/passwd", 0));
+    }
+
+    private File writePackage(String dir) throws IOException {
+        File file = new File(baseDir, dir + "/pkg.csar");
+        assertTrue(file.getParentFile().mkdirs());
+        Files.write(file.toPath(), CONTENT);
+        return file;
+    }
+}
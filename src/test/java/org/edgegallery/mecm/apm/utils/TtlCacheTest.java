@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2020 Huawei Technologies Co., Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.edgegallery.mecm.apm.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class TtlCacheTest {
+
+    @Test
+    void testHitAndMiss() {
+        TtlCache<String, String> cache = new TtlCache<>(60000, 10);
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals("value", cache.get("key", key -> {
+            loads.incrementAndGet();
+            return "value";
+        }));
+        assertEquals("value", cache.get("key", key -> "other" + loads.getAndIncrement()));
+        assertEquals(1, loads.get());
+        assertEquals(1L, cache.getStats().get("hits").longValue());
+        assertEquals(1L, cache.getStats().get("misses").longValue());
+
+        cache.invalidate("key");
+        assertNull(cache.getIfPresent("key"));
+    }
+
+    @Test
+    void testSizeBound() {
+        TtlCache<String, String> cache = new TtlCache<>(60000, 2);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.getIfPresent("a");
+        cache.put("c", "3");
+
+        assertEquals("1", cache.getIfPresent("a"));
+        assertNull(cache.getIfPresent("b"));
+        assertEquals(1L, cache.getStats().get("evictions").longValue());
+        assertEquals(2L, cache.getStats().get("size").longValue());
+    }
+
+    @Test
+    void testDisabledCache() {
+        TtlCache<String, String> cache = new TtlCache<>(0, 10);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("key", key -> "value" + loads.getAndIncrement());
+        cache.get("key", key -> "value" + loads.getAndIncrement());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void testConcurrentLookupsShareLoad() throws Exception {
+        TtlCache<String, String> cache = new TtlCache<>(0, 10);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> cache.get("key", key -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "value";
+        }));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        CompletableFuture<String> second = CompletableFuture.supplyAsync(() -> cache.get("key",
+            key -> "other" + loads.incrementAndGet()));
+        // second lookup waits on the load in progress
+        Thread.sleep(100);
+        release.countDown();
+
+        assertEquals("value", first.get(5, TimeUnit.SECONDS));
+        assertEquals("value", second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void testInvalidationDiscardsLoadInProgress() throws Exception {
+        TtlCache<String, String> cache = new TtlCache<>(60000, 10);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> stale = CompletableFuture.supplyAsync(() -> cache.get("key", key -> {
+            loading.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "stale";
+        }));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        cache.invalidateIf(key -> key.startsWith("k"));
+        release.countDown();
+
+        assertEquals("stale", stale.get(5, TimeUnit.SECONDS));
+        assertNull(cache.getIfPresent("key"));
+        assertEquals("fresh", cache.get("key", key -> "fresh"));
+    }
+}